@@ -0,0 +1,449 @@
+package bot;
+
+import java.util.Arrays;
+
+import model.Direction;
+import model.GameModel;
+import model.InputPolicy;
+import model.Occupancy;
+import model.Player;
+import model.SnakeBody;
+import model.Topology;
+
+/**
+ * Plays the game on its own. Every tick it runs an A* search from the head of
+ * the player to the closest apple over the cells of the board's topology, so
+ * it knows about obstacles and boards that wrap around. A cell of the
+ * player's own body counts as free once the tail has moved off it by the time
+ * the search gets there. Before taking the path it works out where the body
+ * would be after eating and checks that the tail can still be reached from
+ * there, so the snake never eats its way into a dead end. If there is no safe
+ * path it follows its tail the long way round, picking the step whose path
+ * back to the tail is longest, and as a last resort the step that leaves the
+ * most room.
+ * <p>
+ * All the search arrays are made once for the size of the grid and reused with
+ * a stamp so a decision creates no objects. The number of cells looked at per
+ * decision is capped so a tick always finishes in time, even on a 1000x1000
+ * board.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class Autopilot implements InputPolicy {
+	/**
+	 * Default number of cells a single decision may expand.
+	 */
+	public static final int DEFAULT_MAX_EXPANSIONS = 2_000_000;
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private final int maxExpansions;
+	private int width, cells, stamp, bodyStamp, expansions;
+	private int[] seen, dist, parent, bodyMark, freeAt, open, next, last, virtual;
+	private Occupancy occupancy;
+	private Topology topology;
+
+	/**
+	 * Constructor. Uses the default expansion cap.
+	 */
+	public Autopilot() {
+		this(DEFAULT_MAX_EXPANSIONS);
+	}
+
+	/**
+	 * Constructor.
+	 * @param maxExpansions number of cells one decision may look at.
+	 */
+	public Autopilot(int maxExpansions) {
+		if (maxExpansions <= 0) {
+			throw new IllegalArgumentException("expansion cap has to be positive");
+		}
+		this.maxExpansions = maxExpansions;
+	}
+
+	@Override
+	public void newGame(GameModel model, long seed) {
+		fit(model);
+	}
+
+	@Override
+	public Direction chooseHeading(GameModel model, int playerId) {
+		fit(model);
+		Player player = model.getPlayer(playerId);
+		SnakeBody body = player.getBody();
+		int growth = player.getGrowthLeft();
+		occupancy = model.getOccupancy();
+		expansions = 0;
+
+		int head = body.getHead();
+		int apple = model.getNearestApple(head);
+		markBody(body, growth);
+		int length = findPath(head, apple);
+		if (length > 0) {
+			int move = firstMove(head, apple);
+			if (safeAfterEating(body, growth, apple, length)) {
+				return DIRECTIONS[move];
+			}
+		}
+		int move = followTail(body, growth, apple);
+		if (move < 0) {
+			markBody(body, growth);
+			move = mostRoom(head, apple, player.getLength());
+		}
+		return move >= 0 ? DIRECTIONS[move] : player.getHeading();
+	}
+
+	/**
+	 * Returns the number of moves of a shortest path from start to goal on the
+	 * board of the model that only goes through free cells and apples, or -1
+	 * if there is none or the cap was hit.
+	 * @param model
+	 * @param start
+	 * @param goal
+	 * @return int moves or -1
+	 */
+	public int findPathLength(GameModel model, int start, int goal) {
+		fit(model);
+		occupancy = model.getOccupancy();
+		expansions = 0;
+		newBody();
+		return findPath(start, goal);
+	}
+
+	/**
+	 * Returns the number of cells looked at by the last decision.
+	 * @return int expansions
+	 */
+	public int getLastExpansions() {
+		return expansions;
+	}
+
+	/**
+	 * Makes the search arrays if the grid of the model is not the one they were
+	 * made for.
+	 * @param model
+	 */
+	private void fit(GameModel model) {
+		topology = model.getTopology();
+		int count = model.getGrid().getCellCount();
+		if (count == cells && model.getGridWidth() == width) {
+			return;
+		}
+		width = model.getGridWidth();
+		cells = count;
+		seen = new int[cells];
+		dist = new int[cells];
+		parent = new int[cells];
+		bodyMark = new int[cells];
+		freeAt = new int[cells];
+		open = new int[cells];
+		next = new int[cells];
+		last = new int[cells];
+		virtual = new int[cells];
+		stamp = 0;
+		bodyStamp = 0;
+	}
+
+	/**
+	 * Forgets the body marked before.
+	 */
+	private void newBody() {
+		if (++ bodyStamp == Integer.MAX_VALUE) {
+			Arrays.fill(bodyMark, 0);
+			bodyStamp = 1;
+		}
+	}
+
+	/**
+	 * Writes down for every cell of a body, given head first, the first move
+	 * at which the player could be in it. The cell at index i of a body of
+	 * size n is left after n - i moves plus any growth that is still to come,
+	 * and the collision check happens before the tail moves so it can be
+	 * entered one move after that.
+	 * @param ids
+	 * @param size
+	 * @param growth
+	 */
+	private void markCells(int[] ids, int size, int growth) {
+		for (int i = 0; i < size; i ++) {
+			bodyMark[ids[i]] = bodyStamp;
+			freeAt[ids[i]] = size - i + growth + 1;
+		}
+	}
+
+	/**
+	 * Marks the real body of the player.
+	 * @param body
+	 * @param growth
+	 */
+	private void markBody(SnakeBody body, int growth) {
+		newBody();
+		body.copyTo(virtual, 0);
+		markCells(virtual, body.size(), growth);
+	}
+
+	/**
+	 * Marks a body the player would have after some moves. The cells of the
+	 * real body it has left are marked as free.
+	 * @param body real body.
+	 * @param size size of the body in virtual.
+	 * @param growth
+	 */
+	private void markVirtualBody(SnakeBody body, int size, int growth) {
+		newBody();
+		for (int i = 0; i < body.size(); i ++) {
+			bodyMark[body.get(i)] = bodyStamp;
+			freeAt[body.get(i)] = 0;
+		}
+		markCells(virtual, size, growth);
+	}
+
+	/**
+	 * Starts a new search so old marks in seen no longer count.
+	 */
+	private void newSearch() {
+		if (++ stamp == Integer.MAX_VALUE) {
+			Arrays.fill(seen, 0);
+			stamp = 1;
+		}
+	}
+
+	/**
+	 * Returns true if the player can be in the given cell after the given
+	 * number of moves.
+	 * @param id
+	 * @param moves
+	 * @return boolean
+	 */
+	private boolean passable(int id, int moves) {
+		if (bodyMark[id] == bodyStamp) {
+			return moves >= freeAt[id];
+		}
+		return !occupancy.isOccupied(id) || occupancy.isSet(Occupancy.APPLES, id);
+	}
+
+	/**
+	 * Returns the id next to the given id in the direction with the given
+	 * index or -1 if that is off the map or an obstacle.
+	 * @param id
+	 * @param direction index into Direction.values()
+	 * @return int neighbor id or -1
+	 */
+	private int neighbor(int id, int direction) {
+		return topology.neighbor(id, direction);
+	}
+
+	/**
+	 * Manhattan distance between two cells, the short way round on a torus.
+	 * @param a
+	 * @param b
+	 * @return int distance
+	 */
+	private int distance(int a, int b) {
+		return topology.distance(a, b);
+	}
+
+	/**
+	 * A* search from start to goal. On a grid where every step costs one and
+	 * the heuristic is the Manhattan distance a step either keeps the f value
+	 * or raises it by two. On a torus with an odd side a step across the far
+	 * side of that ring leaves the distance the same and raises f by one, so
+	 * the open list is three stacks: one each for the current f and the two
+	 * after it. Returns the number of moves of a shortest path or -1 if there
+	 * is none or the cap was hit. The path can be walked back from the goal
+	 * with parent.
+	 * @param start
+	 * @param goal
+	 * @return int moves or -1
+	 */
+	private int findPath(int start, int goal) {
+		newSearch();
+		int[] current = open, later = next, latest = last;
+		int currentSize = 0, laterSize = 0, latestSize = 0;
+		int f = distance(start, goal);
+		seen[start] = stamp;
+		dist[start] = 0;
+		current[currentSize ++] = start;
+		while (true) {
+			while (currentSize == 0) {
+				if (laterSize == 0 && latestSize == 0) {
+					return -1;
+				}
+				int[] swap = current;
+				current = later;
+				later = latest;
+				latest = swap;
+				currentSize = laterSize;
+				laterSize = latestSize;
+				latestSize = 0;
+				f ++;
+			}
+			int id = current[-- currentSize];
+			int g = dist[id];
+			if (g + distance(id, goal) != f) {
+				continue;
+			}
+			if (id == goal) {
+				return g;
+			}
+			if (++ expansions > maxExpansions) {
+				return -1;
+			}
+			for (int direction = 0; direction < 4; direction ++) {
+				int n = neighbor(id, direction);
+				if (n < 0 || (seen[n] == stamp && dist[n] <= g + 1) || !passable(n, g + 1)) {
+					continue;
+				}
+				seen[n] = stamp;
+				dist[n] = g + 1;
+				parent[n] = id;
+				int rise = g + 1 + distance(n, goal) - f;
+				if (rise == 0) {
+					current[currentSize ++] = n;
+				} else if (rise == 1) {
+					later[laterSize ++] = n;
+				} else {
+					latest[latestSize ++] = n;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the direction of the first move of the path the
+	 * last search found from start to goal.
+	 * @param start
+	 * @param goal
+	 * @return int direction index
+	 */
+	private int firstMove(int start, int goal) {
+		int id = goal;
+		while (parent[id] != start) {
+			id = parent[id];
+		}
+		for (int direction = 0; direction < 3; direction ++) {
+			if (neighbor(start, direction) == id) {
+				return direction;
+			}
+		}
+		return 3;
+	}
+
+	/**
+	 * Checks that after following the path the last search found to the apple
+	 * the tail can still be reached from the apple. The body after eating is
+	 * the path followed by what is left of the old body.
+	 * @param body
+	 * @param growth
+	 * @param apple
+	 * @param moves length of the path.
+	 * @return boolean
+	 */
+	private boolean safeAfterEating(SnakeBody body, int growth, int apple, int moves) {
+		int size = body.size() + Math.min(growth, moves - 1) + 1;
+		int count = 0;
+		for (int id = apple; count < moves && count < size; id = parent[id]) {
+			virtual[count ++] = id;
+		}
+		for (int i = 0; count < size; i ++) {
+			virtual[count ++] = body.get(i);
+		}
+		markVirtualBody(body, size, 0);
+		return findPath(apple, virtual[size - 1]) > 0;
+	}
+
+	/**
+	 * Looks at each step the player can take and keeps the ones after which
+	 * the tail can still be reached. Of those it picks the one with the
+	 * longest shortest path back to the tail, which makes the snake fill the
+	 * space it has instead of circling tightly. Ties go to the step closer to
+	 * the apple.
+	 * @param body
+	 * @param growth
+	 * @param apple
+	 * @return int direction index or -1 if no step is safe.
+	 */
+	private int followTail(SnakeBody body, int growth, int apple) {
+		int head = body.getHead();
+		int best = -1, bestLength = -1, bestDistance = Integer.MAX_VALUE;
+		for (int direction = 0; direction < 4; direction ++) {
+			int n = neighbor(head, direction);
+			markBody(body, growth);
+			if (n < 0 || !passable(n, 1)) {
+				continue;
+			}
+			boolean eats = n == apple;
+			int size = growth > 0 || eats ? body.size() + 1 : body.size();
+			virtual[0] = n;
+			for (int i = 1; i < size; i ++) {
+				virtual[i] = body.get(i - 1);
+			}
+			markVirtualBody(body, size, eats ? 0 : Math.max(growth - 1, 0));
+			int tail = virtual[size - 1];
+			int length = tail == n ? 0 : findPath(n, tail);
+			int toApple = distance(n, apple);
+			if (length > bestLength || (length == bestLength && length >= 0 && toApple < bestDistance)) {
+				best = length >= 0 ? direction : -1;
+				bestLength = length;
+				bestDistance = toApple;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Counts the cells the player could reach after stepping into start,
+	 * stopping once the count reaches cap.
+	 * @param start
+	 * @param cap
+	 * @return int number of cells reached up to cap.
+	 */
+	private int floodCount(int start, int cap) {
+		newSearch();
+		int head = 0, tail = 0, count = 1;
+		seen[start] = stamp;
+		dist[start] = 1;
+		open[tail ++] = start;
+		while (head < tail && count < cap && expansions ++ < maxExpansions) {
+			int id = open[head ++];
+			for (int direction = 0; direction < 4; direction ++) {
+				int n = neighbor(id, direction);
+				if (n < 0 || seen[n] == stamp || !passable(n, dist[id] + 1)) {
+					continue;
+				}
+				seen[n] = stamp;
+				dist[n] = dist[id] + 1;
+				open[tail ++] = n;
+				count ++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Picks the step that leaves the player the most room. Room is counted up
+	 * to a bit over twice the length of the snake so on a big open board this
+	 * stays cheap. Ties go to the step closer to the apple.
+	 * @param head
+	 * @param apple
+	 * @param length
+	 * @return int direction index or -1 if every step is blocked.
+	 */
+	private int mostRoom(int head, int apple, int length) {
+		int best = -1, bestRoom = -1, bestDistance = Integer.MAX_VALUE;
+		int cap = 2 * length + 64;
+		for (int direction = 0; direction < 4; direction ++) {
+			int n = neighbor(head, direction);
+			if (n < 0 || !passable(n, 1)) {
+				continue;
+			}
+			int room = floodCount(n, cap);
+			int toApple = distance(n, apple);
+			if (room > bestRoom || (room == bestRoom && toApple < bestDistance)) {
+				best = direction;
+				bestRoom = room;
+				bestDistance = toApple;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,347 @@
+package bot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A path that visits every cell of a grid once and comes back to where it
+ * started. A snake that only ever moves to the next cell on the cycle can fill
+ * the whole board. Cycles are made once per grid size and kept in memory, and
+ * they are also written to a cache folder so later launches can just read them.
+ * <p>
+ * A cycle only exists when the number of cells is even. The one made here runs
+ * along the top row, snakes back and forth through the rest of the board and
+ * comes back up the first column. On disk each step is stored as the index of
+ * its direction in Direction.values(), four steps to a byte.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class HamiltonianCycle {
+	public static final String CACHE_LOCATION = "Assets/Cycles";
+	private static final int MAGIC = 0x534E4B43, VERSION = 1;
+	private static final Map<Long, HamiltonianCycle> CACHE = new ConcurrentHashMap<>();
+	private static volatile Path cacheDirectory = Paths.get(CACHE_LOCATION);
+	private final int width, height;
+	private final int[] cells, index;
+
+	/**
+	 * Constructor. Takes the cell ids in cycle order.
+	 * @param width
+	 * @param height
+	 * @param cells
+	 */
+	private HamiltonianCycle(int width, int height, int[] cells) {
+		this.width = width;
+		this.height = height;
+		this.cells = cells;
+		index = new int[cells.length];
+		for (int i = 0; i < cells.length; i ++) {
+			index[cells[i]] = i;
+		}
+	}
+
+	/**
+	 * Returns the cycle for a grid of the given size. It comes from memory if
+	 * it was asked for before, then from the cache folder, and is only worked
+	 * out if neither has it.
+	 * @param width
+	 * @param height
+	 * @return HamiltonianCycle
+	 * @throws IllegalArgumentException if the grid has no cycle.
+	 */
+	public static HamiltonianCycle forGrid(int width, int height) {
+		if (!exists(width, height)) {
+			throw new IllegalArgumentException("a " + width + "x" + height + " grid has no cycle");
+		}
+		return CACHE.computeIfAbsent((long) width << 32 | height, key -> load(width, height));
+	}
+
+	/**
+	 * Returns true if a grid of the given size has a cycle.
+	 * @param width
+	 * @param height
+	 * @return boolean
+	 */
+	public static boolean exists(int width, int height) {
+		return width >= 2 && height >= 2 && (width % 2 == 0 || height % 2 == 0);
+	}
+
+	/**
+	 * Sets the folder cycles are cached in. Null turns the disk cache off.
+	 * @param directory
+	 */
+	public static void setCacheDirectory(Path directory) {
+		cacheDirectory = directory;
+	}
+
+	/**
+	 * Forgets the cycles kept in memory. The disk cache is kept.
+	 */
+	public static void clearMemoryCache() {
+		CACHE.clear();
+	}
+
+	/**
+	 * Returns the file the cycle for the given grid size is cached in or null
+	 * if the disk cache is off.
+	 * @param width
+	 * @param height
+	 * @return Path
+	 */
+	public static Path cacheFile(int width, int height) {
+		Path directory = cacheDirectory;
+		return directory == null ? null : directory.resolve(width + "x" + height + ".cycle");
+	}
+
+	/**
+	 * Returns the number of cells in the cycle.
+	 * @return int size
+	 */
+	public int size() {
+		return cells.length;
+	}
+
+	/**
+	 * Returns the grid width.
+	 * @return int width
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Returns the grid height.
+	 * @return int height
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns where the given cell is in the cycle.
+	 * @param id
+	 * @return int index
+	 */
+	public int indexOf(int id) {
+		return index[id];
+	}
+
+	/**
+	 * Returns the cell at the given place in the cycle.
+	 * @param index
+	 * @return int id
+	 */
+	public int cellAt(int index) {
+		return cells[index];
+	}
+
+	/**
+	 * Returns the cell after the given cell on the cycle.
+	 * @param id
+	 * @return int id
+	 */
+	public int next(int id) {
+		int i = index[id] + 1;
+		return cells[i == cells.length ? 0 : i];
+	}
+
+	/**
+	 * Returns how many steps forward along the cycle it takes to get from one
+	 * cell to the other.
+	 * @param from
+	 * @param to
+	 * @return int steps
+	 */
+	public int distance(int from, int to) {
+		int steps = index[to] - index[from];
+		return steps < 0 ? steps + cells.length : steps;
+	}
+
+	/**
+	 * Reads the cycle from the cache folder or works it out and writes it
+	 * there.
+	 * @param width
+	 * @param height
+	 * @return HamiltonianCycle
+	 */
+	private static HamiltonianCycle load(int width, int height) {
+		Path file = cacheFile(width, height);
+		if (file != null && Files.isRegularFile(file)) {
+			try {
+				int[] cells = read(file, width, height);
+				if (cells != null) {
+					return new HamiltonianCycle(width, height, cells);
+				}
+			} catch (IOException e) {
+				System.err.println("could not read cycle cache " + file);
+			}
+		}
+		HamiltonianCycle cycle = new HamiltonianCycle(width, height, build(width, height));
+		if (file != null) {
+			try {
+				cycle.write(file);
+			} catch (IOException e) {
+				System.err.println("could not write cycle cache " + file);
+			}
+		}
+		return cycle;
+	}
+
+	/**
+	 * Works out the cycle. With an even height it goes east along the top row,
+	 * goes back and forth through columns 1 and up row by row and comes back
+	 * up column 0. With an odd height the same is done with rows and columns
+	 * swapped.
+	 * @param width
+	 * @param height
+	 * @return int[] cell ids in cycle order.
+	 */
+	private static int[] build(int width, int height) {
+		boolean swap = height % 2 != 0;
+		int across = swap ? height : width, down = swap ? width : height;
+		int[] cells = new int[width * height];
+		int count = 0;
+		for (int x = 0; x < across; x ++) {
+			cells[count ++] = id(x, 0, width, swap);
+		}
+		for (int y = 1; y < down; y ++) {
+			for (int i = 1; i < across; i ++) {
+				int x = y % 2 == 1 ? across - i : i;
+				cells[count ++] = id(x, y, width, swap);
+			}
+		}
+		for (int y = down - 1; y >= 1; y --) {
+			cells[count ++] = id(0, y, width, swap);
+		}
+		return cells;
+	}
+
+	/**
+	 * Turns a place in the layout used by build into a cell id.
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param swap true if rows and columns are swapped.
+	 * @return int id
+	 */
+	private static int id(int x, int y, int width, boolean swap) {
+		return swap ? x * width + y : y * width + x;
+	}
+
+	/**
+	 * Writes the cycle to the given file.
+	 * @param file
+	 * @throws IOException
+	 */
+	private void write(Path file) throws IOException {
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeInt(width);
+			out.writeInt(height);
+			out.writeInt(cells[0]);
+			int packed = 0;
+			for (int i = 1; i < cells.length; i ++) {
+				packed |= direction(cells[i - 1], cells[i]) << ((i - 1) % 4 * 2);
+				if (i % 4 == 0 || i == cells.length - 1) {
+					out.writeByte(packed);
+					packed = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a cycle written by write. Returns null if the file is for another
+	 * grid or does not hold a proper cycle.
+	 * @param file
+	 * @param width
+	 * @param height
+	 * @return int[] cell ids in cycle order or null
+	 * @throws IOException
+	 */
+	private static int[] read(Path file, int width, int height) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readByte() != VERSION
+					|| in.readInt() != width || in.readInt() != height) {
+				return null;
+			}
+			int count = width * height;
+			int[] cells = new int[count];
+			boolean[] visited = new boolean[count];
+			cells[0] = in.readInt();
+			if (cells[0] < 0 || cells[0] >= count) {
+				return null;
+			}
+			visited[cells[0]] = true;
+			int packed = 0;
+			for (int i = 1; i < count; i ++) {
+				if ((i - 1) % 4 == 0) {
+					packed = in.readUnsignedByte();
+				}
+				int next = step(cells[i - 1], packed >>> ((i - 1) % 4 * 2) & 3, width, height);
+				if (next < 0 || visited[next]) {
+					return null;
+				}
+				visited[next] = true;
+				cells[i] = next;
+			}
+			for (int direction = 0; direction < 4; direction ++) {
+				if (step(cells[count - 1], direction, width, height) == cells[0]) {
+					return cells;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the index in Direction.values() of the step between two cells
+	 * next to each other.
+	 * @param from
+	 * @param to
+	 * @return int direction index
+	 */
+	private int direction(int from, int to) {
+		if (to == from - width) {
+			return 0;
+		} else if (to == from + 1) {
+			return 1;
+		} else if (to == from + width) {
+			return 2;
+		}
+		return 3;
+	}
+
+	/**
+	 * Returns the cell one step from the given cell in the direction with the
+	 * given index or -1 if that is off the grid.
+	 * @param id
+	 * @param direction
+	 * @param width
+	 * @param height
+	 * @return int id or -1
+	 */
+	private static int step(int id, int direction, int width, int height) {
+		switch(direction) {
+			case 0 : return id >= width ? id - width : -1;
+			case 1 : return id % width != width - 1 ? id + 1 : -1;
+			case 2 : return id + width < width * height ? id + width : -1;
+			default : return id % width != 0 ? id - 1 : -1;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package bot;
+
+import model.Direction;
+import model.GameModel;
+import model.InputPolicy;
+import model.Occupancy;
+import model.Player;
+import model.Topology;
+
+/**
+ * Autopilot that can fill the whole board. It follows a HamiltonianCycle so
+ * the body always lies on the cycle in order from the tail to the head. When
+ * the snake is short it takes shortcuts toward the apple, but only to a cell
+ * that is still ahead of the head and behind the tail on the cycle with room
+ * to spare, so the order is never broken and the plain cycle walk is always
+ * still open. Once half of the board is used it stops cutting and just walks
+ * the cycle.
+ * <p>
+ * Grids with an odd number of cells have no cycle. On those, and on boards
+ * with obstacles or that wrap around, where the cycle of the plain grid would
+ * walk into walls or miss the shorter ways around, it hands every decision
+ * to the A* Autopilot.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class HamiltonianPilot implements InputPolicy {
+	private static final Direction[] DIRECTIONS = Direction.values();
+	/**
+	 * Cells always left between the head and the tail after a shortcut.
+	 */
+	private static final int TAIL_GAP = 3;
+	/**
+	 * The gap to the tail counts as crowded once it is more than one in this
+	 * many of the free cells.
+	 */
+	private static final int CROWDED_SHARE = 4;
+	/**
+	 * Extra cells kept behind the tail on a crowded board for the apples
+	 * still to come.
+	 */
+	private static final int CROWDED_GAP = 10;
+	/**
+	 * Shortcuts stop once fewer than one in this many cells of the cycle is
+	 * free.
+	 */
+	private static final int STOP_SHARE = 2;
+	private final Autopilot fallback = new Autopilot();
+	private HamiltonianCycle cycle;
+	private Topology topology;
+	private boolean shortcuts = true;
+
+	/**
+	 * Turns shortcuts on or off. Without them the snake only walks the cycle.
+	 * @param shortcuts
+	 */
+	public void setShortcuts(boolean shortcuts) {
+		this.shortcuts = shortcuts;
+	}
+
+	@Override
+	public void newGame(GameModel model, long seed) {
+		fit(model);
+		fallback.newGame(model, seed);
+	}
+
+	@Override
+	public Direction chooseHeading(GameModel model, int playerId) {
+		fit(model);
+		if (cycle == null) {
+			return fallback.chooseHeading(model, playerId);
+		}
+		Player player = model.getPlayer(playerId);
+		Occupancy occupancy = model.getOccupancy();
+		int head = player.getBody().getHead(), tail = player.getBody().getTail();
+		int apple = model.getNearestApple(head);
+		int next = cycle.next(head);
+
+		if (shortcuts) {
+			int toTail = player.getLength() == 1 ? cycle.size() : cycle.distance(head, tail);
+			int toApple = cycle.distance(head, apple);
+			int cut = toTail - player.getGrowthLeft() - TAIL_GAP;
+			int free = model.getUnusedCellCount();
+			if (free < cycle.size() / STOP_SHARE) {
+				cut = 0;
+			} else if (toApple < toTail) {
+				// the apple on the way makes the body one longer
+				cut --;
+				if ((toTail - cut) * CROWDED_SHARE > free) {
+					cut -= CROWDED_GAP;
+				}
+			}
+			int best = 1;
+			for (Direction direction : DIRECTIONS) {
+				int n = model.getNeighborId(head, direction);
+				if (n < 0 || (occupancy.isOccupied(n) && n != apple)) {
+					continue;
+				}
+				int steps = cycle.distance(head, n);
+				if (steps > best && steps <= toApple && steps - 1 <= cut) {
+					best = steps;
+					next = n;
+				}
+			}
+		}
+		for (Direction direction : DIRECTIONS) {
+			if (model.getNeighborId(head, direction) == next) {
+				return direction;
+			}
+		}
+		return player.getHeading();
+	}
+
+	/**
+	 * Gets the cycle for the board of the model if the board changed. Only a
+	 * plain walled board gets one.
+	 * @param model
+	 */
+	private void fit(GameModel model) {
+		if (model.getTopology() == topology) {
+			return;
+		}
+		topology = model.getTopology();
+		int width = model.getGridWidth(), height = model.getGridHeight();
+		boolean plain = !topology.isWrapped() && topology.getObstacleCount() == 0;
+		cycle = plain && HamiltonianCycle.exists(width, height)
+				? HamiltonianCycle.forGrid(width, height) : null;
+	}
+}
@@ -0,0 +1,409 @@
+package bot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import model.Direction;
+import model.GameModel;
+import model.GameRandom;
+import model.InputPolicy;
+import model.Occupancy;
+import model.Player;
+import model.Snapshot;
+import model.Topology;
+
+/**
+ * Bot that picks a heading by playing the game forward many times at random.
+ * Each of the headings the player can take is a child of the root and a worker
+ * keeps choosing children with UCB1, runs a random rollout from the state after
+ * taking that heading and adds the result to the child. Every worker has its
+ * own forked copy of the game and its own SplittableRandom, so the workers
+ * share nothing while they run. When the time is up their counts are added
+ * together and the child with the best average wins. This is root parallel
+ * Monte Carlo tree search with a tree one level deep.
+ * <p>
+ * The search is anytime: search() takes a deadline and returns the best
+ * heading found by then. chooseHeading() uses a fixed budget per tick. In the
+ * rollouts every player, and every other player at the root, moves at random
+ * among the cells that do not kill it right away. A rollout stops as soon as
+ * the player crashes. The apples placed during a
+ * rollout come from a fresh seed so the bot can not see where the real next
+ * apple will go. The model has to use a GameRandom.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class MonteCarloBot implements InputPolicy, AutoCloseable {
+	/**
+	 * Default time one decision may take.
+	 */
+	public static final long DEFAULT_BUDGET_NANOS = 20_000_000L;
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private static final double DEATH_PENALTY = 10, WIN_BONUS = 10;
+	private static final double EXPLORATION = Math.sqrt(2) * DEATH_PENALTY;
+	private final Worker[] workers;
+	private final List<Worker> helpers = new ArrayList<>();
+	private final List<Future<Void>> running = new ArrayList<>();
+	private final ExecutorService pool;
+	private final long seed;
+	private final long[] visits = new long[DIRECTIONS.length];
+	private final double[] totals = new double[DIRECTIONS.length];
+	private Snapshot root;
+	private long budgetNanos = DEFAULT_BUDGET_NANOS;
+	private int rolloutDepth = 64;
+	private long maxRollouts = Long.MAX_VALUE;
+	private long lastRollouts, lastNanos, totalRollouts, totalNanos;
+
+	/**
+	 * Constructor. Uses one worker per core.
+	 */
+	public MonteCarloBot() {
+		this(Runtime.getRuntime().availableProcessors(), System.nanoTime());
+	}
+
+	/**
+	 * Constructor. The calling thread is one of the workers so one thread
+	 * makes no pool at all.
+	 * @param threads number of workers.
+	 * @param seed seed for the random numbers of the workers.
+	 */
+	public MonteCarloBot(int threads, long seed) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("need at least one thread");
+		}
+		this.seed = seed;
+		SplittableRandom seeds = new SplittableRandom(seed);
+		workers = new Worker[threads];
+		for (int i = 0; i < threads; i ++) {
+			workers[i] = new Worker(seeds.split());
+			if (i > 0) {
+				helpers.add(workers[i]);
+			}
+		}
+		pool = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, runnable -> {
+			Thread thread = new Thread(runnable, "mcts worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Sets how long chooseHeading() may search.
+	 * @param budgetNanos
+	 */
+	public void setBudgetNanos(long budgetNanos) {
+		this.budgetNanos = budgetNanos;
+	}
+
+	/**
+	 * Sets the number of ticks a rollout plays before it is scored.
+	 * @param rolloutDepth
+	 */
+	public void setRolloutDepth(int rolloutDepth) {
+		if (rolloutDepth <= 0) {
+			throw new IllegalArgumentException("rollout depth has to be positive");
+		}
+		this.rolloutDepth = rolloutDepth;
+	}
+
+	/**
+	 * Sets the most rollouts one worker runs per search even if there is time
+	 * left. With one thread this makes the bot give the same answers every run.
+	 * @param maxRollouts
+	 */
+	public void setMaxRollouts(long maxRollouts) {
+		this.maxRollouts = maxRollouts;
+	}
+
+	/**
+	 * Gets the bot ready for a new game. The random numbers of the workers
+	 * start over from the seed of the bot and the seed of the game, so with
+	 * one thread and a rollout cap a seeded game is always played the same
+	 * way, whatever the bot played before.
+	 */
+	@Override
+	public void newGame(GameModel model, long seed) {
+		fit(model);
+		SplittableRandom seeds = new SplittableRandom(this.seed ^ seed);
+		for (Worker worker : workers) {
+			worker.random = seeds.split();
+		}
+	}
+
+	@Override
+	public Direction chooseHeading(GameModel model, int playerId) {
+		return search(model, playerId, System.nanoTime() + budgetNanos);
+	}
+
+	/**
+	 * Searches until the deadline and returns the best heading found. Every
+	 * worker tries every heading at least once even if the deadline has
+	 * passed. The model is not changed but must not be changed by anyone else
+	 * during the search.
+	 * @param model
+	 * @param playerId
+	 * @param deadlineNanos deadline in System.nanoTime() time.
+	 * @return Direction
+	 */
+	public Direction search(GameModel model, int playerId, long deadlineNanos) {
+		long start = System.nanoTime();
+		fit(model);
+		model.saveSnapshot(root);
+		Player player = model.getPlayer(playerId);
+		int legal = 0;
+		for (int i = 0; i < DIRECTIONS.length; i ++) {
+			if (player.getLength() == 1 || DIRECTIONS[i] != Direction.getOpposite(player.getHeading())) {
+				legal |= 1 << i;
+			}
+		}
+		for (Worker worker : workers) {
+			worker.prepare(playerId, legal, deadlineNanos);
+		}
+
+		try {
+			running.clear();
+			for (Worker helper : helpers) {
+				running.add(pool.submit(helper));
+			}
+			workers[0].call();
+			for (Future<Void> future : running) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("rollout failed", e.getCause());
+		}
+
+		Arrays.fill(visits, 0);
+		Arrays.fill(totals, 0);
+		long rollouts = 0;
+		for (Worker worker : workers) {
+			for (int i = 0; i < DIRECTIONS.length; i ++) {
+				visits[i] += worker.visits[i];
+				totals[i] += worker.totals[i];
+				rollouts += worker.visits[i];
+			}
+		}
+		int best = -1;
+		for (int i = 0; i < DIRECTIONS.length; i ++) {
+			if (visits[i] > 0 && (best < 0 || totals[i] / visits[i] > totals[best] / visits[best])) {
+				best = i;
+			}
+		}
+		lastRollouts = rollouts;
+		lastNanos = System.nanoTime() - start;
+		totalRollouts += rollouts;
+		totalNanos += lastNanos;
+		return best < 0 ? player.getHeading() : DIRECTIONS[best];
+	}
+
+	/**
+	 * Returns the number of rollouts the last search ran.
+	 * @return long rollouts
+	 */
+	public long getLastRollouts() {
+		return lastRollouts;
+	}
+
+	/**
+	 * Returns the rollouts per second of the last search.
+	 * @return double rollouts per second.
+	 */
+	public double getRolloutsPerSecond() {
+		return lastNanos == 0 ? 0 : lastRollouts * 1e9 / lastNanos;
+	}
+
+	/**
+	 * Returns the rollouts per second over every search so far.
+	 * @return double rollouts per second.
+	 */
+	public double getAverageRolloutsPerSecond() {
+		return totalNanos == 0 ? 0 : totalRollouts * 1e9 / totalNanos;
+	}
+
+	/**
+	 * Returns the number of workers.
+	 * @return int threads
+	 */
+	public int getThreadCount() {
+		return workers.length;
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	@Override
+	public void close() {
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Makes the root snapshot and the worker games if the model is a different
+	 * kind of game than the last one. Levels can share a grid and still have
+	 * other obstacles or wrap around, so the whole topology is compared.
+	 * @param model
+	 */
+	private void fit(GameModel model) {
+		Topology topology = model.getTopology();
+		if (root != null && (root.getTopology() == topology || root.getTopology().equals(topology))
+				&& root.getPlayerCount() == model.getPlayerCount()) {
+			return;
+		}
+		root = model.newSnapshot();
+		for (Worker worker : workers) {
+			worker.game = model.fork();
+		}
+	}
+
+	/**
+	 * One worker of the search. It only touches its own game, random numbers
+	 * and counts while it runs.
+	 */
+	private class Worker implements Callable<Void> {
+		private SplittableRandom random;
+		private final long[] visits = new long[DIRECTIONS.length];
+		private final double[] totals = new double[DIRECTIONS.length];
+		private GameModel game;
+		private int playerId, legal;
+		private long deadline;
+
+		/**
+		 * Constructor.
+		 * @param random
+		 */
+		Worker(SplittableRandom random) {
+			this.random = random;
+		}
+
+		/**
+		 * Gets the worker ready for the next search.
+		 * @param playerId
+		 * @param legal bit mask of the headings that can be taken.
+		 * @param deadline
+		 */
+		void prepare(int playerId, int legal, long deadline) {
+			this.playerId = playerId;
+			this.legal = legal;
+			this.deadline = deadline;
+			Arrays.fill(visits, 0);
+			Arrays.fill(totals, 0);
+		}
+
+		@Override
+		public Void call() {
+			long rollouts = 0;
+			do {
+				int child = select(rollouts);
+				totals[child] += rollout(child);
+				visits[child] ++;
+				rollouts ++;
+			} while (rollouts < Integer.bitCount(legal)
+					|| (rollouts < maxRollouts && System.nanoTime() < deadline));
+			return null;
+		}
+
+		/**
+		 * Picks the child with the best UCB1 value. Children that were never
+		 * tried come first.
+		 * @param rollouts number of rollouts run so far.
+		 * @return int child
+		 */
+		private int select(long rollouts) {
+			int best = -1;
+			double bestValue = Double.NEGATIVE_INFINITY;
+			double log = Math.log(Math.max(rollouts, 1));
+			for (int i = 0; i < DIRECTIONS.length; i ++) {
+				if ((legal & 1 << i) == 0) {
+					continue;
+				}
+				if (visits[i] == 0) {
+					return i;
+				}
+				double value = totals[i] / visits[i] + EXPLORATION * Math.sqrt(log / visits[i]);
+				if (value > bestValue) {
+					bestValue = value;
+					best = i;
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Plays the game from the root after taking the heading of the given
+		 * child and scores it for the player. Apples eaten count one each,
+		 * dying costs DEATH_PENALTY and still being in the game when it ends is
+		 * worth WIN_BONUS.
+		 * @param child
+		 * @return double score
+		 */
+		private double rollout(int child) {
+			game.restoreSnapshot(root);
+			((GameRandom) game.getRandom()).setState(random.nextLong());
+			int startLength = game.getPlayer(playerId).getLength();
+			for (int id = 1; id <= game.getPlayerCount(); id ++) {
+				game.changeHeading(id, id == playerId ? DIRECTIONS[child] : randomSafeHeading(id));
+			}
+			game.nextAnimationStep();
+			Player player = game.getPlayer(playerId);
+			for (int depth = 1; depth < rolloutDepth && !game.isGameOver() && player.isAlive();
+					depth ++) {
+				for (int id = 1; id <= game.getPlayerCount(); id ++) {
+					game.changeHeading(id, randomSafeHeading(id));
+				}
+				game.nextAnimationStep();
+			}
+			double score = player.getLength() - startLength;
+			if (!player.isAlive()) {
+				score -= DEATH_PENALTY;
+			} else if (game.isGameOver()) {
+				score += WIN_BONUS;
+			}
+			return score;
+		}
+
+		/**
+		 * Returns a random heading that does not run the player into a wall
+		 * or a body next tick, or its current heading if there is none. Returns
+		 * null for a player that has crashed.
+		 * @param id
+		 * @return Direction
+		 */
+		private Direction randomSafeHeading(int id) {
+			Player player = game.getPlayer(id);
+			if (!player.isAlive()) {
+				return null;
+			}
+			Occupancy occupancy = game.getOccupancy();
+			int head = player.getBody().getHead();
+			Direction opposite = Direction.getOpposite(player.getHeading());
+			int safe = 0;
+			for (int i = 0; i < DIRECTIONS.length; i ++) {
+				int next = game.getNeighborId(head, DIRECTIONS[i]);
+				if (next >= 0 && (player.getLength() == 1 || DIRECTIONS[i] != opposite)
+						&& (!occupancy.isOccupied(next) || occupancy.isSet(Occupancy.APPLES, next))) {
+					safe |= 1 << i;
+				}
+			}
+			if (safe == 0) {
+				return player.getHeading();
+			}
+			int pick = random.nextInt(Integer.bitCount(safe));
+			for (int i = 0; i < DIRECTIONS.length; i ++) {
+				if ((safe & 1 << i) != 0 && pick -- == 0) {
+					return DIRECTIONS[i];
+				}
+			}
+			return player.getHeading();
+		}
+	}
+}
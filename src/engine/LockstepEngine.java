@@ -0,0 +1,423 @@
+package engine;
+
+import java.util.Arrays;
+
+import model.Grid;
+
+/**
+ * Runs thousands of one player games that share a grid in lockstep. Instead of
+ * one GameModel per game every piece of game state is a column: one array for
+ * the heads of all games, one for the headings and so on, with the body ring
+ * buffers, free cell pools and occupancy bitboards of all games packed one
+ * after the other in big flat arrays. A call to tick() moves every game that
+ * is still running by one step.
+ * <p>
+ * The rules, the order of the random draws and the way free cells are picked
+ * all follow GameModel.animatePlayers() and replaceApple() exactly, so a game
+ * started with reset(game, seed) plays out the same as a GameModel made with
+ * new GameRandom(seed) and given the same headings.
+ * <p>
+ * The first part of a tick works out the next head of every game from the
+ * head column and row and the step of its heading. It is plain branch free
+ * arithmetic over int arrays so the JIT can use SIMD for it. The Vector API is
+ * only an incubator module in this JDK so it is not used directly. The second
+ * part does the collisions and moves, which need random access into each
+ * game's own state, one game at a time.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class LockstepEngine {
+	private static final long MULTIPLIER = 0x5DEECE66DL, ADDEND = 0xBL, MASK = (1L << 48) - 1;
+	private static final int[] STEP_X = {0, 1, 0, -1}, STEP_Y = {-1, 0, 1, 0};
+	private final int width, height, cells, cellSize, words, capacity, games;
+	private final long[] random, ticks, occupied;
+	private final int[] headX, headY, stepX, stepY, next, headings, lengths, growth, apples;
+	private final int[] bodyStart, bodySize, bodies, pool, position, poolSize;
+	private final boolean[] over, appleLive;
+	private int running;
+
+	/**
+	 * Constructor. Makes room for the given number of games. Every game is
+	 * over until it is reset.
+	 * @param grid
+	 * @param games
+	 */
+	public LockstepEngine(Grid grid, int games) {
+		if (games <= 0) {
+			throw new IllegalArgumentException("need at least one game");
+		}
+		width = grid.getGridWidth();
+		height = grid.getGridHeight();
+		cells = grid.getCellCount();
+		cellSize = grid.getCellSize();
+		words = (cells + 63) >>> 6;
+		capacity = Integer.highestOneBit(cells - 1) << 1;
+		this.games = games;
+		random = new long[games];
+		ticks = new long[games];
+		occupied = new long[games * words];
+		headX = new int[games];
+		headY = new int[games];
+		stepX = new int[games];
+		stepY = new int[games];
+		next = new int[games];
+		headings = new int[games];
+		lengths = new int[games];
+		growth = new int[games];
+		apples = new int[games];
+		bodyStart = new int[games];
+		bodySize = new int[games];
+		bodies = new int[games * capacity];
+		pool = new int[games * cells];
+		position = new int[games * cells];
+		poolSize = new int[games];
+		over = new boolean[games];
+		appleLive = new boolean[games];
+		Arrays.fill(over, true);
+	}
+
+	/**
+	 * Returns the number of games.
+	 * @return int games
+	 */
+	public int size() {
+		return games;
+	}
+
+	/**
+	 * Returns the number of games that are not over.
+	 * @return int running
+	 */
+	public int getRunningCount() {
+		return running;
+	}
+
+	/**
+	 * Starts a new game in the given slot. The player and apple are placed with
+	 * the same random draws as a GameModel made with new GameRandom(seed).
+	 * @param game
+	 * @param seed
+	 */
+	public void reset(int game, long seed) {
+		random[game] = (seed ^ MULTIPLIER) & MASK;
+		Arrays.fill(occupied, game * words, (game + 1) * words, 0);
+		int base = game * cells;
+		for (int i = 0; i < cells; i ++) {
+			pool[base + i] = i;
+			position[base + i] = i;
+		}
+		poolSize[game] = cells;
+
+		int x = nextInt(game, (width - 2) * cellSize) + cellSize;
+		int y = nextInt(game, (height - 2) * cellSize) + cellSize;
+		int playerCell = x / cellSize + width * (y / cellSize);
+		int appleCell = pool[base + nextInt(game, poolSize[game])];
+		setDirection(game, nextInt(game, 4));
+		headX[game] = playerCell % width;
+		headY[game] = playerCell / width;
+		lengths[game] = 1;
+		growth[game] = 0;
+		bodyStart[game] = 0;
+		bodySize[game] = 1;
+		bodies[game * capacity] = playerCell;
+		take(game, playerCell);
+
+		apples[game] = appleCell;
+		appleLive[game] = !isOccupied(game, appleCell);
+		if (appleLive[game]) {
+			take(game, appleCell);
+		}
+		ticks[game] = 0;
+		if (over[game]) {
+			over[game] = false;
+			running ++;
+		}
+	}
+
+	/**
+	 * Gives the player of a game a new heading, as an index into
+	 * Direction.values(). Like Player.setHeading() turning straight back is
+	 * ignored unless the player has length one.
+	 * @param game
+	 * @param direction
+	 */
+	public void setHeading(int game, int direction) {
+		if (((headings[game] + 2) & 3) != direction || lengths[game] == 1) {
+			setDirection(game, direction);
+		}
+	}
+
+	/**
+	 * Runs one tick of every game that is not over.
+	 * @return int number of games still running.
+	 */
+	public int tick() {
+		computeNext();
+		for (int game = 0; game < games; game ++) {
+			if (!over[game]) {
+				move(game);
+			}
+		}
+		return running;
+	}
+
+	/**
+	 * Returns true if the game is over.
+	 * @param game
+	 * @return boolean
+	 */
+	public boolean isOver(int game) {
+		return over[game];
+	}
+
+	/**
+	 * Returns the number of ticks the game has run.
+	 * @param game
+	 * @return long tick
+	 */
+	public long getTick(int game) {
+		return ticks[game];
+	}
+
+	/**
+	 * Returns the cell id of the head.
+	 * @param game
+	 * @return int id
+	 */
+	public int getHead(int game) {
+		return headY[game] * width + headX[game];
+	}
+
+	/**
+	 * Returns the heading as an index into Direction.values().
+	 * @param game
+	 * @return int heading
+	 */
+	public int getHeading(int game) {
+		return headings[game];
+	}
+
+	/**
+	 * Returns the length of the player.
+	 * @param game
+	 * @return int length
+	 */
+	public int getLength(int game) {
+		return lengths[game];
+	}
+
+	/**
+	 * Returns the cell id of the apple.
+	 * @param game
+	 * @return int id
+	 */
+	public int getApple(int game) {
+		return apples[game];
+	}
+
+	/**
+	 * Returns the cell id of the body at the given index counted from the head.
+	 * @param game
+	 * @param index
+	 * @return int id
+	 */
+	public int getBodyCell(int game, int index) {
+		if (index < 0 || index >= bodySize[game]) {
+			throw new IndexOutOfBoundsException("index " + index + " size " + bodySize[game]);
+		}
+		return bodies[game * capacity + ((bodyStart[game] + index) & (capacity - 1))];
+	}
+
+	/**
+	 * Returns the number of free cells of the game.
+	 * @param game
+	 * @return int free cells
+	 */
+	public int getFreeCount(int game) {
+		return poolSize[game];
+	}
+
+	/**
+	 * Works out the next head of every game, or -1 if it would leave the
+	 * board. Only reads and writes whole columns so it is easy to vectorize.
+	 */
+	private void computeNext() {
+		for (int game = 0; game < games; game ++) {
+			int x = headX[game] + stepX[game], y = headY[game] + stepY[game];
+			int inside = ((x | y | (width - 1 - x) | (height - 1 - y)) >> 31) ^ -1;
+			next[game] = ((y * width + x) & inside) | ~inside;
+		}
+	}
+
+	/**
+	 * Moves the player of one game into its next cell, the same way
+	 * GameModel.animatePlayer() does.
+	 * @param game
+	 */
+	private void move(int game) {
+		int cell = next[game];
+		ticks[game] ++;
+		if (cell < 0) {
+			end(game);
+			return;
+		}
+		if (isOccupied(game, cell)) {
+			if (appleLive[game] && cell == apples[game]) {
+				eat(game, cell);
+			} else {
+				end(game);
+			}
+		} else {
+			take(game, cell);
+			addHead(game, cell);
+			if (growth[game] == 0) {
+				int tail = removeTail(game);
+				clear(game, tail);
+				give(game, tail);
+			} else {
+				growth[game] --;
+				lengths[game] ++;
+			}
+		}
+	}
+
+	/**
+	 * Eats the apple in the given cell and places a new one, the same way
+	 * GameModel.useApple() and replaceApple() do. A full board ends the game.
+	 * @param game
+	 * @param cell
+	 */
+	private void eat(int game, int cell) {
+		boolean full = poolSize[game] == 0;
+		int index = full ? 0 : nextInt(game, poolSize[game]);
+		addHead(game, cell);
+		growth[game] = 0;
+		lengths[game] ++;
+		if (full) {
+			end(game);
+			return;
+		}
+		int apple = pool[game * cells + index];
+		take(game, apple);
+		apples[game] = apple;
+	}
+
+	/**
+	 * Ends a game.
+	 * @param game
+	 */
+	private void end(int game) {
+		over[game] = true;
+		running --;
+	}
+
+	/**
+	 * Sets the heading and the step columns for a direction index.
+	 * @param game
+	 * @param direction
+	 */
+	private void setDirection(int game, int direction) {
+		headings[game] = direction;
+		stepX[game] = STEP_X[direction];
+		stepY[game] = STEP_Y[direction];
+	}
+
+	/**
+	 * Puts a new head on the front of the body.
+	 * @param game
+	 * @param cell
+	 */
+	private void addHead(int game, int cell) {
+		int start = (bodyStart[game] - 1) & (capacity - 1);
+		bodies[game * capacity + start] = cell;
+		bodyStart[game] = start;
+		bodySize[game] ++;
+		headX[game] = cell % width;
+		headY[game] = cell / width;
+	}
+
+	/**
+	 * Takes the tail off the body and returns it.
+	 * @param game
+	 * @return int tail id
+	 */
+	private int removeTail(int game) {
+		int size = -- bodySize[game];
+		return bodies[game * capacity + ((bodyStart[game] + size) & (capacity - 1))];
+	}
+
+	/**
+	 * Marks a cell used: takes it out of the free pool and sets its bit.
+	 * @param game
+	 * @param cell
+	 */
+	private void take(int game, int cell) {
+		int base = game * cells;
+		int index = position[base + cell];
+		int last = pool[base + -- poolSize[game]];
+		pool[base + index] = last;
+		position[base + last] = index;
+		position[base + cell] = -1;
+		occupied[game * words + (cell >>> 6)] |= 1L << cell;
+	}
+
+	/**
+	 * Gives a cell back to the free pool.
+	 * @param game
+	 * @param cell
+	 */
+	private void give(int game, int cell) {
+		int base = game * cells;
+		pool[base + poolSize[game]] = cell;
+		position[base + cell] = poolSize[game] ++;
+	}
+
+	/**
+	 * Clears the bit of a cell.
+	 * @param game
+	 * @param cell
+	 */
+	private void clear(int game, int cell) {
+		occupied[game * words + (cell >>> 6)] &= ~(1L << cell);
+	}
+
+	/**
+	 * Returns true if something is in the cell.
+	 * @param game
+	 * @param cell
+	 * @return boolean
+	 */
+	private boolean isOccupied(int game, int cell) {
+		return (occupied[game * words + (cell >>> 6)] & 1L << cell) != 0;
+	}
+
+	/**
+	 * Same as Random.nextInt(bound) on the random state of the given game.
+	 * @param game
+	 * @param bound
+	 * @return int
+	 */
+	private int nextInt(int game, int bound) {
+		int r = next31(game);
+		int m = bound - 1;
+		if ((bound & m) == 0) {
+			return (int) ((bound * (long) r) >> 31);
+		}
+		for (int u = r; u - (r = u % bound) + m < 0; u = next31(game)) {
+			// draw again, the same as Random does
+		}
+		return r;
+	}
+
+	/**
+	 * Advances the random state of the given game and returns 31 bits.
+	 * @param game
+	 * @return int
+	 */
+	private int next31(int game) {
+		long state = (random[game] * MULTIPLIER + ADDEND) & MASK;
+		random[game] = state;
+		return (int) (state >>> 17);
+	}
+}
@@ -0,0 +1,364 @@
+package env;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import model.Direction;
+import model.GameModel;
+import model.GameRandom;
+import model.Grid;
+import model.Occupancy;
+import model.Player;
+
+/**
+ * A batch of one player games for training agents, stepped all at once in the
+ * style of a vectorized gym environment. reset() starts every game and step()
+ * gives each game an action and runs one tick of each. The games are normal
+ * GameModels so the rules are exactly the ones the GUI plays by: an action is
+ * the index of a heading in Direction.values() and is given to the player the
+ * same way a key press is, so turning back on yourself is ignored.
+ * <p>
+ * Observations, rewards and done flags are written into arrays the caller
+ * owns, nothing is created per step. The observation of game i starts at
+ * i * getObservationSize() and holds:
+ * <ul>
+ * <li>a square window of side 2 * radius + 1 around the head, row by row from
+ * the top left, with the head in the middle. Cells are EMPTY, WALL for off the
+ * board, BODY, OTHER for anything else that blocks, or APPLE.</li>
+ * <li>the column and row of the closest apple minus those of the head.</li>
+ * <li>the number of free cells on the board.</li>
+ * </ul>
+ * A game that ends is reset inside the same step, so the observation written
+ * for it is the first one of its next game and its done flag is set. A reward
+ * is the number of apples eaten that tick, minus one if the player died.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class VectorEnv implements AutoCloseable {
+	public static final int EMPTY = 0, WALL = 1, BODY = 2, OTHER = 3, APPLE = 4;
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private static final int CHUNK = 256;
+	private final GameModel[] games;
+	private final int[] episodeScores;
+	private final int radius, side, observationSize, width, height;
+	private final ForkJoinPool pool;
+	private final Chunk[] chunks;
+	private final Batch batch = new Batch();
+	private long maxEpisodeTicks = Long.MAX_VALUE;
+	private int[] actions, intObservations;
+	private float[] floatObservations, rewards;
+	private boolean[] dones;
+
+	/**
+	 * Constructor. Steps on the calling thread.
+	 * @param grid
+	 * @param count number of games.
+	 * @param radius how many cells the window reaches out from the head.
+	 * @param seed
+	 */
+	public VectorEnv(Grid grid, int count, int radius, long seed) {
+		this(grid, count, radius, seed, 1);
+	}
+
+	/**
+	 * Constructor. With more than one thread the games are stepped in chunks
+	 * on a pool of that many threads.
+	 * @param grid
+	 * @param count number of games.
+	 * @param radius how many cells the window reaches out from the head.
+	 * @param seed
+	 * @param threads
+	 */
+	public VectorEnv(Grid grid, int count, int radius, long seed, int threads) {
+		if (count <= 0 || radius < 0 || threads <= 0) {
+			throw new IllegalArgumentException("invalid environment settings");
+		}
+		this.radius = radius;
+		side = 2 * radius + 1;
+		observationSize = side * side + 3;
+		width = grid.getGridWidth();
+		height = grid.getGridHeight();
+		games = new GameModel[count];
+		episodeScores = new int[count];
+		SplittableRandom seeds = new SplittableRandom(seed);
+		for (int i = 0; i < count; i ++) {
+			games[i] = new GameModel(grid, false, new GameRandom(seeds.nextLong()), null);
+		}
+		pool = threads == 1 ? null : new ForkJoinPool(threads);
+		chunks = new Chunk[(count + CHUNK - 1) / CHUNK];
+		for (int i = 0; i < chunks.length; i ++) {
+			chunks[i] = new Chunk(i * CHUNK, Math.min(count, (i + 1) * CHUNK));
+		}
+	}
+
+	/**
+	 * Returns the number of games.
+	 * @return int count
+	 */
+	public int size() {
+		return games.length;
+	}
+
+	/**
+	 * Returns the number of values in the observation of one game.
+	 * @return int observation size
+	 */
+	public int getObservationSize() {
+		return observationSize;
+	}
+
+	/**
+	 * Returns the game at the given index. It should only be read.
+	 * @param index
+	 * @return GameModel
+	 */
+	public GameModel getGame(int index) {
+		return games[index];
+	}
+
+	/**
+	 * Returns the length the player had when the last finished game at the
+	 * given index ended, or 0 if none has ended yet.
+	 * @param index
+	 * @return int score
+	 */
+	public int getLastEpisodeScore(int index) {
+		return episodeScores[index];
+	}
+
+	/**
+	 * Sets how many ticks a game may run before it is ended and reset.
+	 * @param maxEpisodeTicks
+	 */
+	public void setMaxEpisodeTicks(long maxEpisodeTicks) {
+		this.maxEpisodeTicks = maxEpisodeTicks;
+	}
+
+	/**
+	 * Starts a new game in every slot and writes the observations.
+	 * @param observations
+	 */
+	public void reset(float[] observations) {
+		checkLength(observations.length, observationSize, "observations");
+		for (int i = 0; i < games.length; i ++) {
+			games[i].reset();
+			observe(i, null, observations);
+		}
+	}
+
+	/**
+	 * Same as reset(float[]) but writes whole numbers.
+	 * @param observations
+	 */
+	public void reset(int[] observations) {
+		checkLength(observations.length, observationSize, "observations");
+		for (int i = 0; i < games.length; i ++) {
+			games[i].reset();
+			observe(i, observations, null);
+		}
+	}
+
+	/**
+	 * Runs one tick of every game.
+	 * @param actions heading index for every game.
+	 * @param observations
+	 * @param rewards
+	 * @param dones
+	 */
+	public void step(int[] actions, float[] observations, float[] rewards, boolean[] dones) {
+		checkLength(observations.length, observationSize, "observations");
+		run(actions, null, observations, rewards, dones);
+	}
+
+	/**
+	 * Same as step(int[], float[], float[], boolean[]) but writes whole
+	 * numbers for the observations.
+	 * @param actions
+	 * @param observations
+	 * @param rewards
+	 * @param dones
+	 */
+	public void step(int[] actions, int[] observations, float[] rewards, boolean[] dones) {
+		checkLength(observations.length, observationSize, "observations");
+		run(actions, observations, null, rewards, dones);
+	}
+
+	/**
+	 * Stops the threads used for stepping.
+	 */
+	@Override
+	public void close() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Checks the arrays and steps every game, on the pool if there is one.
+	 * @param actions
+	 * @param ints
+	 * @param floats
+	 * @param rewards
+	 * @param dones
+	 */
+	private void run(int[] actions, int[] ints, float[] floats, float[] rewards, boolean[] dones) {
+		checkLength(actions.length, 1, "actions");
+		checkLength(rewards.length, 1, "rewards");
+		checkLength(dones.length, 1, "dones");
+		if (pool == null) {
+			step(0, games.length, actions, ints, floats, rewards, dones);
+			return;
+		}
+		this.actions = actions;
+		this.intObservations = ints;
+		this.floatObservations = floats;
+		this.rewards = rewards;
+		this.dones = dones;
+		batch.reinitialize();
+		pool.invoke(batch);
+	}
+
+	/**
+	 * Steps the games in the range.
+	 * @param from
+	 * @param to
+	 * @param actions
+	 * @param ints
+	 * @param floats
+	 * @param rewards
+	 * @param dones
+	 */
+	private void step(int from, int to, int[] actions, int[] ints, float[] floats,
+			float[] rewards, boolean[] dones) {
+		for (int i = from; i < to; i ++) {
+			int action = actions[i];
+			if (action < 0 || action >= DIRECTIONS.length) {
+				throw new IllegalArgumentException("action " + action + " for game " + i);
+			}
+			GameModel game = games[i];
+			Player player = game.getPlayer(1);
+			int length = player.getLength();
+			game.changeHeading(1, DIRECTIONS[action]);
+			game.nextAnimationStep();
+			float reward = player.getLength() - length;
+			boolean done = game.isGameOver() || game.getTick() >= maxEpisodeTicks;
+			if (game.isGameOver()) {
+				reward -= 1;
+			}
+			if (done) {
+				episodeScores[i] = player.getLength();
+				game.reset();
+			}
+			rewards[i] = reward;
+			dones[i] = done;
+			observe(i, ints, floats);
+		}
+	}
+
+	/**
+	 * Writes the observation of the given game into whichever array is not
+	 * null.
+	 * @param index
+	 * @param ints
+	 * @param floats
+	 */
+	private void observe(int index, int[] ints, float[] floats) {
+		GameModel game = games[index];
+		Occupancy occupancy = game.getOccupancy();
+		int head = game.getPlayer(1).getBody().getHead();
+		int apple = game.getNearestApple(head);
+		int column = head % width, row = head / width;
+		int at = index * observationSize;
+		for (int y = row - radius; y <= row + radius; y ++) {
+			for (int x = column - radius; x <= column + radius; x ++) {
+				int value;
+				if (x < 0 || y < 0 || x >= width || y >= height) {
+					value = WALL;
+				} else {
+					int id = y * width + x;
+					if (!occupancy.isOccupied(id)) {
+						value = EMPTY;
+					} else if (occupancy.isSet(Occupancy.APPLES, id)) {
+						value = APPLE;
+					} else if (occupancy.isPlayer(1, id)) {
+						value = BODY;
+					} else {
+						value = OTHER;
+					}
+				}
+				put(ints, floats, at ++, value);
+			}
+		}
+		put(ints, floats, at ++, apple % width - column);
+		put(ints, floats, at ++, apple / width - row);
+		put(ints, floats, at, game.getUnusedCellCount());
+	}
+
+	/**
+	 * Writes one value into whichever array is not null.
+	 * @param ints
+	 * @param floats
+	 * @param index
+	 * @param value
+	 */
+	private static void put(int[] ints, float[] floats, int index, int value) {
+		if (ints != null) {
+			ints[index] = value;
+		} else {
+			floats[index] = value;
+		}
+	}
+
+	/**
+	 * Throws if an array is too short for every game.
+	 * @param length
+	 * @param perGame
+	 * @param name
+	 */
+	private void checkLength(int length, int perGame, String name) {
+		if (length < (long) perGame * games.length) {
+			throw new IllegalArgumentException(name + " needs " + (long) perGame * games.length
+					+ " values but has " + length);
+		}
+	}
+
+	/**
+	 * Task that steps every chunk on the pool.
+	 */
+	private class Batch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void compute() {
+			for (Chunk chunk : chunks) {
+				chunk.reinitialize();
+			}
+			invokeAll(chunks);
+		}
+	}
+
+	/**
+	 * Task that steps one range of games.
+	 */
+	private class Chunk extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int from, to;
+
+		/**
+		 * Constructor.
+		 * @param from
+		 * @param to
+		 */
+		Chunk(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			step(from, to, actions, intObservations, floatObservations, rewards, dones);
+		}
+	}
+}
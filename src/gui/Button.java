@@ -1,7 +1,5 @@
 package gui;
 
-import java.awt.event.MouseEvent;
-
 /**
  * Class that represents a button.
  * Copyright (c) 2021.
@@ -45,11 +43,12 @@ public class Button {
 	 * Presses the button. If the game state is one of the active states then
 	 * it will check to see if the click happened inside the button box.
 	 * It it did, then it will execute the lambda expression.
-	 * @param e
+	 * @param x
+	 * @param y
 	 */
-	public void pressButton(MouseEvent e) {
+	public void pressButton(int x, int y) {
 		for (GameState state : activeStates) {
-			if (state == handler.getGameState() && box.isInside(e.getX(), e.getY())) {
+			if (state == handler.getGameState() && box.isInside(x, y)) {
 				lambda.pressButton(handler);
 				break;
 			}
@@ -7,5 +7,5 @@ package gui;
  *
  */
 public enum ButtonID {
-	ONE, TWO, SCORES, CONTROLS, HUD, AGAIN, CLEAR;
+	ONE, TWO, AUTO, SCORES, CONTROLS, HUD, AGAIN, CLEAR, LEVEL;
 }
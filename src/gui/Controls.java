@@ -46,6 +46,8 @@ public class Controls implements Displayable {
 		g.drawString("For 1 Player: Use W, A, S, and D controls to move", 50, 335);
 		g.drawString("For 2 Players: Player 1 is white with W, A, S, and D controls", 50, 375);
 		g.drawString("Player 2 is blue with Up, Down, Left, and Right controls", 160, 400);
+		g.drawString("With more players player 3 uses I, J, K and L and player 4 the number pad", 160, 425);
+		g.drawString("F2 switches how the board is drawn", 50, 465);
 	}
 
 }
@@ -0,0 +1,294 @@
+package gui;
+
+import java.awt.Graphics;
+import java.util.Arrays;
+
+import model.SnakeBody;
+import model.TickDelta;
+
+/**
+ * Keeps the playfield image from frame to frame and only repaints the cells
+ * that changed since the state it painted last, which on a normal tick is a
+ * head, a tail and maybe an apple for each player. The changes come from the
+ * render state, and which player or apple is in a cell now is kept in an
+ * array of owners so a cell can be painted again on its own. The cells the
+ * sliding heads and tails touch are painted again every frame.
+ * <p>
+ * Only the cells that were painted are presented. The window has a few back
+ * buffers that take turns, so a cell is presented for as many frames as there
+ * are buffers and every buffer gets it. When too many cells changed, the
+ * changes do not go back to the state painted last or the renderer was
+ * invalidated, the whole playfield is painted and presented. A strip at the
+ * top is presented every frame since text is drawn over it.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class DirtyRenderer extends RasterRenderer {
+	private static final int EMPTY = 0, APPLE = -1, WHOLE = -1, MAX_PRESENTED = 1024;
+	private final int overlayHeight;
+	private final int[][] presented;
+	private final int[] presentedCounts;
+	private int frame, spanCount;
+	private int[] owners = new int[0], spans = new int[16];
+	private long painted = -1;
+	private boolean invalid = true;
+
+	/**
+	 * Constructor.
+	 * @param buffers number of back buffers the frames take turns in.
+	 * @param overlayHeight height of the strip at the top that is presented
+	 * every frame.
+	 */
+	public DirtyRenderer(int buffers, int overlayHeight) {
+		if (buffers < 1) {
+			throw new IllegalArgumentException("there has to be at least one buffer");
+		}
+		this.overlayHeight = overlayHeight;
+		presented = new int[buffers][16];
+		presentedCounts = new int[buffers];
+		Arrays.fill(presentedCounts, WHOLE);
+	}
+
+	@Override
+	public boolean isIncremental() {
+		return true;
+	}
+
+	@Override
+	public void invalidate() {
+		invalid = true;
+	}
+
+	@Override
+	public void render(Graphics g, RenderState state, double alpha) {
+		int start = -1;
+		if (!invalid && state.getTopology() == getTopology()) {
+			start = state.getChangeStart(painted);
+		}
+		frame = (frame + 1) % presented.length;
+		if (start < 0) {
+			super.render(g, state, alpha);
+			fillOwners(state);
+			presentedCounts[frame] = WHOLE;
+			invalid = false;
+			findSpans(state, alpha);
+		} else {
+			presentedCounts[frame] = 0;
+			for (int i = 0; i < spanCount; i ++) {
+				repaint(state, spans[i], true);
+			}
+			for (int i = start; i < state.getChangeCount(); i ++) {
+				applyChange(state, i);
+			}
+			findSpans(state, alpha);
+			for (int i = 0; i < spanCount; i ++) {
+				repaint(state, spans[i], !isMovingHead(state, spans[i], alpha));
+			}
+			drawSpans(state, alpha);
+			presentChanges(g);
+		}
+		painted = state.getSerial();
+	}
+
+	/**
+	 * Sets the owner of every cell from the whole state.
+	 * @param state
+	 */
+	private void fillOwners(RenderState state) {
+		int cells = state.getTopology().getGrid().getGridWidth() * state.getTopology().getGrid().getGridHeight();
+		if (owners.length != cells) {
+			owners = new int[cells];
+		} else {
+			Arrays.fill(owners, EMPTY);
+		}
+		for (int i = 0; i < state.getAppleCount(); i ++) {
+			owners[state.getApple(i)] = APPLE;
+		}
+		for (int id = 1; id <= state.getPlayerCount(); id ++) {
+			for (int i = 0; i < state.getLength(id); i ++) {
+				owners[state.getCell(id, i)] = id;
+			}
+		}
+	}
+
+	/**
+	 * Applies a change to the owner of its cell and paints the cell again.
+	 * @param state
+	 * @param index
+	 */
+	private void applyChange(RenderState state, int index) {
+		int cell = state.getChangeCell(index);
+		switch(state.getChangeType(index)) {
+			case TickDelta.VACATED : owners[cell] = EMPTY;
+				break;
+			case TickDelta.OCCUPIED : owners[cell] = state.getChangeOwner(index);
+				break;
+			case TickDelta.APPLE_ADDED : owners[cell] = APPLE;
+				break;
+			case TickDelta.APPLE_EATEN : owners[cell] = owners[cell] == APPLE ? EMPTY : owners[cell];
+				break;
+			default :
+				break;
+		}
+		repaint(state, cell, true);
+	}
+
+	/**
+	 * Paints a cell again from the board and, if asked, what is in it now,
+	 * and marks it to be presented.
+	 * @param state
+	 * @param cell
+	 * @param withOwner
+	 */
+	private void repaint(RenderState state, int cell, boolean withOwner) {
+		int gridWidth = state.getTopology().getGrid().getGridWidth();
+		int cellSize = state.getTopology().getGrid().getCellSize();
+		int x = (cell % gridWidth) * cellSize, y = (cell / gridWidth) * cellSize;
+		restoreBoard(x, y, cellSize, cellSize);
+		int owner = withOwner ? owners[cell] : EMPTY;
+		int offset = 0, size = 0;
+		if (owner == APPLE) {
+			setColor(1, state.getAppleColor());
+			offset = state.getAppleOffset();
+			size = state.getAppleSize();
+		} else if (owner > 0 && owner <= state.getPlayerCount()) {
+			setColor(owner + 1, state.getColor(owner));
+			offset = state.getOffset(owner);
+			size = state.getRectSize(owner);
+		}
+		if (owner != EMPTY) {
+			if (size <= 0) {
+				offset = 0;
+				size = cellSize;
+			}
+			fillRect(x + offset, y + offset, size, size);
+		}
+		markPresented(cell);
+	}
+
+	/**
+	 * Keeps the cells the sliding heads and tails of this frame touch.
+	 * @param state
+	 * @param alpha
+	 */
+	private void findSpans(RenderState state, double alpha) {
+		spanCount = 0;
+		if (!state.isMoving() || alpha >= 1) {
+			return;
+		}
+		for (int id = 1; id <= state.getPlayerCount(); id ++) {
+			if (state.getLength(id) == 0 || !state.isAlive(id)) {
+				continue;
+			}
+			addSpan(state.getPreviousHead(id));
+			addSpan(state.getHead(id));
+			addSpan(state.getTail(id));
+			if (state.getPreviousTail(id) != state.getTail(id)) {
+				addSpan(state.getPreviousTail(id));
+			}
+		}
+	}
+
+	/**
+	 * Adds a cell to the cells the spans touch.
+	 * @param cell
+	 */
+	private void addSpan(int cell) {
+		if (cell == SnakeBody.NONE) {
+			return;
+		}
+		if (spanCount == spans.length) {
+			spans = Arrays.copyOf(spans, spanCount * 2);
+		}
+		spans[spanCount ++] = cell;
+	}
+
+	/**
+	 * Returns true if the cell is the head of a player that is sliding into
+	 * it this frame, so only the span should be drawn in it.
+	 * @param state
+	 * @param cell
+	 * @param alpha
+	 * @return boolean
+	 */
+	private boolean isMovingHead(RenderState state, int cell, double alpha) {
+		int id = owners[cell];
+		return state.isMoving() && alpha < 1 && id > 0 && id <= state.getPlayerCount()
+				&& state.isAlive(id) && state.getHead(id) == cell;
+	}
+
+	/**
+	 * Draws the sliding heads and tails the same way a full frame does.
+	 * @param state
+	 * @param alpha
+	 */
+	private void drawSpans(RenderState state, double alpha) {
+		if (!state.isMoving() || alpha >= 1) {
+			return;
+		}
+		int gridWidth = state.getTopology().getGrid().getGridWidth();
+		int cellSize = state.getTopology().getGrid().getCellSize();
+		for (int id = 1; id <= state.getPlayerCount(); id ++) {
+			if (state.getLength(id) == 0 || !state.isAlive(id)) {
+				continue;
+			}
+			int offset = state.getOffset(id), size = state.getRectSize(id);
+			if (size <= 0) {
+				offset = 0;
+				size = cellSize;
+			}
+			setColor(id + 1, state.getColor(id));
+			int tail = state.getTail(id), before = state.getPreviousTail(id);
+			fillSpan(state.getPreviousHead(id), state.getHead(id), alpha, gridWidth, cellSize, offset, size);
+			if (before != tail) {
+				fillSpan(tail, before, 1 - alpha, gridWidth, cellSize, offset, size);
+			}
+		}
+	}
+
+	/**
+	 * Marks a cell to be presented this frame.
+	 * @param cell
+	 */
+	private void markPresented(int cell) {
+		int count = presentedCounts[frame];
+		if (count == WHOLE) {
+			return;
+		}
+		if (count == MAX_PRESENTED) {
+			presentedCounts[frame] = WHOLE;
+			return;
+		}
+		if (count == presented[frame].length) {
+			presented[frame] = Arrays.copyOf(presented[frame], count * 2);
+		}
+		presented[frame][count] = cell;
+		presentedCounts[frame] = count + 1;
+	}
+
+	/**
+	 * Presents the cells painted in this frame and in the frames before it
+	 * that went to the other buffers, and the strip at the top.
+	 * @param g
+	 */
+	private void presentChanges(Graphics g) {
+		int width = getImage().getWidth(), height = getImage().getHeight();
+		for (int count : presentedCounts) {
+			if (count == WHOLE) {
+				present(g, 0, 0, width, height);
+				return;
+			}
+		}
+		int gridWidth = getTopology().getGrid().getGridWidth(), cellSize = getTopology().getGrid().getCellSize();
+		for (int i = 0; i < presented.length; i ++) {
+			for (int j = 0; j < presentedCounts[i]; j ++) {
+				int cell = presented[i][j];
+				present(g, (cell % gridWidth) * cellSize, (cell / gridWidth) * cellSize, cellSize, cellSize);
+			}
+		}
+		if (overlayHeight > 0) {
+			present(g, 0, 0, width, Math.min(overlayHeight, height));
+		}
+	}
+}
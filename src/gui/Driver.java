@@ -1,7 +1,19 @@
 package gui;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import replay.Replay;
+
 /**
- * Driver for the program.
+ * Driver for the program. Passing --replay followed by a replay file opens
+ * that replay instead of the menu. Passing --perfect makes the autopilot
+ * follow a Hamiltonian cycle so it fills the whole board and --mcts makes it
+ * use the Monte Carlo bot. Passing --players followed by a number sets how many
+ * snakes the multiplayer mode has. Passing --fps followed by a number caps
+ * how many frames are drawn per second and --renderer followed by shapes,
+ * segments, raster or dirty sets how the board is drawn. Passing --stats
+ * prints the dropped ticks and frames once a second.
  * Copyright (c) 2021.
  * @author Jaraad Kamal
  *
@@ -11,5 +23,30 @@ public class Driver {
 	public static void main(String[] args) {
 		Game game = Game.getInstance();
 		game.start();
+		if (args.length == 1 && args[0].equals("--perfect")) {
+			game.usePerfectAutopilot();
+		}
+		if (args.length == 1 && args[0].equals("--mcts")) {
+			game.useMonteCarloAutopilot();
+		}
+		if (args.length == 2 && args[0].equals("--players")) {
+			game.setMultiplayerCount(Integer.parseInt(args[1]));
+		}
+		if (args.length == 2 && args[0].equals("--fps")) {
+			game.setFrameRate(Double.parseDouble(args[1]));
+		}
+		if (args.length == 1 && args[0].equals("--stats")) {
+			game.setReporting(true);
+		}
+		if (args.length == 2 && args[0].equals("--renderer")) {
+			game.setRenderMode(RenderMode.valueOf(args[1].toUpperCase()));
+		}
+		if (args.length == 2 && args[0].equals("--replay")) {
+			try {
+				game.playReplay(Replay.read(Paths.get(args[1])));
+			} catch (IOException e) {
+				System.err.println("could not read replay " + args[1]);
+			}
+		}
 	}
 }
@@ -0,0 +1,265 @@
+package gui;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Clock of the game loop. Ticks run on a fixed timestep: every tick has its
+ * own slot and a loop that fell behind runs the missed ones, but never more
+ * than the maximum catch up in one go. Slots past that are dropped so a slow
+ * tick can not make the loop spiral. Frames have their own cap and a frame
+ * slot that is missed is dropped instead of rendered twice.
+ * <p>
+ * Ticks and frames can be run by two threads: the tick methods are only
+ * called by the tick thread and the frame methods only by the render thread.
+ * The counters and the idle flag can be read from either. Between slots a
+ * thread parks and only spins for the last bit before the deadline, since
+ * parking can wake up late. While idle, which is any screen where nothing
+ * moves, ticks are not run and frames are rendered at a low rate, so the
+ * menus take almost no CPU. Nothing here reads the clock itself except
+ * await(); the time is always passed in so the scheduler can be driven by a
+ * fake clock.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class FrameScheduler {
+	public static final double IDLE_FRAME_RATE = 5.0;
+	private static final long SECOND = 1_000_000_000L, SPIN_NANOS = 200_000L;
+	private static final long IDLE_NANOS = (long) (SECOND / IDLE_FRAME_RATE);
+	private volatile boolean idle;
+
+	// only changed by the tick thread
+	private long tickNanos, nextTick;
+	private int maxCatchUp;
+	private volatile long ticks, droppedTicks;
+
+	// only changed by the render thread
+	private long frameNanos, lastFrame;
+	private volatile long frames, droppedFrames, lateFrames;
+
+	/**
+	 * Constructor.
+	 * @param ticksPerSecond
+	 * @param framesPerSecond
+	 * @param maxCatchUp most ticks run in one go when the loop is behind.
+	 * @param now
+	 */
+	public FrameScheduler(double ticksPerSecond, double framesPerSecond, int maxCatchUp, long now) {
+		setTickRate(ticksPerSecond, now);
+		setFrameRate(framesPerSecond, now);
+		setMaxCatchUp(maxCatchUp);
+	}
+
+	/**
+	 * Sets the tick rate. The next tick is one new period from now.
+	 * @param ticksPerSecond
+	 * @param now
+	 */
+	public void setTickRate(double ticksPerSecond, long now) {
+		if (!(ticksPerSecond > 0)) {
+			throw new IllegalArgumentException("tick rate has to be positive");
+		}
+		tickNanos = Math.max(1, (long) (SECOND / ticksPerSecond));
+		nextTick = now + tickNanos;
+	}
+
+	/**
+	 * Sets the most frames rendered per second while not idle. The next frame
+	 * is due right away.
+	 * @param framesPerSecond
+	 * @param now
+	 */
+	public void setFrameRate(double framesPerSecond, long now) {
+		if (!(framesPerSecond > 0)) {
+			throw new IllegalArgumentException("frame rate has to be positive");
+		}
+		frameNanos = Math.max(1, (long) (SECOND / framesPerSecond));
+		lastFrame = now - frameNanos;
+	}
+
+	/**
+	 * Sets the most ticks run in one go when the loop is behind.
+	 * @param maxCatchUp
+	 */
+	public void setMaxCatchUp(int maxCatchUp) {
+		if (maxCatchUp < 1) {
+			throw new IllegalArgumentException("max catch up has to be at least one");
+		}
+		this.maxCatchUp = maxCatchUp;
+	}
+
+	/**
+	 * Makes the scheduler idle or not. Going back from idle starts the tick
+	 * clock again from now so the idle time is not caught up. Only the tick
+	 * thread may call this.
+	 * @param idle
+	 * @param now
+	 */
+	public void setIdle(boolean idle, long now) {
+		if (this.idle && !idle) {
+			nextTick = now + tickNanos;
+		}
+		this.idle = idle;
+	}
+
+	/**
+	 * Returns true if the scheduler is idle.
+	 * @return boolean
+	 */
+	public boolean isIdle() {
+		return idle;
+	}
+
+	/**
+	 * Returns how many ticks are due now and moves the tick clock past them.
+	 * At most the maximum catch up is returned and the slots past that are
+	 * counted as dropped. While idle no tick is ever due and the tick thread
+	 * only has to wake up now and then.
+	 * @param now
+	 * @return int ticks to run
+	 */
+	public int ticksDue(long now) {
+		if (idle) {
+			nextTick = now + Math.max(tickNanos, IDLE_NANOS);
+			return 0;
+		}
+		int due = 0;
+		while (now - nextTick >= 0 && due < maxCatchUp) {
+			nextTick += tickNanos;
+			due ++;
+		}
+		if (now - nextTick >= 0) {
+			long behind = (now - nextTick) / tickNanos + 1;
+			nextTick += behind * tickNanos;
+			droppedTicks += behind;
+		}
+		ticks += due;
+		return due;
+	}
+
+	/**
+	 * Returns the time the tick thread should wake up at.
+	 * @return long nano time
+	 */
+	public long nextTickDeadline() {
+		return nextTick;
+	}
+
+	/**
+	 * Returns true if a frame should be rendered now. If so the frame clock
+	 * moves on to the next slot. Whole slots that were missed are counted as
+	 * dropped and a frame more than half a slot past its own slot is counted
+	 * as late. The slots are one frame period apart, which is longer while
+	 * idle, and a frame is due as soon as the scheduler stops being idle.
+	 * @param now
+	 * @return boolean
+	 */
+	public boolean frameDue(long now) {
+		long period = getFramePeriod(), slot = lastFrame + period;
+		if (now - slot < 0) {
+			return false;
+		}
+		long behind = (now - slot) / period;
+		if (behind > 0) {
+			droppedFrames += behind;
+		}
+		if (now - slot - behind * period > period / 2) {
+			lateFrames ++;
+		}
+		lastFrame = slot + behind * period;
+		frames ++;
+		return true;
+	}
+
+	/**
+	 * Returns the time the render thread should wake up at.
+	 * @return long nano time
+	 */
+	public long nextFrameDeadline() {
+		return lastFrame + getFramePeriod();
+	}
+
+	/**
+	 * Waits until the deadline. The thread is parked until close to the
+	 * deadline and then spins for the rest. Returns early, and returns false,
+	 * as soon as the wake up check is true, which is how new input cuts the
+	 * wait short. The thread waiting here can be woken with
+	 * LockSupport.unpark().
+	 * @param deadline nano time.
+	 * @param wakeUp checked every time the thread wakes, may be null.
+	 * @return true if the deadline was reached.
+	 */
+	public static boolean await(long deadline, BooleanSupplier wakeUp) {
+		for (;;) {
+			if (wakeUp != null && wakeUp.getAsBoolean()) {
+				return false;
+			}
+			long left = deadline - System.nanoTime();
+			if (left <= 0) {
+				return true;
+			}
+			if (left > SPIN_NANOS) {
+				LockSupport.parkNanos(left - SPIN_NANOS);
+			} else {
+				Thread.onSpinWait();
+			}
+		}
+	}
+
+	/**
+	 * Returns the time between ticks.
+	 * @return long nanos
+	 */
+	public long getTickPeriod() {
+		return tickNanos;
+	}
+
+	/**
+	 * Returns the time between frames, which is longer while idle.
+	 * @return long nanos
+	 */
+	public long getFramePeriod() {
+		return idle ? Math.max(frameNanos, IDLE_NANOS) : frameNanos;
+	}
+
+	/**
+	 * Returns the number of ticks run.
+	 * @return long ticks
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Returns the number of ticks dropped because the loop was too far behind.
+	 * @return long ticks
+	 */
+	public long getDroppedTicks() {
+		return droppedTicks;
+	}
+
+	/**
+	 * Returns the number of frames rendered.
+	 * @return long frames
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Returns the number of frame slots that were missed.
+	 * @return long frames
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+
+	/**
+	 * Returns the number of frames that were rendered late.
+	 * @return long frames
+	 */
+	public long getLateFrames() {
+		return lateFrames;
+	}
+}
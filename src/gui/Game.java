@@ -1,9 +1,19 @@
 package gui;
 
+import java.awt.BufferCapabilities;
+import java.awt.BufferCapabilities.FlipContents;
 import java.awt.Canvas;
-import java.awt.Color;
+import java.awt.DisplayMode;
 import java.awt.Graphics;
+import java.awt.GraphicsEnvironment;
+import java.awt.HeadlessException;
 import java.awt.image.BufferStrategy;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import bot.HamiltonianPilot;
+import bot.MonteCarloBot;
+import replay.Replay;
 
 /**
  * Game loop class. Has the game loop that calls the render and tick.
@@ -16,14 +26,18 @@ public class Game extends Canvas implements Runnable {
 	 * 
 	 */
 	private static final long serialVersionUID = 242446397740476223L;
-	public static final int WIDTH = 900, HEIGHT = WIDTH / 12 * 9;
+	public static final int WIDTH = 900, HEIGHT = WIDTH / 12 * 9, BUFFERS = 3;
+	private static final long MCTS_BUDGET_NANOS = 30_000_000L, REPORT_NANOS = 1_000_000_000L;
+	private static final int MAX_CATCH_UP = 5;
+	private static final double DEFAULT_FRAME_RATE = 60.0;
 	private static Game instance = null;
-	public double ticksPerSecond = 15.0, timeBetweenTick = 1000000000 / ticksPerSecond;
-	private Thread thread;
-	private boolean running = false;
+	public volatile double ticksPerSecond = 15.0, framesPerSecond = DEFAULT_FRAME_RATE;
+	private Thread thread, renderThread;
+	private volatile FrameScheduler scheduler;
+	private volatile boolean running = false, renderRequested, reporting;
 	private Handler handler;
 	private Window window;
-	private GameState state = GameState.MENU;
+	private volatile GameState state = GameState.MENU;
 
 	/**
 	 * Private constructor for singleton class.
@@ -32,7 +46,24 @@ public class Game extends Canvas implements Runnable {
 		handler = Handler.getInstance(WIDTH, HEIGHT, this, false);
 		
 		this.addKeyListener(KeyInput.getInstance(handler));
+		MouseInput.getInstance().setInputQueue(handler.getInputQueue());
 		this.addMouseListener(MouseInput.getInstance());
+		framesPerSecond = getDisplayRate();
+	}
+	
+	/**
+	 * Returns the refresh rate of the screen, which is what frames are capped
+	 * to by default, or DEFAULT_FRAME_RATE if it is not known.
+	 * @return double frames per second
+	 */
+	private static double getDisplayRate() {
+		try {
+			int rate = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+					.getDisplayMode().getRefreshRate();
+			return rate == DisplayMode.REFRESH_RATE_UNKNOWN ? DEFAULT_FRAME_RATE : rate;
+		} catch (HeadlessException e) {
+			return DEFAULT_FRAME_RATE;
+		}
 	}
 	
 	/**
@@ -51,24 +82,32 @@ public class Game extends Canvas implements Runnable {
 	
 	
 	/**
-	 * single threaded game. Fine for smaller games not so for larger ones.
+	 * Starts the game loop on two threads: the tick thread runs the input and
+	 * the game logic and the render thread draws the frames.
 	 */
 	public synchronized void start() {
 		if (!running) {
-			thread = new Thread(this);
+			running = true;
+			scheduler = new FrameScheduler(ticksPerSecond, framesPerSecond, MAX_CATCH_UP, System.nanoTime());
+			thread = new Thread(this, "tick");
+			renderThread = new Thread(this::runRender, "render");
+			handler.getInputQueue().setReader(thread);
 			thread.start();
+			renderThread.start();
 		}
-		running = true;
 	}
 	
 	/**
-	 * This is the stop method that stops the game loop.
+	 * This is the stop method that stops both threads of the game loop.
 	 */
 	public synchronized void stop() {
-		if (running) {
+		if (running && Thread.currentThread() != thread && Thread.currentThread() != renderThread) {
 			try {
-				thread.join();
 				running = false;
+				LockSupport.unpark(thread);
+				LockSupport.unpark(renderThread);
+				thread.join();
+				renderThread.join();
 			} catch (InterruptedException e) {
 				e.printStackTrace();
 			}
@@ -77,36 +116,117 @@ public class Game extends Canvas implements Runnable {
 	
 	
 	/**
-	 * Method called by the thread; this is the game loop
+	 * Method called by the tick thread; this is the game loop. Ticks run on a
+	 * fixed timestep set by the FrameScheduler, which parks the thread in
+	 * between. Input is drained at the start of every tick. After each tick
+	 * the handler publishes a render state and the render thread is asked to
+	 * draw it. On the menus and the game over pop up the loop goes idle: no
+	 * ticks run and the thread only wakes up for input. When the loop comes
+	 * out of idle the render thread is woken so the first frame of the game
+	 * does not wait for an idle frame slot. If reporting is on, dropped ticks
+	 * and frames are printed once a second.
 	 */
 	public void run() {
-		long lastTime = System.nanoTime();
-		timeBetweenTick = 1000000000 / ticksPerSecond;
-		double delta = 0;
-		long timer = System.currentTimeMillis();
-//		int frames = 0;
+		long now = System.nanoTime(), report = now + REPORT_NANOS;
+		double tickRate = ticksPerSecond;
+		InputQueue input = handler.getInputQueue();
+		BooleanSupplier wakeUp = () -> !input.isEmpty() || handler.hasPendingReplay() || !running;
+		long dropped = 0;
 		while (running) {
-			long now = System.nanoTime();
-			delta += (now - lastTime) / timeBetweenTick;
-			lastTime = now;
-			while (delta >= 1) {
+			now = System.nanoTime();
+			if (tickRate != ticksPerSecond) {
+				tickRate = ticksPerSecond;
+				scheduler.setTickRate(tickRate, now);
+			}
+			boolean changed = handler.pollInput() > 0, wasIdle = scheduler.isIdle();
+			scheduler.setIdle(handler.isIdle(), now);
+			int ticks = scheduler.ticksDue(now);
+			for (int i = 0; i < ticks; i ++) {
+				if (i > 0) {
+					handler.pollInput();
+				}
 				tick();
-				delta --;
 			}
-			if (running) {
-				render();
+			if ((changed && scheduler.isIdle()) || (wasIdle && !scheduler.isIdle())) {
+				renderRequested = true;
+				LockSupport.unpark(renderThread);
 			}
-//			frames ++;
 			
-			if (System.currentTimeMillis() - timer > 1000) {
-				timer += 1000;
-//				System.out.println("FPS: " + frames);
-//				frames = 0;
+			if (reporting && now - report >= 0) {
+				report = now + REPORT_NANOS;
+				long total = scheduler.getDroppedTicks() + scheduler.getDroppedFrames()
+						+ scheduler.getLateFrames();
+				if (total > dropped) {
+					System.out.println("dropped " + scheduler.getDroppedTicks() + " ticks and "
+							+ scheduler.getDroppedFrames() + " frames, " + scheduler.getLateFrames()
+							+ " frames late, input delay up to "
+							+ handler.takeInputDelay() / 1000 + " micro seconds");
+					dropped = total;
+				}
 			}
+			FrameScheduler.await(scheduler.nextTickDeadline(), wakeUp);
 		}
 		stop();
-		
-		
+	}
+	
+	/**
+	 * Method called by the render thread. Draws a frame in every frame slot of
+	 * the FrameScheduler, and right away when the tick thread asks for one 
+	 * while idle so input on the menus shows up without waiting for a slot.
+	 * Frames only ever read the newest render state of the handler, never the
+	 * model, so a slow frame never holds up a tick.
+	 */
+	private void runRender() {
+		double frameRate = framesPerSecond;
+		BooleanSupplier wakeUp = () -> renderRequested || !running;
+		while (running) {
+			long now = System.nanoTime();
+			if (frameRate != framesPerSecond) {
+				frameRate = framesPerSecond;
+				scheduler.setFrameRate(frameRate, now);
+			}
+			boolean due = scheduler.frameDue(now);
+			if (renderRequested || due) {
+				renderRequested = false;
+				render();
+			}
+			FrameScheduler.await(scheduler.nextFrameDeadline(), wakeUp);
+		}
+	}
+	
+	/**
+	 * Turns printing the dropped ticks and frames once a second on or off.
+	 * @param reporting
+	 */
+	public void setReporting(boolean reporting) {
+		this.reporting = reporting;
+	}
+	
+	/**
+	 * Returns the number of ticks dropped because the loop fell too far behind.
+	 * @return long ticks
+	 */
+	public long getDroppedTicks() {
+		FrameScheduler current = scheduler;
+		return current == null ? 0 : current.getDroppedTicks();
+	}
+	
+	/**
+	 * Returns the number of frame slots that were missed.
+	 * @return long frames
+	 */
+	public long getDroppedFrames() {
+		FrameScheduler current = scheduler;
+		return current == null ? 0 : current.getDroppedFrames();
+	}
+	
+	/**
+	 * Returns the number of frames that were rendered late.
+	 * @return long frames
+	 */
+	public long getLateFrames() {
+		FrameScheduler current = scheduler;
+		return current == null ? 0 : current.getLateFrames();
 	}
 	
 	/**
@@ -122,11 +242,10 @@ public class Game extends Canvas implements Runnable {
 	 * @param ticksPerSecond
 	 */
 	public void setTickRate(double ticksPerSecond) {
-		if (ticksPerSecond == 0) {
-			throw new IllegalArgumentException("ticksPerSecond cannot be 0");
+		if (!(ticksPerSecond > 0)) {
+			throw new IllegalArgumentException("ticksPerSecond has to be positive");
 		}
 		this.ticksPerSecond = ticksPerSecond; 
-		this.timeBetweenTick = 1000000000 / ticksPerSecond;
 	}
 	
 	/**
@@ -137,6 +256,25 @@ public class Game extends Canvas implements Runnable {
 		return ticksPerSecond;
 	}
 	
+	/**
+	 * Sets the most frames rendered per second while a game is showing.
+	 * @param framesPerSecond
+	 */
+	public void setFrameRate(double framesPerSecond) {
+		if (!(framesPerSecond > 0)) {
+			throw new IllegalArgumentException("framesPerSecond has to be positive");
+		}
+		this.framesPerSecond = framesPerSecond;
+	}
+	
+	/**
+	 * Sets how the playfield is drawn.
+	 * @param renderMode
+	 */
+	public void setRenderMode(RenderMode renderMode) {
+		handler.setRenderMode(renderMode);
+	}
+	
 	/**
 	 * Gets the current game state. Whether it is running the game logic
 	 * or in the menu or otherwise. 
@@ -146,6 +284,41 @@ public class Game extends Canvas implements Runnable {
 		return state;
 	}
 	
+	/**
+	 * Shows the given replay.
+	 * @param replay
+	 */
+	public void playReplay(Replay replay) {
+		handler.requestReplay(replay);
+		LockSupport.unpark(thread);
+	}
+	
+	/**
+	 * Sets how many players the multiplayer mode has. Players without keys
+	 * are played by the autopilot.
+	 * @param players
+	 */
+	public void setMultiplayerCount(int players) {
+		handler.setMultiplayerCount(players);
+	}
+	
+	/**
+	 * Makes the autopilot mode follow a Hamiltonian cycle so it can fill the
+	 * whole board.
+	 */
+	public void usePerfectAutopilot() {
+		handler.setAutopilot(HamiltonianPilot::new);
+	}
+	
+	/**
+	 * Makes the autopilot mode use the Monte Carlo bot on every core.
+	 */
+	public void useMonteCarloAutopilot() {
+		MonteCarloBot bot = new MonteCarloBot();
+		bot.setBudgetNanos(MCTS_BUDGET_NANOS);
+		handler.setAutopilot(() -> bot);
+	}
+	
 	/**
 	 * Performs the logic for the next frame.
 	 */
@@ -154,25 +327,29 @@ public class Game extends Canvas implements Runnable {
 	}
 	
 	/**
-	 * Creates a buffer and renders.
+	 * Creates a buffer and renders. A frame is drawn again if the buffer was
+	 * restored while drawing it and the handler is told to paint everything
+	 * whenever the back buffer may not hold what was drawn into it before.
 	 */
 	private void render() {
 		BufferStrategy bs = this.getBufferStrategy();
 		if (bs == null) {
-			this.createBufferStrategy(3);
+			this.createBufferStrategy(BUFFERS);
 			return;
 		}
 		
-		
-		Graphics g = bs.getDrawGraphics();
-		g.setColor(Color.black);
-		g.fillRect(0, 0, WIDTH, HEIGHT);
-		
-		
-		handler.render(g);
-		
-		g.dispose();
-		bs.show();
+		BufferCapabilities caps = bs.getCapabilities();
+		boolean repaint = caps.isPageFlipping() && caps.getFlipContents() != FlipContents.COPIED
+				&& caps.getFlipContents() != FlipContents.PRIOR;
+		do {
+			do {
+				Graphics g = bs.getDrawGraphics();
+				handler.renderFrame(g, repaint);
+				g.dispose();
+				repaint = true;
+			} while (bs.contentsRestored());
+			bs.show();
+		} while (bs.contentsLost());
 	}
 	
 }
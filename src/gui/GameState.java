@@ -7,5 +7,5 @@ package gui;
  *
  */
 public enum GameState {
-	ONEPLAYER, TWOPLAYER, MENU, PAUSED, CONTROLS, SCORES
+	ONEPLAYER, TWOPLAYER, MENU, PAUSED, CONTROLS, SCORES, REPLAY, AUTOPILOT
 }
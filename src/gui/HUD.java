@@ -12,6 +12,7 @@ import java.awt.Graphics;
  *
  */
 public class HUD implements OverHead {
+	private static final Font FONT = new Font("arial", 1, 15);
 	private static HUD instance;
 	private boolean visible;
 	private Box hudBox;
@@ -55,7 +56,8 @@ public class HUD implements OverHead {
 			instance = new HUD(handler);
 			GameState activeStates[] = {
 					GameState.CONTROLS, GameState.ONEPLAYER,
-					GameState.TWOPLAYER, GameState.PAUSED, GameState.SCORES
+					GameState.TWOPLAYER, GameState.PAUSED, GameState.SCORES,
+					GameState.REPLAY, GameState.AUTOPILOT
 			};
 			Button button = new Button(instance.hudBox, instance.handler, ButtonID.HUD, 
 					activeStates, (handlerToUse) -> {
@@ -69,7 +71,7 @@ public class HUD implements OverHead {
 	@Override
 	public void render(Graphics g) {
 		if (visible) {
-			g.setFont(new Font("arial", 1, 15));
+			g.setFont(FONT);
 			g.setColor(Color.WHITE);
 			g.drawString("Menu", 15, 25);
 		}
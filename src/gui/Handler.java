@@ -1,12 +1,24 @@
 package gui;
 
+import java.awt.Color;
+import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.event.KeyEvent;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Supplier;
 
-import model.Cell;
+import bot.Autopilot;
 import model.GameModel;
-import model.GameObject;
+import model.GameRandom;
+import model.InputPolicy;
+import model.LevelFile;
+import model.Topology;
+import replay.Replay;
+import replay.ReplayPlayer;
+import replay.ReplayRecorder;
 
 /**
  * Updates and render all objects in the game. It communicates between the 
@@ -16,10 +28,14 @@ import model.GameObject;
  * @author Jaraad Kamal
  *
  */
-public class Handler implements Displayable {
+public class Handler implements Displayable, InputListener {
+	public static final String REPLAY_LOCATION = "Assets/Replays/last.replay";
+	private static final int KEYFRAME_INTERVAL = 256, INPUT_QUEUE_SIZE = 256;
+	public static final int OVERLAY_HEIGHT = 40;
+	private static final Font STATUS_FONT = new Font("arial", 1, 15);
 	private static Handler instance = null;
 	
-	private Map<Cell, GameObject> objectMap;
+	private final InputQueue inputQueue = new InputQueue(INPUT_QUEUE_SIZE);
 	private Game game;
 	private Menu menu;
 	private Controls controlsPage;
@@ -27,10 +43,34 @@ public class Handler implements Displayable {
 	private GameModel model;
 	private OverHead hud, popUp;
 	private GameState prevState;
-	
-	
-	private int width, height;
-	private boolean firstPress = false, highScore;
+	private ReplayRecorder recorder;
+	private Replay lastReplay;
+	private ReplayPlayer replayPlayer;
+	private InputPolicy autopilot;
+	private InputPolicy[] bots = new InputPolicy[0];
+	private Supplier<InputPolicy> autopilotFactory = Autopilot::new;
+	private List<Path> levels;
+	private Topology level;
+	private int levelIndex = -1;
+	private long inputDelay;
+	private final RenderBuffer renderBuffer = new RenderBuffer();
+	private final PlayfieldRenderer[] renderers = new PlayfieldRenderer[RenderMode.values().length];
+	private volatile RenderMode renderMode = RenderMode.SHAPES;
+	
+	// only used by the render thread
+	private GameState paintedState;
+	private PlayfieldRenderer paintedRenderer;
+	private int fullFrames;
+	private GameModel publishedModel;
+	private long publishedTick;
+	private volatile Replay pendingReplay;
+	private volatile String gameOverText = "";
+	private volatile long replayEnd;
+	
+	
+	private int width, height, multiplayerCount = 2;
+	private boolean firstPress = false;
+	private volatile boolean highScore, replayPlaying;
 	
 	/**
 	 * Private constructor for single design.
@@ -47,6 +87,9 @@ public class Handler implements Displayable {
 		this.height = height;
 		this.game = game;
 		controlsPage = Controls.getInstance();
+		for (RenderMode mode : RenderMode.values()) {
+			renderers[mode.ordinal()] = mode.newRenderer();
+		}
 		
 		prevState = GameState.MENU;
 		
@@ -105,15 +148,27 @@ public class Handler implements Displayable {
 	}
 	
 	/**
-	 * Returns text that will be displayed when the game ends. 
+	 * Returns text that will be displayed when the game ends. It is made by
+	 * the tick that ends the game so the pop up never reads the model.
 	 * @return
 	 */
 	public String getGameOverText() {
+		return gameOverText;
+	}
+	
+	/**
+	 * Makes the text that will be displayed when the game ends.
+	 * @return
+	 */
+	private String makeGameOverText() {
 		String answer = "";
 		if (model.isGameOver()) {
-			if (model.isTwoPlayer()) {
-				answer += model.getLosingPlayer() == 1 ? "Player 2" : "Player 1";
-				answer += " wins ";
+			if (model.getPlayerCount() > 1) {
+				int winner = model.getWinningPlayer();
+				answer += winner == 0 ? "Nobody wins " : "Player " + winner + " wins ";
+			} else if (autopilot != null) {
+				answer += "Autopilot got ";
+				answer += "\n" + model.getScore() + " points.";
 			} else {
 				answer += "You lose. You get ";
 				answer += "\n" + model.getScore() + " points.";
@@ -141,20 +196,105 @@ public class Handler implements Displayable {
 	
 	
 	
+	/**
+	 * Returns the queue the key and mouse listeners add their input to. It is
+	 * drained by pollInput() on the game loop.
+	 * @return InputQueue
+	 */
+	public InputQueue getInputQueue() {
+		return inputQueue;
+	}
+	
+	/**
+	 * Handles every key press and click added to the input queue since the
+	 * last call. Only the game loop calls this, at the start of each tick, so
+	 * the game is never changed from the AWT event thread.
+	 * @return int events handled
+	 */
+	public int pollInput() {
+		int count = 0;
+		Replay replay = pendingReplay;
+		if (replay != null) {
+			pendingReplay = null;
+			startReplay(replay);
+			count ++;
+		}
+		return count + inputQueue.drain(this);
+	}
+	
+	/**
+	 * Asks the game loop to play back the given replay. It is started by the
+	 * next pollInput() so the model is only swapped on the game loop.
+	 * @param replay
+	 */
+	public void requestReplay(Replay replay) {
+		if (replay == null) {
+			throw new IllegalArgumentException("null replay");
+		}
+		pendingReplay = replay;
+	}
+	
+	/**
+	 * Returns true if a replay was asked for and not started yet.
+	 * @return boolean
+	 */
+	public boolean hasPendingReplay() {
+		return pendingReplay != null;
+	}
+	
+	/**
+	 * Returns the longest time an input waited in the queue since the last
+	 * call, and starts over.
+	 * @return long nanos
+	 */
+	public long takeInputDelay() {
+		long delay = inputDelay;
+		inputDelay = 0;
+		return delay;
+	}
+	
+	@Override
+	public void keyPressed(int keyCode, long when) {
+		inputDelay = Math.max(inputDelay, System.nanoTime() - when);
+		pressKey(keyCode);
+	}
+	
+	@Override
+	public void mousePressed(int x, int y, long when) {
+		inputDelay = Math.max(inputDelay, System.nanoTime() - when);
+		MouseInput.getInstance().pressButtons(x, y);
+	}
+	
 	/**
 	 * Method called by the Key input when a key is pressed. It will then call
 	 * the model.ChangeHeading() method. If it the first time movement key has been 
 	 * pressed then it will start game. If the escape key is pressed at any time
-	 * Then the game will change state to the menu.
+	 * Then the game will change state to the menu. Pressing R on the game over
+	 * pop up plays back the game that just ended and F2 switches to the next
+	 * render mode.
 	 * @param keyPress
 	 */
 	public void pressKey(int keyPress) {
 		if (keyPress == KeyEvent.VK_ESCAPE) {
 			showMenu();
 		}
+		if (keyPress == KeyEvent.VK_F2) {
+			RenderMode[] modes = RenderMode.values();
+			setRenderMode(modes[(renderMode.ordinal() + 1) % modes.length]);
+			return;
+		}
+		if (game.getState() == GameState.REPLAY) {
+			pressReplayKey(keyPress);
+			publishRenderState();
+			return;
+		}
+		if (game.getState() == GameState.PAUSED && keyPress == KeyEvent.VK_R && lastReplay != null) {
+			startReplay(lastReplay);
+			return;
+		}
 		
-		if (model != null) {
-			if (model.isTwoPlayer()) {
+		if (model != null && autopilot == null) {
+			if (model.getPlayerCount() > 1) {
 				firstPress = firstPress || keyPress == KeyEvent.VK_SPACE;
 				model.changeHeading(keyPress);
 			} else {
@@ -167,23 +307,200 @@ public class Handler implements Displayable {
 	/**
 	 * performs the logic for the next frame. If the direction key has never
 	 * been pressed then it will perform nothing. Once a key is pressed the game
-	 * logic will start. If the model says the game is over the handler will 
-	 * stop the game loop.
+	 * logic will start. Players that have no keys are moved by bots. If the 
+	 * model says the game is over the handler will stop the game loop.
 	 */
 	public void tick() {
-		if (game.getState() == GameState.ONEPLAYER || game.getState() == GameState.TWOPLAYER) {
+		if (game.getState() == GameState.ONEPLAYER || game.getState() == GameState.TWOPLAYER
+				|| game.getState() == GameState.AUTOPILOT) {
+			if (autopilot != null) {
+				model.changeHeading(1, autopilot.chooseHeading(model, 1));
+				firstPress = true;
+			}
 			if (firstPress) {
+				for (int i = 0; i < bots.length; i ++) {
+					int id = model.getPlayerCount() - bots.length + i + 1;
+					if (model.getPlayer(id).isAlive()) {
+						model.changeHeading(id, bots[i].chooseHeading(model, id));
+					}
+				}
 				model.nextAnimationStep();
 			}
 			if (model.isGameOver()) {
 				prevState = game.getState();
 				game.setState(GameState.PAUSED);
-				highScore = model.addHighScore();
+				popUp.setVisible(true);
+				highScore = autopilot == null && model.addHighScore();
+				gameOverText = makeGameOverText();
+				saveReplay();
 			}
+		} else if (game.getState() == GameState.REPLAY && replayPlaying) {
+			replayPlaying = replayPlayer.step();
 		}
-		
+		publishRenderState();
+	}
+	
+	/**
+	 * Publishes the state of the model to the renderer if it moved on since
+	 * the last one. The first state of a new model is not interpolated with
+	 * the ones before it.
+	 */
+	private void publishRenderState() {
+		if (model == null || (model == publishedModel && model.getTick() == publishedTick)) {
+			return;
+		}
+		if (model != publishedModel) {
+			renderBuffer.restart();
+			publishedModel = model;
+		}
+		publishedTick = model.getTick();
+		renderBuffer.publish(model, System.nanoTime());
+	}
+	
+	/**
+	 * Sets how the playfield is drawn. It takes effect from the next frame.
+	 * @param renderMode
+	 */
+	public void setRenderMode(RenderMode renderMode) {
+		if (renderMode == null) {
+			throw new IllegalArgumentException("null render mode");
+		}
+		this.renderMode = renderMode;
 	}
 	
+	/**
+	 * Returns how the playfield is drawn.
+	 * @return RenderMode
+	 */
+	public RenderMode getRenderMode() {
+		return renderMode;
+	}
+	
+	/**
+	 * Returns true while nothing on the screen moves on its own: the menus, 
+	 * the game over pop up, a paused replay and a game still waiting for its
+	 * first key press. The game loop runs no ticks and draws few frames then.
+	 * @return boolean
+	 */
+	public boolean isIdle() {
+		switch(game.getState()) {
+			case ONEPLAYER :
+			case TWOPLAYER : return !firstPress;
+			case AUTOPILOT : return false;
+			case REPLAY : return !replayPlaying;
+			default : return true;
+		}
+	}
+	
+	/**
+	 * Sets how many players the multiplayer mode has. Players past the ones 
+	 * that have keys are played by the autopilot.
+	 * @param players
+	 */
+	public void setMultiplayerCount(int players) {
+		if (players < 2) {
+			throw new IllegalArgumentException("multiplayer needs at least two players");
+		}
+		multiplayerCount = players;
+	}
+	
+	/**
+	 * Moves the menu on to the next level file in LevelFile.LEVEL_LOCATION,
+	 * going back to the classic board after the last one. A level is drawn 
+	 * with the biggest cells that still fit it in the window.
+	 */
+	public synchronized void nextLevel() {
+		if (levels == null) {
+			levels = LevelFile.list(Paths.get(LevelFile.LEVEL_LOCATION));
+		}
+		levelIndex = levelIndex + 1 < levels.size() ? levelIndex + 1 : -1;
+		level = null;
+		if (levelIndex < 0) {
+			return;
+		}
+		try {
+			Topology loaded = LevelFile.load(levels.get(levelIndex), 1);
+			int cellSize = Math.max(1, Math.min(width / loaded.getGrid().getGridWidth(),
+					height / loaded.getGrid().getGridHeight()));
+			level = loaded.withCellSize(cellSize);
+		} catch (IOException e) {
+			System.err.println("could not read level " + levels.get(levelIndex));
+			levelIndex = -1;
+		}
+	}
+	
+	/**
+	 * Returns the name of the level picked in the menu.
+	 * @return String name
+	 */
+	public String getLevelName() {
+		if (level == null) {
+			return "Classic";
+		}
+		String name = levels.get(levelIndex).getFileName().toString();
+		return name.substring(0, name.lastIndexOf('.'));
+	}
+	
+	/**
+	 * Sets what plays the game in the autopilot mode.
+	 * @param autopilotFactory
+	 */
+	public void setAutopilot(Supplier<InputPolicy> autopilotFactory) {
+		this.autopilotFactory = autopilotFactory;
+	}
+	
+	/**
+	 * Plays back the given replay. Space pauses and plays, the left and right
+	 * keys go back or forward one tick and the up and down keys jump 100 ticks.
+	 * Only the game loop may call this, other threads use requestReplay().
+	 * @param replay
+	 */
+	public synchronized void startReplay(Replay replay) {
+		game.setTickRate(15.0);
+		hud.setVisible(true);
+		popUp.setVisible(false);
+		replayPlayer = new ReplayPlayer(replay);
+		model = replayPlayer.getModel();
+		autopilot = null;
+		bots = new InputPolicy[0];
+		replayEnd = replay.getEndTick();
+		replayPlaying = true;
+		firstPress = false;
+		publishRenderState();
+		game.setState(GameState.REPLAY);
+	}
+	
+	
+	/**
+	 * Renders a whole frame into a back buffer. The frame is cleared and
+	 * everything is painted for as many frames as there are buffers after the
+	 * game state or the render mode changed, while the pop up shows or when
+	 * the buffer lost what was in it, and always if the renderer is not 
+	 * incremental. Otherwise only the strip at the top, where the text goes,
+	 * is cleared and the renderer paints what changed over the last frame.
+	 * @param g
+	 * @param lost true if the buffer may not hold the frame drawn into it before.
+	 */
+	public void renderFrame(Graphics g, boolean lost) {
+		GameState state = game.getState();
+		PlayfieldRenderer renderer = renderers[renderMode.ordinal()];
+		if (lost || state != paintedState || renderer != paintedRenderer || popUp.isVisible()) {
+			fullFrames = Game.BUFFERS;
+			paintedState = state;
+			paintedRenderer = renderer;
+		}
+		boolean playfield = state == GameState.ONEPLAYER || state == GameState.TWOPLAYER
+				|| state == GameState.AUTOPILOT || state == GameState.REPLAY;
+		g.setColor(Color.BLACK);
+		if (fullFrames > 0 || !playfield || !renderer.isIncremental()) {
+			fullFrames = Math.max(0, fullFrames - 1);
+			renderer.invalidate();
+			g.fillRect(0, 0, width, height);
+		} else {
+			g.fillRect(0, 0, width, OVERLAY_HEIGHT);
+		}
+		render(g);
+	}
 	
 	/**
 	 * Renders all the game objects  in the object map using the graphics object
@@ -192,12 +509,13 @@ public class Handler implements Displayable {
 	 */
 	@Override
 	public void render(Graphics g) {
-		hud.render(g);
 		switch(game.getState()) {
 			case ONEPLAYER : renderGame(g);
 				break;
 			case TWOPLAYER : renderGame(g);
 				break;
+			case AUTOPILOT : renderGame(g);
+				break;
 			case MENU : renderMenu(g);
 				break;
 			case PAUSED : renderPaused(g);
@@ -206,18 +524,24 @@ public class Handler implements Displayable {
 				break;
 			case SCORES: renderScores(g);
 				break;
+			case REPLAY: renderReplay(g);
+				break;
 			default:
 				break;
 		}
+		hud.render(g);
 	}
 	
 	public void setState(GameState state) {
 		GameState temp = prevState;
 		prevState = game.getState();
+		popUp.setVisible(false);
 		switch(state) {
-		case ONEPLAYER : restartGame(false);
+		case ONEPLAYER : restartGame(1);
+			break;
+		case TWOPLAYER : restartGame(multiplayerCount);
 			break;
-		case TWOPLAYER : restartGame(true);
+		case AUTOPILOT : startAutopilot();
 			break;
 		case MENU : showMenu();
 			break;
@@ -232,9 +556,20 @@ public class Handler implements Displayable {
 	
 	/**
 	 * Restarts the game from the previous status
+	 * @param players
 	 */
-	private void restartGame(boolean twoPlayer) {
-		startGame(twoPlayer);
+	private void restartGame(int players) {
+		startGame(players);
+	}
+	
+	/**
+	 * Starts a one player game that is played by the autopilot.
+	 */
+	private synchronized void startAutopilot() {
+		startGame(1);
+		autopilot = autopilotFactory.get();
+		autopilot.newGame(model, 0);
+		game.setState(GameState.AUTOPILOT);
 	}
 	
 	/**
@@ -246,23 +581,38 @@ public class Handler implements Displayable {
 		hud.setVisible(true);
 		GameModel.clearInstnaces();
 		model = null;
-		objectMap = null;
+		recorder = null;
+		replayPlayer = null;
+		autopilot = null;
+		bots = new InputPolicy[0];
 		firstPress = false;
 	}
 	
 	/**
-	 * Starts the game loop
-	 * @param twoPlayer
+	 * Starts the game loop. Every player past the ones that have keys gets a
+	 * bot.
+	 * @param players
 	 */
-	private synchronized void startGame(boolean twoPlayer) {
+	private synchronized void startGame(int players) {
 		highScore = false;
 		game.setTickRate(15.0);
 		hud.setVisible(true);
 		GameModel.clearInstnaces();
-		model = GameModel.getInstance(width, height, twoPlayer);
-		objectMap = model.getUsedCells();
+		long seed = System.nanoTime();
+		model = level == null ? GameModel.getInstance(width, height, players, new GameRandom(seed))
+				: GameModel.getInstance(level, players, new GameRandom(seed));
+		recorder = new ReplayRecorder(model, seed, KEYFRAME_INTERVAL);
+		autopilot = null;
+		int keyed = Math.min(players, model.getKeyBindings().getPlayerCount());
+		bots = new InputPolicy[players == 1 ? 0 : players - keyed];
+		for (int i = 0; i < bots.length; i ++) {
+			bots[i] = autopilotFactory.get();
+			bots[i].newGame(model, seed);
+		}
 		firstPress = false;
-		game.setState(twoPlayer ? GameState.TWOPLAYER : GameState.ONEPLAYER);
+		gameOverText = "";
+		publishRenderState();
+		game.setState(players > 1 ? GameState.TWOPLAYER : GameState.ONEPLAYER);
 	}
 	
 	/**
@@ -273,7 +623,10 @@ public class Handler implements Displayable {
 		hud.setVisible(false);
 		GameModel.clearInstnaces();
 		model = null;
-		objectMap = null;
+		recorder = null;
+		replayPlayer = null;
+		autopilot = null;
+		bots = new InputPolicy[0];
 		game.setState(GameState.MENU);
 		firstPress = false;
 	}
@@ -309,20 +662,79 @@ public class Handler implements Displayable {
 	}
 	
 	/**
-	 * Renders all the objects in the game.
+	 * Renders the playfield from the newest render state, never from the
+	 * model, with the renderer of the current render mode. If the state came
+	 * right after the one before it the heads and tails are drawn part of the
+	 * way between their old and new cells by how much of a tick has gone by
+	 * since the state was published, so the snakes slide from cell to cell at
+	 * the frame rate instead of jumping at the tick rate.
 	 * @param g
+	 * @return RenderState the state that was drawn.
 	 */
-	private void renderGame(Graphics g) {
-		int x, y;
-		for (Map.Entry<Cell, GameObject> entry : objectMap.entrySet()) {
-			Cell cell = entry.getKey();
-			GameObject gameObject = entry.getValue();
-			
-			x = cell.getXCoord() + gameObject.getOffset();
-			y = cell.getYCoord() + gameObject.getOffset();
-
-			g.setColor(entry.getValue().getColor());
-			g.fillRect(x, y, gameObject.getRectSize(), gameObject.getRectSize());
+	private RenderState renderGame(Graphics g) {
+		RenderState state = renderBuffer.acquire();
+		if (!state.isFilled()) {
+			return state;
+		}
+		double alpha = 1;
+		if (state.isMoving()) {
+			alpha = Math.min(1, (System.nanoTime() - state.getTime()) * game.getTickRate() / 1e9);
+		}
+		renderers[renderMode.ordinal()].render(g, state, alpha);
+		return state;
+	}
+	
+	/**
+	 * Renders the game being played back and where the replay is.
+	 * @param g
+	 */
+	private void renderReplay(Graphics g) {
+		RenderState state = renderGame(g);
+		g.setColor(Color.WHITE);
+		g.setFont(STATUS_FONT);
+		String status = replayPlaying ? "Playing" : "Paused";
+		g.drawString(status + "  tick " + state.getTick() + " / " + replayEnd, 90, 25);
+	}
+	
+	/**
+	 * Handles a key press while a replay is showing.
+	 * @param keyPress
+	 */
+	private void pressReplayKey(int keyPress) {
+		if (replayPlayer == null) {
+			return;
+		}
+		long tick = replayPlayer.getTick();
+		switch(keyPress) {
+			case KeyEvent.VK_SPACE : replayPlaying = !replayPlaying && !replayPlayer.isAtEnd();
+				break;
+			case KeyEvent.VK_RIGHT : replayPlaying = false; replayPlayer.step();
+				break;
+			case KeyEvent.VK_LEFT : replayPlaying = false; replayPlayer.seek(tick - 1);
+				break;
+			case KeyEvent.VK_UP : replayPlayer.seek(tick + 100);
+				break;
+			case KeyEvent.VK_DOWN : replayPlayer.seek(tick - 100);
+				break;
+			default :
+				break;
+		}
+	}
+	
+	/**
+	 * Finishes the recording of the game that just ended and writes it to the
+	 * replay file.
+	 */
+	private void saveReplay() {
+		if (recorder == null) {
+			return;
+		}
+		lastReplay = recorder.toReplay();
+		recorder = null;
+		try {
+			lastReplay.write(Paths.get(REPLAY_LOCATION));
+		} catch (IOException e) {
+			System.err.println("could not write replay to file");
 		}
 	}
 	
@@ -332,7 +744,6 @@ public class Handler implements Displayable {
 	 */
 	private void renderPaused(Graphics g) {
 		renderGame(g);
-		popUp.setVisible(true);
 		popUp.render(g);
 	}
 
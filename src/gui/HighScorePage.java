@@ -3,11 +3,12 @@ package gui;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.Graphics;
-import java.util.LinkedList;
+import java.util.List;
 
 import model.FileHandler;
 import model.GameModel;
 import model.HighScore;
+import model.ScoreBoard;
 
 /**
  * Class that displays the High scores.
@@ -16,7 +17,8 @@ import model.HighScore;
  */
 public class HighScorePage implements Displayable {
 	private static HighScorePage instance;
-	private LinkedList<HighScore> scoreList;
+	private static final Font TITLE_FONT = new Font("arial", 1, 50), TEXT_FONT = new Font("arial", 1, 20);
+	private volatile List<HighScore> scoreList;
 	private Box box;
 	private Handler handler;
 	
@@ -27,6 +29,7 @@ public class HighScorePage implements Displayable {
 		Button clearScores = new Button(box, this.handler, ButtonID.CLEAR, activeState, 
 				(handlerToUse) -> {
 					FileHandler.deleteFile(GameModel.HIGH_SCORE_LOCATION);
+					ScoreBoard.getDefault().recheck();
 					scoreList = GameModel.getHighScores();
 				});
 		MouseInput.getInstance().addButton(clearScores);
@@ -47,18 +50,19 @@ public class HighScorePage implements Displayable {
 	 * Sets the score list to the given parameter. 
 	 * @param scoreList
 	 */
-	public void setScoreList(LinkedList<HighScore> scoreList) {
+	public void setScoreList(List<HighScore> scoreList) {
 		this.scoreList = scoreList;
 	}
 
 	@Override
 	public void render(Graphics g) {
 		g.setColor(Color.WHITE);
-		g.setFont(new Font("arial", 1, 50));
+		g.setFont(TITLE_FONT);
 		g.drawString("HighScores", 50, 150);
-		g.setFont(new Font("arial", 1, 20));
-		for (int i = 0; i < scoreList.size(); i ++) {
-			HighScore score = scoreList.get(i);
+		g.setFont(TEXT_FONT);
+		List<HighScore> scores = scoreList;
+		for (int i = 0; i < scores.size(); i ++) {
+			HighScore score = scores.get(i);
 			g.drawString("" + i + ". " + score.toString(), 275, 225 + 25 * i);
 		}
 		g.drawRect(box.getX(), box.getY(), box.getWidth(),
@@ -0,0 +1,26 @@
+package gui;
+
+/**
+ * Something that handles the input drained from an InputQueue. It is called
+ * on the thread that drains the queue, which is the game loop.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public interface InputListener {
+
+	/**
+	 * Called for a key press.
+	 * @param keyCode
+	 * @param when nano time the key was pressed at.
+	 */
+	public void keyPressed(int keyCode, long when);
+
+	/**
+	 * Called for a click of the left mouse button.
+	 * @param x
+	 * @param y
+	 * @param when nano time the button was pressed at.
+	 */
+	public void mousePressed(int x, int y, long when);
+}
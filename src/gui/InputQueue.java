@@ -0,0 +1,160 @@
+package gui;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock free queue of input events from any number of threads to one reader.
+ * The AWT event thread adds key presses and mouse clicks and the game loop
+ * drains them at the start of each tick, so the game is only ever changed
+ * from the game loop.
+ * <p>
+ * The queue is a ring of slots made up front, each with a sequence number.
+ * A writer takes a slot by moving the tail with a compare and set, fills it
+ * and then moves the sequence of the slot on to publish it. The reader only
+ * reads slots whose sequence says they are filled and moves the sequence a
+ * whole ring on to hand them back. Adding to a full queue drops the event
+ * instead of waiting, since a person can not type a ring of keys in a tick.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class InputQueue {
+	private static final int KEY = 0, CLICK = 1;
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final int[] kinds, firsts, seconds;
+	private final long[] times;
+	private final AtomicLong tail = new AtomicLong(), dropped = new AtomicLong();
+	private volatile Thread reader;
+
+	// only used by the reader
+	private long head;
+
+	/**
+	 * Constructor. The size has to be a power of two.
+	 * @param size number of slots.
+	 */
+	public InputQueue(int size) {
+		if (size <= 0 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("queue size has to be a power of two");
+		}
+		mask = size - 1;
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i ++) {
+			sequences.set(i, i);
+		}
+		kinds = new int[size];
+		firsts = new int[size];
+		seconds = new int[size];
+		times = new long[size];
+	}
+
+	/**
+	 * Sets the thread that drains the queue. It is unparked whenever an event
+	 * is added so it does not have to poll while it waits.
+	 * @param reader the thread or null.
+	 */
+	public void setReader(Thread reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Adds a key press.
+	 * @param keyCode
+	 * @return false if the queue was full and the key was dropped.
+	 */
+	public boolean offerKey(int keyCode) {
+		return offer(KEY, keyCode, 0);
+	}
+
+	/**
+	 * Adds a click.
+	 * @param x
+	 * @param y
+	 * @return false if the queue was full and the click was dropped.
+	 */
+	public boolean offerClick(int x, int y) {
+		return offer(CLICK, x, y);
+	}
+
+	/**
+	 * Takes a slot, fills it and publishes it.
+	 * @param kind
+	 * @param first
+	 * @param second
+	 * @return false if the queue was full.
+	 */
+	private boolean offer(int kind, int first, int second) {
+		long time = System.nanoTime();
+		long claim = tail.get();
+		for (;;) {
+			int index = (int) claim & mask;
+			long sequence = sequences.get(index);
+			if (sequence == claim) {
+				if (tail.compareAndSet(claim, claim + 1)) {
+					kinds[index] = kind;
+					firsts[index] = first;
+					seconds[index] = second;
+					times[index] = time;
+					sequences.lazySet(index, claim + 1);
+					Thread waiting = reader;
+					if (waiting != null) {
+						LockSupport.unpark(waiting);
+					}
+					return true;
+				}
+				claim = tail.get();
+			} else if (sequence < claim) {
+				dropped.incrementAndGet();
+				return false;
+			} else {
+				claim = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Returns true if nothing is waiting to be drained. Only the reader may
+	 * call this.
+	 * @return boolean
+	 */
+	public boolean isEmpty() {
+		return sequences.get((int) head & mask) != head + 1;
+	}
+
+	/**
+	 * Gives every event added so far to the listener, oldest first, and
+	 * returns how many there were. Only the reader may call this.
+	 * @param listener
+	 * @return int events drained
+	 */
+	public int drain(InputListener listener) {
+		int count = 0;
+		for (;;) {
+			int index = (int) head & mask;
+			if (sequences.get(index) != head + 1) {
+				return count;
+			}
+			int kind = kinds[index], first = firsts[index], second = seconds[index];
+			long time = times[index];
+			sequences.lazySet(index, head + mask + 1);
+			head ++;
+			count ++;
+			if (kind == KEY) {
+				listener.keyPressed(first, time);
+			} else {
+				listener.mousePressed(first, second, time);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of events dropped because the queue was full.
+	 * @return long dropped
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+}
@@ -38,11 +38,12 @@ public class KeyInput extends KeyAdapter {
 	}
 	
 	/**
-	 * Will cause the handler to tell the model that a key is pressed.
+	 * Adds the key to the input queue of the handler. The game loop takes it
+	 * from there at the start of the next tick and tells the model.
 	 */
 	@Override
 	public void keyPressed(KeyEvent e) {
 		int key = e.getKeyCode();
-		handler.pressKey(key);
+		handler.getInputQueue().offerKey(key);
 	}
 }
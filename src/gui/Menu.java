@@ -14,7 +14,7 @@ import java.awt.Graphics;
 public class Menu  implements Displayable {
 	private static Menu instance;
 	private Handler handler;
-	private Box onePlayer, twoPlayer, scores, controls;
+	private Box onePlayer, twoPlayer, autopilot, scores, controls, level;
 	
 	/**
 	 * Private constructor for singleton design
@@ -51,6 +51,24 @@ public class Menu  implements Displayable {
 		twoPlayer = new Box(x, y, rectWidth, rectHeight);
 		addButton(twoPlayer, GameState.TWOPLAYER, ButtonID.TWO);
 		
+		/*
+		 * Autopilot button. In the middle between the other columns.
+		 */
+		rectWidth = handler.getWidth() / 4;
+		rectHeight = handler.getHeight() / 9;
+		x = (handler.getWidth() - rectWidth) / 2;
+		y = handler.getHeight() * 23 / 32;
+		autopilot = new Box(x, y, rectWidth, rectHeight);
+		addButton(autopilot, GameState.AUTOPILOT, ButtonID.AUTO);
+		
+		/*
+		 * Level button above the autopilot button. Each press picks the next
+		 * level.
+		 */
+		y = handler.getHeight() * 17 / 32;
+		level = new Box(x, y, rectWidth, rectHeight);
+		addButton(level, ButtonID.LEVEL, Handler::nextLevel);
+		
 		/*
 		 * Scores button 
 		 */
@@ -109,8 +127,10 @@ public class Menu  implements Displayable {
 		g.setFont(new Font("arial", 1, 25));
 		drawRectangle(g, onePlayer, "One Player");
 		drawRectangle(g, twoPlayer, "Two Player");
+		drawRectangle(g, autopilot, "Autopilot");
 		drawRectangle(g, scores, "High Scores");
 		drawRectangle(g, controls, "Controls");
+		drawRectangle(g, level, "Level: " + handler.getLevelName());
 	}
 
 	/**
@@ -130,10 +150,19 @@ public class Menu  implements Displayable {
 	 * @param id
 	 */
 	private void addButton(Box box, GameState toSend, ButtonID id) {
-		GameState actState[] = {GameState.MENU};
-		ButtonAction action = (handler) -> {
+		addButton(box, id, (handler) -> {
 			handler.setState(toSend);
-		};
+		});
+	}
+	
+	/**
+	 * Adds a button that runs the given action to the mouseListner class.
+	 * @param box
+	 * @param id
+	 * @param action
+	 */
+	private void addButton(Box box, ButtonID id, ButtonAction action) {
+		GameState actState[] = {GameState.MENU};
 		MouseInput.getInstance().addButton(new Button(box, this.handler, id, actState, action));
 	}
 	
@@ -13,6 +13,7 @@ import java.util.ArrayList;
 public class MouseInput extends MouseAdapter {
 	private static MouseInput instance;
 	private ArrayList<Button> buttons;
+	private InputQueue inputQueue;
 	
 	/**
 	 * Private constructor for singleton class.
@@ -35,13 +36,35 @@ public class MouseInput extends MouseAdapter {
 	}
 	
 	
+	/**
+	 * Sets the queue clicks are added to. Without one the buttons are pressed
+	 * right away on the AWT event thread.
+	 * @param inputQueue
+	 */
+	public void setInputQueue(InputQueue inputQueue) {
+		this.inputQueue = inputQueue;
+	}
+	
 	@Override
 	public void mousePressed(MouseEvent e) {
 		if (e.getButton() != MouseEvent.BUTTON1) {
 			return;
 		}
+		if (inputQueue != null) {
+			inputQueue.offerClick(e.getX(), e.getY());
+		} else {
+			pressButtons(e.getX(), e.getY());
+		}
+	}
+	
+	/**
+	 * Presses every button the click is inside of.
+	 * @param x
+	 * @param y
+	 */
+	public void pressButtons(int x, int y) {
 		for (Button button : buttons) {
-			button.pressButton(e);
+			button.pressButton(x, y);
 		}
 	}
 	
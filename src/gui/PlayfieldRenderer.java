@@ -0,0 +1,182 @@
+package gui;
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+import model.SnakeBody;
+import model.Topology;
+
+/**
+ * Draws the playfield of a render state: the obstacles, the apples and every
+ * player in its own color, with the heads and tails slid part of the way
+ * between their cells when the state is moving. Subclasses decide what a
+ * filled rectangle is, so the same walk over the state can draw through
+ * Java2D or straight into pixels. Only the render thread uses a renderer.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public abstract class PlayfieldRenderer {
+	protected static final int OBSTACLE_COLOR = Color.GRAY.getRGB();
+
+	/**
+	 * Draws the playfield.
+	 * @param g
+	 * @param state a filled render state.
+	 * @param alpha how far the frame is from the state before to this one,
+	 * from 0 to 1. Only used if the state is moving.
+	 */
+	public void render(Graphics g, RenderState state, double alpha) {
+		Topology topology = state.getTopology();
+		int gridWidth = topology.getGrid().getGridWidth(), cellSize = topology.getGrid().getCellSize();
+		begin(g, state);
+		drawBoard(topology);
+		int offset = state.getAppleOffset(), size = state.getAppleSize();
+		if (size <= 0) {
+			offset = 0;
+			size = cellSize;
+		}
+		setColor(1, state.getAppleColor());
+		for (int i = 0; i < state.getAppleCount(); i ++) {
+			int cell = state.getApple(i);
+			fillRect((cell % gridWidth) * cellSize + offset, (cell / gridWidth) * cellSize + offset,
+					size, size);
+		}
+		for (int id = 1; id <= state.getPlayerCount(); id ++) {
+			if (state.getLength(id) == 0) {
+				continue;
+			}
+			offset = state.getOffset(id);
+			size = state.getRectSize(id);
+			if (size <= 0) {
+				offset = 0;
+				size = cellSize;
+			}
+			setColor(id + 1, state.getColor(id));
+			boolean moved = state.isMoving() && alpha < 1 && state.isAlive(id);
+			drawBody(state, id, moved ? 1 : 0, gridWidth, cellSize, offset, size);
+			if (moved) {
+				int tail = state.getTail(id), before = state.getPreviousTail(id);
+				fillSpan(state.getPreviousHead(id), state.getHead(id), alpha, gridWidth, cellSize,
+						offset, size);
+				if (before != tail) {
+					fillSpan(tail, before, 1 - alpha, gridWidth, cellSize, offset, size);
+				}
+			}
+		}
+		end(g);
+	}
+
+	/**
+	 * Returns true if the renderer keeps what it drew and only paints and
+	 * presents what changed, so the frame around the playfield does not have
+	 * to be cleared either.
+	 * @return boolean
+	 */
+	public boolean isIncremental() {
+		return false;
+	}
+
+	/**
+	 * Makes the next frame paint and present the whole playfield. Renderers
+	 * that are not incremental always do.
+	 */
+	public void invalidate() {
+		// nothing is kept between frames
+	}
+
+	/**
+	 * Draws the obstacles of the board.
+	 * @param topology
+	 */
+	protected void drawBoard(Topology topology) {
+		int gridWidth = topology.getGrid().getGridWidth(), cellSize = topology.getGrid().getCellSize();
+		setColor(0, OBSTACLE_COLOR);
+		for (int cell = topology.nextObstacle(0); cell >= 0; cell = topology.nextObstacle(cell + 1)) {
+			fillRect((cell % gridWidth) * cellSize, (cell / gridWidth) * cellSize, cellSize, cellSize);
+		}
+	}
+
+	/**
+	 * Draws the body of a player from the given index to the tail, one
+	 * square for each cell.
+	 * @param state
+	 * @param id
+	 * @param from index of the first cell to draw.
+	 * @param gridWidth
+	 * @param cellSize
+	 * @param offset
+	 * @param size
+	 */
+	protected void drawBody(RenderState state, int id, int from, int gridWidth, int cellSize,
+			int offset, int size) {
+		for (int i = from; i < state.getLength(id); i ++) {
+			int cell = state.getCell(id, i);
+			fillRect((cell % gridWidth) * cellSize + offset, (cell / gridWidth) * cellSize + offset,
+					size, size);
+		}
+	}
+
+	/**
+	 * Fills the square of the from cell stretched the given part of the way
+	 * to the to cell. If the cells are not next to each other on the screen,
+	 * which is the case when a player wraps around a torus, the to cell is
+	 * filled once the part is past half.
+	 * @param from
+	 * @param to
+	 * @param part from 0 to 1.
+	 * @param gridWidth
+	 * @param cellSize
+	 * @param offset
+	 * @param size
+	 */
+	protected void fillSpan(int from, int to, double part, int gridWidth, int cellSize, int offset,
+			int size) {
+		if (from == SnakeBody.NONE || to == SnakeBody.NONE) {
+			return;
+		}
+		int fromX = (from % gridWidth) * cellSize + offset, fromY = (from / gridWidth) * cellSize + offset;
+		int toX = (to % gridWidth) * cellSize + offset, toY = (to / gridWidth) * cellSize + offset;
+		if (Math.abs(fromX - toX) + Math.abs(fromY - toY) != cellSize) {
+			int cell = part < 0.5 ? from : to;
+			fillRect((cell % gridWidth) * cellSize + offset, (cell / gridWidth) * cellSize + offset,
+					size, size);
+			return;
+		}
+		int x = fromX + (int) Math.round((toX - fromX) * part);
+		int y = fromY + (int) Math.round((toY - fromY) * part);
+		fillRect(Math.min(fromX, x), Math.min(fromY, y), Math.abs(x - fromX) + size,
+				Math.abs(y - fromY) + size);
+	}
+
+	/**
+	 * Called before anything of a frame is drawn.
+	 * @param g
+	 * @param state
+	 */
+	protected abstract void begin(Graphics g, RenderState state);
+
+	/**
+	 * Sets the color the next rectangles are filled with. The slot says what
+	 * is drawn with it: 0 for the board, 1 for the apples and one more than
+	 * the id for a player, so a color can be kept for each.
+	 * @param slot
+	 * @param rgb
+	 */
+	protected abstract void setColor(int slot, int rgb);
+
+	/**
+	 * Fills a rectangle of the playfield.
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	protected abstract void fillRect(int x, int y, int width, int height);
+
+	/**
+	 * Called after everything of a frame is drawn.
+	 * @param g
+	 */
+	protected abstract void end(Graphics g);
+}
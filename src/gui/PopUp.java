@@ -12,8 +12,9 @@ import java.awt.Graphics;
  *
  */
 public class PopUp implements OverHead {
+	private static final Font TITLE_FONT = new Font("arial", 1, 50), TEXT_FONT = new Font("arial", 1, 25);
 	private static PopUp instance;
-	private boolean visible;
+	private volatile boolean visible;
 	private Box box;
 	private Handler handler;
 	
@@ -79,9 +80,9 @@ public class PopUp implements OverHead {
 			g.setColor(Color.WHITE);
 			g.fillRect(box.getX(), box.getY(), box.getWidth(), box.getHeight());
 			g.setColor(Color.BLACK);
-			g.setFont(new Font("arial", 1, 50));
+			g.setFont(TITLE_FONT);
 			g.drawString("GAME OVER", box.getX() + 20, box.getY() + 50);
-			g.setFont(new Font("arial", 1, 25));
+			g.setFont(TEXT_FONT);
 			g.drawString(handler.getGameOverText(), box.getX() + 20, box.getY() + 100);
 			if (handler.isHighScore()) {
 				g.drawString("New Record Score!!", box.getX() + 20, box.getY() + 130);
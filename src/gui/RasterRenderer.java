@@ -0,0 +1,131 @@
+package gui;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+import model.Topology;
+
+/**
+ * Draws the playfield straight into the pixels of an image and blits the
+ * whole image once a frame, so a frame costs one Java2D call however many
+ * squares there are. The image is backed by an int array in RGB that the
+ * squares are filled into row by row. The board with its obstacles is drawn
+ * once for each topology and copied in at the start of a frame.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class RasterRenderer extends PlayfieldRenderer {
+	private BufferedImage image;
+	private int[] pixels, board;
+	private int width, height, color;
+	private Topology topology;
+
+	@Override
+	protected void begin(Graphics g, RenderState state) {
+		if (state.getTopology() != topology) {
+			setTopology(state.getTopology());
+		}
+		System.arraycopy(board, 0, pixels, 0, board.length);
+	}
+
+	/**
+	 * Makes the image fit the board of the given topology and draws the
+	 * board.
+	 * @param topology
+	 */
+	private void setTopology(Topology topology) {
+		int cellSize = topology.getGrid().getCellSize();
+		int newWidth = topology.getGrid().getGridWidth() * cellSize;
+		int newHeight = topology.getGrid().getGridHeight() * cellSize;
+		if (image == null || newWidth != width || newHeight != height) {
+			width = newWidth;
+			height = newHeight;
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			board = new int[pixels.length];
+		}
+		this.topology = topology;
+		Arrays.fill(pixels, 0);
+		super.drawBoard(topology);
+		System.arraycopy(pixels, 0, board, 0, pixels.length);
+	}
+
+	@Override
+	protected void drawBoard(Topology topology) {
+		// already copied in with the board by begin()
+	}
+
+	@Override
+	protected void setColor(int slot, int rgb) {
+		color = rgb;
+	}
+
+	@Override
+	protected void fillRect(int x, int y, int width, int height) {
+		int left = Math.max(0, x), right = Math.min(this.width, x + width);
+		int top = Math.max(0, y), bottom = Math.min(this.height, y + height);
+		if (left >= right) {
+			return;
+		}
+		for (int row = top; row < bottom; row ++) {
+			int start = row * this.width;
+			for (int i = start + left; i < start + right; i ++) {
+				pixels[i] = color;
+			}
+		}
+	}
+
+	@Override
+	protected void end(Graphics g) {
+		g.drawImage(image, 0, 0, null);
+	}
+
+	/**
+	 * Copies the board without players or apples back into a rectangle of
+	 * the image.
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	protected void restoreBoard(int x, int y, int width, int height) {
+		int left = Math.max(0, x), right = Math.min(this.width, x + width);
+		int top = Math.max(0, y), bottom = Math.min(this.height, y + height);
+		for (int row = top; row < bottom && left < right; row ++) {
+			int start = row * this.width + left;
+			System.arraycopy(board, start, pixels, start, right - left);
+		}
+	}
+
+	/**
+	 * Draws a rectangle of the image to the same place on the graphics.
+	 * @param g
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 */
+	protected void present(Graphics g, int x, int y, int width, int height) {
+		g.drawImage(image, x, y, x + width, y + height, x, y, x + width, y + height, null);
+	}
+
+	/**
+	 * Returns the topology the board was last drawn for.
+	 * @return Topology
+	 */
+	protected Topology getTopology() {
+		return topology;
+	}
+
+	/**
+	 * Returns the image the playfield is drawn into, or null before the first
+	 * frame.
+	 * @return BufferedImage
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+}
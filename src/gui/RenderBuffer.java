@@ -0,0 +1,69 @@
+package gui;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import model.GameModel;
+
+/**
+ * Hands render states from the tick thread to the render thread with three
+ * buffers made up front. The tick thread fills its back buffer and swaps it
+ * with the middle one, the render thread swaps its front buffer with the
+ * middle one when a new state is there. Both swaps are a single atomic
+ * exchange, so neither side ever locks, waits or copies a whole state, and
+ * each side only ever touches the buffer it holds. A swap also tells the
+ * tick thread if the state it replaced was never taken, so the next state
+ * keeps the changes the renderer missed.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class RenderBuffer {
+	private static final int INDEX = 3, FRESH = 4;
+	private final RenderState[] states = {new RenderState(), new RenderState(), new RenderState()};
+	private final AtomicInteger middle = new AtomicInteger(1);
+
+	// only used by the tick thread
+	private int back = 0;
+	private long serial;
+	private boolean dropped;
+	private RenderState last;
+
+	// only used by the render thread
+	private int front = 2;
+
+	/**
+	 * Takes the state of the model and makes it the newest state. Only the
+	 * tick thread may call this.
+	 * @param model
+	 * @param time nano time the state is taken at.
+	 */
+	public void publish(GameModel model, long time) {
+		RenderState state = states[back];
+		state.fill(model, time, ++ serial, last, dropped);
+		last = state;
+		int old = middle.getAndSet(back | FRESH);
+		dropped = (old & FRESH) != 0;
+		back = old & INDEX;
+	}
+
+	/**
+	 * Makes the next published state the first of a new game so it is not
+	 * interpolated with the one before. Only the tick thread may call this.
+	 */
+	public void restart() {
+		last = null;
+	}
+
+	/**
+	 * Returns the newest published state. It stays the same until the next
+	 * call. The state is empty if nothing was published yet. Only the render
+	 * thread may call this.
+	 * @return RenderState
+	 */
+	public RenderState acquire() {
+		if ((middle.get() & FRESH) != 0) {
+			front = middle.getAndSet(front) & INDEX;
+		}
+		return states[front];
+	}
+}
@@ -0,0 +1,28 @@
+package gui;
+
+/**
+ * Enumerator of the ways the playfield can be drawn. SHAPES fills every 
+ * square through Java2D, SEGMENTS fills every straight run of a body as one
+ * rectangle through Java2D, RASTER fills the squares into the pixels of an
+ * image and DIRTY keeps that image and only paints and presents the cells
+ * that changed.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public enum RenderMode {
+	SHAPES, SEGMENTS, RASTER, DIRTY;
+	
+	/**
+	 * Makes a new renderer for the mode.
+	 * @return PlayfieldRenderer
+	 */
+	public PlayfieldRenderer newRenderer() {
+		switch(this) {
+			case SEGMENTS : return new SegmentRenderer();
+			case RASTER : return new RasterRenderer();
+			case DIRTY : return new DirtyRenderer(Game.BUFFERS, Handler.OVERLAY_HEIGHT);
+			default : return new ShapeRenderer();
+		}
+	}
+}
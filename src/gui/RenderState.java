@@ -0,0 +1,409 @@
+package gui;
+
+import java.util.Arrays;
+
+import model.AppleIndex;
+import model.GameModel;
+import model.Player;
+import model.SnakeBody;
+import model.TickDelta;
+import model.Topology;
+
+/**
+ * What the playfield looked like after one tick, packed into primitive
+ * arrays: the bodies of all players head first in one array with the start
+ * of every player in another, and the colors as RGB values. It is one of the
+ * buffers of a RenderBuffer and is filled again by the tick thread every time
+ * that buffer comes around, but never while the render thread can see it, so
+ * to the renderer it does not change. The arrays only grow.
+ * <p>
+ * Each state also keeps where the heads and tails were one tick before, so
+ * the renderer can interpolate between the two from this state alone, and
+ * the cells that changed since an earlier state, so a renderer that keeps
+ * its last frame only has to repaint those. States are numbered in the order
+ * they are published. The changes of a state cover the ticks since the state
+ * before it, and if that state may never have been seen by the renderer also
+ * the ones it covered, so a renderer that skipped states still gets every
+ * change it missed.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class RenderState {
+	private static final int MAX_CHANGES = 1 << 14;
+	private long tick, time, serial, since;
+	private boolean moving, chained, ownChained;
+	private Topology topology;
+	private int players, appleCount, appleColor, appleOffset, appleSize;
+	private int[] starts = new int[1], cells = new int[16], apples = new int[16];
+	private int[] colors = new int[0], offsets = new int[0], sizes = new int[0];
+	private int[] previousHeads = new int[0], previousTails = new int[0];
+	private boolean[] alive = new boolean[0];
+	private int changeCount, ownStart;
+	private int[] changeTypes = new int[16], changeCells = new int[16], changeOwners = new int[16];
+
+	/**
+	 * Fills the state from the model as it is now.
+	 * @param model
+	 * @param time nano time the state was taken at.
+	 * @param serial number of the state.
+	 * @param last the state published before this one or null if this is the
+	 * first state of a game.
+	 * @param dropped true if the state before last was never seen by the
+	 * renderer, so the changes last covered have to be kept as well.
+	 */
+	void fill(GameModel model, long time, long serial, RenderState last, boolean dropped) {
+		tick = model.getTick();
+		this.time = time;
+		this.serial = serial;
+		topology = model.getTopology();
+		players = model.getPlayerCount();
+		moving = last != null && last.tick + 1 == tick && last.topology == topology
+				&& last.players == players;
+		if (colors.length < players) {
+			starts = new int[players + 1];
+			colors = new int[players];
+			offsets = new int[players];
+			sizes = new int[players];
+			previousHeads = new int[players];
+			previousTails = new int[players];
+			alive = new boolean[players];
+		}
+		int total = 0;
+		for (int id = 1; id <= players; id ++) {
+			total += model.getPlayer(id).getBody().size();
+		}
+		if (cells.length < total) {
+			cells = new int[Math.max(total, cells.length * 2)];
+		}
+		for (int id = 1; id <= players; id ++) {
+			Player player = model.getPlayer(id);
+			SnakeBody body = player.getBody();
+			int start = starts[id - 1];
+			for (int i = 0; i < body.size(); i ++) {
+				cells[start + i] = body.get(i);
+			}
+			starts[id] = start + body.size();
+			colors[id - 1] = player.getColor().getRGB();
+			offsets[id - 1] = player.getOffset();
+			sizes[id - 1] = player.getRectSize();
+			alive[id - 1] = player.isAlive();
+			previousHeads[id - 1] = moving ? last.getHead(id) : SnakeBody.NONE;
+			previousTails[id - 1] = moving ? last.getTail(id) : SnakeBody.NONE;
+		}
+		AppleIndex index = model.getApples();
+		appleCount = index.size();
+		if (apples.length < appleCount) {
+			apples = Arrays.copyOf(apples, Math.max(appleCount, apples.length * 2));
+		}
+		for (int i = 0; i < appleCount; i ++) {
+			apples[i] = index.get(i);
+		}
+		appleColor = model.getApple().getColor().getRGB();
+		appleOffset = model.getApple().getOffset();
+		appleSize = model.getApple().getRectSize();
+		fillChanges(model.getLastDelta(), last, dropped);
+	}
+
+	/**
+	 * Keeps the changes of the last tick, after the changes of the state
+	 * before that this state has to cover too. The changes are only chained
+	 * if every tick they cover has its delta, otherwise the renderer has to
+	 * paint everything.
+	 * @param delta
+	 * @param last
+	 * @param dropped
+	 */
+	private void fillChanges(TickDelta delta, RenderState last, boolean dropped) {
+		ownChained = moving && delta.getTick() == tick && !delta.isFull();
+		chained = ownChained;
+		changeCount = 0;
+		since = serial;
+		if (ownChained) {
+			int from = dropped ? 0 : last.ownStart;
+			chained = dropped ? last.chained : last.ownChained;
+			since = dropped ? last.since : last.serial;
+			for (int i = from; i < last.changeCount && chained; i ++) {
+				addChange(last.changeTypes[i], last.changeCells[i], last.changeOwners[i]);
+			}
+			if (!chained) {
+				changeCount = 0;
+				since = serial;
+			}
+		}
+		ownStart = changeCount;
+		if (ownChained) {
+			for (int i = 0; i < delta.size(); i ++) {
+				if (delta.getType(i) != TickDelta.DIED) {
+					addChange(delta.getType(i), delta.getValue(i), delta.getOwner(i));
+				}
+			}
+		}
+		if (changeCount > MAX_CHANGES) {
+			chained = false;
+		}
+	}
+
+	/**
+	 * Adds a change.
+	 * @param type one of the TickDelta types.
+	 * @param cell
+	 * @param owner
+	 */
+	private void addChange(int type, int cell, int owner) {
+		if (changeCount == changeTypes.length) {
+			changeTypes = Arrays.copyOf(changeTypes, changeCount * 2);
+			changeCells = Arrays.copyOf(changeCells, changeCount * 2);
+			changeOwners = Arrays.copyOf(changeOwners, changeCount * 2);
+		}
+		changeTypes[changeCount] = type;
+		changeCells[changeCount] = cell;
+		changeOwners[changeCount ++] = owner;
+	}
+
+	/**
+	 * Returns true if the state was ever filled.
+	 * @return boolean
+	 */
+	public boolean isFilled() {
+		return topology != null;
+	}
+
+	/**
+	 * Returns true if this state came one tick after the state before it in
+	 * the same game, so the two can be interpolated.
+	 * @return boolean
+	 */
+	public boolean isMoving() {
+		return moving;
+	}
+
+	/**
+	 * Returns the number of the state. States are numbered from one in the
+	 * order they were published.
+	 * @return long serial
+	 */
+	public long getSerial() {
+		return serial;
+	}
+
+	/**
+	 * Returns the index of the first change a renderer that last painted the
+	 * state with the given number has to apply to get to this state, or -1 if
+	 * the changes do not go back that far and everything has to be painted.
+	 * @param painted number of the state painted last.
+	 * @return int index
+	 */
+	public int getChangeStart(long painted) {
+		if (painted == serial) {
+			return changeCount;
+		} else if (painted == serial - 1 && ownChained) {
+			return ownStart;
+		} else if (painted == since - 1 && chained) {
+			return 0;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the number of changes.
+	 * @return int changes
+	 */
+	public int getChangeCount() {
+		return changeCount;
+	}
+
+	/**
+	 * Returns the type of a change, one of the TickDelta types other than
+	 * DIED.
+	 * @param index
+	 * @return int type
+	 */
+	public int getChangeType(int index) {
+		return changeTypes[index];
+	}
+
+	/**
+	 * Returns the cell of a change.
+	 * @param index
+	 * @return int cell id
+	 */
+	public int getChangeCell(int index) {
+		return changeCells[index];
+	}
+
+	/**
+	 * Returns the player that moved into the cell of an OCCUPIED change.
+	 * @param index
+	 * @return int id
+	 */
+	public int getChangeOwner(int index) {
+		return changeOwners[index];
+	}
+
+	/**
+	 * Returns the tick of the state.
+	 * @return long tick
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Returns the nano time the state was taken at.
+	 * @return long time
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Returns the board of the game.
+	 * @return Topology
+	 */
+	public Topology getTopology() {
+		return topology;
+	}
+
+	/**
+	 * Returns the number of players.
+	 * @return int players
+	 */
+	public int getPlayerCount() {
+		return players;
+	}
+
+	/**
+	 * Returns the length of the body of a player.
+	 * @param id
+	 * @return int length
+	 */
+	public int getLength(int id) {
+		return starts[id] - starts[id - 1];
+	}
+
+	/**
+	 * Returns a cell of the body of a player, counting from the head.
+	 * @param id
+	 * @param index
+	 * @return int cell id
+	 */
+	public int getCell(int id, int index) {
+		return cells[starts[id - 1] + index];
+	}
+
+	/**
+	 * Returns the head of a player or SnakeBody.NONE if it has no body.
+	 * @param id
+	 * @return int cell id
+	 */
+	public int getHead(int id) {
+		return getLength(id) == 0 ? SnakeBody.NONE : cells[starts[id - 1]];
+	}
+
+	/**
+	 * Returns the tail of a player or SnakeBody.NONE if it has no body.
+	 * @param id
+	 * @return int cell id
+	 */
+	public int getTail(int id) {
+		return getLength(id) == 0 ? SnakeBody.NONE : cells[starts[id] - 1];
+	}
+
+	/**
+	 * Returns the head of a player one tick before, or SnakeBody.NONE if the
+	 * state is not moving.
+	 * @param id
+	 * @return int cell id
+	 */
+	public int getPreviousHead(int id) {
+		return previousHeads[id - 1];
+	}
+
+	/**
+	 * Returns the tail of a player one tick before, or SnakeBody.NONE if the
+	 * state is not moving.
+	 * @param id
+	 * @return int cell id
+	 */
+	public int getPreviousTail(int id) {
+		return previousTails[id - 1];
+	}
+
+	/**
+	 * Returns true if the player was still in the game.
+	 * @param id
+	 * @return boolean
+	 */
+	public boolean isAlive(int id) {
+		return alive[id - 1];
+	}
+
+	/**
+	 * Returns the color of a player as an RGB value.
+	 * @param id
+	 * @return int rgb
+	 */
+	public int getColor(int id) {
+		return colors[id - 1];
+	}
+
+	/**
+	 * Returns the offset of the squares of a player in its cells.
+	 * @param id
+	 * @return int offset
+	 */
+	public int getOffset(int id) {
+		return offsets[id - 1];
+	}
+
+	/**
+	 * Returns the size of the squares of a player.
+	 * @param id
+	 * @return int size
+	 */
+	public int getRectSize(int id) {
+		return sizes[id - 1];
+	}
+
+	/**
+	 * Returns the number of apples.
+	 * @return int apples
+	 */
+	public int getAppleCount() {
+		return appleCount;
+	}
+
+	/**
+	 * Returns the cell of an apple.
+	 * @param index
+	 * @return int cell id
+	 */
+	public int getApple(int index) {
+		return apples[index];
+	}
+
+	/**
+	 * Returns the color of the apples as an RGB value.
+	 * @return int rgb
+	 */
+	public int getAppleColor() {
+		return appleColor;
+	}
+
+	/**
+	 * Returns the offset of the apple squares in their cells.
+	 * @return int offset
+	 */
+	public int getAppleOffset() {
+		return appleOffset;
+	}
+
+	/**
+	 * Returns the size of the apple squares.
+	 * @return int size
+	 */
+	public int getAppleSize() {
+		return appleSize;
+	}
+}
@@ -0,0 +1,53 @@
+package gui;
+
+/**
+ * Draws the playfield through Java2D like ShapeRenderer, but walks every body
+ * from the head in order and fills each straight run of cells with one
+ * rectangle, so the squares of a run are joined and the gaps between squares
+ * are only left where the body turns. The number of fillRect() calls for a
+ * player goes with the number of turns instead of its length.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class SegmentRenderer extends ShapeRenderer {
+
+	@Override
+	protected void drawBody(RenderState state, int id, int from, int gridWidth, int cellSize,
+			int offset, int size) {
+		int length = state.getLength(id);
+		int i = from;
+		while (i < length) {
+			int first = state.getCell(id, i), last = first, step = 0;
+			for (i ++; i < length; i ++) {
+				int next = state.getCell(id, i);
+				if (!isNextTo(last, next, gridWidth) || (step != 0 && next - last != step)) {
+					break;
+				}
+				step = next - last;
+				last = next;
+			}
+			int firstX = (first % gridWidth) * cellSize, firstY = (first / gridWidth) * cellSize;
+			int lastX = (last % gridWidth) * cellSize, lastY = (last / gridWidth) * cellSize;
+			fillRect(Math.min(firstX, lastX) + offset, Math.min(firstY, lastY) + offset,
+					Math.abs(firstX - lastX) + size, Math.abs(firstY - lastY) + size);
+		}
+	}
+
+	/**
+	 * Returns true if the two cells are next to each other on the screen.
+	 * Cells that are only next to each other around the edge of a torus are
+	 * not.
+	 * @param cell
+	 * @param other
+	 * @param gridWidth
+	 * @return boolean
+	 */
+	private static boolean isNextTo(int cell, int other, int gridWidth) {
+		int step = other - cell;
+		if (step == 1 || step == -1) {
+			return cell / gridWidth == other / gridWidth;
+		}
+		return step == gridWidth || step == -gridWidth;
+	}
+}
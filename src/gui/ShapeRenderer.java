@@ -0,0 +1,45 @@
+package gui;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.util.Arrays;
+
+/**
+ * Draws the playfield through Java2D with one fillRect() for every square.
+ * Colors are kept for each color slot so drawing a frame does not make
+ * colors.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class ShapeRenderer extends PlayfieldRenderer {
+	private Graphics g;
+	private Color[] colors = new Color[4];
+
+	@Override
+	protected void begin(Graphics g, RenderState state) {
+		this.g = g;
+	}
+
+	@Override
+	protected void setColor(int slot, int rgb) {
+		if (slot >= colors.length) {
+			colors = Arrays.copyOf(colors, Math.max(slot + 1, colors.length * 2));
+		}
+		Color color = colors[slot];
+		if (color == null || color.getRGB() != (rgb | 0xff000000)) {
+			color = colors[slot] = new Color(rgb);
+		}
+		g.setColor(color);
+	}
+
+	@Override
+	protected void fillRect(int x, int y, int width, int height) {
+		g.fillRect(x, y, width, height);
+	}
+
+	@Override
+	protected void end(Graphics g) {
+		this.g = null;
+	}
+}
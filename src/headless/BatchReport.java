@@ -0,0 +1,205 @@
+package headless;
+
+import java.util.Arrays;
+
+/**
+ * The numbers collected while running a batch of games. Each worker fills its
+ * own report and the reports are merged at the end. Scores are kept in a
+ * histogram with one bucket per score. Tick times are kept in a log scale
+ * histogram with 16 buckets for every power of two so the percentiles are
+ * within about 6 percent.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class BatchReport {
+	private static final int SUB_BUCKETS = 16, SUB_BITS = 4;
+	private final long[] scoreCounts;
+	private final long[] latencyCounts;
+	private long games, ticks, sampledTicks, wallNanos;
+	private int threads;
+
+	/**
+	 * Constructor. Makes an empty report that can hold scores up to maxScore.
+	 * @param maxScore
+	 */
+	public BatchReport(int maxScore) {
+		scoreCounts = new long[maxScore + 1];
+		latencyCounts = new long[64 * SUB_BUCKETS];
+	}
+
+	/**
+	 * Records a finished game.
+	 * @param score
+	 * @param gameTicks
+	 */
+	public void recordGame(int score, long gameTicks) {
+		games ++;
+		ticks += gameTicks;
+		scoreCounts[Math.min(Math.max(score, 0), scoreCounts.length - 1)] ++;
+	}
+
+	/**
+	 * Records how long one tick took.
+	 * @param nanos
+	 */
+	public void recordTickNanos(long nanos) {
+		latencyCounts[bucketOf(Math.max(nanos, 0))] ++;
+		sampledTicks ++;
+	}
+
+	/**
+	 * Adds everything in the other report to this one.
+	 * @param other
+	 */
+	public void merge(BatchReport other) {
+		games += other.games;
+		ticks += other.ticks;
+		sampledTicks += other.sampledTicks;
+		for (int i = 0; i < scoreCounts.length && i < other.scoreCounts.length; i ++) {
+			scoreCounts[i] += other.scoreCounts[i];
+		}
+		for (int i = 0; i < latencyCounts.length; i ++) {
+			latencyCounts[i] += other.latencyCounts[i];
+		}
+	}
+
+	/**
+	 * Sets how long the whole batch took and on how many threads.
+	 * @param wallNanos
+	 * @param threads
+	 */
+	public void setWallTime(long wallNanos, int threads) {
+		this.wallNanos = wallNanos;
+		this.threads = threads;
+	}
+
+	/**
+	 * Returns the number of games played.
+	 * @return long games
+	 */
+	public long getGames() {
+		return games;
+	}
+
+	/**
+	 * Returns the number of ticks played across every game.
+	 * @return long ticks
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Returns the games finished per second of wall time.
+	 * @return double games per second
+	 */
+	public double getGamesPerSecond() {
+		return wallNanos == 0 ? 0 : games * 1e9 / wallNanos;
+	}
+
+	/**
+	 * Returns the ticks per second of wall time divided by the number of
+	 * threads used.
+	 * @return double ticks per second per core
+	 */
+	public double getTicksPerSecondPerCore() {
+		return wallNanos == 0 || threads == 0 ? 0 : ticks * 1e9 / wallNanos / threads;
+	}
+
+	/**
+	 * Returns the score that the given fraction of games scored at or below.
+	 * @param fraction between 0 and 1
+	 * @return int score
+	 */
+	public int getScorePercentile(double fraction) {
+		long target = (long) Math.ceil(fraction * games), seen = 0;
+		for (int score = 0; score < scoreCounts.length; score ++) {
+			seen += scoreCounts[score];
+			if (seen >= Math.max(target, 1)) {
+				return score;
+			}
+		}
+		return scoreCounts.length - 1;
+	}
+
+	/**
+	 * Returns the mean score.
+	 * @return double mean
+	 */
+	public double getMeanScore() {
+		double total = 0;
+		for (int score = 0; score < scoreCounts.length; score ++) {
+			total += (double) score * scoreCounts[score];
+		}
+		return games == 0 ? 0 : total / games;
+	}
+
+	/**
+	 * Returns the number of games that ended with each score. Index is score.
+	 * @return long[] counts
+	 */
+	public long[] getScoreCounts() {
+		return Arrays.copyOf(scoreCounts, scoreCounts.length);
+	}
+
+	/**
+	 * Returns the tick time in nanoseconds that the given fraction of sampled
+	 * ticks took at most. The value is the upper end of the histogram bucket.
+	 * @param fraction between 0 and 1
+	 * @return long nanoseconds
+	 */
+	public long getTickNanosPercentile(double fraction) {
+		long target = (long) Math.ceil(fraction * sampledTicks), seen = 0;
+		for (int i = 0; i < latencyCounts.length; i ++) {
+			seen += latencyCounts[i];
+			if (seen >= Math.max(target, 1)) {
+				return valueOf(i + 1) - 1;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("games: %d  ticks: %d  threads: %d  time: %.2fs%n",
+				games, ticks, threads, wallNanos / 1e9));
+		builder.append(String.format("games/sec: %.0f  ticks/sec/core: %.0f%n",
+				getGamesPerSecond(), getTicksPerSecondPerCore()));
+		builder.append(String.format("score mean: %.2f  p10: %d  p50: %d  p90: %d  p99: %d  max: %d%n",
+				getMeanScore(), getScorePercentile(0.1), getScorePercentile(0.5),
+				getScorePercentile(0.9), getScorePercentile(0.99), getScorePercentile(1.0)));
+		builder.append(String.format("tick ns p50: %d  p90: %d  p99: %d  p99.9: %d  max: %d (%d sampled)",
+				getTickNanosPercentile(0.5), getTickNanosPercentile(0.9), getTickNanosPercentile(0.99),
+				getTickNanosPercentile(0.999), getTickNanosPercentile(1.0), sampledTicks));
+		return builder.toString();
+	}
+
+	/**
+	 * Returns the histogram bucket for the given number of nanoseconds.
+	 * @param value
+	 * @return int bucket
+	 */
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int highBit = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (highBit - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (highBit - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * Returns the smallest value that goes in the given bucket.
+	 * @param bucket
+	 * @return long value
+	 */
+	private static long valueOf(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int highBit = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (highBit - SUB_BITS);
+	}
+}
@@ -0,0 +1,186 @@
+package headless;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Supplier;
+
+import model.GameModel;
+import model.GameRandom;
+import model.Grid;
+import model.InputPolicy;
+import model.Topology;
+
+/**
+ * Runs a large number of seeded games without any GUI. The seeds are split up
+ * across a fork join pool so every core is used. Game i of the batch is played
+ * with the seed firstSeed + i so a batch gives the same scores on any number
+ * of threads, as long as the policy only uses the seed newGame() gives it and
+ * not the clock. Every worker gets its own input policy from the policy
+ * factory. The score of a game is the length of its longest player, which
+ * with more than one player is the winner's.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class BatchSimulator {
+	private static final int GAMES_PER_TASK = 64;
+	private final Topology topology;
+	private final int players;
+	private final Supplier<InputPolicy> policyFactory;
+	private int maxTicks = 100000, latencySampleRate = 16, apples = 1;
+
+	/**
+	 * Constructor.
+	 * @param grid the board every game is played on.
+	 * @param players number of players in every game.
+	 * @param policyFactory makes one policy for each worker.
+	 */
+	public BatchSimulator(Grid grid, int players, Supplier<InputPolicy> policyFactory) {
+		this(grid == null ? null : Topology.walled(grid), players, policyFactory);
+	}
+
+	/**
+	 * Constructor for games on a board that can wrap around or have
+	 * obstacles.
+	 * @param topology the board every game is played on.
+	 * @param players number of players in every game.
+	 * @param policyFactory makes one policy for each worker.
+	 */
+	public BatchSimulator(Topology topology, int players, Supplier<InputPolicy> policyFactory) {
+		if (topology == null || policyFactory == null) {
+			throw new IllegalArgumentException("null grid or policy factory");
+		}
+		if (players <= 0) {
+			throw new IllegalArgumentException("need at least one player");
+		}
+		this.topology = topology;
+		this.players = players;
+		this.policyFactory = policyFactory;
+	}
+
+	/**
+	 * Sets the number of ticks after which a game that is still going is
+	 * stopped and counted with its current score.
+	 * @param maxTicks
+	 */
+	public void setMaxTicks(int maxTicks) {
+		if (maxTicks <= 0) {
+			throw new IllegalArgumentException("maxTicks must be positive");
+		}
+		this.maxTicks = maxTicks;
+	}
+
+	/**
+	 * Sets the number of apples every game starts with.
+	 * @param apples
+	 */
+	public void setAppleCount(int apples) {
+		if (apples <= 0) {
+			throw new IllegalArgumentException("apples must be positive");
+		}
+		this.apples = apples;
+	}
+
+	/**
+	 * Sets how often a tick is timed. A rate of 1 times every tick. Timing
+	 * every tick costs a noticeable part of a tick so the default is 16.
+	 * @param latencySampleRate
+	 */
+	public void setLatencySampleRate(int latencySampleRate) {
+		if (latencySampleRate <= 0) {
+			throw new IllegalArgumentException("latencySampleRate must be positive");
+		}
+		this.latencySampleRate = latencySampleRate;
+	}
+
+	/**
+	 * Plays the given number of games on the given number of threads.
+	 * @param games
+	 * @param firstSeed
+	 * @param threads
+	 * @return BatchReport of every game.
+	 */
+	public BatchReport run(long games, long firstSeed, int threads) {
+		if (games < 0 || threads <= 0) {
+			throw new IllegalArgumentException("invalid batch size");
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			long start = System.nanoTime();
+			BatchReport report = pool.invoke(new GameRange(firstSeed, firstSeed + games));
+			report.setWallTime(System.nanoTime() - start, threads);
+			return report;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Plays one game and adds it to the report with the length of its longest
+	 * player as the score.
+	 * @param seed
+	 * @param policy
+	 * @param report
+	 */
+	private void playGame(long seed, InputPolicy policy, BatchReport report) {
+		GameModel model = new GameModel(topology, players, apples, new GameRandom(seed), null);
+		policy.newGame(model, seed);
+		long tick = 0;
+		while (!model.isGameOver() && tick < maxTicks) {
+			boolean timed = tick % latencySampleRate == 0;
+			long start = timed ? System.nanoTime() : 0;
+			for (int id = 1; id <= players; id ++) {
+				if (model.getPlayer(id).isAlive()) {
+					model.changeHeading(id, policy.chooseHeading(model, id));
+				}
+			}
+			model.nextAnimationStep();
+			if (timed) {
+				report.recordTickNanos(System.nanoTime() - start);
+			}
+			tick ++;
+		}
+		int score = 0;
+		for (int id = 1; id <= players; id ++) {
+			score = Math.max(score, model.getPlayer(id).getLength());
+		}
+		report.recordGame(score, tick);
+	}
+
+	/**
+	 * Task that plays every seed in a range, splitting the range in half until
+	 * it is small enough.
+	 */
+	private final class GameRange extends RecursiveTask<BatchReport> {
+		private static final long serialVersionUID = 6131484627465153190L;
+		private final long from, to;
+
+		/**
+		 * Constructor.
+		 * @param from first seed, inclusive.
+		 * @param to last seed, exclusive.
+		 */
+		private GameRange(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected BatchReport compute() {
+			if (to - from <= GAMES_PER_TASK) {
+				BatchReport report = new BatchReport(topology.getGrid().getCellCount());
+				InputPolicy policy = policyFactory.get();
+				for (long seed = from; seed < to; seed ++) {
+					playGame(seed, policy, report);
+				}
+				return report;
+			}
+			long middle = from + (to - from) / 2;
+			GameRange left = new GameRange(from, middle);
+			left.fork();
+			BatchReport report = new GameRange(middle, to).compute();
+			report.merge(left.join());
+			return report;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package headless;
+
+import java.util.Random;
+
+import model.Direction;
+import model.GameModel;
+import model.InputPolicy;
+import model.Occupancy;
+
+/**
+ * Simple policy that turns toward the closest apple whenever it can do that without
+ * running into something on the next tick. If no move is safe it keeps going.
+ * A small amount of randomness is used to break ties so games are different.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class GreedyPolicy implements InputPolicy {
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private final Random random = new Random();
+
+	@Override
+	public void newGame(GameModel model, long seed) {
+		random.setSeed(seed ^ 0x5DEECE66DL);
+	}
+
+	@Override
+	public Direction chooseHeading(GameModel model, int playerId) {
+		Occupancy occupancy = model.getOccupancy();
+		int head = model.getPlayer(playerId).getCell().getId();
+		int apple = model.getNearestApple(head);
+		int width = model.getGridWidth();
+		int dx = apple % width - head % width, dy = apple / width - head / width;
+
+		Direction best = null;
+		int bestScore = Integer.MIN_VALUE;
+		int start = random.nextInt(DIRECTIONS.length);
+		for (int i = 0; i < DIRECTIONS.length; i ++) {
+			Direction direction = DIRECTIONS[(start + i) % DIRECTIONS.length];
+			int next = model.getNeighborId(head, direction);
+			if (next < 0 || (occupancy.isOccupied(next) && !occupancy.isSet(Occupancy.APPLES, next))) {
+				continue;
+			}
+			int score = 0;
+			switch(direction) {
+				case NORTH : score = -dy;
+					break;
+				case SOUTH : score = dy;
+					break;
+				case WEST : score = -dx;
+					break;
+				case EAST : score = dx;
+					break;
+			}
+			if (score > bestScore) {
+				bestScore = score;
+				best = direction;
+			}
+		}
+		return best;
+	}
+}
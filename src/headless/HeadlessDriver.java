@@ -0,0 +1,117 @@
+package headless;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
+
+import bot.Autopilot;
+import bot.HamiltonianPilot;
+import bot.MonteCarloBot;
+import model.Grid;
+import model.InputPolicy;
+import model.LevelFile;
+import model.Topology;
+
+/**
+ * Driver for running batches of games without a display. It never touches the
+ * gui package so it runs on machines that have no screen.
+ * <pre>
+ * java headless.HeadlessDriver --games 1000000 --width 36 --height 27
+ *     --seed 0 --threads 8 --max-ticks 100000 --policy greedy --players 2
+ * </pre>
+ * --apples sets how many apples are on the board at once. --two-player is the
+ * same as --players 2. --torus makes the board wrap around and --level reads
+ * the board, with its obstacles, from a text or binary level file instead of
+ * using --width and --height. Every player of a game is played by the same
+ * policy. The policy is random, greedy, autopilot, cycle or mcts. The games
+ * are already spread over the threads so mcts searches on one thread. It stops
+ * after a fixed number of rollouts instead of after a time budget, so its
+ * batches give the same scores every run like the other policies.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class HeadlessDriver {
+	private static final long MCTS_ROLLOUTS = 256;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		long games = 10000, seed = 0;
+		int width = 36, height = 27, maxTicks = 100000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int players = 1, apples = 1;
+		String policyName = "greedy", level = null;
+		boolean torus = false;
+
+		for (int i = 0; i < args.length; i ++) {
+			switch(args[i]) {
+				case "--games" : games = Long.parseLong(args[++ i]);
+					break;
+				case "--width" : width = Integer.parseInt(args[++ i]);
+					break;
+				case "--height" : height = Integer.parseInt(args[++ i]);
+					break;
+				case "--seed" : seed = Long.parseLong(args[++ i]);
+					break;
+				case "--threads" : threads = Integer.parseInt(args[++ i]);
+					break;
+				case "--max-ticks" : maxTicks = Integer.parseInt(args[++ i]);
+					break;
+				case "--policy" : policyName = args[++ i];
+					break;
+				case "--two-player" : players = 2;
+					break;
+				case "--players" : players = Integer.parseInt(args[++ i]);
+					break;
+				case "--apples" : apples = Integer.parseInt(args[++ i]);
+					break;
+				case "--torus" : torus = true;
+					break;
+				case "--level" : level = args[++ i];
+					break;
+				default :
+					System.err.println("unknown argument " + args[i]);
+					return;
+			}
+		}
+
+		Topology topology;
+		if (level != null) {
+			try {
+				topology = LevelFile.load(Paths.get(level), 1);
+			} catch (IOException e) {
+				System.err.println("could not read level " + level + ": " + e.getMessage());
+				return;
+			}
+		} else if (torus) {
+			topology = Topology.torus(new Grid(width, height, 1));
+		} else {
+			topology = Topology.walled(new Grid(width, height, 1));
+		}
+		BatchSimulator simulator = new BatchSimulator(topology, players, policyFor(policyName));
+		simulator.setMaxTicks(maxTicks);
+		simulator.setAppleCount(apples);
+		System.out.println(simulator.run(games, seed, threads));
+	}
+
+	/**
+	 * Returns the factory for the policy with the given name.
+	 * @param name
+	 * @return Supplier of InputPolicy
+	 */
+	static Supplier<InputPolicy> policyFor(String name) {
+		switch(name) {
+			case "random" : return () -> new RandomPolicy(8);
+			case "greedy" : return GreedyPolicy::new;
+			case "autopilot" : return Autopilot::new;
+			case "cycle" : return HamiltonianPilot::new;
+			case "mcts" : return () -> {
+				MonteCarloBot bot = new MonteCarloBot(1, 0);
+				bot.setBudgetNanos(Long.MAX_VALUE / 4);
+				bot.setMaxRollouts(MCTS_ROLLOUTS);
+				return bot;
+			};
+			default : throw new IllegalArgumentException("unknown policy " + name);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package headless;
+
+import java.util.Random;
+
+import model.Direction;
+import model.GameModel;
+import model.InputPolicy;
+
+/**
+ * Policy that turns a random way every so often. It is the cheapest policy and
+ * is used to measure how fast the game logic itself runs.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class RandomPolicy implements InputPolicy {
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private final Random random = new Random();
+	private final int turnOdds;
+
+	/**
+	 * Constructor. The player turns on about one in turnOdds ticks.
+	 * @param turnOdds
+	 */
+	public RandomPolicy(int turnOdds) {
+		if (turnOdds <= 0) {
+			throw new IllegalArgumentException("turnOdds must be positive");
+		}
+		this.turnOdds = turnOdds;
+	}
+
+	@Override
+	public void newGame(GameModel model, long seed) {
+		random.setSeed(seed ^ 0x5DEECE66DL);
+	}
+
+	@Override
+	public Direction chooseHeading(GameModel model, int playerId) {
+		if (random.nextInt(turnOdds) != 0) {
+			return null;
+		}
+		return DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+	}
+}
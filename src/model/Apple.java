@@ -20,7 +20,7 @@ public class Apple extends GameObject{
 	
 	@Override
 	public int getRectSize() {
-		return Cell.getCellSize() - 10;
+		return getCell().getSize() - 10;
 	}
 	
 	@Override
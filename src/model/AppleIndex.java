@@ -0,0 +1,300 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the cells of every apple on the map. The apples are packed in a dense
+ * array like a CellPool so adding, removing and checking a cell are constant
+ * time. They are also sorted into square buckets of the map so finding the
+ * apple closest to a cell or the apples inside a rectangle only looks at the
+ * buckets near it instead of at every apple. The dense array grows with the
+ * apples and removing an apple looks it up in its bucket, which holds at most
+ * side by side cells, so the only thing kept for every cell of the map is the
+ * position of its apple.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class AppleIndex {
+	/**
+	 * Value returned when there is no apple to give back.
+	 */
+	public static final int NONE = -1;
+	/**
+	 * Default width and height of a bucket in cells.
+	 */
+	public static final int DEFAULT_BUCKET_SIZE = 8;
+	private final int width, height, side, bucketsWide, bucketsHigh;
+	private final int[] position, bucketSizes;
+	private final int[][] buckets;
+	private int[] dense = new int[16];
+	private int size;
+
+	/**
+	 * Constructor. Makes an empty index for a map with the given size and the
+	 * default bucket size.
+	 * @param width
+	 * @param height
+	 */
+	public AppleIndex(int width, int height) {
+		this(width, height, DEFAULT_BUCKET_SIZE);
+	}
+
+	/**
+	 * Constructor. Makes an empty index for a map with the given size where
+	 * each bucket is side by side cells.
+	 * @param width
+	 * @param height
+	 * @param side
+	 */
+	public AppleIndex(int width, int height, int side) {
+		if (width <= 0 || height <= 0 || side <= 0) {
+			throw new IllegalArgumentException("invalid apple index size");
+		}
+		this.width = width;
+		this.height = height;
+		this.side = side;
+		bucketsWide = (width + side - 1) / side;
+		bucketsHigh = (height + side - 1) / side;
+		position = new int[width * height];
+		bucketSizes = new int[bucketsWide * bucketsHigh];
+		buckets = new int[bucketSizes.length][];
+		Arrays.fill(position, NONE);
+	}
+
+	/**
+	 * Returns the number of apples.
+	 * @return int size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the cell of the apple at the given index. Indexes go from 0 to
+	 * size() - 1 and change when apples are removed.
+	 * @param index
+	 * @return int id
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + " size " + size);
+		}
+		return dense[index];
+	}
+
+	/**
+	 * Returns true if there is an apple in the cell.
+	 * @param id
+	 * @return boolean
+	 */
+	public boolean contains(int id) {
+		return id >= 0 && id < position.length && position[id] != NONE;
+	}
+
+	/**
+	 * Adds an apple in the cell. Returns false if one is already there.
+	 * @param id
+	 * @return boolean
+	 */
+	public boolean add(int id) {
+		if (contains(id)) {
+			return false;
+		}
+		if (size == dense.length) {
+			dense = Arrays.copyOf(dense, Math.min(size * 2, position.length));
+		}
+		dense[size] = id;
+		position[id] = size ++;
+		int bucket = bucketOf(id), count = bucketSizes[bucket];
+		int[] cells = buckets[bucket];
+		if (cells == null || count == cells.length) {
+			cells = buckets[bucket] = Arrays.copyOf(cells == null ? new int[0] : cells,
+					Math.max(4, count * 2));
+		}
+		cells[count] = id;
+		bucketSizes[bucket] = count + 1;
+		return true;
+	}
+
+	/**
+	 * Removes the apple in the cell. Returns false if there was none.
+	 * @param id
+	 * @return boolean
+	 */
+	public boolean remove(int id) {
+		if (!contains(id)) {
+			return false;
+		}
+		int index = position[id], last = dense[-- size];
+		dense[index] = last;
+		position[last] = index;
+		position[id] = NONE;
+
+		int bucket = bucketOf(id), count = -- bucketSizes[bucket];
+		int[] cells = buckets[bucket];
+		int slot = 0;
+		while (cells[slot] != id) {
+			slot ++;
+		}
+		cells[slot] = cells[count];
+		return true;
+	}
+
+	/**
+	 * Removes every apple.
+	 */
+	public void clear() {
+		for (int i = 0; i < size; i ++) {
+			position[dense[i]] = NONE;
+			bucketSizes[bucketOf(dense[i])] = 0;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Makes this index the same as the other one, down to the order of the
+	 * apples. Both need the same map and bucket size. Only the apples of the
+	 * two indexes are touched so this is cheap with few apples on a big map.
+	 * @param other
+	 */
+	public void copyFrom(AppleIndex other) {
+		if (other.width != width || other.height != height || other.side != side) {
+			throw new IllegalArgumentException("apple indexes are different sizes");
+		}
+		clear();
+		if (dense.length < other.size) {
+			dense = new int[other.dense.length];
+		}
+		System.arraycopy(other.dense, 0, dense, 0, other.size);
+		size = other.size;
+		for (int i = 0; i < size; i ++) {
+			int id = dense[i], bucket = bucketOf(id);
+			position[id] = i;
+			if (bucketSizes[bucket] == 0) {
+				int count = other.bucketSizes[bucket];
+				if (buckets[bucket] == null || buckets[bucket].length < count) {
+					buckets[bucket] = new int[other.buckets[bucket].length];
+				}
+				System.arraycopy(other.buckets[bucket], 0, buckets[bucket], 0, count);
+				bucketSizes[bucket] = count;
+			}
+		}
+	}
+
+	/**
+	 * Returns the apple closest to the given cell counting steps along rows
+	 * and columns, or NONE if there are no apples. Of apples that are just as
+	 * close the one with the lowest id wins. The buckets are searched in rings
+	 * around the cell's bucket and the search stops once no closer apple can
+	 * be in the next ring. The map does not wrap around.
+	 * @param from
+	 * @return int id or NONE
+	 */
+	public int nearest(int from) {
+		return nearest(from, false);
+	}
+
+	/**
+	 * Returns the apple closest to the given cell like nearest(int). If the
+	 * map wraps around, the way around the edge counts too and the rings of
+	 * buckets wrap around with it, as with Topology.distance().
+	 * @param from
+	 * @param wrapped true if the map is a torus.
+	 * @return int id or NONE
+	 */
+	public int nearest(int from, boolean wrapped) {
+		if (size == 0) {
+			return NONE;
+		}
+		int x = from % width, y = from / width;
+		int bucketX = x / side, bucketY = y / side;
+		int rings = Math.max(bucketsWide, bucketsHigh);
+		// across the edge the last bucket of a row or column can be short
+		int skipped = 1;
+		if (wrapped) {
+			rings = rings / 2 + 1;
+			skipped = 2;
+		}
+		int best = NONE, bestDistance = Integer.MAX_VALUE;
+		for (int ring = 0; ring <= rings; ring ++) {
+			if (best != NONE && (ring - skipped) * side + 1 > bestDistance) {
+				break;
+			}
+			for (int by = bucketY - ring; by <= bucketY + ring; by ++) {
+				int row = wrapped ? Math.floorMod(by, bucketsHigh) : by;
+				if (row < 0 || row >= bucketsHigh) {
+					continue;
+				}
+				boolean edge = by == bucketY - ring || by == bucketY + ring;
+				int step = edge || ring == 0 ? 1 : 2 * ring;
+				for (int bx = bucketX - ring; bx <= bucketX + ring; bx += step) {
+					int column = wrapped ? Math.floorMod(bx, bucketsWide) : bx;
+					if (column < 0 || column >= bucketsWide) {
+						continue;
+					}
+					int bucket = row * bucketsWide + column;
+					int[] cells = buckets[bucket];
+					for (int i = 0; i < bucketSizes[bucket]; i ++) {
+						int id = cells[i];
+						int dx = Math.abs(id % width - x), dy = Math.abs(id / width - y);
+						if (wrapped) {
+							dx = Math.min(dx, width - dx);
+							dy = Math.min(dy, height - dy);
+						}
+						int distance = dx + dy;
+						if (distance < bestDistance || (distance == bestDistance && id < best)) {
+							best = id;
+							bestDistance = distance;
+						}
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Writes the cells of the apples inside the rectangle from column left and
+	 * row top to column right and row bottom, all inclusive, into out. Stops
+	 * when out is full. Returns the number written. The order is not fixed.
+	 * @param left
+	 * @param top
+	 * @param right
+	 * @param bottom
+	 * @param out
+	 * @return int count
+	 */
+	public int query(int left, int top, int right, int bottom, int[] out) {
+		left = Math.max(left, 0);
+		top = Math.max(top, 0);
+		right = Math.min(right, width - 1);
+		bottom = Math.min(bottom, height - 1);
+		int count = 0;
+		for (int by = top / side; by <= bottom / side && top <= bottom; by ++) {
+			for (int bx = left / side; bx <= right / side && left <= right; bx ++) {
+				int bucket = by * bucketsWide + bx;
+				int[] cells = buckets[bucket];
+				for (int i = 0; i < bucketSizes[bucket]; i ++) {
+					int id = cells[i], x = id % width, y = id / width;
+					if (x >= left && x <= right && y >= top && y <= bottom) {
+						if (count == out.length) {
+							return count;
+						}
+						out[count ++] = id;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the bucket the cell is sorted into.
+	 * @param id
+	 * @return int bucket
+	 */
+	private int bucketOf(int id) {
+		return (id / width) / side * bucketsWide + (id % width) / side;
+	}
+}
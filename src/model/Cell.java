@@ -5,42 +5,65 @@ package model;
  * or empty. If a cell is full then the object inside is either breakable (filled
  * with an apple) or unbreakable (filled with a player). Each cell has a given 
  * size, id, and an xy local coordinate that indicates its position in cell
- * relative space.  
+ * relative space. The size and the bounds of the map come from the grid that
+ * the cell belongs to. 
  * Copyright (c) 2021.
  * @author Jaraad Kamal
  *
  */
 public final class Cell implements Comparable<Cell> {
-	private static int cellSize = 0;
-	private static int maxHeight, maxWidth;
-	private static boolean hasInstances;
+	private static Grid defaultGrid;
 	
+	private final Grid grid;
 	private int xLocal, yLocal, id;
 	private CellState state;
 	
 	/**
-	 * Cell constructor. Takes in a x and y coordinate and maps it to a cell. The
-	 * cell state parameter indicates the state. 
+	 * Cell constructor. Takes in a x and y coordinate and maps it to a cell on
+	 * the default grid made by setUp(). The cell state parameter indicates the
+	 * state. 
 	 * @param xCoord
 	 * @param yCoord
 	 * @param state
 	 * @param id
 	 */
 	public Cell(int xCoord, int yCoord, CellState state, int id) {
-		if (cellSize == 0) {
+		this(defaultGrid, xCoord, yCoord, state, id);
+	}
+	
+	/**
+	 * Cell constructor. Takes in a x and y coordinate and maps it to a cell on
+	 * the given grid. The cell state parameter indicates the state. 
+	 * @param grid
+	 * @param xCoord
+	 * @param yCoord
+	 * @param state
+	 * @param id
+	 */
+	public Cell(Grid grid, int xCoord, int yCoord, CellState state, int id) {
+		if (grid == null) {
 			throw new IllegalArgumentException("set the cell size first");
 		}
+		this.grid = grid;
 		this.id = id;
-		xLocal = xCoord / cellSize;
-		yLocal = yCoord / cellSize;
+		xLocal = xCoord / grid.getCellSize();
+		yLocal = yCoord / grid.getCellSize();
 		
-		if (!validLocal(xLocal, yLocal)) {
+		if (!grid.validLocal(xLocal, yLocal)) {
 			throw new IndexOutOfBoundsException("the provided location is not on graph");
 		}
 		this.state = state;
 		
 	}
 	
+	/**
+	 * Returns the grid the cell is on.
+	 * @return Grid
+	 */
+	public Grid getGrid() {
+		return grid;
+	}
+	
 	/**
 	 * Returns the id
 	 * @return int id.
@@ -71,7 +94,7 @@ public final class Cell implements Comparable<Cell> {
 	 * @return x coordinate. 
 	 */
 	public int getXCoord() {
-		return cellSize * xLocal;
+		return grid.getCellSize() * xLocal;
 	}
 	
 	/**
@@ -80,7 +103,7 @@ public final class Cell implements Comparable<Cell> {
 	 * @return
 	 */
 	public int getYCoord() {
-		return cellSize * yLocal;
+		return grid.getCellSize() * yLocal;
 	}
 
 	/**
@@ -103,6 +126,18 @@ public final class Cell implements Comparable<Cell> {
 		}
 	}
 	
+	/**
+	 * Moves the cell to the given id of the same grid. Only the game model
+	 * does this, for the cell of a game object on a board too big to have a
+	 * Cell for every cell. The state is left alone.
+	 * @param id
+	 */
+	void moveTo(int id) {
+		this.id = id;
+		xLocal = id % grid.getGridWidth();
+		yLocal = id / grid.getGridWidth();
+	}
+	
 	
 	@Override
 	public String toString() {
@@ -139,53 +174,56 @@ public final class Cell implements Comparable<Cell> {
 	}
 
 	/**
-	 * Returns the cell size
-	 * @return int static cellSize.
+	 * Returns the size of the cell in pixels.
+	 * @return int cellSize.
+	 */
+	public int getSize() {
+		return grid.getCellSize();
+	}
+	
+	/**
+	 * Returns the cell size of the default grid or 0 if there is none.
+	 * @return int default cellSize.
 	 */
 	public static int getCellSize() {
-		return cellSize;
+		return defaultGrid == null ? 0 : defaultGrid.getCellSize();
 	}
 	
 	/**
 	 * Given an x and y coordinate it will retrieve the corresponding id of the 
-	 * cell for that region.
+	 * cell for that region on the default grid.
 	 * @param x
 	 * @param y
 	 * @return
 	 */
 	public static int getCellId(int x, int y) {
-		int scale = cellSize == 0 ? 1 : cellSize;
-		int xScaled = x / scale, yScaled = y / scale;
-		
-		return xScaled + maxWidth * yScaled;
+		return defaultGrid == null ? x : defaultGrid.getCellId(x, y);
 	}
 	
 	/**
-	 * Changes the CellSize, maxHeight and maxWidth. 
-	 * Only modification of vars can happen once before classes is instantiated.
-	 * Calling the method after the class has been instantiated does nothing.
+	 * Makes the default grid used by the constructor that does not take a grid.
+	 * The default grid can only be made once. Calling the method again does
+	 * nothing. Games do not use the default grid, each one has its own.
 	 * @param cellSize
 	 * @param maxHeight
 	 * @param maxWidth
 	 */
-	public static void setUp(int cellSize,  int maxWidth, int maxHeight) {
+	public static synchronized void setUp(int cellSize,  int maxWidth, int maxHeight) {
 		
-		if (hasInstances || Cell.cellSize != 0 || cellSize <= 0 || maxHeight <= 0 || maxWidth <= 0) {
+		if (defaultGrid != null || cellSize <= 0 || maxHeight <= 0 || maxWidth <= 0) {
 			return;
 		}
-		Cell.cellSize = cellSize;
-		Cell.maxHeight = maxHeight;
-		Cell.maxWidth = maxWidth;
+		defaultGrid = new Grid(maxWidth, maxHeight, cellSize);
 	}
 	
 	
 	/**
-	 * Checks if the location parameters are valid
+	 * Checks if the location parameters are valid on the default grid.
 	 * @param x
 	 * @param y
 	 * @return true if valid false otherwise.
 	 */
 	public static boolean validLocal(int x, int y) {
-		return x >= 0 && x < maxWidth && y >= 0 && y < maxHeight;
+		return defaultGrid != null && defaultGrid.validLocal(x, y);
 	}
 }
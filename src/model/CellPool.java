@@ -0,0 +1,195 @@
+package model;
+
+import java.util.Random;
+
+/**
+ * A pool of the free cell ids on the map. The ids are kept packed together in
+ * a dense array and a second array remembers where each id sits in the dense
+ * array. This lets contains, add, remove and picking a random free cell all
+ * happen in constant time. Removing swaps the last id into the hole that was
+ * left so the dense array never has gaps.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class CellPool {
+	/**
+	 * Value returned when the pool has no cell to give back.
+	 */
+	public static final int NONE = -1;
+	private int[] dense, position;
+	private int size;
+
+	/**
+	 * Constructor. Makes an empty pool that can hold ids from 0 up to
+	 * capacity - 1.
+	 * @param capacity
+	 */
+	public CellPool(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("negative capacity");
+		}
+		dense = new int[capacity];
+		position = new int[capacity];
+		clear();
+	}
+
+	/**
+	 * Removes every id from the pool.
+	 */
+	public void clear() {
+		for (int i = 0; i < position.length; i ++) {
+			position[i] = NONE;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Puts every id from 0 to capacity - 1 in the pool in increasing order.
+	 */
+	public void fill() {
+		for (int i = 0; i < dense.length; i ++) {
+			dense[i] = i;
+			position[i] = i;
+		}
+		size = dense.length;
+	}
+
+	/**
+	 * Returns the number of free cells in the pool.
+	 * @return int size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the largest number of ids the pool can hold.
+	 * @return int capacity
+	 */
+	public int capacity() {
+		return dense.length;
+	}
+
+	/**
+	 * Returns true if the given id is in the pool.
+	 * @param id
+	 * @return boolean
+	 */
+	public boolean contains(int id) {
+		return id >= 0 && id < position.length && position[id] != NONE;
+	}
+
+	/**
+	 * Adds the given id to the pool. Will return false if it was already in
+	 * the pool.
+	 * @param id
+	 * @return true if the id was added.
+	 */
+	public boolean add(int id) {
+		if (contains(id)) {
+			return false;
+		}
+		if (id < 0 || id >= position.length) {
+			throw new IndexOutOfBoundsException("id " + id + " is not on the map");
+		}
+		dense[size] = id;
+		position[id] = size;
+		size ++;
+		return true;
+	}
+
+	/**
+	 * Removes the given id from the pool. The last id in the dense array is
+	 * moved into the spot that was freed up. Will return false if the id was
+	 * not in the pool.
+	 * @param id
+	 * @return true if the id was removed.
+	 */
+	public boolean remove(int id) {
+		if (!contains(id)) {
+			return false;
+		}
+		int index = position[id];
+		int last = dense[-- size];
+		dense[index] = last;
+		position[last] = index;
+		position[id] = NONE;
+		return true;
+	}
+
+	/**
+	 * Returns the id stored at the given index of the dense array. The order
+	 * changes as ids are removed so this is only meant for random picks.
+	 * @param index
+	 * @return int id
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + " size " + size);
+		}
+		return dense[index];
+	}
+
+	/**
+	 * Returns a uniformly picked free id using the given random object or
+	 * NONE if the pool is empty. The id is not removed.
+	 * @param random
+	 * @return int id or NONE
+	 */
+	public int getRandom(Random random) {
+		if (size == 0) {
+			return NONE;
+		}
+		return dense[random.nextInt(size)];
+	}
+
+	/**
+	 * Copies the ids in dense array order into the given array. The array has
+	 * to have room for size() ids.
+	 * @param target
+	 * @return int number of ids copied.
+	 */
+	public int copyTo(int[] target) {
+		System.arraycopy(dense, 0, target, 0, size);
+		return size;
+	}
+
+	/**
+	 * Replaces the contents of the pool with the first count ids of the given
+	 * array in that exact order. Keeping the order means random picks made
+	 * afterwards land on the same cells they did when the ids were copied.
+	 * @param ids
+	 * @param count
+	 */
+	public void load(int[] ids, int count) {
+		if (count > dense.length) {
+			throw new IllegalArgumentException("too many ids for the pool");
+		}
+		clear();
+		for (int i = 0; i < count; i ++) {
+			if (!add(ids[i])) {
+				throw new IllegalArgumentException("id " + ids[i] + " given twice");
+			}
+		}
+	}
+
+	/**
+	 * Makes this pool hold exactly what the other pool holds in the same order.
+	 * Both pools need the same capacity. Nothing is created.
+	 * @param other
+	 */
+	public void copyFrom(CellPool other) {
+		if (other.dense.length != dense.length) {
+			throw new IllegalArgumentException("pools have different capacities");
+		}
+		System.arraycopy(other.dense, 0, dense, 0, other.size);
+		System.arraycopy(other.position, 0, position, 0, position.length);
+		size = other.size;
+	}
+
+	@Override
+	public String toString() {
+		return "CellPool size: " + size + " capacity: " + dense.length;
+	}
+}
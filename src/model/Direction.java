@@ -37,7 +37,16 @@ public enum Direction {
 	 * @return Direction
 	 */
 	public static Direction getRandom() {
-		return getDirection(RANDOM.nextInt(4));
+		return getRandom(RANDOM);
+	}
+	
+	/**
+	 * Will return a random direction object picked with the given random.
+	 * @param random
+	 * @return Direction
+	 */
+	public static Direction getRandom(Random random) {
+		return getDirection(random.nextInt(4));
 	}
 	
 	/**
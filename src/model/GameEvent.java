@@ -0,0 +1,91 @@
+package model;
+
+/**
+ * One slot of a GameEventBus. The slots are made once with the bus and filled
+ * again every time the ring comes around, so a listener has to copy out what
+ * it needs and must not keep the event itself.
+ * <p>
+ * What cell and value hold depends on the type:
+ * <ul>
+ * <li>MOVE: the new head and the tail cell that was let go, or
+ * SnakeBody.NONE if the player grew.</li>
+ * <li>EAT: the cell of the apple that was eaten and the cell of the new
+ * apple, or SnakeBody.NONE if the board was full.</li>
+ * <li>GROW: the head and the new length.</li>
+ * <li>DEATH: the head and the length.</li>
+ * <li>GAME_OVER: SnakeBody.NONE and the id of the winning player or 0.</li>
+ * <li>HIGH_SCORE: SnakeBody.NONE and the score that was added.</li>
+ * </ul>
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class GameEvent {
+	public static final int MOVE = 0, EAT = 1, GROW = 2, DEATH = 3, GAME_OVER = 4, HIGH_SCORE = 5;
+	private static final String[] NAMES = {"MOVE", "EAT", "GROW", "DEATH", "GAME_OVER", "HIGH_SCORE"};
+	private int type, playerId, cell, value;
+	private long tick;
+
+	/**
+	 * Returns the type of the event.
+	 * @return int type
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the tick the event happened on, counting that tick.
+	 * @return long tick
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Returns the id of the player the event is about, or 0 if it is about
+	 * the whole game.
+	 * @return int player id
+	 */
+	public int getPlayerId() {
+		return playerId;
+	}
+
+	/**
+	 * Returns the cell of the event.
+	 * @return int cell id
+	 */
+	public int getCell() {
+		return cell;
+	}
+
+	/**
+	 * Returns the value of the event.
+	 * @return int value
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	/**
+	 * Fills the slot.
+	 * @param type
+	 * @param tick
+	 * @param playerId
+	 * @param cell
+	 * @param value
+	 */
+	void set(int type, long tick, int playerId, int cell, int value) {
+		this.type = type;
+		this.tick = tick;
+		this.playerId = playerId;
+		this.cell = cell;
+		this.value = value;
+	}
+
+	@Override
+	public String toString() {
+		return NAMES[type] + " tick " + tick + " player " + playerId + " cell " + cell
+				+ " value " + value;
+	}
+}
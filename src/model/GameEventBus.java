@@ -0,0 +1,217 @@
+package model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ring buffer that carries the events of one game from the tick thread to any
+ * number of subscribers, in the style of a disruptor. Every event slot is made
+ * up front. The game is the only writer: it claims slots, fills them and then
+ * publishes all of them at once by moving the cursor, which is one ordered
+ * write per tick. Each subscription keeps its own sequence of the last event
+ * it read, and reads everything between that and the cursor on its own
+ * thread. No locks are taken on either side.
+ * <p>
+ * The writer never passes the slowest subscriber, so a subscriber that falls
+ * a whole ring behind holds up the game until it catches up. The ring should
+ * hold a few frames worth of events and a subscriber that stops reading
+ * should unsubscribe.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class GameEventBus {
+	private final GameEvent[] ring;
+	private final int mask;
+	private final AtomicLong cursor = new AtomicLong(-1);
+	private volatile Subscription[] subscriptions = new Subscription[0];
+
+	// only used by the writer
+	private long claimed = -1, gate = -1;
+
+	/**
+	 * Constructor. The size has to be a power of two.
+	 * @param size number of event slots.
+	 */
+	public GameEventBus(int size) {
+		if (size <= 0 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("bus size has to be a power of two");
+		}
+		ring = new GameEvent[size];
+		for (int i = 0; i < size; i ++) {
+			ring[i] = new GameEvent();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Returns the number of event slots.
+	 * @return int size
+	 */
+	public int getSize() {
+		return ring.length;
+	}
+
+	/**
+	 * Returns the sequence of the last published event, or -1 if there is
+	 * none yet.
+	 * @return long cursor
+	 */
+	public long getCursor() {
+		return cursor.get();
+	}
+
+	/**
+	 * Adds a subscription that reads every event published after now.
+	 * @return Subscription
+	 */
+	public synchronized Subscription subscribe() {
+		Subscription subscription = new Subscription(cursor.get());
+		Subscription[] next = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+		next[next.length - 1] = subscription;
+		subscriptions = next;
+		return subscription;
+	}
+
+	/**
+	 * Removes a subscription so the writer no longer waits for it.
+	 * @param subscription
+	 */
+	public synchronized void unsubscribe(Subscription subscription) {
+		for (int i = 0; i < subscriptions.length; i ++) {
+			if (subscriptions[i] == subscription) {
+				Subscription[] next = new Subscription[subscriptions.length - 1];
+				System.arraycopy(subscriptions, 0, next, 0, i);
+				System.arraycopy(subscriptions, i + 1, next, i, next.length - i);
+				subscriptions = next;
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Claims the next slot and fills it. It is not seen by subscribers until
+	 * publish() is called. Waits while the slot still holds an event the
+	 * slowest subscriber has not read, publishing what was claimed before so
+	 * a tick with more events than slots can not get stuck. Only the game
+	 * writing to the bus may call this.
+	 * @param type
+	 * @param tick
+	 * @param playerId
+	 * @param cell
+	 * @param value
+	 */
+	void claim(int type, long tick, int playerId, int cell, int value) {
+		long next = claimed + 1, wrap = next - ring.length;
+		if (wrap > gate) {
+			gate = slowestSequence(claimed);
+			if (wrap > gate) {
+				// let the subscribers read what is claimed so far so they can catch up
+				publish();
+			}
+			while (wrap > gate) {
+				LockSupport.parkNanos(1);
+				gate = slowestSequence(claimed);
+			}
+		}
+		ring[(int) next & mask].set(type, tick, playerId, cell, value);
+		claimed = next;
+	}
+
+	/**
+	 * Makes every claimed event visible to the subscribers.
+	 */
+	void publish() {
+		if (claimed != cursor.get()) {
+			cursor.lazySet(claimed);
+		}
+	}
+
+	/**
+	 * Returns the lowest sequence read by any subscriber, or the given
+	 * sequence if that is lower or there are no subscribers.
+	 * @param limit
+	 * @return long sequence
+	 */
+	private long slowestSequence(long limit) {
+		long slowest = limit;
+		for (Subscription subscription : subscriptions) {
+			slowest = Math.min(slowest, subscription.sequence.get());
+		}
+		return slowest;
+	}
+
+	/**
+	 * One reader of the bus. A subscription should only be polled from one
+	 * thread at a time.
+	 */
+	public final class Subscription {
+		private final AtomicLong sequence;
+
+		/**
+		 * Constructor.
+		 * @param start sequence of the last event that is skipped.
+		 */
+		private Subscription(long start) {
+			sequence = new AtomicLong(start);
+		}
+
+		/**
+		 * Returns the sequence of the last event read.
+		 * @return long sequence
+		 */
+		public long getSequence() {
+			return sequence.get();
+		}
+
+		/**
+		 * Returns the number of published events not read yet.
+		 * @return int available
+		 */
+		public int available() {
+			return (int) (cursor.get() - sequence.get());
+		}
+
+		/**
+		 * Gives every published event not read yet to the listener, oldest
+		 * first, and returns how many there were. Returns 0 right away if
+		 * there are none.
+		 * @param listener
+		 * @return int events read
+		 */
+		public int poll(GameEventListener listener) {
+			long from = sequence.get(), to = cursor.get();
+			for (long next = from + 1; next <= to; next ++) {
+				listener.onEvent(ring[(int) next & mask], next);
+			}
+			if (to > from) {
+				sequence.lazySet(to);
+			}
+			return (int) (to - from);
+		}
+
+		/**
+		 * Same as poll() but first waits up to the given time for an event.
+		 * Spins for a short while and then sleeps in small steps so a thread
+		 * that waits here takes almost no CPU while the game is quiet.
+		 * @param listener
+		 * @param timeoutNanos
+		 * @return int events read
+		 */
+		public int await(GameEventListener listener, long timeoutNanos) {
+			long deadline = System.nanoTime() + timeoutNanos;
+			for (int spins = 0; cursor.get() == sequence.get(); spins ++) {
+				if (System.nanoTime() - deadline >= 0) {
+					return 0;
+				}
+				if (spins < 100) {
+					Thread.onSpinWait();
+				} else {
+					LockSupport.parkNanos(100_000);
+				}
+			}
+			return poll(listener);
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package model;
+
+/**
+ * Something that reads the events of a GameEventBus. It is called on the
+ * thread that polls its subscription, never on the tick thread.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+@FunctionalInterface
+public interface GameEventListener {
+
+	/**
+	 * Called for every event in order. The event is a reused slot so it is
+	 * only valid until this method returns.
+	 * @param event
+	 * @param sequence number of the event on the bus, starting at 0.
+	 */
+	public void onEvent(GameEvent event, long sequence);
+}
@@ -1,13 +1,17 @@
 package model;
 
 import java.awt.Color;
-import java.awt.event.KeyEvent;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
 
 /**
  * This is the class that houses all the cells, gameObjects and game algorithms.
@@ -15,201 +19,431 @@ import java.util.Random;
  * total cell is one large array. When the next step is called then it will
  * determine the next cell the player is moving to by the player heading and the
  * cell neighbors. It will then move the player and remove any unused cells. 
+ * <p>
+ * A game can have any number of players. Every tick runs in three passes over
+ * the players: first the next cell of every player is worked out, then every
+ * crash is found at once, and only then does anyone move. So no player gets to
+ * move first and the cost of a tick only grows with the number of players.
+ * <p>
+ * There can be more than one apple. Every apple is kept in an AppleIndex so
+ * bots can ask for the closest one. An eaten apple comes back on a free cell
+ * picked in constant time from the pool of unused cells. Once the board is so
+ * full that there is no apple left the game is over.
  * Copyright (c) 2021. 
  * @author Jaraad Kamal
  *
  */
 public class GameModel {
 	private static final int CELL_SIZE = 25;
+	private static final Direction[] DIRECTIONS = Direction.values();
+	public static final int TURN_BUFFER = 3;
 	public static final String HIGH_SCORE_LOCATION = "Assets/HighScoresFolder/highScores.bin";
-	private static GameModel onePlayerInstance, twoPlayerInstance;
-	private static LinkedList<HighScore> highScores = new LinkedList<>();
+	private static GameModel onePlayerInstance, multiplayerInstance;
 	private final  Random random;
-	private Map<Cell, GameObject> usedCells;
-	private LinkedList<Cell> unusedCells;
+	private final Grid grid;
+	private final Topology topology;
+	private final ScoreBoard scoreBoard;
+	private Map<Cell, GameObject> usedCells, usedCellsView;
+	private boolean usedCellsDirty;
+	private CellPool unusedCells;
+	private Occupancy occupancy;
 	private Cell[] allCells;
-	private Map<Direction, Integer> cellNeighbors;
-	private Player player1, player2;
+	private Player[] players;
 	private Apple apple;
-	private int gridWidth, gridHeight, losingIndex = 0;
-	private boolean twoPlayer, gameOver, needToCallNextP1, needToCallNextP2;
+	private AppleIndex apples;
+	private final TickDelta delta = new TickDelta();
+	private TickListener tickListener;
+	private GameEventBus eventBus;
+	private KeyBindings keyBindings;
+	private long tick;
+	private int[] nextIds, eaters, claims, queuedTurns, queuedCounts;
+	private boolean[] turned;
+	private int gridWidth, gridHeight, playerCount, appleCount, living, claimStamp;
+	private int losingIndex = 0;
+	private boolean gameOver;
+	
 	
 	/**
-	 * Static initialization block that sets up the highScores list.
+	 * Constructor that uses the provided random object. The map is made as 
+	 * large as it can be with the default cell size. No high scores are kept.
+	 * @param totalWidth
+	 * @param totalHeight
+	 * @param twoPlayer
+	 * @param random
 	 */
-	static {
-		synchronized(highScores) {
-			highScores = FileHandler.readList(HIGH_SCORE_LOCATION);
-		}
+	public GameModel(int totalWidth, int totalHeight, boolean twoPlayer, Random random) {
+		this(Grid.fromPixels(totalWidth, totalHeight, CELL_SIZE), twoPlayer, random, null);
 	}
 	
-	
 	/**
-	 * Constructor that uses the provided random object. This is used for testing
-	 * and debugging.
-	 * @param totalWidth
-	 * @param totalHeight
+	 * Constructor. Every game model owns its grid, its random object and its
+	 * cells so any number of games can run at once. If random is null then a
+	 * new GameRandom is made. The state of a game can only be saved if its 
+	 * random object is a GameRandom. If scoreBoard is null then no high scores
+	 * are kept.
+	 * @param grid
 	 * @param twoPlayer
 	 * @param random
+	 * @param scoreBoard
 	 */
-	private GameModel(int totalWidth, int totalHeight, boolean twoPlayer, Random random) {
-		gridWidth = totalWidth / CELL_SIZE;
-		gridHeight = totalHeight / CELL_SIZE;		
-		this.twoPlayer = twoPlayer;
+	public GameModel(Grid grid, boolean twoPlayer, Random random, ScoreBoard scoreBoard) {
+		this(grid, twoPlayer ? 2 : 1, random, scoreBoard);
+	}
+	
+	/**
+	 * Constructor for a game with the given number of players. Player 1 starts
+	 * away from the walls like in a one player game and the others start on
+	 * random free cells.
+	 * @param grid
+	 * @param players
+	 * @param random
+	 * @param scoreBoard
+	 */
+	public GameModel(Grid grid, int players, Random random, ScoreBoard scoreBoard) {
+		this(grid, players, 1, random, scoreBoard);
+	}
+	
+	/**
+	 * Constructor for a game with the given number of players and apples. The
+	 * first apple is placed before the players other than player 1 and the
+	 * rest after them. If the board has too few free cells for every apple
+	 * only as many as fit are placed.
+	 * @param grid
+	 * @param players
+	 * @param apples
+	 * @param random
+	 * @param scoreBoard
+	 */
+	public GameModel(Grid grid, int players, int apples, Random random, ScoreBoard scoreBoard) {
+		this(grid == null ? null : Topology.walled(grid), players, apples, random, scoreBoard);
+	}
+	
+	/**
+	 * Constructor for a game on the given topology, which can be a torus or
+	 * have obstacles. Obstacle cells are filled in the walls layer of the 
+	 * occupancy and are never used for players or apples.
+	 * @param topology
+	 * @param players
+	 * @param apples
+	 * @param random
+	 * @param scoreBoard
+	 */
+	public GameModel(Topology topology, int players, int apples, Random random,
+			ScoreBoard scoreBoard) {
+		if (topology == null) {
+			throw new IllegalArgumentException("null grid");
+		}
+		this.topology = topology;
+		this.grid = topology.getGrid();
+		this.scoreBoard = scoreBoard;
+		gridWidth = grid.getGridWidth();
+		gridHeight = grid.getGridHeight();		
 		if (random != null) {
 			this.random = random;
 		} else {
-			this.random = random = new Random();
+			this.random = random = new GameRandom();
 		}
 		
 		if (gridWidth < 4 || gridHeight < 4) {
 			throw new IllegalArgumentException("grid is too small");
 		}
-		Cell.setUp(CELL_SIZE, gridWidth, gridHeight);
+		if (players < 1 || players >= gridWidth * gridHeight - topology.getObstacleCount()) {
+			throw new IllegalArgumentException("can not fit " + players + " players on the grid");
+		}
+		if (apples < 1) {
+			throw new IllegalArgumentException("need at least one apple");
+		}
+		playerCount = players;
+		appleCount = apples;
+		this.apples = new AppleIndex(gridWidth, gridHeight);
+		this.players = new Player[players];
+		nextIds = new int[players];
+		eaters = new int[players];
+		turned = new boolean[players + 1];
+		queuedTurns = new int[(players + 1) * TURN_BUFFER];
+		queuedCounts = new int[players + 1];
+		claims = players > 1 ? new int[gridWidth * gridHeight] : null;
 		usedCells = new HashMap<>();
-		unusedCells = new LinkedList<>();
-		cellNeighbors = new HashMap<>();
+		usedCellsView = new UsedCellsView();
+		occupancy = new Occupancy(gridWidth * gridHeight, players);
 		
 		
-		fillLists();		
-		createPlayerAndApple(totalWidth, totalHeight, twoPlayer, random);
+		fillLists();
+		placeObstacles();
+		createPlayerAndApple();
 	}
 
 	
 
 	/**
 	 * Generates the players and apple
-	 * @param totalWidth
-	 * @param totalHeight
-	 * @param twoPlayer
-	 * @param random
 	 */
-	private void createPlayerAndApple(int totalWidth, int totalHeight, boolean twoPlayer, Random random) {
-		/*
-		 * Creating the random player spawn location.
-		 */
-		int player1XSpawn = this.random.nextInt(totalWidth - 2 * CELL_SIZE) + CELL_SIZE;
-		int player1YSpawn = this.random.nextInt( totalHeight - 2 * CELL_SIZE) + CELL_SIZE;
+	private void createPlayerAndApple() {
+		int cellSize = grid.getCellSize();
+		Cell player1Cell;
+		if (topology.getSpawnRegionCount() > 0) {
+			player1Cell = cellAt(spawnCell(0));
+		} else {
+			/*
+			 * Creating the random player spawn location.
+			 */
+			int player1XSpawn = random.nextInt((gridWidth - 2) * cellSize) + cellSize;
+			int player1YSpawn = random.nextInt((gridHeight - 2) * cellSize) + cellSize;
+			
+			
+			/*
+			 * getting the cells for both the player spawn and the apple spawn. 
+			 */
+			player1Cell = cellAt(grid.getCellId(player1XSpawn, player1YSpawn));
+			if (topology.isObstacle(player1Cell.getId())) {
+				player1Cell = cellAt(unusedCells.get(random.nextInt(unusedCells.size())));
+			}
+		}
+		Cell appleCell = cellAt(unusedCells.get(random.nextInt(unusedCells.size())));
 		
+		players[0] = placePlayer(players[0], player1Cell, 1);
+		useCell(player1Cell.getId(), players[0]);
+		if (apple == null) {
+			apple = new Apple(appleCell);
+		} else {
+			apple.setCell(appleCell);
+		}
+		useCell(appleCell.getId(), apple);
 		
 		/*
-		 * getting the cells for both the player spawn and the apple spawn. 
+		 * the other players start on random free cells.
 		 */
-		Cell player1Cell = allCells[Cell.getCellId(player1XSpawn, player1YSpawn)];
-		Cell appleCell = unusedCells.get(random.nextInt(unusedCells.size()));
-		
-		player1 = new Player(player1Cell, Color.WHITE, 1);
-		useCell(player1Cell, player1);
-		apple = new Apple(appleCell);
-		useCell(appleCell, apple);
+		for (int id = 2; id <= playerCount; id ++) {
+			Cell playerCell = cellAt(topology.getSpawnRegionCount() > 0 ? spawnCell(id - 1)
+					: unusedCells.get(random.nextInt(unusedCells.size())));
+			players[id - 1] = placePlayer(players[id - 1], playerCell, id);
+			useCell(playerCell.getId(), players[id - 1]);
+		}
 		
-		if (twoPlayer) {
-			Cell player2Cell = unusedCells.get(random.nextInt(unusedCells.size()));
-			player2 = new Player(player2Cell, Color.BLUE, 2);
-			useCell(player2Cell, player2);
+		/*
+		 * the other apples go on random free cells while there are some.
+		 */
+		for (int i = 1; i < appleCount && unusedCells.size() > 0; i ++) {
+			useCell(unusedCells.get(random.nextInt(unusedCells.size())), apple);
+		}
+		if (apples.size() > 0) {
+			place(apple, apples.get(0));
 		}
 		
-		needToCallNextP1 = false;
-		needToCallNextP2 = false;
+		living = playerCount;
+		clearTurns();
+		delta.clear(tick);
+		delta.markFull();
 	}
 
+	/**
+	 * Puts a player of length one on the given cell with a random heading. A
+	 * new player is only made if there is none to reuse.
+	 * @param player the old player or null.
+	 * @param cell
+	 * @param id
+	 * @return Player
+	 */
+	private Player placePlayer(Player player, Cell cell, int id) {
+		Direction heading = Direction.getRandom(random);
+		if (player == null) {
+			return new Player(cell, getPlayerColor(id), id, heading);
+		}
+		player.getBody().clear();
+		player.getBody().addFirst(cell.getId());
+		player.restore(heading, 1, 0);
+		player.setCell(cell);
+		player.setAlive(true);
+		return player;
+	}
+	
+	/**
+	 * Returns the color of the player with the given id. Player 1 is white,
+	 * player 2 is blue and the rest are spread around the color wheel.
+	 * @param id
+	 * @return Color
+	 */
+	public static Color getPlayerColor(int id) {
+		switch(id) {
+			case 1 : return Color.WHITE;
+			case 2 : return Color.BLUE;
+			default : return Color.getHSBColor(0.15f + (id - 3) * 0.618034f % 0.7f, 0.8f, 1f);
+		}
+	}
+	
+	/**
+	 * Returns a free cell in the spawn region for the player at the given 
+	 * index, going round the regions if there are more players than regions.
+	 * If the region has no free cell a random free cell is used.
+	 * @param index
+	 * @return int id
+	 */
+	private int spawnCell(int index) {
+		int id = topology.randomSpawnCell(index % topology.getSpawnRegionCount(), random);
+		if (id == Topology.WALL || occupancy.isOccupied(id)) {
+			id = unusedCells.get(random.nextInt(unusedCells.size()));
+		}
+		return id;
+	}
+	
+	/**
+	 * Fills the obstacle cells in the walls layer and takes them out of the
+	 * unused cells.
+	 */
+	private void placeObstacles() {
+		for (int id = topology.nextObstacle(0); id >= 0; id = topology.nextObstacle(id + 1)) {
+			occupancy.set(Occupancy.WALLS, id);
+			unusedCells.remove(id);
+			setCellState(id, CellState.UNBREAKABLE);
+		}
+	}
+	
 	/*
-	 * Creating the unused and all cells lists.
+	 * Creating the unused and all cells lists. A board with more cells than 
+	 * Topology.ADJACENCY_LIMIT gets no Cell objects, see cellAt().
 	 */
 	private void fillLists() {
-		unusedCells = new LinkedList<>();
+		unusedCells = new CellPool(gridWidth * gridHeight);
+		if (gridWidth * gridHeight > Topology.ADJACENCY_LIMIT) {
+			unusedCells.fill();
+			return;
+		}
 		allCells = new Cell[gridWidth * gridHeight];
-		int offSet = CELL_SIZE / 2;
+		int cellSize = grid.getCellSize();
+		int offSet = cellSize / 2;
 		
 		Cell toAdd = null;
 		
 		for (int row = 0; row < gridHeight; row ++) {
 			for (int col = 0; col < gridWidth; col ++) {
-				int xPos = offSet + col * CELL_SIZE;
-				int yPos = offSet + row * CELL_SIZE;
-				int id = Cell.getCellId(xPos, yPos);
+				int xPos = offSet + col * cellSize;
+				int yPos = offSet + row * cellSize;
+				int id = grid.getCellId(xPos, yPos);
 				
-				toAdd = new Cell(xPos,yPos, CellState.EMPTY , id);
+				toAdd = new Cell(grid, xPos,yPos, CellState.EMPTY , id);
 				allCells[id] = toAdd;
-				unusedCells.add(toAdd);
+				unusedCells.add(id);
 			}
 		}
-		
-		/*
-		 * Creating the map of calculations to get to neighbor;
-		 */
-		int[] calc = { -1 * gridWidth, 1, gridWidth, -1};
-		Direction[] directions = Direction.values();
-		for (int i = 0; i < 4; i ++) {
-			cellNeighbors.put(directions[i], calc[i]);
-		}
 	}
 	
 	/**
-	 * Private Constructor that does not use the provided random object. To
-	 * only allow one instance of the class. This is the constructor used when 
-	 * not debugging. 
+	 * Static method that gets the instance the GUI is using. There is one 
+	 * instance for 1 player and a separate instance for more players. The GUI
+	 * instances keep their high scores in the default score board.
 	 * @param totalWidth
 	 * @param totalHeight
 	 * @param twoPlayer
+	 * @return instance of GameModel. 
 	 */
-	private GameModel(int totalWidth, int totalHeight, boolean twoPlayer) {
-		this (totalWidth, totalHeight, twoPlayer, null);
+	public static GameModel getInstance(int totalWidth, int totalHeight, boolean twoPlayer) {
+		return getInstance(totalWidth, totalHeight, twoPlayer, null);
 	}
-
 	
 	/**
-	 * Static method that gets the one instance of the class. There is one instance
-	 * for 1 player and a separate instance for 2 player. 
+	 * Static method that gets the GUI instance for one player and the one for
+	 * two player. This is the method used when debugging to get predictable
+	 * random values. Other games should use the constructors.
 	 * @param totalWidth
 	 * @param totalHeight
 	 * @param twoPlayer
-	 * @return instance of GameModel. 
+	 * @param random
+	 * @return instance of GameModel.
 	 */
-	public static GameModel getInstance(int totalWidth, int totalHeight, boolean twoPlayer) {
-		return getInstance(totalWidth, totalHeight, twoPlayer, null);
+	public static GameModel getInstance(int totalWidth, int totalHeight,
+			boolean twoPlayer, Random random) {
+		return getInstance(totalWidth, totalHeight, twoPlayer ? 2 : 1, random);
 	}
 	
 	/**
-	 * Static method that gets the one instance for one player and one instance 
-	 * for two player. This is the method used when debugging to get predictable
-	 *  random values. 
+	 * Same as getInstance(int, int, boolean, Random) for any number of 
+	 * players. The instance for more than one player is made again if it has a
+	 * different number of players.
 	 * @param totalWidth
 	 * @param totalHeight
-	 * @param twoPlayer
+	 * @param players
 	 * @param random
 	 * @return instance of GameModel.
 	 */
-	public static GameModel getInstance(int totalWidth, int totalHeight,
-			boolean twoPlayer, Random random) {
+	public static synchronized GameModel getInstance(int totalWidth, int totalHeight,
+			int players, Random random) {
 		
-		GameModel instance = twoPlayer ? twoPlayerInstance : onePlayerInstance;
-		if (instance == null) {
-			instance = new GameModel(totalWidth, totalHeight, twoPlayer, random);
-			if (twoPlayer) {
-				twoPlayerInstance = instance;
-			} else {
+		return getInstance(Topology.walled(Grid.fromPixels(totalWidth, totalHeight, CELL_SIZE)),
+				players, random);
+	}
+	
+	/**
+	 * Same as getInstance(int, int, int, Random) for a game on the given 
+	 * board, like a level picked in the menu. The instance is made again if 
+	 * it is for another board.
+	 * @param topology
+	 * @param players
+	 * @param random
+	 * @return instance of GameModel.
+	 */
+	public static synchronized GameModel getInstance(Topology topology, int players,
+			Random random) {
+		GameModel instance = players == 1 ? onePlayerInstance : multiplayerInstance;
+		if (instance == null || instance.playerCount != players 
+				|| !instance.topology.equals(topology)) {
+			instance = new GameModel(topology, players, 1, random, ScoreBoard.getDefault());
+			if (players == 1) {
 				onePlayerInstance = instance;
+			} else {
+				multiplayerInstance = instance;
 			}
 		}
 		return instance;
 	}
 	
 	/**
-	 * Gets the highScores list.
-	 * @return LinkedList<HighScores> highScores;
+	 * Gets the highScores list of the default score board. The list can not
+	 * be changed.
+	 * @return List<HighScores> highScores;
 	 */
-	public static LinkedList<HighScore> getHighScores() {
-		return highScores;
+	public static List<HighScore> getHighScores() {
+		return ScoreBoard.getDefault().getScores();
 	}
 
 	/**
-	 * Returns the cell size.
+	 * Returns the default cell size.
 	 * @return int cell size.
 	 */
-	public static int getCellSize() {
+	public static int getDefaultCellSize() {
 		return CELL_SIZE;
 	}
+	
+	/**
+	 * Returns the cell size of this game.
+	 * @return int cell size.
+	 */
+	public int getCellSize() {
+		return grid.getCellSize();
+	}
+	
+	/**
+	 * Returns the grid of this game.
+	 * @return Grid
+	 */
+	public Grid getGrid() {
+		return grid;
+	}
+	
+	/**
+	 * Returns how the cells of this game are joined together.
+	 * @return Topology
+	 */
+	public Topology getTopology() {
+		return topology;
+	}
+	
+	/**
+	 * Returns the random object this game uses.
+	 * @return Random
+	 */
+	public Random getRandom() {
+		return random;
+	}
 
 	/**
 	 * Returns the number of cells it has in the width direction.
@@ -236,159 +470,632 @@ public class GameModel {
 	}
 	
 	/**
-	 * Rechecks the list with the file
+	 * Rechecks the default score board list with the file
 	 */
 	public static void recheckList() {
-		synchronized(highScores) {
-			highScores = FileHandler.readList(HIGH_SCORE_LOCATION);
-		}
+		ScoreBoard.getDefault().recheck();
 	}
 
 	/**
-	 * Will write the highScore if it is one to a file.
+	 * Will write the highScore if it is one to a file. Does nothing if the
+	 * game does not have a score board. A score that is added is published as
+	 * a HIGH_SCORE event, so this has to be called on the tick thread.
 	 */
 	public boolean addHighScore() {
-		if (gameOver && !twoPlayer) {
-			for (int i = 0; i < highScores.size(); i ++) {
-				int score = highScores.get(i).getScore();
-				if (score < player1.getLength()) {
-					addScore();
-					return true;
-				}
+		if (gameOver && playerCount == 1 && scoreBoard != null
+				&& scoreBoard.addIfHighScore(players[0].getLength())) {
+			if (eventBus != null) {
+				eventBus.claim(GameEvent.HIGH_SCORE, tick, 1, SnakeBody.NONE, players[0].getLength());
+				eventBus.publish();
 			}
+			return true;
 		}
 		return false;
 	}
 
-	/**
-	 * Will add a high score to the list if the current single player score is 
-	 * higher than any of the 10 current scores. Tt will also immediately write 
-	 * it to a file.
-	 */
-	private synchronized void addScore() {
-		highScores.add(new HighScore(player1.getLength(), System.currentTimeMillis()));
-		Collections.sort(highScores);
-		highScores.pollLast();		
-		FileHandler.writeList(highScores, HIGH_SCORE_LOCATION);
-	}
-
 
 	
 	/**
-	 * Returns 1 if player 1 lost, 2 if player 2 lost, or 0 if game still going.
+	 * Returns the id of the player that lost, or 0 if game still going. If
+	 * more than one player crashed on the last tick it is the lowest id.
 	 * @return Integer
 	 */
 	public int getLosingPlayer() {
 		if (!gameOver) {
 			return 0;
 		}
-		if (!twoPlayer) {
+		if (playerCount == 1) {
 			return 1;
 		}
 		return losingIndex;
 	}
 	
+	/**
+	 * Returns the id of the last player left once a game with more than one 
+	 * player is over, or 0 if there is none. That is a one player game, a 
+	 * game still going or a game where the last players crashed together.
+	 * @return int player id
+	 */
+	public int getWinningPlayer() {
+		if (!gameOver || playerCount == 1 || living != 1) {
+			return 0;
+		}
+		for (Player player : players) {
+			if (player.isAlive()) {
+				return player.getId();
+			}
+		}
+		return 0;
+	}
+	
 	/**
 	 * Returns the score of the winning player (or player 1 if single player)
-	 * score is determined by the length of the player.
+	 * score is determined by the length of the player. A game without a 
+	 * winner scores 0.
 	 * @return int score
 	 */
 	public int getScore() {
-		int toReturn = 0;
-		switch(getLosingPlayer()) {
-			case 1 : toReturn =  twoPlayer ? player2.getLength() : player1.getLength();
-				break;
-			case 2 : toReturn =  player1.getLength();
-				break;
-			default : return 0;
+		if (!gameOver) {
+			return 0;
 		}
-		return toReturn;
+		if (playerCount == 1) {
+			return players[0].getLength();
+		}
+		int winner = getWinningPlayer();
+		return winner == 0 ? 0 : players[winner - 1].getLength();
+	}
+	
+	/**
+	 * Returns the number of cells that are not being used by any game object.
+	 * @return int number of free cells.
+	 */
+	public int getUnusedCellCount() {
+		return unusedCells.size();
 	}
 	
 	/**
-	 * Returns a map of the game objects. 
+	 * Returns a map of the game objects. The map is a view that is only built
+	 * from the occupancy bitboards when it is read after a change. Code that 
+	 * runs every frame should read getOccupancy() instead.
 	 * @return Map of game objects.
 	 */
 	public Map<Cell, GameObject> getUsedCells() {
-		return usedCells;
+		return usedCellsView;
+	}
+	
+	/**
+	 * Returns the occupancy bitboards that say what is in every cell.
+	 * @return Occupancy
+	 */
+	public Occupancy getOccupancy() {
+		return occupancy;
+	}
+	
+	/**
+	 * Returns the player with the given id. Player ids start at 1.
+	 * @param id
+	 * @return Player
+	 */
+	public Player getPlayer(int id) {
+		return id < 1 || id > playerCount ? null : players[id - 1];
+	}
+	
+	/**
+	 * Returns the number of players in the game.
+	 * @return int player count
+	 */
+	public int getPlayerCount() {
+		return playerCount;
+	}
+	
+	/**
+	 * Returns the number of players that have not crashed.
+	 * @return int living players
+	 */
+	public int getLivingPlayerCount() {
+		return living;
 	}
 	
 	/**
-	 * Changes the heading of the two players given an integer corresponding to
-	 * as keyPress. Will return true if both player 1 and (if present) player 2
-	 * pressed a key. The need to call next step is that that the game will not
-	 * change the heading twice per player before rendering out the next frame.
-	 * This prevents the player from going backwards when pressing both the back
-	 * and up key at the same time. (Or down and left.)
+	 * Returns the apple. With more than one apple it is the first one in the
+	 * apple index.
+	 * @return Apple
+	 */
+	public Apple getApple() {
+		return apple;
+	}
+	
+	/**
+	 * Returns the index of every apple on the map. It should only be read.
+	 * @return AppleIndex
+	 */
+	public AppleIndex getApples() {
+		return apples;
+	}
+	
+	/**
+	 * Returns the number of apples a new game starts with.
+	 * @return int apples
+	 */
+	public int getAppleCount() {
+		return appleCount;
+	}
+	
+	/**
+	 * Returns the cell of the apple closest to the given cell, the short way
+	 * round on a torus. If there is no apple on the map it is the cell of
+	 * getApple().
+	 * @param id
+	 * @return int cell id
+	 */
+	public int getNearestApple(int id) {
+		int nearest = apples.nearest(id, topology.isWrapped());
+		return nearest == AppleIndex.NONE ? apple.getCell().getId() : nearest;
+	}
+	
+	/**
+	 * Changes the heading of a player given an integer corresponding to a
+	 * keyPress. The key bindings say which player the key belongs to and which
+	 * way it turns. Will return true if the key turned a player. A player only
+	 * gets one turn before the next step so the game will not change the 
+	 * heading twice per player before rendering out the next frame. This 
+	 * prevents the player from going backwards when pressing both the back and
+	 * up key at the same time. (Or down and left.) A quick second turn is not
+	 * lost though: up to TURN_BUFFER of them are queued and one is taken at the
+	 * start of each of the next steps. A queued turn that would do nothing 
+	 * after the ones before it, the same way or straight back, is not queued.
 	 * @param keyPress
 	 * @return boolean.
 	 */
-	public boolean changeHeading(int keyPress) {
-		
-		if (needToCallNextP1 || needToCallNextP2) {
+	public synchronized boolean changeHeading(int keyPress) {
+		KeyBindings keys = getKeyBindings();
+		int id = keys.playerFor(keyPress);
+		if (id == 0 || id > playerCount) {
 			return false;
 		}
-		
-		needToCallNextP1 = true;
-		boolean changed = true;
-		switch(keyPress) {
-			case KeyEvent.VK_W : player1.setHeading(Direction.NORTH);
-				break;
-			case KeyEvent.VK_A : player1.setHeading(Direction.WEST);
-				break;
-			case KeyEvent.VK_S : player1.setHeading(Direction.SOUTH);
-				break;
-			case KeyEvent.VK_D : player1.setHeading(Direction.EAST);
-				break;
-			default : changed = false; needToCallNextP1 = false;
+		Direction direction = keys.directionFor(keyPress);
+		if (!turned[id]) {
+			turned[id] = true;
+			players[id - 1].setHeading(direction);
+			return true;
 		}
-		
-		if (twoPlayer) {
-			needToCallNextP2 = true;
-			switch(keyPress) {
-				case KeyEvent.VK_UP : player2.setHeading(Direction.NORTH);
-					break;
-				case KeyEvent.VK_LEFT : player2.setHeading(Direction.WEST);
-					break;
-				case KeyEvent.VK_DOWN : player2.setHeading(Direction.SOUTH);
-					break;
-				case KeyEvent.VK_RIGHT : player2.setHeading(Direction.EAST);
-					break;
-				default : needToCallNextP2 = false;
+		int count = queuedCounts[id];
+		Direction last = count == 0 ? players[id - 1].getHeading()
+				: DIRECTIONS[queuedTurns[id * TURN_BUFFER + count - 1]];
+		if (count == TURN_BUFFER || direction == last || direction == Direction.getOpposite(last)) {
+			return false;
+		}
+		queuedTurns[id * TURN_BUFFER + count] = direction.ordinal();
+		queuedCounts[id] = count + 1;
+		return true;
+	}
+	
+	/**
+	 * Starts a step. Players with a queued turn take the oldest one, which
+	 * counts as their turn for this step, and the others can turn again.
+	 */
+	private void applyQueuedTurns() {
+		for (int id = 1; id <= playerCount; id ++) {
+			int count = queuedCounts[id];
+			turned[id] = count > 0;
+			if (count > 0) {
+				int start = id * TURN_BUFFER;
+				players[id - 1].setHeading(DIRECTIONS[queuedTurns[start]]);
+				System.arraycopy(queuedTurns, start + 1, queuedTurns, start, count - 1);
+				queuedCounts[id] = count - 1;
 			}
 		}
-		if (twoPlayer) {
-			return keyPress == KeyEvent.VK_SPACE;
+	}
+	
+	/**
+	 * Forgets every turn taken or queued since the last step.
+	 */
+	private void clearTurns() {
+		Arrays.fill(turned, false);
+		Arrays.fill(queuedCounts, 0);
+	}
+	
+	/**
+	 * Returns the key bindings used by changeHeading(int). They are the 
+	 * defaults until others are set.
+	 * @return KeyBindings
+	 */
+	public synchronized KeyBindings getKeyBindings() {
+		if (keyBindings == null) {
+			keyBindings = KeyBindings.defaults();
+		}
+		return keyBindings;
+	}
+	
+	/**
+	 * Sets the key bindings used by changeHeading(int).
+	 * @param keyBindings
+	 */
+	public synchronized void setKeyBindings(KeyBindings keyBindings) {
+		if (keyBindings == null) {
+			throw new IllegalArgumentException("null key bindings");
+		}
+		this.keyBindings = keyBindings;
+	}
+	
+	/**
+	 * Changes the heading of the player with the given id without going through
+	 * the key mapping. This is what input policies and bots use. The player
+	 * still can not turn straight back on itself.
+	 * @param playerId
+	 * @param direction
+	 * @return true if there was a player to turn.
+	 */
+	public boolean changeHeading(int playerId, Direction direction) {
+		Player player = getPlayer(playerId);
+		if (player == null || direction == null) {
+			return false;
 		}
-		return changed;
+		player.setHeading(direction);
+		return true;
 	}
 	
 	/**
-	 * This method performs the game logic on each step. First it will check if 
-	 * the next cell player 1 will go to is open. If it is then it will move the 
-	 * player. If it is not, then it will check to see if the filled cell is 
-	 * breakable or not. If the cell is not breakable then it will set the game
-	 * to over and end the game. If the cell is breakable (it is an apple) then 
-	 * it will lengthen the player and add another apple. 
+	 * Returns the id of the cell next to the given one in the given direction
+	 * or -1 if that would be off the map or into an obstacle. This is one read
+	 * of the adjacency table of the topology.
+	 * @param id
+	 * @param direction
+	 * @return int neighbor id or -1
+	 */
+	public int getNeighborId(int id, Direction direction) {
+		return topology.neighbor(id, direction);
+	}
+	
+	/**
+	 * This method performs the game logic on each step. First it will find the
+	 * next cell of every player. A player crashes if that cell is off the map,
+	 * is filled with anything other than an apple or is the next cell of 
+	 * another player too. Then every player that did not crash moves. If a 
+	 * player moved onto the apple it will lengthen the player and add another
+	 * apple. A one player game is over when the player crashes. A game with 
+	 * more players goes on while at least two are left, and the cells of the
+	 * players that crashed are freed. What changed on the board is also kept
+	 * in the delta returned by getLastDelta(), and if there is an event bus
+	 * the events of the tick are published to it in one go at the end.
 	 * @return Map of all the current game objects that need to be displayed. 
 	 */
-	public Map<Cell, GameObject> nextAnimationStep() {
-		if (twoPlayer) {
-			animatePlayer(player2);
+	public synchronized Map<Cell, GameObject> nextAnimationStep() {
+		applyQueuedTurns();
+		if (tickListener != null) {
+			tickListener.beforeTick(this, tick);
+		}
+		delta.clear(tick + 1);
+		boolean wasOver = gameOver;
+		animatePlayers();
+		tick ++;
+		if (eventBus != null) {
+			if (gameOver && !wasOver) {
+				eventBus.claim(GameEvent.GAME_OVER, tick, 0, SnakeBody.NONE, getWinningPlayer());
+			}
+			eventBus.publish();
+		}
+		if (tickListener != null) {
+			tickListener.afterTick(this, tick);
 		}
-		needToCallNextP1 = false;
-		needToCallNextP2 = false;
-		return animatePlayer(player1);
+		return usedCellsView;
 		
 		
 	}
 	
 	/**
-	 * returns true if it is two player
-	 * @return boolean.
+	 * Returns the number of ticks that have been run.
+	 * @return long tick
+	 */
+	public long getTick() {
+		return tick;
+	}
+	
+	/**
+	 * Returns the changes the last tick made to the board. The same delta is
+	 * filled again on every tick so it has to be read before the next one,
+	 * from TickListener.afterTick() or right after nextAnimationStep(). After
+	 * a reset, a restored snapshot or a read state the delta is full and the
+	 * whole board has to be read instead.
+	 * @return TickDelta
+	 */
+	public TickDelta getLastDelta() {
+		return delta;
+	}
+	
+	/**
+	 * Sets the bus the events of this game are published to. Null stops
+	 * publishing. The game is the only writer of the bus, so a bus can not be
+	 * shared between games.
+	 * @param eventBus
+	 */
+	public synchronized void setEventBus(GameEventBus eventBus) {
+		this.eventBus = eventBus;
+	}
+	
+	/**
+	 * Returns the bus events are published to or null.
+	 * @return GameEventBus
+	 */
+	public GameEventBus getEventBus() {
+		return eventBus;
+	}
+	
+	/**
+	 * Sets the listener that is told before every tick. Null removes it.
+	 * @param tickListener
+	 */
+	public void setTickListener(TickListener tickListener) {
+		this.tickListener = tickListener;
+	}
+	
+	/**
+	 * Writes everything needed to carry on this game from this exact point.
+	 * The game has to use a GameRandom so its random numbers can be saved.
+	 * @param out
+	 * @throws IOException
+	 */
+	public synchronized void writeState(DataOutput out) throws IOException {
+		Varint.writeUnsigned(out, tick);
+		out.writeLong(getGameRandom().getState());
+		out.writeBoolean(gameOver);
+		Varint.writeUnsigned(out, losingIndex);
+		for (int id = 1; id <= getPlayerCount(); id ++) {
+			Player player = getPlayer(id);
+			SnakeBody body = player.getBody();
+			out.writeBoolean(player.isAlive());
+			out.writeByte(player.getHeading().ordinal());
+			Varint.writeUnsigned(out, player.getLength());
+			Varint.writeUnsigned(out, player.getGrowthLeft());
+			Varint.writeUnsigned(out, body.size());
+			
+			// tail first, each cell after the first as the change from the last
+			int previous = 0;
+			for (int i = body.size() - 1; i >= 0; i --) {
+				Varint.writeSigned(out, body.get(i) - previous);
+				previous = body.get(i);
+			}
+		}
+		Varint.writeUnsigned(out, apple.getCell().getId());
+		Varint.writeUnsigned(out, apples.size());
+		for (int i = 0; i < apples.size(); i ++) {
+			Varint.writeUnsigned(out, apples.get(i));
+		}
+		Varint.writeUnsigned(out, unusedCells.size());
+		for (int i = 0; i < unusedCells.size(); i ++) {
+			Varint.writeUnsigned(out, unusedCells.get(i));
+		}
+	}
+	
+	/**
+	 * Puts this game back to a point written by writeState(). The game has to
+	 * have the same grid and number of players as the one that was written.
+	 * @param in
+	 * @throws IOException
+	 */
+	public synchronized void readState(DataInput in) throws IOException {
+		GameRandom gameRandom = getGameRandom();
+		tick = Varint.readUnsigned(in);
+		gameRandom.setState(in.readLong());
+		gameOver = in.readBoolean();
+		losingIndex = Varint.readInt(in);
+		clearTurns();
+		
+		occupancy.clearAll();
+		for (int id = 0; allCells != null && id < allCells.length; id ++) {
+			allCells[id].setState(CellState.EMPTY);
+		}
+		for (int id = topology.nextObstacle(0); id >= 0; id = topology.nextObstacle(id + 1)) {
+			occupancy.set(Occupancy.WALLS, id);
+			setCellState(id, CellState.UNBREAKABLE);
+		}
+		Direction[] directions = Direction.values();
+		living = 0;
+		for (int id = 1; id <= getPlayerCount(); id ++) {
+			Player player = getPlayer(id);
+			SnakeBody body = player.getBody();
+			boolean alive = in.readBoolean();
+			Direction heading = directions[in.readByte()];
+			int length = Varint.readInt(in), growthLeft = Varint.readInt(in);
+			int size = Varint.readInt(in);
+			
+			body.clear();
+			int cellId = 0;
+			for (int i = 0; i < size; i ++) {
+				cellId += (int) Varint.readSigned(in);
+				checkId(cellId);
+				body.addFirst(cellId);
+				occupancy.setPlayer(id, cellId);
+				setCellState(cellId, CellState.UNBREAKABLE);
+			}
+			player.restore(heading, length, growthLeft);
+			player.setAlive(alive);
+			living += alive ? 1 : 0;
+			if (size > 0) {
+				place(player, body.getHead());
+			}
+		}
+		int appleId = Varint.readInt(in);
+		checkId(appleId);
+		place(apple, appleId);
+		apples.clear();
+		int appleTotal = Varint.readInt(in);
+		for (int i = 0; i < appleTotal; i ++) {
+			int id = Varint.readInt(in);
+			checkId(id);
+			if (!apples.add(id)) {
+				throw new IOException("saved apple " + id + " given twice");
+			}
+			occupancy.set(Occupancy.APPLES, id);
+			setCellState(id, CellState.BREAKABLE);
+		}
+		
+		int free = Varint.readInt(in);
+		unusedCells.clear();
+		for (int i = 0; i < free; i ++) {
+			int id = Varint.readInt(in);
+			checkId(id);
+			if (!unusedCells.add(id)) {
+				throw new IOException("saved free cell " + id + " given twice");
+			}
+		}
+		usedCellsDirty = true;
+		delta.clear(tick);
+		delta.markFull();
+	}
+	
+	/**
+	 * Starts a new game in place. The players and the apple are placed with 
+	 * the same random draws the constructor uses, so a game reset after 
+	 * setting its GameRandom to a seed is the same as a new game made with 
+	 * that seed. Nothing is created so this can be used to restart games in a
+	 * tight loop. The states stored in the Cell objects are not reset.
 	 */
-	public boolean isTwoPlayer() {
-		return twoPlayer;
+	public synchronized void reset() {
+		occupancy.clearAll();
+		apples.clear();
+		unusedCells.fill();
+		placeObstacles();
+		tick = 0;
+		gameOver = false;
+		losingIndex = 0;
+		createPlayerAndApple();
+		usedCellsDirty = true;
+	}
+	
+	/**
+	 * Makes an empty snapshot that fits this game.
+	 * @return Snapshot
+	 */
+	public Snapshot newSnapshot() {
+		return new Snapshot(topology, getPlayerCount());
+	}
+	
+	/**
+	 * Copies the full state of this game into the given snapshot. Nothing is
+	 * created so this can be called as often as needed. The game has to use a
+	 * GameRandom.
+	 * @param snapshot
+	 */
+	public synchronized void saveSnapshot(Snapshot snapshot) {
+		checkFits(snapshot.topology, snapshot.getPlayerCount());
+		snapshot.tick = tick;
+		snapshot.randomState = getGameRandom().getState();
+		snapshot.gameOver = gameOver;
+		snapshot.losingIndex = losingIndex;
+		snapshot.living = living;
+		snapshot.appleId = apple.getCell().getId();
+		snapshot.occupancy.copyFrom(occupancy);
+		snapshot.unusedCells.copyFrom(unusedCells);
+		snapshot.apples.copyFrom(apples);
+		int start = 0;
+		for (int id = 1; id <= getPlayerCount(); id ++) {
+			Player player = getPlayer(id);
+			snapshot.bodyStarts[id] = start;
+			snapshot.bodySizes[id] = player.getBody().copyTo(snapshot.bodies, start);
+			snapshot.headings[id] = player.getHeading().ordinal();
+			snapshot.lengths[id] = player.getLength();
+			snapshot.growthLeft[id] = player.getGrowthLeft();
+			snapshot.alive[id] = player.isAlive();
+			start += snapshot.bodySizes[id];
+		}
+		snapshot.filled = true;
+	}
+	
+	/**
+	 * Puts this game back to the state saved in the snapshot. Nothing is 
+	 * created once the player bodies are big enough. The states stored in the 
+	 * Cell objects are not put back, use getCellState() to ask what is in a 
+	 * cell.
+	 * @param snapshot
+	 */
+	public synchronized void restoreSnapshot(Snapshot snapshot) {
+		checkFits(snapshot.topology, snapshot.getPlayerCount());
+		if (!snapshot.filled) {
+			throw new IllegalArgumentException("snapshot is empty");
+		}
+		tick = snapshot.tick;
+		getGameRandom().setState(snapshot.randomState);
+		gameOver = snapshot.gameOver;
+		losingIndex = snapshot.losingIndex;
+		living = snapshot.living;
+		clearTurns();
+		occupancy.copyFrom(snapshot.occupancy);
+		unusedCells.copyFrom(snapshot.unusedCells);
+		apples.copyFrom(snapshot.apples);
+		Direction[] directions = Direction.values();
+		for (int id = 1; id <= getPlayerCount(); id ++) {
+			Player player = getPlayer(id);
+			SnakeBody body = player.getBody();
+			body.load(snapshot.bodies, snapshot.bodyStarts[id], snapshot.bodySizes[id]);
+			player.restore(directions[snapshot.headings[id]], snapshot.lengths[id],
+					snapshot.growthLeft[id]);
+			player.setAlive(snapshot.alive[id]);
+			if (body.size() > 0) {
+				place(player, body.getHead());
+			}
+		}
+		place(apple, snapshot.appleId);
+		usedCellsDirty = true;
+		delta.clear(tick);
+		delta.markFull();
+	}
+	
+	/**
+	 * Makes a new game that is an exact copy of this one. It does not keep high
+	 * scores or tell any tick listener. Use forkInto() to reuse a game made
+	 * earlier instead of making a new one.
+	 * @return GameModel copy
+	 */
+	public GameModel fork() {
+		GameModel copy = new GameModel(topology, playerCount, appleCount, new GameRandom(0), null);
+		forkInto(copy);
+		return copy;
+	}
+	
+	/**
+	 * Makes the given game an exact copy of this one. The target needs the same
+	 * grid and number of players and has to use a GameRandom. Nothing is made 
+	 * once the target's player bodies are big enough.
+	 * @param target
+	 */
+	public synchronized void forkInto(GameModel target) {
+		target.checkFits(topology, getPlayerCount());
+		synchronized(target) {
+			target.tick = tick;
+			target.getGameRandom().setState(getGameRandom().getState());
+			target.gameOver = gameOver;
+			target.losingIndex = losingIndex;
+			target.living = living;
+			target.clearTurns();
+			target.occupancy.copyFrom(occupancy);
+			target.unusedCells.copyFrom(unusedCells);
+			target.apples.copyFrom(apples);
+			for (int id = 1; id <= getPlayerCount(); id ++) {
+				Player player = getPlayer(id), copy = target.getPlayer(id);
+				copy.getBody().copyFrom(player.getBody());
+				copy.restore(player.getHeading(), player.getLength(), player.getGrowthLeft());
+				copy.setAlive(player.isAlive());
+				target.place(copy, player.getCell().getId());
+			}
+			target.place(target.apple, apple.getCell().getId());
+			target.usedCellsDirty = true;
+			target.delta.clear(tick);
+			target.delta.markFull();
+		}
+	}
+	
+	/**
+	 * Returns what is in the cell with the given id. This always comes from 
+	 * the occupancy grid so it is right even after a snapshot is restored.
+	 * @param id
+	 * @return CellState
+	 */
+	public CellState getCellState(int id) {
+		if (!occupancy.isOccupied(id)) {
+			return CellState.EMPTY;
+		}
+		return occupancy.isSet(Occupancy.APPLES, id) ? CellState.BREAKABLE : CellState.UNBREAKABLE;
 	}
 	
 	/**
@@ -397,119 +1104,231 @@ public class GameModel {
 	 */
 	public static void clearInstnaces() {
 		onePlayerInstance = null;
-		twoPlayerInstance = null;
+		multiplayerInstance = null;
 	}
 
 	/**
-	 * Animates the given player object.
-	 * @return a map of all the used cells
+	 * Moves every player that is still in the game one step. The first pass
+	 * finds the next cell of each player and marks it as claimed, the second
+	 * finds every crash and the third moves the players that did not crash.
+	 * Nothing moves before every crash is known so the order of the players
+	 * does not matter. A cell that is claimed twice gets a claim mark one 
+	 * higher than the stamp of this tick. New apples are only put down once
+	 * every player has moved, so an apple can not land in a cell that a later
+	 * player is moving into on the same tick.
 	 */
-	private Map<Cell, GameObject> animatePlayer(Player player) {
-		Cell playerCurrCell, playerNextCell;
-		playerCurrCell = player.getCell();
-		int idOfNext = playerCurrCell.getId() + cellNeighbors.get(player.getHeading());
-		
-		if (!isValidId(idOfNext,playerCurrCell.getId(), player.getHeading())) {
-			synchronized(this) {
-				losingIndex = player.getId();
-				gameOver = true;
+	private void animatePlayers() {
+		int stamp = nextClaimStamp();
+		for (int i = 0; i < playerCount; i ++) {
+			Player player = players[i];
+			if (!player.isAlive()) {
+				continue;
+			}
+			int next = getNeighborId(player.getCell().getId(), player.getHeading());
+			nextIds[i] = next;
+			if (next >= 0 && claims != null) {
+				claims[next] = claims[next] >= stamp ? stamp + 1 : stamp;
 			}
-			return usedCells;
 		}
 		
+		int crashed = 0;
+		for (int i = 0; i < playerCount; i ++) {
+			int next = nextIds[i];
+			if (players[i].isAlive() && (next < 0 || (claims != null && claims[next] != stamp)
+					|| (occupancy.isOccupied(next) && !occupancy.isSet(Occupancy.APPLES, next)))) {
+				nextIds[i] = -1;
+				crashed ++;
+			}
+		}
+		boolean ends = playerCount == 1 ? crashed > 0 : living - crashed <= 1;
 		
-		
-		playerNextCell = allCells[idOfNext];
-		if (!useCell(playerNextCell, player)) {
-			synchronized(this) {
-				returnCell(player.move(playerNextCell).orElse(null));
+		int eaten = 0;
+		for (int i = 0; i < playerCount; i ++) {
+			if (players[i].isAlive() && nextIds[i] >= 0 && movePlayer(players[i], nextIds[i])) {
+				eaters[eaten ++] = i;
 			}
-		} else {
-			if (playerNextCell.getState() == CellState.BREAKABLE) {
-				useApple(player, playerNextCell);
-			} else {
-				synchronized(this) {
-					gameOver = true;
+		}
+		for (int i = 0; i < eaten; i ++) {
+			replaceApple(players[eaters[i]]);
+		}
+		if (crashed > 0) {
+			losingIndex = 0;
+			for (int i = 0; i < playerCount; i ++) {
+				if (players[i].isAlive() && nextIds[i] < 0) {
+					crash(players[i], !ends);
 				}
 			}
+			living -= crashed;
+		}
+		if (ends) {
+			gameOver = true;
+		}
+	}
+	
+	/**
+	 * Moves the player into the cell with the given id, which is either free or
+	 * holds an apple.
+	 * @param player
+	 * @param next
+	 * @return true if the player ate an apple.
+	 */
+	private boolean movePlayer(Player player, int next) {
+		if (!useCell(next, player)) {
+			int tail = player.move(next);
+			place(player, next);
+			returnCell(tail, Occupancy.PLAYERS);
+			publishMove(player, tail);
+			return false;
+		}
+		useApple(player, next);
+		return true;
+	}
+	
+	/**
+	 * Publishes the move of a player and, if it let go of no tail, that it
+	 * grew.
+	 * @param player
+	 * @param tail
+	 */
+	private void publishMove(Player player, int tail) {
+		if (eventBus != null) {
+			int head = player.getBody().getHead();
+			eventBus.claim(GameEvent.MOVE, tick + 1, player.getId(), head, tail);
+			if (tail == SnakeBody.NONE) {
+				eventBus.claim(GameEvent.GROW, tick + 1, player.getId(), head, player.getLength());
+			}
 		}
-		return usedCells;
 	}
 	
 	/**
-	 * Method called when the player hits the apple. It will assign the apple 
-	 * to another random cell and increase the player length. It will then also
-	 * continue the animation so the player keeps moving forward.
+	 * Takes a player that crashed out of the game. The first player to crash
+	 * on a tick is the losing player.
 	 * @param player
-	 * @param oldAppleCell
+	 * @param freeCells true if the cells of the body are given back.
 	 */
-	private void useApple(Player player, Cell oldAppleCell) {
+	private void crash(Player player, boolean freeCells) {
+		player.setAlive(false);
+		delta.add(TickDelta.DIED, player.getId(), 0);
+		if (eventBus != null) {
+			int head = player.getBody().size() > 0 ? player.getBody().getHead() : SnakeBody.NONE;
+			eventBus.claim(GameEvent.DEATH, tick + 1, player.getId(), head, player.getLength());
+		}
+		if (losingIndex == 0) {
+			losingIndex = player.getId();
+		}
+		if (freeCells) {
+			SnakeBody body = player.getBody();
+			for (int i = 0; i < body.size(); i ++) {
+				returnCell(body.get(i), Occupancy.PLAYERS);
+			}
+			body.clear();
+		}
+	}
+	
+	/**
+	 * Returns the claim stamp for a new tick. Stamps go up by two so a cell
+	 * claimed twice can be marked with the stamp plus one. The claim marks are
+	 * cleared if the stamp would overflow.
+	 * @return int stamp
+	 */
+	private int nextClaimStamp() {
+		claimStamp += 2;
+		if (claimStamp < 0) {
+			Arrays.fill(claims, 0);
+			claimStamp = 2;
+		}
+		return claimStamp;
+	}
+	
+	/**
+	 * Method called when the player hits an apple. It will increase the player
+	 * length and move the player into the cell of the apple. The apple is put
+	 * back later by replaceApple().
+	 * @param player
+	 * @param appleId cell of the apple that was eaten.
+	 */
+	private void useApple(Player player, int appleId) {
 		synchronized(player) {
 			player.grow();
 		}
-		int nextCellIndex = random.nextInt(unusedCells.size());
 		synchronized(this) {
-			returnCell(player.move(oldAppleCell).orElse(null));
+			int tail = player.move(appleId);
+			place(player, appleId);
+			returnCell(tail, Occupancy.PLAYERS);
 			
 			// re-purposing apple previous cell for next player cell
-			usedCells.put(oldAppleCell, player);
-			
-			
-			
-			Cell nextAppleCell = unusedCells.get(nextCellIndex); 
-			apple.setCell(nextAppleCell);
-			unusedCells.remove(nextAppleCell);
-			usedCells.put(nextAppleCell, apple);
+			occupancy.clear(Occupancy.APPLES, appleId);
+			apples.remove(appleId);
+			occupancy.setPlayer(player.getId(), appleId);
+			delta.add(TickDelta.APPLE_EATEN, appleId, 0);
+			delta.add(TickDelta.OCCUPIED, appleId, player.getId());
+			publishMove(player, tail);
+			usedCellsDirty = true;
 		}
-		
 	}
 	
-	
 	/**
-	 * Will return true if the next id is a valid id for the list of cells.
-	 * It will return false if the id is out of the range of the array (this 
-	 * detects top and bottom collisions). It will then return false if the 
-	 * direction is a horizontal direction and the next id is on a different row
-	 * then the previous id (this detects horizontal collisions with walls).
-	 * @param idNext
-	 * @param idCurr
-	 * @param direction
-	 * @return
+	 * Puts the apple the player just ate on another random free cell. A full
+	 * board has nowhere left for the apple so it is not put back, and once no
+	 * apple is left the game is over.
+	 * @param player the player that ate the apple in the cell of its head.
 	 */
-	private boolean isValidId(int idNext, int idCurr, Direction direction) {
-		boolean correctRow = idNext / gridWidth == idCurr / gridWidth 
-				|| Direction.isVeritcal(direction);
-		
-		return idNext >= 0 && idNext < allCells.length && correctRow;
+	private void replaceApple(Player player) {
+		int appleId = player.getBody().getHead();
+		boolean full = unusedCells.size() == 0;
+		int nextCellIndex = full ? 0 : random.nextInt(unusedCells.size());
+		synchronized(this) {
+			int nextAppleId = SnakeBody.NONE;
+			if (!full) {
+				nextAppleId = unusedCells.get(nextCellIndex);
+				unusedCells.remove(nextAppleId);
+				occupancy.set(Occupancy.APPLES, nextAppleId);
+				apples.add(nextAppleId);
+				delta.add(TickDelta.APPLE_ADDED, nextAppleId, 0);
+			}
+			if (eventBus != null) {
+				eventBus.claim(GameEvent.EAT, tick + 1, player.getId(), appleId, nextAppleId);
+			}
+			if (apples.size() == 0) {
+				gameOver = true;
+			} else {
+				place(apple, apples.get(0));
+			}
+			usedCellsDirty = true;
+		}
 		
 	}
 	
+	
+	
 
 	
 	/**
 	 * Moves the cell to the used cells list and removes it from the unused cells
 	 * list. If the gameObject parameter is null then it will do nothing and return
-	 * false. If the cell parameter is null then it will pick a random cell from
-	 * the unused (this is used when placing an apple). The method will return true
-	 * if there was a collision false otherwise.
-	 * @param cell
+	 * false. The method will return true if there was a collision false otherwise.
+	 * @param id
 	 * @param gameObject
 	 * @return will return false if gameObject is null or there was no collision
 	 */
-	private boolean useCell(Cell cell, GameObject gameObject) {
+	private boolean useCell(int id, GameObject gameObject) {
 		if (gameObject != null) {
-			if (cell != null && !unusedCells.contains(cell)) {
-				return true;
-			}
-			Cell inQuestion = cell == null ? getRandomUnusedCell().orElse(null) : cell;
-			
-			if (cell == null) {
+			if (occupancy.isOccupied(id)) {
 				return true;
 			}
 			synchronized(unusedCells) {
-				unusedCells.remove(inQuestion);
-				cell.setState(gameObject.getObjectType());
-				usedCells.put(inQuestion, gameObject);
+				unusedCells.remove(id);
+				setCellState(id, gameObject.getObjectType());
+				if (gameObject instanceof Player) {
+					int playerId = ((Player) gameObject).getId();
+					occupancy.setPlayer(playerId, id);
+					delta.add(TickDelta.OCCUPIED, id, playerId);
+				} else {
+					occupancy.set(Occupancy.APPLES, id);
+					apples.add(id);
+					delta.add(TickDelta.APPLE_ADDED, id, 0);
+				}
+				usedCellsDirty = true;
 			}
 			
 			
@@ -520,29 +1339,160 @@ public class GameModel {
 	}
 	
 	/**
-	 * Will return an optional. The optional will either contain a random unused
-	 * cell or nothing if there were no unused cells left. 
-	 * @return
+	 * Returns the Cell with the given id. A board with more cells than 
+	 * Topology.ADJACENCY_LIMIT keeps no Cell for every cell, so there a new one
+	 * is made. Only placing players and building the used cells map ask for 
+	 * cells this way.
+	 * @param id
+	 * @return Cell
 	 */
-	private Optional<Cell> getRandomUnusedCell() {
-		if (unusedCells.size() != 0) {
-			return Optional.of(unusedCells.get(random.nextInt(unusedCells.size())));
+	private Cell cellAt(int id) {
+		if (allCells != null) {
+			return allCells[id];
+		}
+		int cellSize = grid.getCellSize();
+		return new Cell(grid, id % gridWidth * cellSize + cellSize / 2,
+				id / gridWidth * cellSize + cellSize / 2, getCellState(id), id);
+	}
+	
+	/**
+	 * Puts the game object on the cell with the given id. With Cell objects 
+	 * for every cell the object gets the one from the table. Without them the
+	 * object's own Cell is moved there, so nothing is made on a tick.
+	 * @param object
+	 * @param id
+	 */
+	private void place(GameObject object, int id) {
+		if (allCells != null) {
+			object.setCell(allCells[id]);
+		} else {
+			object.getCell().moveTo(id);
+		}
+	}
+	
+	/**
+	 * Sets the state kept in the Cell object of the cell, if there is one.
+	 * @param id
+	 * @param state
+	 */
+	private void setCellState(int id, CellState state) {
+		if (allCells != null) {
+			allCells[id].setState(state);
 		}
-		
-		return Optional.empty();
 	}
 	
 	/**
 	 * Returns a used cell back to empty. Adds it to the unusedCells list. Will 
-	 * do nothing if the parameter is null.
-	 * @param cell
+	 * do nothing if the id is SnakeBody.NONE.
+	 * @param id
+	 * @param layer the occupancy layer the cell was filled in.
 	 */
-	private void returnCell(Cell cell) {
-		if (cell != null) {
-			usedCells.remove(cell);
-			cell.setState(CellState.EMPTY);
-			unusedCells.add(cell);
-			
+	private void returnCell(int id, int layer) {
+		if (id != SnakeBody.NONE) {
+			occupancy.clear(layer, id);
+			setCellState(id, CellState.EMPTY);
+			delta.add(TickDelta.VACATED, id, 0);
+			unusedCells.add(id);
+			usedCellsDirty = true;
+		}
+	}
+	
+	/**
+	 * Returns the random object as a GameRandom or throws if it is not one.
+	 * @return GameRandom
+	 */
+	private GameRandom getGameRandom() {
+		if (!(random instanceof GameRandom)) {
+			throw new IllegalStateException("game state can only be saved with a GameRandom");
+		}
+		return (GameRandom) random;
+	}
+	
+	/**
+	 * Throws if a snapshot or game with the given topology and players can not
+	 * be copied into this game. Games made from the same game share their
+	 * topology so the full compare is rarely needed.
+	 * @param other
+	 * @param players
+	 */
+	private void checkFits(Topology other, int players) {
+		if ((other != topology && !topology.equals(other)) || players != getPlayerCount()) {
+			throw new IllegalArgumentException("game state is for a different kind of game");
+		}
+	}
+	
+	/**
+	 * Throws an IOException if the id read from a saved state is not on the map.
+	 * @param id
+	 * @throws IOException
+	 */
+	private void checkId(int id) throws IOException {
+		if (id < 0 || id >= gridWidth * gridHeight) {
+			throw new IOException("saved cell " + id + " is not on the map");
+		}
+	}
+	
+	/**
+	 * Puts every cell filled in the given layer into the backing used cells map
+	 * with the given object. Cells of the player layer get the player that owns
+	 * them.
+	 * @param layer
+	 * @param gameObject
+	 */
+	private void addLayerToMap(int layer, GameObject gameObject) {
+		long[] words = occupancy.getWords(layer);
+		for (int word = 0; word < words.length; word ++) {
+			long bits = words[word];
+			while (bits != 0) {
+				int id = (word << 6) + Long.numberOfTrailingZeros(bits);
+				GameObject object = layer == Occupancy.PLAYERS
+						? players[occupancy.ownerAt(id) - 1] : gameObject;
+				usedCells.put(cellAt(id), object);
+				bits &= bits - 1;
+			}
+		}
+	}
+	
+	/**
+	 * Read only map of the game objects that is rebuilt from the occupancy
+	 * bitboards the first time it is read after the game changed.
+	 */
+	private final class UsedCellsView extends AbstractMap<Cell, GameObject> {
+		
+		@Override
+		public Set<Map.Entry<Cell, GameObject>> entrySet() {
+			return Collections.unmodifiableMap(refresh()).entrySet();
+		}
+		
+		@Override
+		public int size() {
+			return refresh().size();
+		}
+		
+		@Override
+		public GameObject get(Object key) {
+			return refresh().get(key);
+		}
+		
+		@Override
+		public boolean containsKey(Object key) {
+			return refresh().containsKey(key);
+		}
+		
+		/**
+		 * Rebuilds the backing map if the game changed since the last read.
+		 * @return the backing map.
+		 */
+		private Map<Cell, GameObject> refresh() {
+			synchronized(GameModel.this) {
+				if (usedCellsDirty) {
+					usedCells.clear();
+					addLayerToMap(Occupancy.APPLES, apple);
+					addLayerToMap(Occupancy.PLAYERS, null);
+					usedCellsDirty = false;
+				}
+				return usedCells;
+			}
 		}
 	}
 	
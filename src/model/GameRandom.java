@@ -0,0 +1,63 @@
+package model;
+
+import java.util.Random;
+
+/**
+ * Random object whose state can be read and put back. It uses the same
+ * formula as java.util.Random so new GameRandom(seed) gives the exact same
+ * numbers as new Random(seed). Being able to save the state is what lets games
+ * be saved in the middle and played again from there. The cached value of
+ * nextGaussian() is not part of the state, the game never uses it.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class GameRandom extends Random {
+	private static final long serialVersionUID = -4206224339519302722L;
+	private static final long MULTIPLIER = 0x5DEECE66DL, ADDEND = 0xBL;
+	private static final long MASK = (1L << 48) - 1;
+	private long state;
+
+	/**
+	 * Constructor that uses a seed that is different every time.
+	 */
+	public GameRandom() {
+		this(System.nanoTime() ^ Thread.currentThread().getId() * 0x9E3779B97F4A7C15L);
+	}
+
+	/**
+	 * Constructor that uses the given seed.
+	 * @param seed
+	 */
+	public GameRandom(long seed) {
+		super(seed);
+	}
+
+	@Override
+	public synchronized void setSeed(long seed) {
+		state = (seed ^ MULTIPLIER) & MASK;
+	}
+
+	@Override
+	protected int next(int bits) {
+		state = (state * MULTIPLIER + ADDEND) & MASK;
+		return (int) (state >>> (48 - bits));
+	}
+
+	/**
+	 * Returns the current state. Giving it to setState() later makes the
+	 * object give the same numbers again from that point.
+	 * @return long state
+	 */
+	public long getState() {
+		return state;
+	}
+
+	/**
+	 * Puts back a state returned by getState().
+	 * @param state
+	 */
+	public void setState(long state) {
+		this.state = state & MASK;
+	}
+}
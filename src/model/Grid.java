@@ -0,0 +1,173 @@
+package model;
+
+/**
+ * The geometry of one game map. It knows how many cells wide and tall the map
+ * is, how big each cell is when drawn and how far away each neighbor id is in
+ * every direction. Every game has its own grid so games with different map
+ * sizes can run at the same time. Grids never change after they are made.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class Grid {
+	private final int gridWidth, gridHeight, cellSize;
+	private final int[] neighborOffsets;
+
+	/**
+	 * Constructor. Takes in the number of cells in each direction and the size
+	 * of a cell when it is drawn.
+	 * @param gridWidth
+	 * @param gridHeight
+	 * @param cellSize
+	 */
+	public Grid(int gridWidth, int gridHeight, int cellSize) {
+		if (gridWidth <= 0 || gridHeight <= 0 || cellSize <= 0) {
+			throw new IllegalArgumentException("grid sizes must be positive");
+		}
+		if ((long) gridWidth * gridHeight > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("grid has too many cells");
+		}
+		this.gridWidth = gridWidth;
+		this.gridHeight = gridHeight;
+		this.cellSize = cellSize;
+
+		/*
+		 * Ordered the same way as Direction.values().
+		 */
+		neighborOffsets = new int[] {-1 * gridWidth, 1, gridWidth, -1};
+	}
+
+	/**
+	 * Makes a grid that fits as many cells of the given size as it can into the
+	 * given width and height in pixels.
+	 * @param totalWidth
+	 * @param totalHeight
+	 * @param cellSize
+	 * @return Grid
+	 */
+	public static Grid fromPixels(int totalWidth, int totalHeight, int cellSize) {
+		return new Grid(totalWidth / cellSize, totalHeight / cellSize, cellSize);
+	}
+
+	/**
+	 * Returns the number of cells it has in the width direction.
+	 * @return int gridWidth
+	 */
+	public int getGridWidth() {
+		return gridWidth;
+	}
+
+	/**
+	 * Returns the number of cells it has in the height direction.
+	 * @return int gridHeight
+	 */
+	public int getGridHeight() {
+		return gridHeight;
+	}
+
+	/**
+	 * Returns the size of a cell in pixels.
+	 * @return int cellSize
+	 */
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Returns the total number of cells.
+	 * @return int cell count
+	 */
+	public int getCellCount() {
+		return gridWidth * gridHeight;
+	}
+
+	/**
+	 * Returns how much to add to an id to get to the neighbor in the given
+	 * direction. This does not check if the neighbor is on the map.
+	 * @param direction
+	 * @return int offset
+	 */
+	public int getNeighborOffset(Direction direction) {
+		return neighborOffsets[direction.ordinal()];
+	}
+
+	/**
+	 * Given an x and y coordinate in pixels it will return the id of the cell
+	 * for that region.
+	 * @param x
+	 * @param y
+	 * @return int id
+	 */
+	public int getCellId(int x, int y) {
+		return x / cellSize + gridWidth * (y / cellSize);
+	}
+
+	/**
+	 * Returns the column of the cell with the given id.
+	 * @param id
+	 * @return int column
+	 */
+	public int getColumn(int id) {
+		return id % gridWidth;
+	}
+
+	/**
+	 * Returns the row of the cell with the given id.
+	 * @param id
+	 * @return int row
+	 */
+	public int getRow(int id) {
+		return id / gridWidth;
+	}
+
+	/**
+	 * Returns the x coordinate in pixels of the left side of the cell.
+	 * @param id
+	 * @return int x
+	 */
+	public int getXCoord(int id) {
+		return getColumn(id) * cellSize;
+	}
+
+	/**
+	 * Returns the y coordinate in pixels of the top of the cell.
+	 * @param id
+	 * @return int y
+	 */
+	public int getYCoord(int id) {
+		return getRow(id) * cellSize;
+	}
+
+	/**
+	 * Checks if the location in cell space is on the map.
+	 * @param x
+	 * @param y
+	 * @return true if valid false otherwise.
+	 */
+	public boolean validLocal(int x, int y) {
+		return x >= 0 && x < gridWidth && y >= 0 && y < gridHeight;
+	}
+
+	@Override
+	public String toString() {
+		return "Grid " + gridWidth + "x" + gridHeight + " cellSize " + cellSize;
+	}
+
+	@Override
+	public int hashCode() {
+		return (gridWidth * 31 + gridHeight) * 31 + cellSize;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof Grid)) {
+			return false;
+		}
+		Grid other = (Grid) obj;
+		return other.gridWidth == gridWidth && other.gridHeight == gridHeight
+				&& other.cellSize == cellSize;
+	}
+}
@@ -0,0 +1,31 @@
+package model;
+
+/**
+ * Something that picks the heading of a player every tick in place of the
+ * keyboard. It is used by the headless simulator and by the bots. A policy is
+ * only used by one thread at a time.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+@FunctionalInterface
+public interface InputPolicy {
+
+	/**
+	 * Returns the heading the player with the given id should take on the next
+	 * tick or null to keep going the same way.
+	 * @param model
+	 * @param playerId
+	 * @return Direction or null
+	 */
+	public Direction chooseHeading(GameModel model, int playerId);
+
+	/**
+	 * Called when a new game starts so the policy can reset itself. The seed
+	 * is the one the game was made with so policies can be repeatable.
+	 * @param model
+	 * @param seed
+	 */
+	public default void newGame(GameModel model, long seed) {
+	}
+}
@@ -0,0 +1,96 @@
+package model;
+
+import java.awt.event.KeyEvent;
+import java.util.Arrays;
+
+/**
+ * Table that says which player a key turns and which way. It takes the place
+ * of a switch statement per player so any number of players can have keys.
+ * The table is an array indexed by key code so looking a key up is one array
+ * read.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class KeyBindings {
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private int[] bindings = new int[0];
+	private int players;
+
+	/**
+	 * Returns a new table with the default keys. Player 1 uses W, A, S and D,
+	 * player 2 the arrow keys, player 3 I, J, K and L and player 4 the number
+	 * pad.
+	 * @return KeyBindings
+	 */
+	public static KeyBindings defaults() {
+		KeyBindings keys = new KeyBindings();
+		keys.bind(1, KeyEvent.VK_W, KeyEvent.VK_D, KeyEvent.VK_S, KeyEvent.VK_A);
+		keys.bind(2, KeyEvent.VK_UP, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_LEFT);
+		keys.bind(3, KeyEvent.VK_I, KeyEvent.VK_L, KeyEvent.VK_K, KeyEvent.VK_J);
+		keys.bind(4, KeyEvent.VK_NUMPAD8, KeyEvent.VK_NUMPAD6, KeyEvent.VK_NUMPAD5,
+				KeyEvent.VK_NUMPAD4);
+		return keys;
+	}
+
+	/**
+	 * Makes the key turn the player with the given id in the given direction.
+	 * A key can only belong to one player so an older binding is replaced.
+	 * @param keyCode
+	 * @param playerId
+	 * @param direction
+	 */
+	public void bind(int keyCode, int playerId, Direction direction) {
+		if (keyCode < 0 || playerId <= 0 || direction == null) {
+			throw new IllegalArgumentException("invalid key binding");
+		}
+		if (keyCode >= bindings.length) {
+			bindings = Arrays.copyOf(bindings, keyCode + 1);
+		}
+		bindings[keyCode] = playerId << 2 | direction.ordinal();
+		players = Math.max(players, playerId);
+	}
+
+	/**
+	 * Binds four keys to a player in Direction.values() order: north, east,
+	 * south and west.
+	 * @param playerId
+	 * @param north
+	 * @param east
+	 * @param south
+	 * @param west
+	 */
+	public void bind(int playerId, int north, int east, int south, int west) {
+		bind(north, playerId, Direction.NORTH);
+		bind(east, playerId, Direction.EAST);
+		bind(south, playerId, Direction.SOUTH);
+		bind(west, playerId, Direction.WEST);
+	}
+
+	/**
+	 * Returns the id of the player the key turns or 0 if the key is not bound.
+	 * @param keyCode
+	 * @return int player id
+	 */
+	public int playerFor(int keyCode) {
+		return keyCode < 0 || keyCode >= bindings.length ? 0 : bindings[keyCode] >>> 2;
+	}
+
+	/**
+	 * Returns the direction the key turns its player or null if the key is not
+	 * bound.
+	 * @param keyCode
+	 * @return Direction
+	 */
+	public Direction directionFor(int keyCode) {
+		return playerFor(keyCode) == 0 ? null : DIRECTIONS[bindings[keyCode] & 3];
+	}
+
+	/**
+	 * Returns the highest player id that has a key.
+	 * @return int players
+	 */
+	public int getPlayerCount() {
+		return players;
+	}
+}
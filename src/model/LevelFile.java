@@ -0,0 +1,216 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads and writes the binary level format used for big arenas. A level file
+ * is made of:
+ * <ul>
+ * <li>a 16 byte header: the magic number "SNKL", a version byte, a flags
+ * byte (bit 0 makes the board a torus), the number of spawn regions as an
+ * unsigned short and the width and height as ints.</li>
+ * <li>16 bytes per spawn region: left column, top row, right column and
+ * bottom row as ints, all inclusive.</li>
+ * <li>the obstacle bitmap: one long per 64 cells, bit i of long j set when
+ * cell 64 * j + i is an obstacle.</li>
+ * </ul>
+ * Everything is big endian and the bitmap starts on an 8 byte boundary. The
+ * file is opened with FileChannel.map() and the bitmap is used straight from
+ * the mapping, so a 4096x4096 arena starts without reading its 2MB bitmap into
+ * the heap.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class LevelFile {
+	public static final String BINARY_EXTENSION = ".lvl", TEXT_EXTENSION = ".level";
+	public static final String LEVEL_LOCATION = "Assets/Levels";
+	private static final int MAGIC = 0x534E4B4C, VERSION = 1, HEADER = 16, REGION = 16;
+	private static final int TORUS_FLAG = 1;
+
+	/**
+	 * Not made.
+	 */
+	private LevelFile() {
+	}
+
+	/**
+	 * Reads a level in either format, picked by the file extension.
+	 * @param file
+	 * @param cellSize
+	 * @return Topology
+	 * @throws IOException if the file can not be read or is not a level.
+	 */
+	public static Topology load(Path file, int cellSize) throws IOException {
+		if (file.toString().endsWith(TEXT_EXTENSION)) {
+			return Topology.readLevel(file, cellSize);
+		}
+		return map(file, cellSize);
+	}
+
+	/**
+	 * Maps a binary level file. The mapping stays valid after the channel is
+	 * closed and lives as long as the topology does.
+	 * @param file
+	 * @param cellSize
+	 * @return Topology
+	 * @throws IOException if the file can not be read or is not a level.
+	 */
+	public static Topology map(Path file, int cellSize) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER) {
+				throw new IOException("level file is too short");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException("not a level file");
+		}
+		if (buffer.get(4) != VERSION) {
+			throw new IOException("unsupported level version " + buffer.get(4));
+		}
+		boolean wrapped = (buffer.get(5) & TORUS_FLAG) != 0;
+		int regions = buffer.getShort(6) & 0xFFFF, width = buffer.getInt(8), height = buffer.getInt(12);
+		if (width <= 0 || height <= 0 || (long) width * height * 4 > Integer.MAX_VALUE) {
+			throw new IOException("level size " + width + "x" + height + " is not allowed");
+		}
+		int words = (int) (((long) width * height + 63) >>> 6);
+		long bitmapStart = HEADER + (long) regions * REGION;
+		if (buffer.capacity() != bitmapStart + words * 8L) {
+			throw new IOException("level file is " + buffer.capacity() + " bytes instead of "
+					+ (bitmapStart + words * 8L));
+		}
+		int[] spawns = new int[regions * 4];
+		for (int i = 0; i < spawns.length; i ++) {
+			spawns[i] = buffer.getInt(HEADER + i * 4);
+		}
+		ByteBuffer bitmap = buffer.slice((int) bitmapStart, words * 8);
+		try {
+			return new Topology(new Grid(width, height, cellSize), wrapped, bitmap.asLongBuffer(),
+					spawns);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("invalid level: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the topology as a binary level file.
+	 * @param topology
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(Topology topology, Path file) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		try (OutputStream stream = Files.newOutputStream(file)) {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+			Grid grid = topology.getGrid();
+			int[] spawns = topology.getSpawnRegions();
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeByte(topology.isWrapped() ? TORUS_FLAG : 0);
+			out.writeShort(spawns.length / 4);
+			out.writeInt(grid.getGridWidth());
+			out.writeInt(grid.getGridHeight());
+			for (int value : spawns) {
+				out.writeInt(value);
+			}
+			int words = (grid.getCellCount() + 63) >>> 6;
+			for (int i = 0; i < words; i ++) {
+				out.writeLong(topology.getObstacleWord(i));
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Writes the topology compactly for a replay or a saved game: the flags,
+	 * the spawn regions and the gaps between obstacles as varints. The grid is
+	 * not written.
+	 * @param topology
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void writeCompact(Topology topology, DataOutput out) throws IOException {
+		int[] spawns = topology.getSpawnRegions();
+		Varint.writeUnsigned(out, topology.isWrapped() ? TORUS_FLAG : 0);
+		Varint.writeUnsigned(out, spawns.length / 4);
+		for (int value : spawns) {
+			Varint.writeUnsigned(out, value);
+		}
+		Varint.writeUnsigned(out, topology.getObstacleCount());
+		int previous = -1;
+		for (int id = topology.nextObstacle(0); id >= 0; id = topology.nextObstacle(id + 1)) {
+			Varint.writeUnsigned(out, id - previous - 1);
+			previous = id;
+		}
+	}
+
+	/**
+	 * Reads a topology written by writeCompact() for the given grid. A board
+	 * with no obstacles or spawns that does not wrap is the shared walled one.
+	 * @param grid
+	 * @param in
+	 * @return Topology
+	 * @throws IOException if the data is not a topology for the grid.
+	 */
+	public static Topology readCompact(Grid grid, DataInput in) throws IOException {
+		boolean wrapped = (Varint.readInt(in) & TORUS_FLAG) != 0;
+		int[] spawns = new int[Varint.readInt(in) * 4];
+		for (int i = 0; i < spawns.length; i ++) {
+			spawns[i] = Varint.readInt(in);
+		}
+		int[] obstacles = new int[Varint.readInt(in)];
+		int previous = -1;
+		for (int i = 0; i < obstacles.length; i ++) {
+			previous += Varint.readInt(in) + 1;
+			obstacles[i] = previous;
+		}
+		if (!wrapped && spawns.length == 0 && obstacles.length == 0) {
+			return Topology.walled(grid);
+		}
+		try {
+			return new Topology(grid, wrapped, obstacles, spawns);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("invalid topology: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns every level file in the directory in either format, sorted by
+	 * name. Returns an empty list if the directory can not be read.
+	 * @param directory
+	 * @return List of Path
+	 */
+	public static List<Path> list(Path directory) {
+		List<Path> levels = new ArrayList<>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				"*{" + BINARY_EXTENSION + "," + TEXT_EXTENSION + "}")) {
+			for (Path file : files) {
+				levels.add(file);
+			}
+		} catch (IOException e) {
+			System.err.println("could not list levels in " + directory);
+		}
+		Collections.sort(levels);
+		return levels;
+	}
+}
@@ -0,0 +1,217 @@
+package model;
+
+import java.util.Arrays;
+
+/**
+ * Keeps track of what is in every cell of the map using bitboards. Each layer
+ * is an array of longs where bit id is set when the cell with that id holds the
+ * layer's object. There is a layer for the walls, one for the apples and one
+ * shared by every player. With more than one player an owner array says which
+ * player is in each player cell, so the memory used does not grow with the
+ * number of players. A union of every layer is kept up to date so checking if
+ * a cell is taken is one array read.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class Occupancy {
+	public static final int WALLS = 0, APPLES = 1, PLAYERS = 2;
+	private final long[][] layers;
+	private final long[] union;
+	private final int[] owners;
+	private final int cells;
+
+	/**
+	 * Constructor. Makes an empty occupancy grid for the given number of cells.
+	 * The owner array is only made when there is more than one player.
+	 * @param cells
+	 * @param players
+	 */
+	public Occupancy(int cells, int players) {
+		if (cells <= 0 || players < 0) {
+			throw new IllegalArgumentException("invalid occupancy size");
+		}
+		this.cells = cells;
+		int words = (cells + 63) >>> 6;
+		layers = new long[PLAYERS + 1][words];
+		union = new long[words];
+		owners = players > 1 ? new int[cells] : null;
+	}
+
+	/**
+	 * Returns the number of cells covered.
+	 * @return int cells
+	 */
+	public int getCellCount() {
+		return cells;
+	}
+
+	/**
+	 * Returns the number of layers.
+	 * @return int layer count
+	 */
+	public int getLayerCount() {
+		return layers.length;
+	}
+
+	/**
+	 * Marks the cell as filled in the given layer.
+	 * @param layer
+	 * @param id
+	 */
+	public void set(int layer, int id) {
+		long mask = 1L << id;
+		layers[layer][id >>> 6] |= mask;
+		union[id >>> 6] |= mask;
+	}
+
+	/**
+	 * Marks the cell as empty in the given layer. A cell is only ever in one
+	 * layer so the union bit is cleared too.
+	 * @param layer
+	 * @param id
+	 */
+	public void clear(int layer, int id) {
+		long mask = ~(1L << id);
+		layers[layer][id >>> 6] &= mask;
+		union[id >>> 6] &= mask;
+	}
+
+	/**
+	 * Marks the cell as part of the player with the given id.
+	 * @param playerId
+	 * @param id
+	 */
+	public void setPlayer(int playerId, int id) {
+		set(PLAYERS, id);
+		if (owners != null) {
+			owners[id] = playerId;
+		}
+	}
+
+	/**
+	 * Returns the id of the player in the cell or 0 if no player is there.
+	 * @param id
+	 * @return int player id
+	 */
+	public int ownerAt(int id) {
+		if (!isSet(PLAYERS, id)) {
+			return 0;
+		}
+		return owners == null ? 1 : owners[id];
+	}
+
+	/**
+	 * Returns true if the cell is part of the player with the given id.
+	 * @param playerId
+	 * @param id
+	 * @return boolean
+	 */
+	public boolean isPlayer(int playerId, int id) {
+		return ownerAt(id) == playerId;
+	}
+
+	/**
+	 * Returns true if the cell is filled in the given layer.
+	 * @param layer
+	 * @param id
+	 * @return boolean
+	 */
+	public boolean isSet(int layer, int id) {
+		return (layers[layer][id >>> 6] & (1L << id)) != 0;
+	}
+
+	/**
+	 * Returns true if anything is in the cell.
+	 * @param id
+	 * @return boolean
+	 */
+	public boolean isOccupied(int id) {
+		return (union[id >>> 6] & (1L << id)) != 0;
+	}
+
+	/**
+	 * Returns the layer that the cell is filled in or -1 if it is empty.
+	 * @param id
+	 * @return int layer
+	 */
+	public int layerAt(int id) {
+		if (!isOccupied(id)) {
+			return -1;
+		}
+		for (int layer = 0; layer < layers.length; layer ++) {
+			if (isSet(layer, id)) {
+				return layer;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Counts the filled cells of a layer.
+	 * @param layer
+	 * @return int count
+	 */
+	public int count(int layer) {
+		return popCount(layers[layer]);
+	}
+
+	/**
+	 * Counts the cells that nothing is in.
+	 * @return int free cells
+	 */
+	public int freeCount() {
+		return cells - popCount(union);
+	}
+
+	/**
+	 * Returns the words of a layer. This is the live array and is meant for
+	 * renderers that walk the set bits. It should not be changed.
+	 * @param layer
+	 * @return long[] words
+	 */
+	public long[] getWords(int layer) {
+		return layers[layer];
+	}
+
+	/**
+	 * Empties every layer.
+	 */
+	public void clearAll() {
+		for (long[] layer : layers) {
+			Arrays.fill(layer, 0L);
+		}
+		Arrays.fill(union, 0L);
+	}
+
+	/**
+	 * Makes every layer of this grid the same as the other grid. Both need the
+	 * same number of cells and layers. Nothing is created.
+	 * @param other
+	 */
+	public void copyFrom(Occupancy other) {
+		if (other.cells != cells || (other.owners == null) != (owners == null)) {
+			throw new IllegalArgumentException("occupancy grids are different sizes");
+		}
+		for (int layer = 0; layer < layers.length; layer ++) {
+			System.arraycopy(other.layers[layer], 0, layers[layer], 0, union.length);
+		}
+		System.arraycopy(other.union, 0, union, 0, union.length);
+		if (owners != null) {
+			System.arraycopy(other.owners, 0, owners, 0, cells);
+		}
+	}
+
+	/**
+	 * Counts the set bits in the given words.
+	 * @param words
+	 * @return int count
+	 */
+	private static int popCount(long[] words) {
+		int count = 0;
+		for (long word : words) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+}
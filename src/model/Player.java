@@ -1,25 +1,23 @@
 package model;
 
 import java.awt.Color;
-import java.util.Deque;
-import java.util.LinkedList;
-import java.util.Optional;
 
 /**
  * Class the represents a player. The player has a heading which is the direction
  * it is traveling it. It also has an integer representing how many growth squares
- * it still has left. It also has an id. The player cells are put in a Deque
- * which represents the snake. To move you add a cell to the front of the Deque
- * and remove the last cell in the Deque.
+ * it still has left. It also has an id. The ids of the player cells are put in
+ * a ring buffer which represents the snake. To move you add a cell id to the 
+ * front of the body and remove the last id in the body.
  * Copyright (c) 2021. 
  * @author Jaraad Kamal
  *
  */
 public class Player extends GameObject{
 	private static final int INCREMENT_SIZE = 1;
-	private Deque<Cell> cells;
+	private SnakeBody body;
 	private Direction heading;
 	private int length, growthLeft, id;
+	private boolean alive = true;
 	
 	/**
 	 * Constructor. This makes the object type to unbreakable. It also sets up 
@@ -29,13 +27,24 @@ public class Player extends GameObject{
 	 * @param id
 	 */
 	public Player(Cell cell, Color color, int id) {
+		this(cell, color, id, Direction.getRandom());
+	}
+	
+	/**
+	 * Constructor that starts the player with the given heading.
+	 * @param cell
+	 * @param color
+	 * @param id
+	 * @param heading
+	 */
+	public Player(Cell cell, Color color, int id, Direction heading) {
 		super(cell, CellState.UNBREAKABLE, color);
-		this.heading = Direction.getRandom();
+		this.heading = heading;
 		this.id = id;
 		length = 1;
 		
-		cells = new LinkedList<Cell>();
-		cells.addFirst(getCell());
+		body = new SnakeBody();
+		body.addFirst(getCell().getId());
 	}
 	
 	/**
@@ -80,7 +89,7 @@ public class Player extends GameObject{
 	
 	@Override
 	public int getRectSize() {
-		return Cell.getCellSize() - 2;
+		return getCell().getSize() - 2;
 	}
 	
 	@Override
@@ -89,22 +98,78 @@ public class Player extends GameObject{
 	}
 	
 	/**
-	 * When called it will change the head of the queue to the next cell that the
-	 * snake will reach. If it is not currently growing it will return the cell
-	 * which was removed from the queue as it moved. This cell is then removed
-	 * from the used cells list in the game model.
-	 * @param nextCell
-	 * @return Optional<Cell> the cell to remove or empty
+	 * Returns the body of the snake. Index 0 is the head. The body should only
+	 * be read, the player is the one that moves it.
+	 * @return SnakeBody
 	 */
-	public Optional<Cell> move(Cell nextCell) {
-		cells.addFirst(nextCell);
-		setCell(nextCell);
+	public SnakeBody getBody() {
+		return body;
+	}
+	
+	/**
+	 * When called it will change the head of the body to the next cell id that
+	 * the snake will reach. If it is not currently growing it will return the 
+	 * id which was removed from the body as it moved. This cell is then given 
+	 * back to the unused cells in the game model. Nothing is created so this 
+	 * can be called every tick.
+	 * @param nextCellId
+	 * @return int the id to remove or SnakeBody.NONE
+	 */
+	public int move(int nextCellId) {
+		body.addFirst(nextCellId);
 		if (growthLeft == 0) {
-			return Optional.of(cells.pollLast());
+			return body.removeLast();
 		}
 		growthLeft --;
 		length ++;
-		return Optional.empty();
+		return SnakeBody.NONE;
+	}
+	
+	/**
+	 * Same as move(int) but also makes the given cell the current cell.
+	 * @param nextCell
+	 * @return int the id to remove or SnakeBody.NONE
+	 */
+	public int move(Cell nextCell) {
+		setCell(nextCell);
+		return move(nextCell.getId());
+	}
+	
+	/**
+	 * Returns how many more cells the player will grow by.
+	 * @return int growth left
+	 */
+	public int getGrowthLeft() {
+		return growthLeft;
+	}
+	
+	/**
+	 * Puts back a heading, length and growth that were saved earlier. The body
+	 * has to be put back separately. Only the game model does this.
+	 * @param heading
+	 * @param length
+	 * @param growthLeft
+	 */
+	void restore(Direction heading, int length, int growthLeft) {
+		this.heading = heading;
+		this.length = length;
+		this.growthLeft = growthLeft;
+	}
+	
+	/**
+	 * Returns false once the player has crashed.
+	 * @return boolean
+	 */
+	public boolean isAlive() {
+		return alive;
+	}
+	
+	/**
+	 * Sets if the player is still in the game. Only the game model does this.
+	 * @param alive
+	 */
+	void setAlive(boolean alive) {
+		this.alive = alive;
 	}
 	
 	/**
@@ -0,0 +1,81 @@
+package model;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * A list of the best single player scores that is saved in a file. The GUI
+ * uses the default score board that is saved at GameModel.HIGH_SCORE_LOCATION.
+ * Games that are not played by a person (like simulations) do not need a
+ * score board at all. The list handed out is never changed: adding a score
+ * makes a new list and swaps it in, so the GUI can draw the scores while a
+ * game thread adds one.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class ScoreBoard {
+	private static ScoreBoard defaultBoard;
+	private final String fileLocation;
+	private volatile List<HighScore> highScores;
+
+	/**
+	 * Constructor. Reads the list from the given file. If the file does not
+	 * exist then the list is filled with default high scores.
+	 * @param fileLocation
+	 */
+	public ScoreBoard(String fileLocation) {
+		this.fileLocation = fileLocation;
+		highScores = Collections.unmodifiableList(FileHandler.readList(fileLocation));
+	}
+
+	/**
+	 * Returns the score board the GUI uses. It is read from the file the first
+	 * time it is asked for.
+	 * @return ScoreBoard default.
+	 */
+	public static synchronized ScoreBoard getDefault() {
+		if (defaultBoard == null) {
+			defaultBoard = new ScoreBoard(GameModel.HIGH_SCORE_LOCATION);
+		}
+		return defaultBoard;
+	}
+
+	/**
+	 * Gets the highScores list. It can not be changed and stays the same even
+	 * if a score is added later.
+	 * @return List<HighScores> highScores;
+	 */
+	public List<HighScore> getScores() {
+		return highScores;
+	}
+
+	/**
+	 * Rechecks the list with the file
+	 */
+	public synchronized void recheck() {
+		highScores = Collections.unmodifiableList(FileHandler.readList(fileLocation));
+	}
+
+	/**
+	 * Will add a high score to the list if the given score is higher than any
+	 * of the 10 current scores. It will also immediately write it to a file.
+	 * @param score
+	 * @return true if the score was added.
+	 */
+	public synchronized boolean addIfHighScore(int score) {
+		for (int i = 0; i < highScores.size(); i ++) {
+			if (highScores.get(i).getScore() < score) {
+				LinkedList<HighScore> next = new LinkedList<>(highScores);
+				next.add(new HighScore(score, System.currentTimeMillis()));
+				Collections.sort(next);
+				next.pollLast();
+				FileHandler.writeList(next, fileLocation);
+				highScores = Collections.unmodifiableList(next);
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,207 @@
+package model;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * The cells of a snake stored as cell ids in a ring buffer. Index 0 is the
+ * head and the last index is the tail. Adding a head and removing the tail are
+ * both constant time and do not create objects. When the buffer is full it is
+ * doubled in size so growing is constant time on average.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class SnakeBody {
+	/**
+	 * Value returned when there is no cell id to give back.
+	 */
+	public static final int NONE = -1;
+	private static final int START_CAPACITY = 16;
+	private int[] ids;
+	private int head, size;
+
+	/**
+	 * Constructor. Makes an empty body.
+	 */
+	public SnakeBody() {
+		this(START_CAPACITY);
+	}
+
+	/**
+	 * Constructor. Makes an empty body that can hold the given number of cells
+	 * before it has to grow.
+	 * @param capacity
+	 */
+	public SnakeBody(int capacity) {
+		ids = new int[Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1];
+	}
+
+	/**
+	 * Returns the number of cells in the body.
+	 * @return int size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the cell id of the head or NONE if the body is empty.
+	 * @return int head id
+	 */
+	public int getHead() {
+		return size == 0 ? NONE : ids[head];
+	}
+
+	/**
+	 * Returns the cell id of the tail or NONE if the body is empty.
+	 * @return int tail id
+	 */
+	public int getTail() {
+		return size == 0 ? NONE : ids[(head + size - 1) & (ids.length - 1)];
+	}
+
+	/**
+	 * Returns the cell id at the given index counted from the head.
+	 * @param index
+	 * @return int id
+	 */
+	public int get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + " size " + size);
+		}
+		return ids[(head + index) & (ids.length - 1)];
+	}
+
+	/**
+	 * Puts a new head on the front of the body.
+	 * @param id
+	 */
+	public void addFirst(int id) {
+		if (size == ids.length) {
+			grow();
+		}
+		head = (head - 1) & (ids.length - 1);
+		ids[head] = id;
+		size ++;
+	}
+
+	/**
+	 * Takes the tail off the body and returns it or NONE if the body is empty.
+	 * @return int tail id
+	 */
+	public int removeLast() {
+		if (size == 0) {
+			return NONE;
+		}
+		size --;
+		return ids[(head + size) & (ids.length - 1)];
+	}
+
+	/**
+	 * Empties the body. The buffer is kept.
+	 */
+	public void clear() {
+		head = 0;
+		size = 0;
+	}
+
+	/**
+	 * Gives each cell id to the consumer from the head to the tail.
+	 * @param action
+	 */
+	public void forEach(IntConsumer action) {
+		int mask = ids.length - 1;
+		for (int i = 0; i < size; i ++) {
+			action.accept(ids[(head + i) & mask]);
+		}
+	}
+
+	/**
+	 * Returns an iterator over the cell ids from the head to the tail. The
+	 * iterator gives back primitive ints so nothing is boxed.
+	 * @return PrimitiveIterator.OfInt
+	 */
+	public PrimitiveIterator.OfInt iterator() {
+		return new PrimitiveIterator.OfInt() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			@Override
+			public int nextInt() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				return ids[(head + index ++) & (ids.length - 1)];
+			}
+		};
+	}
+
+	/**
+	 * Copies the cell ids from the head to the tail into the given array
+	 * starting at the given offset. The array has to have room for size() ids.
+	 * @param target
+	 * @param offset
+	 * @return int number of ids copied.
+	 */
+	public int copyTo(int[] target, int offset) {
+		int first = Math.min(size, ids.length - head);
+		System.arraycopy(ids, head, target, offset, first);
+		System.arraycopy(ids, 0, target, offset + first, size - first);
+		return size;
+	}
+
+	/**
+	 * Replaces the body with count ids from the given array, head first. The
+	 * buffer only grows if it is too small so after the first time nothing is
+	 * created.
+	 * @param source
+	 * @param offset
+	 * @param count
+	 */
+	public void load(int[] source, int offset, int count) {
+		if (count > ids.length) {
+			ids = new int[Integer.highestOneBit(count - 1) << 1];
+		}
+		System.arraycopy(source, offset, ids, 0, count);
+		head = 0;
+		size = count;
+	}
+
+	/**
+	 * Makes this body the same as the other body.
+	 * @param other
+	 */
+	public void copyFrom(SnakeBody other) {
+		if (other.size > ids.length) {
+			ids = new int[other.ids.length];
+		}
+		other.copyTo(ids, 0);
+		head = 0;
+		size = other.size;
+	}
+
+	/**
+	 * Doubles the buffer and lays the body out from index 0 again.
+	 */
+	private void grow() {
+		int[] bigger = new int[ids.length << 1];
+		copyTo(bigger, 0);
+		ids = bigger;
+		head = 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder("[");
+		for (int i = 0; i < size; i ++) {
+			builder.append(i == 0 ? "" : ", ").append(get(i));
+		}
+		return builder.append("]").toString();
+	}
+}
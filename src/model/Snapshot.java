@@ -0,0 +1,87 @@
+package model;
+
+/**
+ * A saved copy of the full state of a game kept in flat arrays. It is made
+ * once for a game with GameModel.newSnapshot() and then filled again and again
+ * with GameModel.saveSnapshot() and put back with GameModel.restoreSnapshot().
+ * Neither of those creates objects so search bots can save and restore the
+ * game thousands of times per tick. A snapshot can be restored into any game
+ * with the same topology and number of players.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class Snapshot {
+	final Grid grid;
+	final Topology topology;
+	final Occupancy occupancy;
+	final CellPool unusedCells;
+	final AppleIndex apples;
+	final int[] bodies, bodyStarts, bodySizes, headings, lengths, growthLeft;
+	final boolean[] alive;
+	long tick, randomState;
+	int appleId, losingIndex, living;
+	boolean gameOver, filled;
+
+	/**
+	 * Constructor. Makes an empty snapshot for games with the given topology
+	 * and number of players.
+	 * @param topology
+	 * @param players
+	 */
+	Snapshot(Topology topology, int players) {
+		this.topology = topology;
+		this.grid = topology.getGrid();
+		int cells = grid.getCellCount();
+		occupancy = new Occupancy(cells, players);
+		unusedCells = new CellPool(cells);
+		apples = new AppleIndex(grid.getGridWidth(), grid.getGridHeight());
+		bodies = new int[cells];
+		bodyStarts = new int[players + 1];
+		bodySizes = new int[players + 1];
+		headings = new int[players + 1];
+		lengths = new int[players + 1];
+		growthLeft = new int[players + 1];
+		alive = new boolean[players + 1];
+	}
+
+	/**
+	 * Returns the grid of the games this snapshot fits.
+	 * @return Grid
+	 */
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Returns the topology of the games this snapshot fits.
+	 * @return Topology
+	 */
+	public Topology getTopology() {
+		return topology;
+	}
+
+	/**
+	 * Returns the number of players of the games this snapshot fits.
+	 * @return int players
+	 */
+	public int getPlayerCount() {
+		return bodySizes.length - 1;
+	}
+
+	/**
+	 * Returns the tick the game was at when it was saved.
+	 * @return long tick
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Returns true once a game has been saved into the snapshot.
+	 * @return boolean
+	 */
+	public boolean isFilled() {
+		return filled;
+	}
+}
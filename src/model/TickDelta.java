@@ -0,0 +1,186 @@
+package model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The changes one tick made to the board, so a renderer, a recorder or a
+ * network broadcaster only has to look at what changed instead of at every
+ * filled cell. Each change is a record with a type, a cell (or a player id for
+ * DIED) and for OCCUPIED the player that moved in. The game model fills the
+ * same delta again every tick so reading it creates nothing.
+ * <p>
+ * When the whole board changed at once, after a reset or a restored snapshot,
+ * the delta is marked full and the records should be ignored in favour of
+ * reading the whole board again.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class TickDelta {
+	/**
+	 * A player left the cell and it is empty now.
+	 */
+	public static final int VACATED = 0;
+	/**
+	 * A player moved into the cell.
+	 */
+	public static final int OCCUPIED = 1;
+	/**
+	 * An apple was put in the cell.
+	 */
+	public static final int APPLE_ADDED = 2;
+	/**
+	 * The apple in the cell was eaten.
+	 */
+	public static final int APPLE_EATEN = 3;
+	/**
+	 * The player with the id in the record crashed.
+	 */
+	public static final int DIED = 4;
+	private int[] types = new int[16], values = new int[16], owners = new int[16];
+	private int size;
+	private long tick;
+	private boolean full;
+
+	/**
+	 * Returns the number of records.
+	 * @return int size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the tick the changes were made on, counting that tick.
+	 * @return long tick
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Returns true if the whole board changed and should be read again.
+	 * @return boolean
+	 */
+	public boolean isFull() {
+		return full;
+	}
+
+	/**
+	 * Returns the type of the record at the given index.
+	 * @param index
+	 * @return int type
+	 */
+	public int getType(int index) {
+		check(index);
+		return types[index];
+	}
+
+	/**
+	 * Returns the cell of the record at the given index, or the player id for
+	 * a DIED record.
+	 * @param index
+	 * @return int cell id or player id
+	 */
+	public int getValue(int index) {
+		check(index);
+		return values[index];
+	}
+
+	/**
+	 * Returns the id of the player that moved in for an OCCUPIED record and 0
+	 * for the others.
+	 * @param index
+	 * @return int player id
+	 */
+	public int getOwner(int index) {
+		check(index);
+		return owners[index];
+	}
+
+	/**
+	 * Writes the delta as varints. A delta takes about two bytes per change.
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutput out) throws IOException {
+		Varint.writeUnsigned(out, tick);
+		out.writeBoolean(full);
+		Varint.writeUnsigned(out, size);
+		for (int i = 0; i < size; i ++) {
+			Varint.writeUnsigned(out, (long) values[i] << 3 | types[i]);
+			if (types[i] == OCCUPIED) {
+				Varint.writeUnsigned(out, owners[i]);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the records with ones written by write().
+	 * @param in
+	 * @throws IOException
+	 */
+	public void read(DataInput in) throws IOException {
+		long readTick = Varint.readUnsigned(in);
+		boolean readFull = in.readBoolean();
+		int count = Varint.readInt(in);
+		clear(readTick);
+		full = readFull;
+		for (int i = 0; i < count; i ++) {
+			long record = Varint.readUnsigned(in);
+			int type = (int) (record & 7);
+			if (type > DIED) {
+				throw new IOException("unknown change type " + type);
+			}
+			add(type, (int) (record >>> 3), type == OCCUPIED ? Varint.readInt(in) : 0);
+		}
+	}
+
+	/**
+	 * Empties the delta for the given tick.
+	 * @param tick
+	 */
+	void clear(long tick) {
+		this.tick = tick;
+		size = 0;
+		full = false;
+	}
+
+	/**
+	 * Marks the delta as full.
+	 */
+	void markFull() {
+		full = true;
+	}
+
+	/**
+	 * Adds a record. The arrays only grow when a tick makes more changes than
+	 * any tick before it.
+	 * @param type
+	 * @param value
+	 * @param owner
+	 */
+	void add(int type, int value, int owner) {
+		if (size == types.length) {
+			types = Arrays.copyOf(types, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+			owners = Arrays.copyOf(owners, size * 2);
+		}
+		types[size] = type;
+		values[size] = value;
+		owners[size ++] = owner;
+	}
+
+	/**
+	 * Throws if there is no record at the index.
+	 * @param index
+	 */
+	private void check(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("index " + index + " size " + size);
+		}
+	}
+}
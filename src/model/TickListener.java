@@ -0,0 +1,28 @@
+package model;
+
+/**
+ * Something that wants to know when a game model runs a tick. It is called
+ * on the thread running the tick. Before the tick no player has moved yet so
+ * the headings it sees are the ones the tick will use.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+@FunctionalInterface
+public interface TickListener {
+
+	/**
+	 * Called right before the given tick is run.
+	 * @param model
+	 * @param tick number of ticks run before this one.
+	 */
+	public void beforeTick(GameModel model, long tick);
+
+	/**
+	 * Called right after a tick has been run.
+	 * @param model
+	 * @param tick number of ticks run, counting this one.
+	 */
+	public default void afterTick(GameModel model, long tick) {
+	}
+}
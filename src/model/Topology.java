@@ -0,0 +1,468 @@
+package model;
+
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * How the cells of a map are joined together. The neighbor of every cell in
+ * every direction is worked out once and kept in one int array, four entries
+ * per cell in Direction.values() order, so taking a step is a single array
+ * read. A step off the map or into an obstacle reads WALL. A board with more
+ * than ADJACENCY_LIMIT cells does not get the table, which would take 16
+ * bytes a cell, and works a step out from the column, the row and the
+ * obstacle bitmap instead.
+ * <p>
+ * A walled board is the classic game where the edge of the map kills. On a
+ * torus a step off one side comes back in on the other. Either kind can have
+ * obstacle cells inside the map that nothing can go into. The obstacles are
+ * kept as a bitmap with one bit per cell. For a level read by LevelFile the
+ * bitmap is the mapped file itself so it is never copied onto the heap. A
+ * level can also have spawn regions, rectangles that players start in.
+ * <p>
+ * Obstacles can be read from level files. A level is plain text with one line
+ * per row of the map, '#' for an obstacle and '.' for an open cell. Every row
+ * needs the same length. Lines before the map can be a comment starting with
+ * ';' or the word "torus" to make the board wrap around. For example:
+ * <pre>
+ * ; a small room with a pillar
+ * torus
+ * ........
+ * ...##...
+ * ...##...
+ * ........
+ * </pre>
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class Topology {
+	/**
+	 * Neighbor value for a step off the map or into an obstacle.
+	 */
+	public static final int WALL = -1;
+	public static final char OBSTACLE = '#', OPEN = '.', COMMENT = ';';
+	public static final String TORUS = "torus";
+	/**
+	 * Most cells a board can have and still get a neighbor table.
+	 */
+	public static final int ADJACENCY_LIMIT = 1 << 20;
+	private static final int[] STEP_X = {0, 1, 0, -1}, STEP_Y = {-1, 0, 1, 0};
+	private static Topology lastWalled;
+	private static final int SPAWN_TRIES = 64;
+	private final Grid grid;
+	private final boolean wrapped;
+	private final int[] adjacency, spawns;
+	private final LongBuffer obstacles;
+	private final int obstacleCount;
+
+	/**
+	 * Constructor. Builds the neighbor table for the given grid if it is not
+	 * bigger than ADJACENCY_LIMIT.
+	 * @param grid
+	 * @param wrapped true for a torus.
+	 * @param obstacles ids of the obstacle cells, may be empty.
+	 */
+	public Topology(Grid grid, boolean wrapped, int[] obstacles) {
+		this(grid, wrapped, obstacles, new int[0]);
+	}
+
+	/**
+	 * Constructor for a board with spawn regions. Each region is four numbers
+	 * in the array: the left column, top row, right column and bottom row, all
+	 * inclusive.
+	 * @param grid
+	 * @param wrapped true for a torus.
+	 * @param obstacles ids of the obstacle cells, may be empty.
+	 * @param spawns spawn regions, may be empty.
+	 */
+	public Topology(Grid grid, boolean wrapped, int[] obstacles, int[] spawns) {
+		this(grid, wrapped, toBitmap(grid, obstacles), spawns);
+	}
+
+	/**
+	 * Constructor that uses the given bitmap as it is, one bit per cell from
+	 * bit 0 of the first long up. Bits past the last cell have to be clear.
+	 * @param grid
+	 * @param wrapped
+	 * @param obstacles
+	 * @param spawns
+	 */
+	Topology(Grid grid, boolean wrapped, LongBuffer obstacles, int[] spawns) {
+		if (grid == null || obstacles == null || spawns == null) {
+			throw new IllegalArgumentException("null grid, obstacles or spawns");
+		}
+		int width = grid.getGridWidth(), height = grid.getGridHeight(), cells = grid.getCellCount();
+		if ((long) cells * 4 > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("grid has too many cells for a topology");
+		}
+		int words = (cells + 63) >>> 6;
+		if (obstacles.capacity() != words) {
+			throw new IllegalArgumentException("obstacle bitmap has the wrong size");
+		}
+		if (spawns.length % 4 != 0) {
+			throw new IllegalArgumentException("spawn regions need four numbers each");
+		}
+		for (int i = 0; i < spawns.length; i += 4) {
+			if (spawns[i] < 0 || spawns[i + 1] < 0 || spawns[i + 2] >= width
+					|| spawns[i + 3] >= height || spawns[i] > spawns[i + 2]
+					|| spawns[i + 1] > spawns[i + 3]) {
+				throw new IllegalArgumentException("spawn region " + i / 4 + " is not on the map");
+			}
+		}
+		this.grid = grid;
+		this.wrapped = wrapped;
+		this.obstacles = obstacles;
+		this.spawns = spawns.clone();
+		int count = 0;
+		for (int i = 0; i < words; i ++) {
+			count += Long.bitCount(obstacles.get(i));
+		}
+		if ((cells & 63) != 0 && obstacles.get(words - 1) >>> (cells & 63) != 0) {
+			throw new IllegalArgumentException("obstacle bitmap has bits past the last cell");
+		}
+		obstacleCount = count;
+
+		if (cells > ADJACENCY_LIMIT) {
+			adjacency = null;
+			return;
+		}
+		adjacency = new int[cells * 4];
+		for (int id = 0; id < cells; id ++) {
+			int x = id % width, y = id / width;
+			for (int direction = 0; direction < 4; direction ++) {
+				adjacency[id * 4 + direction] = link(x + STEP_X[direction], y + STEP_Y[direction],
+						width, height);
+			}
+		}
+	}
+
+	/**
+	 * Constructor for the same board drawn with another cell size. The
+	 * neighbor table and bitmap are shared.
+	 * @param other
+	 * @param cellSize
+	 */
+	private Topology(Topology other, int cellSize) {
+		grid = new Grid(other.grid.getGridWidth(), other.grid.getGridHeight(), cellSize);
+		wrapped = other.wrapped;
+		adjacency = other.adjacency;
+		spawns = other.spawns;
+		obstacles = other.obstacles;
+		obstacleCount = other.obstacleCount;
+	}
+
+	/**
+	 * Returns a walled board without obstacles. The last one made is kept so
+	 * the many games made for the same grid share one table.
+	 * @param grid
+	 * @return Topology
+	 */
+	public static synchronized Topology walled(Grid grid) {
+		if (lastWalled == null || !lastWalled.grid.equals(grid)) {
+			lastWalled = new Topology(grid, false, new int[0]);
+		}
+		return lastWalled;
+	}
+
+	/**
+	 * Returns a torus without obstacles.
+	 * @param grid
+	 * @return Topology
+	 */
+	public static Topology torus(Grid grid) {
+		return new Topology(grid, true, new int[0]);
+	}
+
+	/**
+	 * Reads a text level file. The grid is as big as the map in the file and
+	 * uses the given cell size.
+	 * @param file
+	 * @param cellSize
+	 * @return Topology
+	 * @throws IOException if the file can not be read or is not a level.
+	 */
+	public static Topology readLevel(Path file, int cellSize) throws IOException {
+		return parseLevel(Files.readAllLines(file, StandardCharsets.US_ASCII), cellSize);
+	}
+
+	/**
+	 * Makes a topology from the lines of a level.
+	 * @param lines
+	 * @param cellSize
+	 * @return Topology
+	 * @throws IOException if the lines are not a level.
+	 */
+	public static Topology parseLevel(List<String> lines, int cellSize) throws IOException {
+		boolean wrapped = false;
+		int first = 0;
+		for (; first < lines.size(); first ++) {
+			String line = lines.get(first).strip();
+			if (line.equalsIgnoreCase(TORUS)) {
+				wrapped = true;
+			} else if (!line.isEmpty() && line.charAt(0) != COMMENT) {
+				break;
+			}
+		}
+		int last = lines.size();
+		while (last > first && lines.get(last - 1).isBlank()) {
+			last --;
+		}
+		if (first == last) {
+			throw new IOException("level has no map");
+		}
+		int width = lines.get(first).strip().length(), height = last - first;
+		List<Integer> found = new ArrayList<>();
+		for (int y = 0; y < height; y ++) {
+			String row = lines.get(first + y).strip();
+			if (row.length() != width) {
+				throw new IOException("row " + y + " of the level is " + row.length()
+						+ " long instead of " + width);
+			}
+			for (int x = 0; x < width; x ++) {
+				char c = row.charAt(x);
+				if (c == OBSTACLE) {
+					found.add(y * width + x);
+				} else if (c != OPEN) {
+					throw new IOException("unknown level character '" + c + "'");
+				}
+			}
+		}
+		try {
+			return new Topology(new Grid(width, height, cellSize), wrapped,
+					found.stream().mapToInt(Integer::intValue).toArray());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("invalid level: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns this board with another cell size. Nothing is copied so this is
+	 * cheap even for a big level.
+	 * @param cellSize
+	 * @return Topology
+	 */
+	public Topology withCellSize(int cellSize) {
+		return cellSize == grid.getCellSize() ? this : new Topology(this, cellSize);
+	}
+
+	/**
+	 * Returns the grid.
+	 * @return Grid
+	 */
+	public Grid getGrid() {
+		return grid;
+	}
+
+	/**
+	 * Returns true if the board wraps around at the edges.
+	 * @return boolean
+	 */
+	public boolean isWrapped() {
+		return wrapped;
+	}
+
+	/**
+	 * Returns the id of the cell next to the given one in the given direction
+	 * or WALL.
+	 * @param id
+	 * @param direction
+	 * @return int neighbor id or WALL
+	 */
+	public int neighbor(int id, Direction direction) {
+		return neighbor(id, direction.ordinal());
+	}
+
+	/**
+	 * Same as neighbor(int, Direction) with the index of the direction in
+	 * Direction.values().
+	 * @param id
+	 * @param direction
+	 * @return int neighbor id or WALL
+	 */
+	public int neighbor(int id, int direction) {
+		if (adjacency != null) {
+			return adjacency[id * 4 + direction];
+		}
+		int width = grid.getGridWidth();
+		return link(id % width + STEP_X[direction], id / width + STEP_Y[direction], width,
+				grid.getGridHeight());
+	}
+
+	/**
+	 * Returns the fewest steps between two cells if nothing was in the way.
+	 * On a torus the way around the edge counts too.
+	 * @param a
+	 * @param b
+	 * @return int distance
+	 */
+	public int distance(int a, int b) {
+		int width = grid.getGridWidth();
+		int dx = Math.abs(a % width - b % width), dy = Math.abs(a / width - b / width);
+		if (wrapped) {
+			dx = Math.min(dx, width - dx);
+			dy = Math.min(dy, grid.getGridHeight() - dy);
+		}
+		return dx + dy;
+	}
+
+	/**
+	 * Returns true if the cell is an obstacle.
+	 * @param id
+	 * @return boolean
+	 */
+	public boolean isObstacle(int id) {
+		return (obstacles.get(id >>> 6) & 1L << id) != 0;
+	}
+
+	/**
+	 * Returns the number of obstacle cells.
+	 * @return int count
+	 */
+	public int getObstacleCount() {
+		return obstacleCount;
+	}
+
+	/**
+	 * Returns the lowest obstacle id at or after the given id, or -1 if there
+	 * is none. Goes over the bitmap a long at a time so looping over every
+	 * obstacle skips open space quickly:
+	 * <pre>
+	 * for (int id = topology.nextObstacle(0); id >= 0; id = topology.nextObstacle(id + 1))
+	 * </pre>
+	 * @param from
+	 * @return int id or -1
+	 */
+	public int nextObstacle(int from) {
+		int cells = grid.getCellCount();
+		if (from >= cells || obstacleCount == 0) {
+			return -1;
+		}
+		int word = from >>> 6;
+		long bits = obstacles.get(word) & -1L << from;
+		while (bits == 0) {
+			if (++ word == obstacles.capacity()) {
+				return -1;
+			}
+			bits = obstacles.get(word);
+		}
+		return (word << 6) + Long.numberOfTrailingZeros(bits);
+	}
+
+	/**
+	 * Returns the number of spawn regions.
+	 * @return int count
+	 */
+	public int getSpawnRegionCount() {
+		return spawns.length / 4;
+	}
+
+	/**
+	 * Returns a random cell of the given spawn region that is not an obstacle,
+	 * or WALL if none was found after a few tries.
+	 * @param region
+	 * @param random
+	 * @return int id or WALL
+	 */
+	public int randomSpawnCell(int region, Random random) {
+		int left = spawns[region * 4], top = spawns[region * 4 + 1];
+		int columns = spawns[region * 4 + 2] - left + 1, rows = spawns[region * 4 + 3] - top + 1;
+		for (int i = 0; i < SPAWN_TRIES; i ++) {
+			int x = left + random.nextInt(columns), y = top + random.nextInt(rows);
+			int id = y * grid.getGridWidth() + x;
+			if (!isObstacle(id)) {
+				return id;
+			}
+		}
+		return WALL;
+	}
+
+	/**
+	 * Returns a copy of the spawn regions, four numbers each.
+	 * @return int[] spawns
+	 */
+	public int[] getSpawnRegions() {
+		return spawns.clone();
+	}
+
+	/**
+	 * Returns the long of the obstacle bitmap at the given index.
+	 * @param index
+	 * @return long bits
+	 */
+	long getObstacleWord(int index) {
+		return obstacles.get(index);
+	}
+
+	@Override
+	public String toString() {
+		return (wrapped ? "Torus " : "Walled ") + grid + " obstacles " + obstacleCount;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((grid.hashCode() * 31 + obstacleCount) * 31 + Arrays.hashCode(spawns)) * 31
+				+ (wrapped ? 1 : 0);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof Topology)) {
+			return false;
+		}
+		Topology other = (Topology) obj;
+		return other.wrapped == wrapped && other.grid.equals(grid)
+				&& other.obstacleCount == obstacleCount && Arrays.equals(other.spawns, spawns)
+				&& (other.obstacles == obstacles || other.obstacles.equals(obstacles));
+	}
+
+	/**
+	 * Makes a bitmap on the heap with the given obstacle ids set.
+	 * @param grid
+	 * @param ids
+	 * @return LongBuffer
+	 */
+	private static LongBuffer toBitmap(Grid grid, int[] ids) {
+		if (grid == null || ids == null) {
+			throw new IllegalArgumentException("null grid or obstacles");
+		}
+		int cells = grid.getCellCount();
+		long[] words = new long[(cells + 63) >>> 6];
+		for (int id : ids) {
+			if (id < 0 || id >= cells || (words[id >>> 6] & 1L << id) != 0) {
+				throw new IllegalArgumentException("invalid obstacle " + id);
+			}
+			words[id >>> 6] |= 1L << id;
+		}
+		return LongBuffer.wrap(words);
+	}
+
+	/**
+	 * Returns the id at the given column and row, wrapped around on a torus,
+	 * or WALL if it is off the map or an obstacle.
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @return int id or WALL
+	 */
+	private int link(int x, int y, int width, int height) {
+		if (wrapped) {
+			x = Math.floorMod(x, width);
+			y = Math.floorMod(y, height);
+		} else if (x < 0 || y < 0 || x >= width || y >= height) {
+			return WALL;
+		}
+		int id = y * width + x;
+		return isObstacle(id) ? WALL : id;
+	}
+}
@@ -0,0 +1,90 @@
+package model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Utilities for writing whole numbers in as few bytes as they need. Each byte
+ * holds 7 bits of the number and the top bit says if another byte follows.
+ * Signed numbers are zig zag encoded first so small negative numbers are also
+ * short.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class Varint {
+
+	/**
+	 * No instances.
+	 */
+	private Varint() {
+	}
+
+	/**
+	 * Writes a number that is not negative.
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	public static void writeUnsigned(DataOutput out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	/**
+	 * Writes a number that might be negative.
+	 * @param out
+	 * @param value
+	 * @throws IOException
+	 */
+	public static void writeSigned(DataOutput out, long value) throws IOException {
+		writeUnsigned(out, (value << 1) ^ (value >> 63));
+	}
+
+	/**
+	 * Reads a number written by writeUnsigned().
+	 * @param in
+	 * @return long value
+	 * @throws IOException
+	 */
+	public static long readUnsigned(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("varint is too long");
+	}
+
+	/**
+	 * Reads a number written by writeSigned().
+	 * @param in
+	 * @return long value
+	 * @throws IOException
+	 */
+	public static long readSigned(DataInput in) throws IOException {
+		long raw = readUnsigned(in);
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+
+	/**
+	 * Reads a number written by writeUnsigned() that has to fit in an int.
+	 * @param in
+	 * @return int value
+	 * @throws IOException
+	 */
+	public static int readInt(DataInput in) throws IOException {
+		long value = readUnsigned(in);
+		if (value > Integer.MAX_VALUE) {
+			throw new IOException("value does not fit in an int");
+		}
+		return (int) value;
+	}
+}
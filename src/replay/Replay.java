@@ -0,0 +1,282 @@
+package replay;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import model.Grid;
+import model.LevelFile;
+import model.Topology;
+import model.Varint;
+
+/**
+ * A recorded game. It has the seed and map the game was played on, the heading
+ * changes of every player and keyframes holding the full game state every so
+ * many ticks. It is made by a ReplayRecorder and played by a ReplayPlayer.
+ * <p>
+ * The file starts with the header (magic number, version, seed, map size,
+ * board topology, player count and tick range) followed by the input list, the keyframe index
+ * and the keyframe data. All numbers other than the seed are varints. Each
+ * input is the ticks since the last input followed by the player and heading
+ * packed together so a heading change usually takes two bytes.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public final class Replay {
+	private static final int MAGIC = 0x534E4B52, VERSION = 3;
+	private final long seed, startTick, endTick;
+	private final Topology topology;
+	private final int players, keyframeInterval;
+	private final byte[] inputs, keyframeData;
+	private final long[] keyframeTicks, keyframeInputBaseTicks;
+	private final int[] keyframeOffsets, keyframeInputOffsets;
+
+	/**
+	 * Constructor used by the recorder and the reader.
+	 */
+	Replay(long seed, Topology topology, int players, int keyframeInterval, long startTick,
+			long endTick, byte[] inputs, long[] keyframeTicks, int[] keyframeOffsets,
+			int[] keyframeInputOffsets, long[] keyframeInputBaseTicks, byte[] keyframeData) {
+		if (keyframeTicks.length == 0) {
+			throw new IllegalArgumentException("a replay needs at least one keyframe");
+		}
+		this.seed = seed;
+		this.topology = topology;
+		this.players = players;
+		this.keyframeInterval = keyframeInterval;
+		this.startTick = startTick;
+		this.endTick = endTick;
+		this.inputs = inputs;
+		this.keyframeTicks = keyframeTicks;
+		this.keyframeOffsets = keyframeOffsets;
+		this.keyframeInputOffsets = keyframeInputOffsets;
+		this.keyframeInputBaseTicks = keyframeInputBaseTicks;
+		this.keyframeData = keyframeData;
+	}
+
+	/**
+	 * Reads a replay from the given file.
+	 * @param file
+	 * @return Replay
+	 * @throws IOException if the file could not be read or is not a replay.
+	 */
+	public static Replay read(Path file) throws IOException {
+		return fromBytes(Files.readAllBytes(file));
+	}
+
+	/**
+	 * Reads a replay from the bytes made by toBytes().
+	 * @param bytes
+	 * @return Replay
+	 * @throws IOException if the bytes are not a replay.
+	 */
+	public static Replay fromBytes(byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("not a replay file");
+		}
+		int version = in.readUnsignedByte();
+		if (version != VERSION) {
+			throw new IOException("unsupported replay version " + version);
+		}
+		long seed = in.readLong();
+		Grid grid = new Grid(Varint.readInt(in), Varint.readInt(in), Varint.readInt(in));
+		Topology topology = LevelFile.readCompact(grid, in);
+		int players = Varint.readInt(in);
+		int keyframeInterval = Varint.readInt(in);
+		long startTick = Varint.readUnsigned(in), endTick = Varint.readUnsigned(in);
+		byte[] inputs = new byte[Varint.readInt(in)];
+		in.readFully(inputs);
+
+		int count = Varint.readInt(in);
+		long[] ticks = new long[count], baseTicks = new long[count];
+		int[] offsets = new int[count], inputOffsets = new int[count];
+		for (int i = 0; i < count; i ++) {
+			ticks[i] = Varint.readUnsigned(in);
+			offsets[i] = Varint.readInt(in);
+			inputOffsets[i] = Varint.readInt(in);
+			baseTicks[i] = Varint.readUnsigned(in);
+		}
+		byte[] keyframeData = new byte[Varint.readInt(in)];
+		in.readFully(keyframeData);
+		return new Replay(seed, topology, players, keyframeInterval, startTick, endTick,
+				inputs, ticks, offsets, inputOffsets, baseTicks, keyframeData);
+	}
+
+	/**
+	 * Writes the replay to the given file.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void write(Path file) throws IOException {
+		Path parent = file.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		Files.write(file, toBytes());
+	}
+
+	/**
+	 * Returns the replay in its file format.
+	 * @return byte[]
+	 */
+	public byte[] toBytes() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(MAGIC);
+			out.writeByte(VERSION);
+			out.writeLong(seed);
+			Grid grid = topology.getGrid();
+			Varint.writeUnsigned(out, grid.getGridWidth());
+			Varint.writeUnsigned(out, grid.getGridHeight());
+			Varint.writeUnsigned(out, grid.getCellSize());
+			LevelFile.writeCompact(topology, out);
+			Varint.writeUnsigned(out, players);
+			Varint.writeUnsigned(out, keyframeInterval);
+			Varint.writeUnsigned(out, startTick);
+			Varint.writeUnsigned(out, endTick);
+			Varint.writeUnsigned(out, inputs.length);
+			out.write(inputs);
+			Varint.writeUnsigned(out, keyframeTicks.length);
+			for (int i = 0; i < keyframeTicks.length; i ++) {
+				Varint.writeUnsigned(out, keyframeTicks[i]);
+				Varint.writeUnsigned(out, keyframeOffsets[i]);
+				Varint.writeUnsigned(out, keyframeInputOffsets[i]);
+				Varint.writeUnsigned(out, keyframeInputBaseTicks[i]);
+			}
+			Varint.writeUnsigned(out, keyframeData.length);
+			out.write(keyframeData);
+			out.flush();
+		} catch (IOException e) {
+			throw new IllegalStateException("could not write to memory", e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the index of the last keyframe at or before the given tick.
+	 * @param tick
+	 * @return int keyframe index
+	 */
+	int findKeyframe(long tick) {
+		int low = 0, high = keyframeTicks.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (keyframeTicks[middle] <= tick) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Returns a stream over the saved state of the given keyframe.
+	 * @param keyframe
+	 * @return DataInputStream
+	 */
+	DataInputStream openKeyframe(int keyframe) {
+		int offset = keyframeOffsets[keyframe];
+		return new DataInputStream(new ByteArrayInputStream(keyframeData, offset,
+				keyframeData.length - offset));
+	}
+
+	/**
+	 * Returns the tick the given keyframe was saved at.
+	 * @param keyframe
+	 * @return long tick
+	 */
+	long getKeyframeTick(int keyframe) {
+		return keyframeTicks[keyframe];
+	}
+
+	/**
+	 * Returns where in the input list the first input after the keyframe is.
+	 * @param keyframe
+	 * @return int byte offset
+	 */
+	int getKeyframeInputOffset(int keyframe) {
+		return keyframeInputOffsets[keyframe];
+	}
+
+	/**
+	 * Returns the tick of the last input before the keyframe. The next input
+	 * is stored as the number of ticks after this one.
+	 * @param keyframe
+	 * @return long tick
+	 */
+	long getKeyframeInputBaseTick(int keyframe) {
+		return keyframeInputBaseTicks[keyframe];
+	}
+
+	/**
+	 * Returns the encoded input list. It should not be changed.
+	 * @return byte[] inputs
+	 */
+	byte[] getInputs() {
+		return inputs;
+	}
+
+	/**
+	 * Returns the seed the recorded game was made with.
+	 * @return long seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Returns the map the game was played on.
+	 * @return Grid
+	 */
+	public Grid getGrid() {
+		return topology.getGrid();
+	}
+	
+	/**
+	 * Returns the board the game was played on.
+	 * @return Topology
+	 */
+	public Topology getTopology() {
+		return topology;
+	}
+
+	/**
+	 * Returns the number of players in the recorded game.
+	 * @return int players
+	 */
+	public int getPlayerCount() {
+		return players;
+	}
+
+	/**
+	 * Returns the tick the recording started at.
+	 * @return long start tick
+	 */
+	public long getStartTick() {
+		return startTick;
+	}
+
+	/**
+	 * Returns the tick the recording ended at.
+	 * @return long end tick
+	 */
+	public long getEndTick() {
+		return endTick;
+	}
+
+	/**
+	 * Returns the number of keyframes.
+	 * @return int keyframe count
+	 */
+	public int getKeyframeCount() {
+		return keyframeTicks.length;
+	}
+}
@@ -0,0 +1,164 @@
+package replay;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import model.Direction;
+import model.GameModel;
+import model.GameRandom;
+
+/**
+ * Plays back a replay by running the recorded game again. It owns its own game
+ * model and feeds it the recorded heading changes before every tick. Playing
+ * forward just runs ticks so it goes as fast as the game logic. Seeking loads
+ * the closest keyframe at or before the target tick and runs forward from
+ * there so it never has to run more than one keyframe interval of ticks.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class ReplayPlayer {
+	private static final Direction[] DIRECTIONS = Direction.values();
+	private final Replay replay;
+	private final GameModel model;
+	private final byte[] inputs;
+	private int inputPosition;
+	private long nextInputTick;
+	private int nextInput;
+
+	/**
+	 * Constructor. Makes the game and moves it to the start of the replay.
+	 * @param replay
+	 */
+	public ReplayPlayer(Replay replay) {
+		this.replay = replay;
+		inputs = replay.getInputs();
+		model = new GameModel(replay.getTopology(), replay.getPlayerCount(), 1,
+				new GameRandom(replay.getSeed()), null);
+		loadKeyframe(0);
+	}
+
+	/**
+	 * Returns the game being played back. It should only be read.
+	 * @return GameModel
+	 */
+	public GameModel getModel() {
+		return model;
+	}
+
+	/**
+	 * Returns the replay being played.
+	 * @return Replay
+	 */
+	public Replay getReplay() {
+		return replay;
+	}
+
+	/**
+	 * Returns the current tick.
+	 * @return long tick
+	 */
+	public long getTick() {
+		return model.getTick();
+	}
+
+	/**
+	 * Returns true if the last recorded tick has been played.
+	 * @return boolean
+	 */
+	public boolean isAtEnd() {
+		return model.getTick() >= replay.getEndTick();
+	}
+
+	/**
+	 * Runs the next tick. Returns false if the replay is already at the end.
+	 * @return boolean
+	 */
+	public boolean step() {
+		if (isAtEnd()) {
+			return false;
+		}
+		long tick = model.getTick();
+		while (nextInputTick == tick && nextInput >= 0) {
+			model.changeHeading((nextInput >>> 2) + 1, DIRECTIONS[nextInput & 3]);
+			readNextInput();
+		}
+		model.nextAnimationStep();
+		return true;
+	}
+
+	/**
+	 * Moves the replay to the given tick. The tick is clamped to the recorded
+	 * range.
+	 * @param tick
+	 */
+	public void seek(long tick) {
+		long target = Math.max(replay.getStartTick(), Math.min(tick, replay.getEndTick()));
+		int keyframe = replay.findKeyframe(target);
+		long current = model.getTick();
+		if (current > target || current < replay.getKeyframeTick(keyframe)) {
+			loadKeyframe(keyframe);
+		}
+		while (model.getTick() < target) {
+			step();
+		}
+	}
+
+	/**
+	 * Plays the rest of the replay as fast as possible.
+	 * @return long number of ticks run.
+	 */
+	public long runToEnd() {
+		long start = model.getTick();
+		while (step()) {
+			// nothing else to do
+		}
+		return model.getTick() - start;
+	}
+
+	/**
+	 * Puts the game in the state saved in the given keyframe and moves the
+	 * input list to just after it.
+	 * @param keyframe
+	 */
+	private void loadKeyframe(int keyframe) {
+		try {
+			model.readState(replay.openKeyframe(keyframe));
+		} catch (IOException e) {
+			throw new UncheckedIOException("replay keyframe is broken", e);
+		}
+		inputPosition = replay.getKeyframeInputOffset(keyframe);
+		nextInputTick = replay.getKeyframeInputBaseTick(keyframe);
+		readNextInput();
+	}
+
+	/**
+	 * Decodes the next input in the list. Sets nextInput to -1 when there are
+	 * no more inputs.
+	 */
+	private void readNextInput() {
+		if (inputPosition >= inputs.length) {
+			nextInput = -1;
+			nextInputTick = Long.MAX_VALUE;
+			return;
+		}
+		nextInputTick += readVarint();
+		nextInput = (int) readVarint();
+	}
+
+	/**
+	 * Reads one varint out of the input list.
+	 * @return long value
+	 */
+	private long readVarint() {
+		long value = 0;
+		for (int shift = 0; inputPosition < inputs.length; shift += 7) {
+			int b = inputs[inputPosition ++];
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalStateException("replay inputs end in the middle of a number");
+	}
+}
@@ -0,0 +1,140 @@
+package replay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import model.Direction;
+import model.GameModel;
+import model.TickListener;
+import model.Varint;
+
+/**
+ * Records a game so it can be played again later. The recorder listens to the
+ * game model and before every tick writes down any player whose heading
+ * changed since the last tick. After every keyframeInterval ticks it also 
+ * saves the whole state of the game so a replay can jump to any tick without
+ * playing the whole game from the start. Everything is kept in memory until the
+ * recording is finished and written out.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class ReplayRecorder implements TickListener {
+	private final GameModel model;
+	private final long seed, startTick;
+	private final int keyframeInterval;
+	private final ByteArrayOutputStream inputBytes, keyframeBytes;
+	private final DataOutputStream inputs, keyframes;
+	private final Direction[] lastHeadings;
+	private long[] keyframeTicks = new long[16], keyframeInputBaseTicks = new long[16];
+	private int[] keyframeOffsets = new int[16], keyframeInputOffsets = new int[16];
+	private int keyframeCount;
+	private long lastInputTick, endTick = -1;
+
+	/**
+	 * Constructor. Starts recording the given game right away. The seed is the
+	 * seed of the game's GameRandom when it was made. It is only kept so the
+	 * replay can make a game of the right kind before the first keyframe is
+	 * loaded.
+	 * @param model
+	 * @param seed
+	 * @param keyframeInterval number of ticks between full saves of the game.
+	 */
+	public ReplayRecorder(GameModel model, long seed, int keyframeInterval) {
+		if (model == null || keyframeInterval <= 0) {
+			throw new IllegalArgumentException("invalid recorder settings");
+		}
+		this.model = model;
+		this.seed = seed;
+		this.keyframeInterval = keyframeInterval;
+		startTick = model.getTick();
+		lastInputTick = startTick;
+		inputBytes = new ByteArrayOutputStream();
+		keyframeBytes = new ByteArrayOutputStream();
+		inputs = new DataOutputStream(inputBytes);
+		keyframes = new DataOutputStream(keyframeBytes);
+		lastHeadings = new Direction[model.getPlayerCount() + 1];
+		for (int id = 1; id <= model.getPlayerCount(); id ++) {
+			lastHeadings[id] = model.getPlayer(id).getHeading();
+		}
+		writeKeyframe(startTick);
+		model.setTickListener(this);
+	}
+
+	@Override
+	public void beforeTick(GameModel model, long tick) {
+		try {
+			for (int id = 1; id < lastHeadings.length; id ++) {
+				Direction heading = model.getPlayer(id).getHeading();
+				if (heading != lastHeadings[id]) {
+					Varint.writeUnsigned(inputs, tick - lastInputTick);
+					Varint.writeUnsigned(inputs, (id - 1) << 2 | heading.ordinal());
+					lastHeadings[id] = heading;
+					lastInputTick = tick;
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void afterTick(GameModel model, long tick) {
+		if ((tick - startTick) % keyframeInterval == 0) {
+			writeKeyframe(tick);
+		}
+	}
+
+	/**
+	 * Stops recording. Ticks run after this are not part of the replay.
+	 */
+	public void finish() {
+		if (endTick < 0) {
+			endTick = model.getTick();
+			model.setTickListener(null);
+		}
+	}
+
+	/**
+	 * Returns the recording as a replay. Finishes the recording if it was not
+	 * finished yet.
+	 * @return Replay
+	 */
+	public Replay toReplay() {
+		finish();
+		return new Replay(seed, model.getTopology(), model.getPlayerCount(), keyframeInterval,
+				startTick, endTick, inputBytes.toByteArray(),
+				Arrays.copyOf(keyframeTicks, keyframeCount),
+				Arrays.copyOf(keyframeOffsets, keyframeCount),
+				Arrays.copyOf(keyframeInputOffsets, keyframeCount),
+				Arrays.copyOf(keyframeInputBaseTicks, keyframeCount),
+				keyframeBytes.toByteArray());
+	}
+
+	/**
+	 * Saves the whole game state and where the input list is right now.
+	 * @param tick
+	 */
+	private void writeKeyframe(long tick) {
+		if (keyframeCount == keyframeTicks.length) {
+			int size = keyframeCount * 2;
+			keyframeTicks = Arrays.copyOf(keyframeTicks, size);
+			keyframeInputBaseTicks = Arrays.copyOf(keyframeInputBaseTicks, size);
+			keyframeOffsets = Arrays.copyOf(keyframeOffsets, size);
+			keyframeInputOffsets = Arrays.copyOf(keyframeInputOffsets, size);
+		}
+		keyframeTicks[keyframeCount] = tick;
+		keyframeOffsets[keyframeCount] = keyframes.size();
+		keyframeInputOffsets[keyframeCount] = inputs.size();
+		keyframeInputBaseTicks[keyframeCount] = lastInputTick;
+		keyframeCount ++;
+		try {
+			model.writeState(keyframes);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,521 @@
+package tests;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+import java.util.function.LongConsumer;
+
+import bot.Autopilot;
+import bot.HamiltonianPilot;
+import bot.MonteCarloBot;
+import engine.LockstepEngine;
+import env.VectorEnv;
+import gui.PlayfieldRenderer;
+import gui.RenderBuffer;
+import gui.RenderMode;
+import gui.RenderState;
+import headless.GreedyPolicy;
+import model.AppleIndex;
+import model.Cell;
+import model.Direction;
+import model.GameModel;
+import model.GameRandom;
+import model.Grid;
+import model.Snapshot;
+import model.TickDelta;
+
+/**
+ * Small timing programs for the parts of the game that have to be fast. They
+ * are not tests and are run by hand:
+ * <pre>
+ * java tests.Benchmarks [seconds per benchmark]
+ * </pre>
+ * Each benchmark warms up first and then runs for a fixed amount of time and
+ * prints how many operations it got through per second.
+ * Copyright (c) 2021.
+ * @author Jaraad Kamal
+ *
+ */
+public class Benchmarks {
+	private static double seconds = 1;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		if (args.length > 0) {
+			seconds = Double.parseDouble(args[0]);
+		}
+		snapshots(new Grid(36, 27, 1));
+		snapshots(new Grid(500, 500, 1));
+		autopilot(new Grid(36, 27, 1), 2000);
+		autopilot(new Grid(1000, 1000, 1), 3000);
+		cycle(new Grid(36, 27, 1), false);
+		cycle(new Grid(36, 27, 1), true);
+		int cores = Runtime.getRuntime().availableProcessors();
+		vectorEnv(new Grid(36, 27, 1), 1024, 1);
+		if (cores > 1) {
+			vectorEnv(new Grid(36, 27, 1), 1024, cores);
+		}
+		for (int threads = 1; threads <= cores; threads *= 2) {
+			monteCarlo(new Grid(36, 27, 1), threads);
+		}
+		multiplayer(new Grid(36, 27, 1), 2);
+		multiplayer(new Grid(200, 200, 1), 64);
+		multiplayer(new Grid(1000, 1000, 1), 4096);
+		nearestApple(1000, 1000, 5000);
+		lockstep(new Grid(36, 27, 1), 4096);
+		models(new Grid(36, 27, 1), 4096);
+		deltas(new Grid(200, 200, 1), 64);
+		renderers(new Grid(36, 27, 25), 2, 300);
+		renderers(new Grid(200, 200, 4), 4, 8000);
+		renderers(new Grid(1000, 1000, 1), 16, 50_000);
+		playedFrames(new Grid(36, 27, 25), 2);
+		playedFrames(new Grid(200, 200, 4), 64);
+		playedFrames(new Grid(500, 500, 2), 256);
+		for (int length = 1000; length <= 100_000; length *= 10) {
+			segments(length);
+		}
+	}
+
+	/**
+	 * Times saving and restoring a snapshot and forking a game with the given
+	 * grid.
+	 * @param grid
+	 */
+	private static void snapshots(Grid grid) {
+		GameModel model = playedGame(grid, 200);
+		Snapshot snapshot = model.newSnapshot();
+		GameModel target = model.fork();
+		String size = grid.getGridWidth() + "x" + grid.getGridHeight();
+
+		run("save snapshot " + size, count -> {
+			for (long i = 0; i < count; i ++) {
+				model.saveSnapshot(snapshot);
+			}
+		});
+		run("restore snapshot " + size, count -> {
+			for (long i = 0; i < count; i ++) {
+				model.restoreSnapshot(snapshot);
+			}
+		});
+		run("fork into " + size, count -> {
+			for (long i = 0; i < count; i ++) {
+				model.forkInto(target);
+			}
+		});
+	}
+
+	/**
+	 * Lets the autopilot play a game on the given grid and prints the mean and
+	 * worst time of a decision. At 15 ticks a second the worst has to stay
+	 * well under 66 ms.
+	 * @param grid
+	 * @param ticks
+	 */
+	private static void autopilot(Grid grid, int ticks) {
+		GameModel model = new GameModel(grid, false, new GameRandom(1), null);
+		Autopilot autopilot = new Autopilot();
+		autopilot.newGame(model, 1);
+		long total = 0, worst = 0;
+		int decisions = 0;
+		for (; decisions < ticks && !model.isGameOver(); decisions ++) {
+			long start = System.nanoTime();
+			Direction heading = autopilot.chooseHeading(model, 1);
+			long elapsed = System.nanoTime() - start;
+			total += elapsed;
+			worst = Math.max(worst, elapsed);
+			model.changeHeading(1, heading);
+			model.nextAnimationStep();
+		}
+		System.out.printf("%-40s %,15.1f us mean %,12.1f us worst (length %d)%n",
+				"autopilot " + grid.getGridWidth() + "x" + grid.getGridHeight(),
+				total / 1e3 / Math.max(decisions, 1), worst / 1e3, model.getPlayer(1).getLength());
+	}
+
+	/**
+	 * Lets the Hamiltonian pilot fill the given grid and prints how many
+	 * apples it ate per tick.
+	 * @param grid
+	 * @param shortcuts
+	 */
+	private static void cycle(Grid grid, boolean shortcuts) {
+		GameModel model = new GameModel(grid, false, new GameRandom(1), null);
+		HamiltonianPilot pilot = new HamiltonianPilot();
+		pilot.setShortcuts(shortcuts);
+		pilot.newGame(model, 1);
+		int full = grid.getCellCount() - 1;
+		while (!model.isGameOver() && model.getPlayer(1).getLength() < full) {
+			model.changeHeading(1, pilot.chooseHeading(model, 1));
+			model.nextAnimationStep();
+		}
+		System.out.printf("%-40s %,15d ticks %,12.4f apples/tick (length %d)%n",
+				"cycle " + (shortcuts ? "with" : "without") + " shortcuts",
+				model.getTick(), (model.getPlayer(1).getLength() - 1) / (double) model.getTick(),
+				model.getPlayer(1).getLength());
+	}
+
+	/**
+	 * Runs Monte Carlo searches on a played game with the given number of
+	 * threads and prints the rollouts per second.
+	 * @param grid
+	 * @param threads
+	 */
+	private static void monteCarlo(Grid grid, int threads) {
+		GameModel model = playedGame(grid, 200);
+		try (MonteCarloBot bot = new MonteCarloBot(threads, 1)) {
+			long end = System.nanoTime() + (long) (seconds * 1e9);
+			while (System.nanoTime() < end) {
+				bot.search(model, 1, System.nanoTime() + 20_000_000L);
+			}
+			System.out.printf("%-40s %,15.0f rollouts/s%n", "mcts " + threads + " threads",
+					bot.getAverageRolloutsPerSecond());
+		}
+	}
+
+	/**
+	 * Steps a batch of games with random actions and prints env steps per
+	 * second.
+	 * @param grid
+	 * @param count
+	 * @param threads
+	 */
+	private static void vectorEnv(Grid grid, int count, int threads) {
+		try (VectorEnv env = new VectorEnv(grid, count, 5, 1, threads)) {
+			float[] observations = new float[count * env.getObservationSize()];
+			float[] rewards = new float[count];
+			boolean[] dones = new boolean[count];
+			int[] actions = new int[count];
+			SplittableRandom random = new SplittableRandom(1);
+			env.reset(observations);
+			run("vector env " + count + " games " + threads + " threads", steps -> {
+				for (long i = 0; i < steps; i += count) {
+					for (int j = 0; j < count; j ++) {
+						actions[j] = random.nextInt(4);
+					}
+					env.step(actions, observations, rewards, dones);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Times player moves in a game with the given number of players. Every
+	 * player is turned by the greedy policy and the game starts again when it
+	 * ends. The rate is per player moved so it stays flat if the cost of a tick
+	 * grows in line with the number of players.
+	 * @param grid
+	 * @param players
+	 */
+	private static void multiplayer(Grid grid, int players) {
+		GameModel model = new GameModel(grid, players, new GameRandom(1), null);
+		GreedyPolicy policy = new GreedyPolicy();
+		policy.newGame(model, 1);
+		run("multiplayer " + players + " players", moves -> {
+			for (long i = 0; i < moves; i += model.getLivingPlayerCount()) {
+				if (model.isGameOver()) {
+					model.reset();
+				}
+				for (int id = 1; id <= players; id ++) {
+					if (model.getPlayer(id).isAlive()) {
+						model.changeHeading(id, policy.chooseHeading(model, id));
+					}
+				}
+				model.nextAnimationStep();
+			}
+		});
+	}
+
+	/**
+	 * Times ticks of a game with many players where every tick is read back
+	 * once from the tick delta and once from the map of every used cell, the
+	 * way a renderer or broadcaster would.
+	 * @param grid
+	 * @param players
+	 */
+	private static void deltas(Grid grid, int players) {
+		GameModel model = new GameModel(grid, players, new GameRandom(1), null);
+		GreedyPolicy policy = new GreedyPolicy();
+		policy.newGame(model, 1);
+		long[] sink = new long[1];
+		for (boolean fromDelta : new boolean[] {true, false}) {
+			run((fromDelta ? "tick delta " : "tick used cells ") + players + " players", ticks -> {
+				for (long i = 0; i < ticks; i ++) {
+					if (model.isGameOver()) {
+						model.reset();
+					}
+					for (int id = 1; id <= players; id ++) {
+						if (model.getPlayer(id).isAlive()) {
+							model.changeHeading(id, policy.chooseHeading(model, id));
+						}
+					}
+					if (fromDelta) {
+						model.nextAnimationStep();
+						TickDelta delta = model.getLastDelta();
+						for (int j = 0; j < delta.size(); j ++) {
+							sink[0] += delta.getValue(j);
+						}
+					} else {
+						for (Cell cell : model.nextAnimationStep().keySet()) {
+							sink[0] += cell.getId();
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Times nearest apple queries on an apple index against looking at every
+	 * apple.
+	 * @param width
+	 * @param height
+	 * @param count
+	 */
+	private static void nearestApple(int width, int height, int count) {
+		AppleIndex index = new AppleIndex(width, height);
+		SplittableRandom random = new SplittableRandom(1);
+		while (index.size() < count) {
+			index.add(random.nextInt(width * height));
+		}
+		long[] sink = new long[1];
+		run("nearest apple of " + count + " indexed", queries -> {
+			for (long i = 0; i < queries; i ++) {
+				sink[0] += index.nearest(random.nextInt(width * height));
+			}
+		});
+		run("nearest apple of " + count + " scanned", queries -> {
+			for (long i = 0; i < queries; i ++) {
+				int from = random.nextInt(width * height), best = 0, bestDistance = Integer.MAX_VALUE;
+				for (int j = 0; j < index.size(); j ++) {
+					int apple = index.get(j);
+					int distance = Math.abs(apple % width - from % width)
+							+ Math.abs(apple / width - from / width);
+					if (distance < bestDistance) {
+						best = apple;
+						bestDistance = distance;
+					}
+				}
+				sink[0] += best;
+			}
+		});
+	}
+
+	/**
+	 * Times game ticks of the lockstep engine with the given number of games
+	 * and random headings. Finished games are started again.
+	 * @param grid
+	 * @param count
+	 */
+	private static void lockstep(Grid grid, int count) {
+		LockstepEngine engine = new LockstepEngine(grid, count);
+		SplittableRandom random = new SplittableRandom(1);
+		for (int j = 0; j < count; j ++) {
+			engine.reset(j, j);
+		}
+		run("lockstep " + count + " games", ticks -> {
+			for (long i = 0; i < ticks; i += count) {
+				for (int j = 0; j < count; j ++) {
+					if (engine.isOver(j)) {
+						engine.reset(j, random.nextLong());
+					}
+					engine.setHeading(j, random.nextInt(4));
+				}
+				engine.tick();
+			}
+		});
+	}
+
+	/**
+	 * Same as lockstep() but with one GameModel per game, to compare against.
+	 * @param grid
+	 * @param count
+	 */
+	private static void models(Grid grid, int count) {
+		Direction[] directions = Direction.values();
+		GameModel[] models = new GameModel[count];
+		SplittableRandom random = new SplittableRandom(1);
+		for (int j = 0; j < count; j ++) {
+			models[j] = new GameModel(grid, false, new GameRandom(j), null);
+		}
+		run("game models " + count + " games", ticks -> {
+			for (long i = 0; i < ticks; i += count) {
+				for (GameModel model : models) {
+					if (model.isGameOver()) {
+						model.reset();
+					}
+					model.changeHeading(1, directions[random.nextInt(4)]);
+					model.nextAnimationStep();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Times whole frames of the playfield in every render mode with the given
+	 * number of players, each a snake of the given length. The frames are
+	 * drawn into an image the size of the board, the same way they are drawn
+	 * into the back buffer of the window. Every frame is a whole frame, also
+	 * for the modes that only paint what changed.
+	 * @param grid
+	 * @param players
+	 * @param length
+	 */
+	private static void renderers(Grid grid, int players, int length) {
+		RenderBuffer buffer = new RenderBuffer();
+		buffer.publish(longSnakes(grid, players, length), 0);
+		RenderState state = buffer.acquire();
+		BufferedImage image = new BufferedImage(grid.getGridWidth() * grid.getCellSize(),
+				grid.getGridHeight() * grid.getCellSize(), BufferedImage.TYPE_INT_RGB);
+		for (RenderMode mode : RenderMode.values()) {
+			PlayfieldRenderer renderer = mode.newRenderer();
+			run("frame " + mode.name().toLowerCase() + " " + image.getWidth() + "x" + image.getHeight()
+					+ " " + players + "x" + length, frames -> {
+				for (long i = 0; i < frames; i ++) {
+					Graphics2D g = image.createGraphics();
+					g.setColor(Color.BLACK);
+					g.fillRect(0, 0, image.getWidth(), image.getHeight());
+					renderer.invalidate();
+					renderer.render(g, state, 1);
+					g.dispose();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Times a tick and a frame of a game with the given number of players in
+	 * every render mode, with every frame drawn halfway between two ticks.
+	 * The tick is the same for every mode, so the difference between the rates
+	 * is what the modes cost. The frames go to one image that is never
+	 * cleared, like a back buffer that keeps what was drawn into it.
+	 * @param grid
+	 * @param players
+	 */
+	private static void playedFrames(Grid grid, int players) {
+		BufferedImage image = new BufferedImage(grid.getGridWidth() * grid.getCellSize(),
+				grid.getGridHeight() * grid.getCellSize(), BufferedImage.TYPE_INT_RGB);
+		for (RenderMode mode : RenderMode.values()) {
+			GameModel model = new GameModel(grid, players, new GameRandom(1), null);
+			GreedyPolicy policy = new GreedyPolicy();
+			policy.newGame(model, 1);
+			RenderBuffer buffer = new RenderBuffer();
+			PlayfieldRenderer renderer = mode.newRenderer();
+			run("tick and frame " + mode.name().toLowerCase() + " " + image.getWidth() + "x"
+					+ image.getHeight() + " " + players + " players", frames -> {
+				for (long i = 0; i < frames; i ++) {
+					if (model.isGameOver()) {
+						model.reset();
+					}
+					for (int id = 1; id <= players; id ++) {
+						if (model.getPlayer(id).isAlive()) {
+							model.changeHeading(id, policy.chooseHeading(model, id));
+						}
+					}
+					model.nextAnimationStep();
+					buffer.publish(model, i);
+					Graphics2D g = image.createGraphics();
+					if (!renderer.isIncremental()) {
+						g.setColor(Color.BLACK);
+						g.fillRect(0, 0, image.getWidth(), image.getHeight());
+					}
+					renderer.render(g, buffer.acquire(), 0.5);
+					g.dispose();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Times drawing one snake of the given length square by square against
+	 * drawing it run by run. The snake winds back and forth over the rows of
+	 * a 400 by 400 grid, so it turns twice every row.
+	 * @param length
+	 */
+	private static void segments(int length) {
+		Grid grid = new Grid(400, 400, 3);
+		RenderBuffer buffer = new RenderBuffer();
+		buffer.publish(longSnakes(grid, 1, length), 0);
+		RenderState state = buffer.acquire();
+		BufferedImage image = new BufferedImage(1200, 1200, BufferedImage.TYPE_INT_RGB);
+		for (RenderMode mode : new RenderMode[] {RenderMode.SHAPES, RenderMode.SEGMENTS}) {
+			PlayfieldRenderer renderer = mode.newRenderer();
+			run("snake " + mode.name().toLowerCase() + " " + length + " cells", frames -> {
+				for (long i = 0; i < frames; i ++) {
+					Graphics2D g = image.createGraphics();
+					renderer.render(g, state, 1);
+					g.dispose();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Makes a game whose players are snakes of the given length that wind
+	 * back and forth over the rows, each in its own band of rows. The game
+	 * is only meant to be drawn, not played on.
+	 * @param grid
+	 * @param players
+	 * @param length
+	 * @return GameModel
+	 */
+	static GameModel longSnakes(Grid grid, int players, int length) {
+		GameModel model = new GameModel(grid, players, new GameRandom(1), null);
+		int width = grid.getGridWidth(), rows = grid.getGridHeight() / players;
+		if ((long) rows * width < length) {
+			throw new IllegalArgumentException("the snakes do not fit on the grid");
+		}
+		int[] body = new int[length];
+		for (int id = 1; id <= players; id ++) {
+			for (int i = 0; i < length; i ++) {
+				int row = i / width, column = i % width;
+				if (row % 2 == 1) {
+					column = width - 1 - column;
+				}
+				body[length - 1 - i] = ((id - 1) * rows + row) * width + column;
+			}
+			model.getPlayer(id).getBody().load(body, 0, length);
+		}
+		return model;
+	}
+
+	/**
+	 * Makes a one player game on the given grid and lets the greedy policy
+	 * play it for up to the given number of ticks so the snake has some length.
+	 * @param grid
+	 * @param ticks
+	 * @return GameModel
+	 */
+	static GameModel playedGame(Grid grid, int ticks) {
+		GreedyPolicy policy = new GreedyPolicy();
+		GameModel model = new GameModel(grid, false, new GameRandom(1), null);
+		policy.newGame(model, 1);
+		for (int i = 0; i < ticks && !model.isGameOver(); i ++) {
+			model.changeHeading(1, policy.chooseHeading(model, 1));
+			model.nextAnimationStep();
+		}
+		return model;
+	}
+
+	/**
+	 * Runs the body with bigger and bigger counts until one run takes the set
+	 * amount of time and then prints the rate of the last run. The first runs
+	 * also warm up the code.
+	 * @param name
+	 * @param body runs the operation the given number of times.
+	 */
+	static void run(String name, LongConsumer body) {
+		long limit = (long) (seconds * 1e9);
+		long count = 1, elapsed = 0;
+		while (true) {
+			long start = System.nanoTime();
+			body.accept(count);
+			elapsed = System.nanoTime() - start;
+			if (elapsed >= limit) {
+				break;
+			}
+			count = elapsed < limit / 16 ? count * 8 : count * limit / Math.max(elapsed, 1) * 9 / 8 + 1;
+		}
+		System.out.printf("%-40s %,15.0f ops/s %,12.1f ns/op%n", name,
+				count * 1e9 / elapsed, (double) elapsed / count);
+	}
+}
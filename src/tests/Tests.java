@@ -1,18 +1,82 @@
 package tests;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
 
+import bot.Autopilot;
+import bot.HamiltonianCycle;
+import bot.HamiltonianPilot;
+import bot.MonteCarloBot;
+import engine.LockstepEngine;
+import env.VectorEnv;
+import gui.DirtyRenderer;
+import gui.FrameScheduler;
+import gui.InputListener;
+import gui.InputQueue;
+import gui.PlayfieldRenderer;
+import gui.RasterRenderer;
+import gui.RenderBuffer;
+import gui.RenderMode;
+import gui.RenderState;
+import gui.SegmentRenderer;
+import gui.ShapeRenderer;
+import headless.BatchReport;
+import headless.BatchSimulator;
+import headless.GreedyPolicy;
+import headless.RandomPolicy;
+import model.AppleIndex;
 import model.Cell;
+import model.CellPool;
 import model.CellState;
+import model.Direction;
 import model.FileHandler;
+import model.GameEvent;
+import model.GameEventBus;
+import model.GameEventListener;
 import model.GameModel;
+import model.GameObject;
+import model.Grid;
 import model.HighScore;
+import model.KeyBindings;
+import model.LevelFile;
+import model.Occupancy;
+import model.Player;
+import model.GameRandom;
+import model.SnakeBody;
+import model.Snapshot;
+import model.TickDelta;
+import model.Topology;
+import replay.Replay;
+import replay.ReplayPlayer;
+import replay.ReplayRecorder;
 
 /**
  * Some tests that were created as the program was being written.
@@ -21,6 +85,7 @@ import model.HighScore;
  *
  */
 class Tests {
+	private static final int[] KEYS = {KeyEvent.VK_W, KeyEvent.VK_A, KeyEvent.VK_S, KeyEvent.VK_D};
 
 	@Test
 	public void test() {
@@ -94,6 +159,1587 @@ class Tests {
 //		FileHandler.writeList(list, GameModel.HIGH_SCORE_LOCATION);
 	}
 	
+	@Test
+	public void cellPoolMatchesList() {
+		int cells = 36 * 27;
+		for (long seed = 0; seed < 20; seed ++) {
+			Random random = new Random(seed);
+			CellPool pool = new CellPool(cells);
+			LinkedList<Integer> list = new LinkedList<>();
+			pool.fill();
+			for (int i = 0; i < cells; i ++) {
+				list.add(i);
+			}
+			
+			/*
+			 * Same pattern as a game tick. A head takes a free cell, a tail is
+			 * given back and sometimes an apple is moved to a random free cell.
+			 */
+			LinkedList<Integer> body = new LinkedList<>();
+			for (int tick = 0; tick < 5000; tick ++) {
+				int head = pool.getRandom(random);
+				if (head == CellPool.NONE) {
+					break;
+				}
+				assertTrue(list.contains(head));
+				assertTrue(pool.remove(head));
+				list.remove((Integer) head);
+				body.addFirst(head);
+				
+				if (random.nextInt(4) != 0 && body.size() > 1) {
+					int tail = body.pollLast();
+					assertTrue(pool.add(tail));
+					list.add(tail);
+				}
+				if (random.nextInt(8) == 0 && pool.size() != 0) {
+					int index = random.nextInt(pool.size());
+					assertTrue(list.contains(pool.get(index)));
+				}
+				
+				assertEquals(list.size(), pool.size());
+				int probe = random.nextInt(cells);
+				assertEquals(list.contains(probe), pool.contains(probe));
+			}
+			for (int id = 0; id < cells; id ++) {
+				assertEquals(list.contains(id), pool.contains(id));
+			}
+		}
+	}
+	
+	@Test
+	public void gameFreeCellsMatchList() {
+		int apples = 0;
+		for (int seed = 0; seed < 20; seed ++) {
+			GameModel.clearInstnaces();
+			GameModel model = GameModel.getInstance(360, 270, seed % 2 == 1, new Random(seed));
+			Random random = new Random(seed);
+			int width = model.getGridWidth();
+
+			/*
+			 * The free cells kept the way the old list kept them. A cell that
+			 * is taken is removed and a cell that is given back goes on the end.
+			 */
+			LinkedList<Integer> list = new LinkedList<>();
+			int[] used = usedCells(model);
+			for (int id = 0; id < used.length; id ++) {
+				if (used[id] == 0) {
+					list.add(id);
+				}
+			}
+			for (int tick = 0; tick < 3000 && !model.isGameOver(); tick ++) {
+				assertEquals(list.size(), model.getUnusedCellCount());
+				model.changeHeading(keyToApple(model, used, width, random));
+				model.nextAnimationStep();
+				int[] now = usedCells(model);
+				int apple = indexOf(now, 2), oldApple = indexOf(used, 2);
+				if (apple != oldApple) {
+					// the old apple was eaten and the new one went on a free cell
+					apples ++;
+					assertEquals(1, now[oldApple]);
+					assertTrue(list.contains(apple) || used[apple] == 1, "seed " + seed);
+				}
+				for (int id = 0; id < now.length; id ++) {
+					if (now[id] != 0 && used[id] == 0) {
+						assertTrue(list.remove((Integer) id));
+					} else if (now[id] == 0 && used[id] != 0) {
+						list.add(id);
+					}
+				}
+				for (int id : list) {
+					assertEquals(0, now[id]);
+				}
+				used = now;
+			}
+			assertEquals(list.size(), model.getUnusedCellCount());
+		}
+		assertTrue(apples > 50);
+		GameModel.clearInstnaces();
+	}
+
+	/**
+	 * Returns what is in every cell, read from the used cells map instead of
+	 * the free cell pool: 0 for nothing, 1 for a body and 2 for the apple.
+	 * @param model
+	 * @return int[] indexed by cell id.
+	 */
+	private static int[] usedCells(GameModel model) {
+		int[] used = new int[model.getGridWidth() * model.getGridHeight()];
+		for (Map.Entry<Cell, GameObject> entry : model.getUsedCells().entrySet()) {
+			used[entry.getKey().getId()] = entry.getValue().getObjectType() == CellState.BREAKABLE ? 2 : 1;
+		}
+		return used;
+	}
+
+	/**
+	 * Returns the first index holding the value, or -1.
+	 * @param values
+	 * @param value
+	 * @return int index
+	 */
+	private static int indexOf(int[] values, int value) {
+		for (int i = 0; i < values.length; i ++) {
+			if (values[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns a key that turns player 1 toward the apple onto a cell that is
+	 * not a body, or a random key now and then.
+	 * @param model
+	 * @param used what is in every cell.
+	 * @param width
+	 * @param random
+	 * @return int key code
+	 */
+	private static int keyToApple(GameModel model, int[] used, int width, Random random) {
+		int[] keys = {KeyEvent.VK_W, KeyEvent.VK_D, KeyEvent.VK_S, KeyEvent.VK_A};
+		int[] dx = {0, 1, 0, -1}, dy = {-1, 0, 1, 0};
+		if (random.nextInt(10) == 0) {
+			return keys[random.nextInt(keys.length)];
+		}
+		int head = -1;
+		for (GameObject object : model.getUsedCells().values()) {
+			if (object instanceof Player && ((Player) object).getId() == 1) {
+				head = object.getCell().getId();
+			}
+		}
+		int apple = indexOf(used, 2);
+		int best = random.nextInt(keys.length), bestDistance = Integer.MAX_VALUE;
+		for (int k = 0; k < keys.length; k ++) {
+			int x = head % width + dx[k], y = head / width + dy[k];
+			if (x < 0 || x >= width || y < 0 || y * width >= used.length || used[y * width + x] == 1) {
+				continue;
+			}
+			int distance = Math.abs(x - apple % width) + Math.abs(y - apple / width);
+			if (distance < bestDistance) {
+				best = k;
+				bestDistance = distance;
+			}
+		}
+		return keys[best];
+	}
+
+	@Test
+	public void snakeBodyMatchesDeque() {
+		Random random = new Random(7);
+		SnakeBody body = new SnakeBody(2);
+		LinkedList<Integer> deque = new LinkedList<>();
+		for (int i = 0; i < 100000; i ++) {
+			if (deque.isEmpty() || random.nextInt(3) != 0) {
+				body.addFirst(i);
+				deque.addFirst(i);
+			} else {
+				assertEquals((int) deque.pollLast(), body.removeLast());
+			}
+			assertEquals(deque.size(), body.size());
+		}
+		PrimitiveIterator.OfInt iterator = body.iterator();
+		for (int id : deque) {
+			assertEquals(id, iterator.nextInt());
+		}
+		assertEquals(deque.peekFirst(), body.getHead());
+		assertEquals(deque.peekLast(), body.getTail());
+	}
+	
+	@Test
+	public void seededGamesKeepFreeCells() {
+		for (long seed = 0; seed < 20; seed ++) {
+			Random random = new Random(seed);
+			GameModel model = new GameModel(900, 675, seed % 2 == 0, new Random(seed));
+			int total = model.getGridWidth() * model.getGridHeight();
+			for (int tick = 0; tick < 2000 && !model.isGameOver(); tick ++) {
+				model.changeHeading(KEYS[random.nextInt(KEYS.length)]);
+				model.nextAnimationStep();
+				assertEquals(total, model.getUsedCells().size() + model.getUnusedCellCount());
+				assertEquals(model.getUnusedCellCount(), model.getOccupancy().freeCount());
+			}
+		}
+	}
+	
+	@Test
+	public void seededBatchesRepeat() {
+		for (int players = 1; players <= 2; players ++) {
+			BatchSimulator simulator = new BatchSimulator(new Grid(12, 10, 1), players, GreedyPolicy::new);
+			simulator.setMaxTicks(3000);
+			BatchReport first = simulator.run(300, 7, 3);
+			BatchReport second = simulator.run(300, 7, 1);
+			assertEquals(300, first.getGames());
+			assertArrayEquals(first.getScoreCounts(), second.getScoreCounts());
+			assertEquals(first.getTicks(), second.getTicks());
+		}
+		BatchSimulator simulator = new BatchSimulator(new Grid(12, 10, 1), 1, () -> new RandomPolicy(3));
+		assertArrayEquals(simulator.run(200, 0, 2).getScoreCounts(), simulator.run(200, 0, 2).getScoreCounts());
+	}
+	
+	@Test
+	public void batchReportPercentiles() {
+		BatchReport low = new BatchReport(10), high = new BatchReport(10);
+		for (int score = 1; score <= 10; score ++) {
+			(score <= 5 ? low : high).recordGame(score, 100);
+		}
+		low.recordGame(40, 0);
+		low.merge(high);
+		assertEquals(11, low.getGames());
+		assertEquals(1000, low.getTicks());
+		assertArrayEquals(new long[] {0, 1, 1, 1, 1, 1, 1, 1, 1, 1, 2}, low.getScoreCounts());
+		assertEquals(1, low.getScorePercentile(0));
+		assertEquals(1, low.getScorePercentile(0.05));
+		assertEquals(6, low.getScorePercentile(0.5));
+		assertEquals(10, low.getScorePercentile(1.0));
+		assertEquals(65 / 11.0, low.getMeanScore(), 1e-9);
+		
+		// below 16 every value has its own bucket
+		BatchReport ticks = new BatchReport(1);
+		for (int nanos = 0; nanos < 16; nanos ++) {
+			ticks.recordTickNanos(nanos);
+		}
+		assertEquals(7, ticks.getTickNanosPercentile(0.5));
+		assertEquals(15, ticks.getTickNanosPercentile(1.0));
+		ticks.recordTickNanos(100);
+		assertEquals(103, ticks.getTickNanosPercentile(1.0));
+		
+		// above that a bucket is at most 1/16 of its value wide
+		Random random = new Random(5);
+		for (int i = 0; i < 1000; i ++) {
+			long nanos = random.nextLong() >>> (2 + random.nextInt(62));
+			BatchReport single = new BatchReport(1), merged = new BatchReport(1);
+			single.recordTickNanos(nanos);
+			merged.merge(single);
+			long top = merged.getTickNanosPercentile(1.0);
+			assertTrue(top >= nanos);
+			assertTrue(top - nanos <= nanos / 16);
+		}
+	}
+	
+	@Test
+	public void independentGamesRunSideBySide() {
+		long[] sequential = new long[64];
+		for (int i = 0; i < sequential.length; i ++) {
+			sequential[i] = playSeeded(i);
+		}
+		long[] parallel = IntStream.range(0, sequential.length).parallel()
+				.mapToLong(Tests::playSeeded).toArray();
+		for (int i = 0; i < sequential.length; i ++) {
+			assertEquals(sequential[i], parallel[i]);
+		}
+	}
+	
+	/**
+	 * Plays a game with random key presses on a board whose size depends on the
+	 * seed and returns a number made from the ending score, head and tick.
+	 * @param seed
+	 * @return long fingerprint of the game.
+	 */
+	private static long playSeeded(int seed) {
+		Random keys = new Random(seed);
+		Grid grid = new Grid(8 + seed % 13, 6 + seed % 7, 4 + seed % 20);
+		GameModel model = new GameModel(grid, false, new Random(seed), null);
+		int tick = 0;
+		for (; tick < 5000 && !model.isGameOver(); tick ++) {
+			model.changeHeading(KEYS[keys.nextInt(KEYS.length)]);
+			model.nextAnimationStep();
+		}
+		long head = model.getPlayer(1).getCell().getId();
+		return (head * 31 + model.getPlayer(1).getLength()) * 31 + tick;
+	}
+	
+	@Test
+	public void replaySeeksToRecordedState() throws Exception {
+		GreedyPolicy policy = new GreedyPolicy();
+		GameModel model = new GameModel(new Grid(20, 15, 10), false, new GameRandom(11), null);
+		policy.newGame(model, 11);
+		ReplayRecorder recorder = new ReplayRecorder(model, 11, 50);
+		LinkedList<Long> states = new LinkedList<>();
+		states.add(fingerprint(model));
+		while (!model.isGameOver() && model.getTick() < 20000) {
+			model.changeHeading(1, policy.chooseHeading(model, 1));
+			model.nextAnimationStep();
+			states.add(fingerprint(model));
+		}
+		Replay replay = Replay.fromBytes(recorder.toReplay().toBytes());
+		assertTrue(replay.getKeyframeCount() > 1);
+		
+		ReplayPlayer player = new ReplayPlayer(replay);
+		for (long state : states) {
+			assertEquals(state, fingerprint(player.getModel()));
+			player.step();
+		}
+		assertTrue(player.isAtEnd());
+		assertTrue(player.getModel().isGameOver());
+		
+		Random random = new Random(3);
+		for (int i = 0; i < 200; i ++) {
+			int tick = random.nextInt(states.size());
+			player.seek(tick);
+			assertEquals(states.get(tick), fingerprint(player.getModel()));
+		}
+	}
+	
+	@Test
+	public void snapshotRestoresAndForks() {
+		GreedyPolicy policy = new GreedyPolicy();
+		GameModel model = new GameModel(new Grid(20, 15, 10), true, new GameRandom(5), null);
+		policy.newGame(model, 5);
+		for (int i = 0; i < 30; i ++) {
+			model.changeHeading(1, policy.chooseHeading(model, 1));
+			model.changeHeading(2, policy.chooseHeading(model, 2));
+			model.nextAnimationStep();
+		}
+		Snapshot snapshot = model.newSnapshot();
+		model.saveSnapshot(snapshot);
+		GameModel fork = model.fork();
+		LinkedList<Long> states = new LinkedList<>();
+		LinkedList<Direction> headings = new LinkedList<>();
+		for (int i = 0; i < 200 && !model.isGameOver(); i ++) {
+			headings.add(policy.chooseHeading(model, 1));
+			headings.add(policy.chooseHeading(model, 2));
+			model.changeHeading(1, headings.get(2 * i));
+			model.changeHeading(2, headings.get(2 * i + 1));
+			model.nextAnimationStep();
+			states.add(fingerprint(model));
+		}
+		
+		for (GameModel copy : new GameModel[] {model, fork}) {
+			copy.restoreSnapshot(snapshot);
+			for (int i = 0; i < states.size(); i ++) {
+				copy.changeHeading(1, headings.get(2 * i));
+				copy.changeHeading(2, headings.get(2 * i + 1));
+				copy.nextAnimationStep();
+				assertEquals(states.get(i), fingerprint(copy));
+			}
+			assertEquals(copy.getUnusedCellCount(), copy.getOccupancy().freeCount());
+		}
+		assertEquals(CellState.BREAKABLE, model.getCellState(model.getApple().getCell().getId()));
+	}
+	
+	@Test
+	public void autopilotClearsBoard() {
+		for (int seed = 0; seed < 5; seed ++) {
+			GameModel model = new GameModel(new Grid(12, 10, 10), false, new GameRandom(seed), null);
+			Autopilot autopilot = new Autopilot();
+			autopilot.newGame(model, seed);
+			while (!model.isGameOver() && model.getTick() < 20000
+					&& model.getPlayer(1).getLength() < 100) {
+				model.changeHeading(1, autopilot.chooseHeading(model, 1));
+				model.nextAnimationStep();
+			}
+			int length = model.getPlayer(1).getLength();
+			assertTrue(length >= 100, "seed " + seed + " reached " + length);
+		}
+	}
+	
+	@Test
+	public void hamiltonianCycleFillsBoard() throws Exception {
+		Path directory = Files.createTempDirectory("cycles");
+		HamiltonianCycle.setCacheDirectory(directory);
+		try {
+			for (int[] size : new int[][] {{8, 6}, {6, 7}, {36, 27}, {2, 2}}) {
+				HamiltonianCycle.clearMemoryCache();
+				HamiltonianCycle cycle = HamiltonianCycle.forGrid(size[0], size[1]);
+				assertTrue(Files.exists(HamiltonianCycle.cacheFile(size[0], size[1])));
+				boolean[] seen = new boolean[cycle.size()];
+				for (int i = 0; i < cycle.size(); i ++) {
+					int id = cycle.cellAt(i), next = cycle.next(id);
+					assertTrue(!seen[id]);
+					seen[id] = true;
+					assertEquals(1, Math.abs(id % size[0] - next % size[0])
+							+ Math.abs(id / size[0] - next / size[0]));
+				}
+				HamiltonianCycle.clearMemoryCache();
+				HamiltonianCycle cached = HamiltonianCycle.forGrid(size[0], size[1]);
+				for (int i = 0; i < cycle.size(); i ++) {
+					assertEquals(cycle.cellAt(i), cached.cellAt(i));
+				}
+			}
+			assertTrue(!HamiltonianCycle.exists(5, 7));
+			
+			GameModel model = new GameModel(new Grid(8, 6, 10), false, new GameRandom(2), null);
+			HamiltonianPilot pilot = new HamiltonianPilot();
+			pilot.newGame(model, 2);
+			while (!model.isGameOver()) {
+				model.changeHeading(1, pilot.chooseHeading(model, 1));
+				model.nextAnimationStep();
+			}
+			assertEquals(48, model.getPlayer(1).getLength());
+			assertEquals(0, model.getOccupancy().freeCount());
+		} finally {
+			HamiltonianCycle.setCacheDirectory(Paths.get(HamiltonianCycle.CACHE_LOCATION));
+			HamiltonianCycle.clearMemoryCache();
+		}
+	}
+	
+	@Test
+	public void monteCarloBotPlaysBothModes() throws IOException {
+		try (MonteCarloBot bot = new MonteCarloBot(1, 4)) {
+			bot.setBudgetNanos(Long.MAX_VALUE / 4);
+			bot.setMaxRollouts(200);
+			GameModel model = new GameModel(new Grid(10, 10, 10), false, new GameRandom(4), null);
+			bot.newGame(model, 4);
+			for (int i = 0; i < 200 && !model.isGameOver(); i ++) {
+				model.changeHeading(1, bot.chooseHeading(model, 1));
+				model.nextAnimationStep();
+			}
+			assertTrue(model.getPlayer(1).getLength() >= 5);
+			assertEquals(200, bot.getLastRollouts());
+			
+			model = new GameModel(new Grid(12, 12, 10), true, new GameRandom(5), null);
+			bot.newGame(model, 5);
+			for (int i = 0; i < 100 && !model.isGameOver(); i ++) {
+				model.changeHeading(1, bot.chooseHeading(model, 1));
+				model.changeHeading(2, bot.chooseHeading(model, 2));
+				model.nextAnimationStep();
+			}
+			assertTrue(model.getTick() >= 20);
+			
+			// a seeded game is played the same way whatever came before it
+			long[] ticks = new long[2];
+			for (int run = 0; run < 2; run ++) {
+				model = new GameModel(new Grid(10, 10, 10), false, new GameRandom(4), null);
+				bot.newGame(model, 4);
+				for (int i = 0; i < 200 && !model.isGameOver(); i ++) {
+					model.changeHeading(1, bot.chooseHeading(model, 1));
+					model.nextAnimationStep();
+				}
+				ticks[run] = model.getTick() * 1000 + model.getPlayer(1).getLength();
+			}
+			assertEquals(ticks[0], ticks[1]);
+		}
+		try (MonteCarloBot bot = new MonteCarloBot(1, 7)) {
+			bot.setBudgetNanos(Long.MAX_VALUE / 4);
+			bot.setMaxRollouts(20);
+			GameModel classic = new GameModel(new Grid(36, 27, 1), false, new GameRandom(7), null);
+			GameModel pillars = new GameModel(Topology.readLevel(Paths.get("Assets/Levels/pillars.level"), 1),
+					1, 1, new GameRandom(7), null);
+			assertEquals(classic.getGrid(), pillars.getGrid());
+			for (GameModel model : new GameModel[] {classic, pillars, classic}) {
+				bot.newGame(model, 7);
+				for (int i = 0; i < 10 && !model.isGameOver(); i ++) {
+					model.changeHeading(1, bot.chooseHeading(model, 1));
+					model.nextAnimationStep();
+				}
+			}
+		}
+		try (MonteCarloBot bot = new MonteCarloBot(3, 6)) {
+			GameModel model = new GameModel(new Grid(10, 10, 10), false, new GameRandom(6), null);
+			Direction heading = bot.search(model, 1, System.nanoTime() + 2_000_000);
+			assertTrue(heading != null);
+			assertTrue(bot.getLastRollouts() >= 3 * 4);
+			assertTrue(bot.getRolloutsPerSecond() > 0);
+		}
+	}
+	
+	@Test
+	public void vectorEnvResetsInsideBatch() {
+		Grid grid = new Grid(10, 8, 10);
+		GameModel fresh = new GameModel(grid, false, new GameRandom(9), null);
+		GameModel reused = new GameModel(grid, false, new GameRandom(1), null);
+		reused.nextAnimationStep();
+		reused.getRandom().setSeed(9);
+		reused.reset();
+		assertEquals(fingerprint(fresh), fingerprint(reused));
+		assertEquals(fresh.getUnusedCellCount(), reused.getOccupancy().freeCount());
+		
+		try (VectorEnv env = new VectorEnv(grid, 16, 2, 3, 2)) {
+			int size = env.getObservationSize();
+			int[] observations = new int[16 * size];
+			int[] actions = new int[16];
+			float[] rewards = new float[16];
+			boolean[] dones = new boolean[16];
+			Random random = new Random(3);
+			env.reset(observations);
+			int finished = 0;
+			for (int step = 0; step < 2000; step ++) {
+				for (int i = 0; i < actions.length; i ++) {
+					actions[i] = random.nextInt(4);
+				}
+				env.step(actions, observations, rewards, dones);
+				for (int i = 0; i < actions.length; i ++) {
+					assertEquals(VectorEnv.BODY, observations[i * size + 12]);
+					assertEquals(env.getGame(i).getUnusedCellCount(), observations[i * size + size - 1]);
+					if (dones[i]) {
+						finished ++;
+						assertEquals(0, env.getGame(i).getTick());
+						assertTrue(rewards[i] <= 0);
+					}
+				}
+			}
+			assertTrue(finished > 16);
+		}
+	}
+	
+	@Test
+	public void playersMoveAtTheSameTime() {
+		int headOn = 0;
+		for (long seed = 0; seed < 300; seed ++) {
+			Random random = new Random(seed);
+			GameModel model = new GameModel(new Grid(6, 6, 1), 2, new GameRandom(seed), null);
+			while (!model.isGameOver()) {
+				for (int id = 1; id <= 2; id ++) {
+					model.changeHeading(id, Direction.values()[random.nextInt(4)]);
+				}
+				Player one = model.getPlayer(1), two = model.getPlayer(2);
+				int next1 = model.getNeighborId(one.getBody().getHead(), one.getHeading());
+				int next2 = model.getNeighborId(two.getBody().getHead(), two.getHeading());
+				model.nextAnimationStep();
+				if (next1 >= 0 && next1 == next2) {
+					headOn ++;
+					assertTrue(!one.isAlive() && !two.isAlive());
+					assertEquals(0, model.getWinningPlayer());
+				}
+				assertEquals(model.getUnusedCellCount(), model.getOccupancy().freeCount());
+			}
+			if (model.getLivingPlayerCount() == 1) {
+				int winner = model.getWinningPlayer();
+				assertTrue(model.getPlayer(winner).isAlive());
+				assertEquals(3 - winner, model.getLosingPlayer());
+			}
+		}
+		assertTrue(headOn > 0);
+		
+		GreedyPolicy policy = new GreedyPolicy();
+		GameModel model = new GameModel(new Grid(40, 30, 1), 64, new GameRandom(3), null);
+		policy.newGame(model, 3);
+		int cells = 40 * 30;
+		while (!model.isGameOver()) {
+			for (int id = 1; id <= 64; id ++) {
+				if (model.getPlayer(id).isAlive()) {
+					model.changeHeading(id, policy.chooseHeading(model, id));
+				}
+			}
+			model.nextAnimationStep();
+			int used = 1, living = 0;
+			for (int id = 1; id <= 64; id ++) {
+				Player player = model.getPlayer(id);
+				used += player.getBody().size();
+				living += player.isAlive() ? 1 : 0;
+				for (int i = 0; i < player.getBody().size(); i ++) {
+					assertTrue(model.getOccupancy().isPlayer(id, player.getBody().get(i)));
+				}
+			}
+			assertEquals(living, model.getLivingPlayerCount());
+			assertEquals(cells - used, model.getUnusedCellCount());
+			assertEquals(model.getUnusedCellCount(), model.getOccupancy().freeCount());
+		}
+		assertTrue(model.getLivingPlayerCount() <= 1);
+	}
+	
+	@Test
+	public void newApplesWaitForEveryMove() {
+		int eaten = 0;
+		for (long seed = 0; seed < 20; seed ++) {
+			GreedyPolicy policy = new GreedyPolicy();
+			GameModel model = new GameModel(new Grid(16, 12, 1), 12, new GameRandom(seed), null);
+			policy.newGame(model, seed);
+			Occupancy occupancy = model.getOccupancy();
+			int[] lengths = new int[13];
+			boolean[] apples = new boolean[16 * 12];
+			while (!model.isGameOver()) {
+				for (int id = 1; id <= 12; id ++) {
+					Player player = model.getPlayer(id);
+					lengths[id] = player.getLength();
+					if (player.isAlive()) {
+						model.changeHeading(id, policy.chooseHeading(model, id));
+					}
+				}
+				for (int id = 0; id < apples.length; id ++) {
+					apples[id] = occupancy.isSet(Occupancy.APPLES, id);
+				}
+				model.nextAnimationStep();
+				for (int id = 1; id <= 12; id ++) {
+					Player player = model.getPlayer(id);
+					if (player.getLength() > lengths[id]) {
+						// only an apple that was there before the tick can be eaten
+						assertTrue(apples[player.getBody().getHead()]);
+						eaten ++;
+					}
+				}
+			}
+		}
+		assertTrue(eaten > 100);
+	}
+	
+	@Test
+	public void appleIndexMatchesBruteForce() {
+		Random random = new Random(4);
+		int width = 37, height = 23;
+		AppleIndex index = new AppleIndex(width, height, 5);
+		LinkedList<Integer> list = new LinkedList<>();
+		int[] out = new int[width * height];
+		for (int step = 0; step < 20000; step ++) {
+			int id = random.nextInt(width * height);
+			if (random.nextInt(3) == 0) {
+				assertEquals(list.remove((Integer) id), index.remove(id));
+			} else {
+				assertEquals(!list.contains(id), index.add(id));
+				if (!list.contains(id)) {
+					list.add(id);
+				}
+			}
+			assertEquals(list.size(), index.size());
+			int from = random.nextInt(width * height), best = AppleIndex.NONE, bestDistance = 0;
+			for (int apple : list) {
+				int distance = Math.abs(apple % width - from % width) + Math.abs(apple / width - from / width);
+				if (best == AppleIndex.NONE || distance < bestDistance
+						|| (distance == bestDistance && apple < best)) {
+					best = apple;
+					bestDistance = distance;
+				}
+			}
+			assertEquals(best, index.nearest(from));
+			
+			int left = random.nextInt(width), top = random.nextInt(height);
+			int right = left + random.nextInt(12), bottom = top + random.nextInt(12);
+			int count = index.query(left, top, right, bottom, out);
+			long inside = list.stream().filter(apple -> apple % width >= left && apple % width <= right
+					&& apple / width >= top && apple / width <= bottom).count();
+			assertEquals(inside, count);
+			for (int i = 0; i < count; i ++) {
+				assertTrue(list.contains(out[i]));
+			}
+		}
+		AppleIndex copy = new AppleIndex(width, height, 5);
+		copy.add(3);
+		copy.copyFrom(index);
+		for (int i = 0; i < index.size(); i ++) {
+			assertEquals(index.get(i), copy.get(i));
+		}
+		assertEquals(index.nearest(100), copy.nearest(100));
+	}
+	
+	@Test
+	public void manyApplesFillTheBoard() throws IOException {
+		GameModel model = new GameModel(new Grid(40, 30, 1), 1, 500, new GameRandom(6), null);
+		assertEquals(500, model.getApples().size());
+		Autopilot autopilot = new Autopilot();
+		for (int i = 0; i < 300 && !model.isGameOver(); i ++) {
+			model.changeHeading(1, autopilot.chooseHeading(model, 1));
+			model.nextAnimationStep();
+			assertEquals(500, model.getApples().size());
+			assertEquals(500, model.getOccupancy().count(Occupancy.APPLES));
+		}
+		assertTrue(model.getPlayer(1).getLength() > 100);
+		
+		model = new GameModel(new Grid(4, 4, 1), 1, 100, new GameRandom(6), null);
+		assertEquals(15, model.getApples().size());
+		HamiltonianCycle.setCacheDirectory(Files.createTempDirectory("cycles"));
+		try {
+			HamiltonianPilot pilot = new HamiltonianPilot();
+			while (!model.isGameOver()) {
+				model.changeHeading(1, pilot.chooseHeading(model, 1));
+				model.nextAnimationStep();
+			}
+		} finally {
+			HamiltonianCycle.setCacheDirectory(Paths.get(HamiltonianCycle.CACHE_LOCATION));
+			HamiltonianCycle.clearMemoryCache();
+		}
+		assertEquals(16, model.getPlayer(1).getLength());
+		assertEquals(0, model.getApples().size());
+		assertEquals(0, model.getUnusedCellCount());
+	}
+	
+	@Test
+	public void keyBindingsTurnTheirPlayer() {
+		GameModel model = new GameModel(new Grid(20, 15, 10), 4, new GameRandom(2), null);
+		KeyBindings keys = model.getKeyBindings();
+		for (int key : new int[] {KeyEvent.VK_W, KeyEvent.VK_UP, KeyEvent.VK_I, KeyEvent.VK_NUMPAD8}) {
+			assertTrue(model.changeHeading(key));
+			assertEquals(Direction.NORTH, model.getPlayer(keys.playerFor(key)).getHeading());
+			assertTrue(!model.changeHeading(key));
+		}
+		assertTrue(!model.changeHeading(KeyEvent.VK_Q));
+		model.nextAnimationStep();
+		keys.bind(KeyEvent.VK_Q, 3, Direction.EAST);
+		assertTrue(model.changeHeading(KeyEvent.VK_Q));
+		assertEquals(Direction.EAST, model.getPlayer(3).getHeading());
+	}
+	
+	@Test
+	public void quickTurnsAreQueued() {
+		GameModel model = new GameModel(new Grid(20, 15, 1), 1, 1, new GameRandom(3), null);
+		Player player = model.getPlayer(1);
+		model.changeHeading(1, Direction.EAST);
+		model.nextAnimationStep();
+		assertTrue(model.changeHeading(KeyEvent.VK_W));
+		assertTrue(model.changeHeading(KeyEvent.VK_D));
+		assertTrue(!model.changeHeading(KeyEvent.VK_D));
+		assertTrue(!model.changeHeading(KeyEvent.VK_A));
+		assertTrue(model.changeHeading(KeyEvent.VK_S));
+		assertTrue(model.changeHeading(KeyEvent.VK_A));
+		assertTrue(!model.changeHeading(KeyEvent.VK_W));
+		assertEquals(Direction.NORTH, player.getHeading());
+		Direction[] expected = {Direction.EAST, Direction.SOUTH, Direction.WEST, Direction.WEST};
+		for (Direction heading : expected) {
+			model.nextAnimationStep();
+			assertEquals(heading, player.getHeading());
+		}
+		assertTrue(model.changeHeading(KeyEvent.VK_W));
+		assertTrue(model.changeHeading(KeyEvent.VK_D));
+		model.reset();
+		Direction start = model.getPlayer(1).getHeading();
+		model.nextAnimationStep();
+		assertEquals(start, model.getPlayer(1).getHeading());
+	}
+
+	@Test
+	public void inputQueueKeepsOrderAcrossThreads() throws InterruptedException {
+		InputQueue queue = new InputQueue(64);
+		int writers = 4, each = 20000;
+		Thread[] threads = new Thread[writers];
+		for (int w = 0; w < writers; w ++) {
+			int writer = w;
+			threads[w] = new Thread(() -> {
+				for (int i = 0; i < each; i ++) {
+					boolean added = i % 2 == 0 ? queue.offerKey(writer * each + i)
+							: queue.offerClick(writer, i);
+					while (!added) {
+						// let the reader run instead of spinning on a full queue
+						Thread.yield();
+						added = i % 2 == 0 ? queue.offerKey(writer * each + i)
+								: queue.offerClick(writer, i);
+					}
+				}
+			});
+			threads[w].start();
+		}
+		int[] next = new int[writers];
+		InputListener listener = new InputListener() {
+			@Override
+			public void keyPressed(int keyCode, long when) {
+				int writer = keyCode / each;
+				assertEquals(next[writer] ++, keyCode % each);
+			}
+
+			@Override
+			public void mousePressed(int x, int y, long when) {
+				assertEquals(next[x] ++, y);
+			}
+		};
+		queue.setReader(Thread.currentThread());
+		int total = 0;
+		while (total < writers * each) {
+			int drained = queue.drain(listener);
+			if (drained == 0) {
+				LockSupport.parkNanos(1_000_000);
+			}
+			total += drained;
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, queue.drain(listener));
+		assertTrue(queue.isEmpty());
+		for (int count : next) {
+			assertEquals(each, count);
+		}
+	}
+
+	@Test
+	public void frameSchedulerCapsCatchUp() {
+		long second = 1_000_000_000L;
+		FrameScheduler scheduler = new FrameScheduler(10, 50, 3, 0);
+		assertEquals(0, scheduler.ticksDue(second / 20));
+		assertEquals(1, scheduler.ticksDue(second / 10));
+		assertEquals(3, scheduler.ticksDue(second + second / 10));
+		assertEquals(7, scheduler.getDroppedTicks());
+		assertEquals(0, scheduler.ticksDue(second + second / 10 + 1));
+
+		assertTrue(scheduler.frameDue(0));
+		assertTrue(!scheduler.frameDue(second / 100));
+		assertTrue(scheduler.frameDue(second / 50));
+		assertTrue(scheduler.frameDue(second / 50 * 4 + second / 200 * 3));
+		assertEquals(2, scheduler.getDroppedFrames());
+		assertEquals(1, scheduler.getLateFrames());
+		assertEquals(3, scheduler.getFrames());
+		assertEquals(second / 10, scheduler.nextFrameDeadline());
+
+		scheduler.setIdle(true, 2 * second);
+		assertEquals(0, scheduler.ticksDue(10 * second));
+		assertEquals(second / 5, scheduler.getFramePeriod());
+		scheduler.setIdle(false, 10 * second);
+		assertEquals(0, scheduler.ticksDue(10 * second));
+		assertEquals(1, scheduler.ticksDue(10 * second + second / 10));
+		assertEquals(7, scheduler.getDroppedTicks());
+
+		long start = System.nanoTime();
+		scheduler = new FrameScheduler(1000, 1000, 1, start);
+		scheduler.frameDue(start);
+		assertTrue(FrameScheduler.await(scheduler.nextFrameDeadline(), null));
+		assertTrue(System.nanoTime() - start >= 1_000_000);
+		assertTrue(!FrameScheduler.await(scheduler.nextFrameDeadline(), () -> true));
+	}
+
+	@Test
+	public void renderStatesFollowTheirTick() {
+		GameModel model = new GameModel(new Grid(30, 20, 10), 3, 4, new GameRandom(21), null);
+		Autopilot autopilot = new Autopilot();
+		RenderBuffer buffer = new RenderBuffer();
+		assertTrue(!buffer.acquire().isFilled());
+		buffer.publish(model, 0);
+		RenderState before = buffer.acquire();
+		assertTrue(before.isFilled());
+		assertTrue(!before.isMoving());
+		int[] heads = new int[4];
+		for (int tick = 0; tick < 200 && !model.isGameOver(); tick ++) {
+			for (int id = 1; id <= 3; id ++) {
+				heads[id] = before.getHead(id);
+				if (model.getPlayer(id).isAlive()) {
+					model.changeHeading(id, autopilot.chooseHeading(model, id));
+				}
+			}
+			model.nextAnimationStep();
+			buffer.publish(model, tick);
+			RenderState state = buffer.acquire();
+			assertTrue(state != before);
+			assertTrue(state.isMoving());
+			assertEquals(tick, state.getTime());
+			assertEquals(model.getTick(), state.getTick());
+			for (int id = 1; id <= 3; id ++) {
+				SnakeBody body = model.getPlayer(id).getBody();
+				assertEquals(body.size(), state.getLength(id));
+				for (int i = 0; i < body.size(); i ++) {
+					assertEquals(body.get(i), state.getCell(id, i));
+				}
+				assertEquals(heads[id], state.getPreviousHead(id));
+				assertEquals(model.getPlayer(id).getColor().getRGB(), state.getColor(id));
+				if (state.isAlive(id)) {
+					if (state.getLength(id) > 1) {
+						assertEquals(heads[id], state.getCell(id, 1));
+					}
+					assertEquals(1, model.getTopology().distance(heads[id], state.getHead(id)));
+				}
+			}
+			assertEquals(model.getApples().size(), state.getAppleCount());
+			assertTrue(buffer.acquire() == state);
+			before = state;
+		}
+		buffer.restart();
+		buffer.publish(new GameModel(new Grid(30, 20, 10), 2, 4, new GameRandom(21), null), 0);
+		assertTrue(!buffer.acquire().isMoving());
+		assertEquals(2, buffer.acquire().getPlayerCount());
+	}
+
+	@Test
+	public void renderBufferHandsWholeStatesAcrossThreads() throws InterruptedException {
+		GameModel model = new GameModel(new Grid(40, 30, 1), 2, 8, new GameRandom(5), null);
+		Topology topology = model.getTopology();
+		RenderBuffer buffer = new RenderBuffer();
+		AtomicBoolean done = new AtomicBoolean();
+		Thread ticker = new Thread(() -> {
+			Autopilot autopilot = new Autopilot();
+			for (int tick = 0; tick < 20_000; tick ++) {
+				if (model.isGameOver()) {
+					model.reset();
+					buffer.restart();
+				}
+				for (int id = 1; id <= 2; id ++) {
+					if (model.getPlayer(id).isAlive()) {
+						model.changeHeading(id, autopilot.chooseHeading(model, id));
+					}
+				}
+				model.nextAnimationStep();
+				buffer.publish(model, model.getTick());
+			}
+			done.set(true);
+		});
+		ticker.start();
+		int seen = 0;
+		while (!done.get() || seen == 0) {
+			RenderState state = buffer.acquire();
+			if (!state.isFilled()) {
+				continue;
+			}
+			seen ++;
+			assertEquals(state.getTick(), state.getTime());
+			for (int id = 1; id <= 2; id ++) {
+				for (int i = 1; i < state.getLength(id); i ++) {
+					assertEquals(1, topology.distance(state.getCell(id, i - 1), state.getCell(id, i)));
+				}
+				if (state.isMoving() && state.isAlive(id)) {
+					assertEquals(1, topology.distance(state.getPreviousHead(id), state.getHead(id)));
+				}
+			}
+		}
+		ticker.join();
+		assertTrue(seen > 0);
+	}
+
+	@Test
+	public void rendererModesDrawTheSamePixels() {
+		Grid grid = new Grid(24, 18, 7);
+		int[] obstacles = {30, 31, 32, 200, 224, 248};
+		GameModel model = new GameModel(new Topology(grid, true, obstacles), 3, 5, new GameRandom(9), null);
+		Autopilot autopilot = new Autopilot();
+		RenderBuffer buffer = new RenderBuffer();
+		RenderMode[] modes = {RenderMode.SHAPES, RenderMode.RASTER, RenderMode.DIRTY};
+		PlayfieldRenderer[] renderers = new PlayfieldRenderer[modes.length];
+		BufferedImage[] images = new BufferedImage[modes.length];
+		for (int i = 0; i < modes.length; i ++) {
+			renderers[i] = modes[i].newRenderer();
+			images[i] = new BufferedImage(24 * 7, 18 * 7, BufferedImage.TYPE_INT_RGB);
+		}
+		buffer.publish(model, 0);
+		for (int tick = 0; tick < 150 && !model.isGameOver(); tick ++) {
+			for (int id = 1; id <= 3; id ++) {
+				if (model.getPlayer(id).isAlive()) {
+					model.changeHeading(id, autopilot.chooseHeading(model, id));
+				}
+			}
+			model.nextAnimationStep();
+			buffer.publish(model, tick);
+			RenderState state = buffer.acquire();
+			for (double alpha : new double[] {0.3, 0.7, 1}) {
+				int[] expected = null;
+				for (int i = 0; i < renderers.length; i ++) {
+					Graphics2D g = images[i].createGraphics();
+					if (!renderers[i].isIncremental()) {
+						g.setColor(Color.BLACK);
+						g.fillRect(0, 0, images[i].getWidth(), images[i].getHeight());
+					}
+					renderers[i].render(g, state, alpha);
+					g.dispose();
+					int[] pixels = images[i].getRGB(0, 0, images[i].getWidth(), images[i].getHeight(), null,
+							0, images[i].getWidth());
+					if (expected == null) {
+						expected = pixels;
+					} else {
+						assertTrue(Arrays.equals(expected, pixels), "tick " + tick + " alpha " + alpha);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void dirtyRendererPaintsWhatFullFramesPaint() {
+		Grid grid = new Grid(24, 18, 6);
+		int[] obstacles = {30, 31, 32, 200, 224, 248};
+		GameModel model = new GameModel(new Topology(grid, true, obstacles), 4, 3, new GameRandom(13), null);
+		Autopilot autopilot = new Autopilot();
+		Random random = new Random(8);
+		RenderBuffer buffer = new RenderBuffer();
+		RasterRenderer full = new RasterRenderer();
+		DirtyRenderer dirty = new DirtyRenderer(2, 0);
+		BufferedImage fullScreen = new BufferedImage(24 * 6, 18 * 6, BufferedImage.TYPE_INT_RGB);
+		BufferedImage dirtyScreen = new BufferedImage(24 * 6, 18 * 6, BufferedImage.TYPE_INT_RGB);
+		double[] alphas = {0.2, 0.5, 0.8, 1};
+		buffer.publish(model, 0);
+		int resets = 0;
+		long painted = 0;
+		for (int frame = 0; frame < 3000; frame ++) {
+			int ticks = random.nextInt(4);
+			for (int i = 0; i < ticks; i ++) {
+				if (model.isGameOver()) {
+					model.reset();
+					resets ++;
+				}
+				for (int id = 1; id <= 4; id ++) {
+					if (model.getPlayer(id).isAlive()) {
+						model.changeHeading(id, autopilot.chooseHeading(model, id));
+					}
+				}
+				model.nextAnimationStep();
+				buffer.publish(model, frame);
+			}
+			if (random.nextInt(200) == 0) {
+				dirty.invalidate();
+			}
+			RenderState state = buffer.acquire();
+			if (state.getChangeStart(painted) >= 0 && state.getSerial() != painted) {
+				assertTrue(state.isMoving());
+			}
+			painted = state.getSerial();
+			double alpha = alphas[random.nextInt(alphas.length)];
+			Graphics2D g = fullScreen.createGraphics();
+			full.render(g, state, alpha);
+			g.dispose();
+			g = dirtyScreen.createGraphics();
+			dirty.render(g, state, alpha);
+			g.dispose();
+			int[] expected = fullScreen.getRGB(0, 0, 24 * 6, 18 * 6, null, 0, 24 * 6);
+			assertTrue(Arrays.equals(expected, dirty.getImage().getRGB(0, 0, 24 * 6, 18 * 6, null, 0, 24 * 6)),
+					"painted frame " + frame);
+			assertTrue(Arrays.equals(expected, dirtyScreen.getRGB(0, 0, 24 * 6, 18 * 6, null, 0, 24 * 6)),
+					"presented frame " + frame);
+		}
+		assertTrue(resets > 0);
+	}
+
+	@Test
+	public void segmentsJoinStraightRuns() {
+		Grid grid = new Grid(20, 12, 6);
+		GameModel model = new GameModel(grid, 1, 1, new GameRandom(3), null);
+		int[] body = new int[50];
+		for (int i = 0; i < body.length; i ++) {
+			int row = i / 20, column = row % 2 == 0 ? i % 20 : 19 - i % 20;
+			body[body.length - 1 - i] = row * 20 + column;
+		}
+		model.getPlayer(1).getBody().load(body, 0, body.length);
+		RenderBuffer buffer = new RenderBuffer();
+		buffer.publish(model, 0);
+		RenderState state = buffer.acquire();
+		int[] calls = new int[2];
+		BufferedImage[] images = new BufferedImage[2];
+		PlayfieldRenderer[] renderers = {new ShapeRenderer() {
+			@Override
+			protected void fillRect(int x, int y, int width, int height) {
+				calls[0] ++;
+				super.fillRect(x, y, width, height);
+			}
+		}, new SegmentRenderer() {
+			@Override
+			protected void fillRect(int x, int y, int width, int height) {
+				calls[1] ++;
+				super.fillRect(x, y, width, height);
+			}
+		}};
+		for (int i = 0; i < 2; i ++) {
+			images[i] = new BufferedImage(20 * 6, 12 * 6, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = images[i].createGraphics();
+			renderers[i].render(g, state, 1);
+			g.dispose();
+		}
+		// the rows of 20, 20 and 10 cells join up, the apple is one more
+		assertEquals(51, calls[0]);
+		assertEquals(4, calls[1]);
+		int color = state.getColor(1) | 0xff000000, joined = 0;
+		for (int y = 0; y < 12 * 6; y ++) {
+			for (int x = 0; x < 20 * 6; x ++) {
+				int shape = images[0].getRGB(x, y), segment = images[1].getRGB(x, y);
+				if (shape == color) {
+					assertEquals(color, segment);
+				} else if (segment == color) {
+					joined ++;
+					assertTrue(x % 6 == 0 || x % 6 == 5 || y % 6 == 0 || y % 6 == 5);
+				}
+			}
+		}
+		// two pixels between each pair of joined squares, as high as a square
+		assertEquals(2 * 4 * (19 + 19 + 9), joined);
+	}
+
+	@Test
+	public void tickDeltasRebuildTheBoard() throws IOException {
+		GameModel model = new GameModel(new Grid(20, 15, 1), 3, 6, new GameRandom(11), null);
+		Occupancy occupancy = model.getOccupancy();
+		Autopilot autopilot = new Autopilot();
+		Random random = new Random(4);
+		TickDelta received = new TickDelta();
+		int[] board = new int[300];
+		for (int game = 0; game < 5; game ++) {
+			if (game > 0) {
+				model.reset();
+			}
+			assertTrue(model.getLastDelta().isFull());
+			for (int id = 0; id < board.length; id ++) {
+				board[id] = occupancy.isSet(Occupancy.APPLES, id) ? -1
+						: occupancy.isOccupied(id) ? occupancy.ownerAt(id) : 0;
+			}
+			while (!model.isGameOver()) {
+				for (int id = 1; id <= 3; id ++) {
+					if (model.getPlayer(id).isAlive()) {
+						Direction heading = id == 1 ? autopilot.chooseHeading(model, 1)
+								: Direction.values()[random.nextInt(4)];
+						model.changeHeading(id, heading == null ? Direction.NORTH : heading);
+					}
+				}
+				int living = model.getLivingPlayerCount();
+				model.nextAnimationStep();
+				
+				// send it over the wire first, as a broadcaster would
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				model.getLastDelta().write(new DataOutputStream(bytes));
+				received.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+				assertTrue(!received.isFull());
+				assertEquals(model.getTick(), received.getTick());
+				int died = 0;
+				for (int i = 0; i < received.size(); i ++) {
+					int cell = received.getValue(i);
+					switch (received.getType(i)) {
+					case TickDelta.VACATED -> board[cell] = 0;
+					case TickDelta.OCCUPIED -> board[cell] = received.getOwner(i);
+					case TickDelta.APPLE_ADDED -> board[cell] = -1;
+					case TickDelta.APPLE_EATEN -> assertEquals(-1, board[cell]);
+					default -> died ++;
+					}
+				}
+				assertEquals(living - model.getLivingPlayerCount(), died);
+				for (int id = 0; id < board.length; id ++) {
+					int expected = occupancy.isSet(Occupancy.APPLES, id) ? -1
+							: occupancy.isOccupied(id) ? occupancy.ownerAt(id) : 0;
+					assertEquals(expected, board[id]);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void steadyTicksDoNotAllocate() {
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		GameRandom random = new GameRandom(19);
+		GameModel model = new GameModel(new Topology(new Grid(36, 27, 1), false, new int[0]), 2, 3,
+				random, null);
+		GameEventBus bus = new GameEventBus(256);
+		GameEventBus.Subscription subscription = bus.subscribe();
+		model.setEventBus(bus);
+		GreedyPolicy policy = new GreedyPolicy();
+		long[] events = new long[1];
+		GameEventListener listener = (event, sequence) -> events[0] ++;
+		
+		// the key presses Handler.tick() drains from the input queue first
+		InputQueue queue = new InputQueue(64);
+		long[] keys = new long[1];
+		InputListener input = new InputListener() {
+			@Override
+			public void keyPressed(int keyCode, long when) {
+				keys[0] ++;
+			}
+			
+			@Override
+			public void mousePressed(int x, int y, long when) {
+			}
+		};
+		// and the render state it publishes last, taken here as the render thread would
+		RenderBuffer buffer = new RenderBuffer();
+
+		/*
+		 * The same ticks are played again and again. The first time grows every
+		 * array to the size the games need, every time after that is measured
+		 * and should not allocate anything. When the JIT swaps out code in the
+		 * middle of a round it can put a few objects it had taken apart back on
+		 * the heap, so the test passes on the first round that allocated
+		 * nothing. Anything the ticks allocate shows up in every round.
+		 */
+		long overhead = threads.getCurrentThreadAllocatedBytes();
+		overhead = threads.getCurrentThreadAllocatedBytes() - overhead;
+		long allocated = Long.MAX_VALUE;
+		int rounds = 0;
+		for (; rounds < 6 && allocated - overhead > 0; rounds ++) {
+			random.setSeed(19);
+			model.reset();
+			policy.newGame(model, 19);
+			long start = threads.getCurrentThreadAllocatedBytes();
+			for (int tick = 0; tick < 100000; tick ++) {
+				if (tick % 8 == 0) {
+					queue.offerKey(KeyEvent.VK_SPACE);
+				}
+				queue.drain(input);
+				for (int id = 1; id <= 2; id ++) {
+					Direction heading = policy.chooseHeading(model, id);
+					if (heading != null) {
+						model.changeHeading(id, heading);
+					}
+				}
+				model.nextAnimationStep();
+				subscription.poll(listener);
+				buffer.publish(model, tick);
+				buffer.acquire();
+				if (model.isGameOver()) {
+					model.reset();
+					buffer.restart();
+				}
+			}
+			allocated = rounds == 0 ? Long.MAX_VALUE : threads.getCurrentThreadAllocatedBytes() - start;
+		}
+		assertTrue(events[0] > 200000);
+		assertEquals(rounds * 100000 / 8, keys[0]);
+		assertTrue(allocated - overhead <= 0);
+	}
+
+	@Test
+	public void eventBusCarriesEveryEvent() throws InterruptedException, IOException {
+		GameModel model = new GameModel(new Grid(20, 15, 1), 3, 4, new GameRandom(5), null);
+		GameEventBus bus = new GameEventBus(16);
+		model.setEventBus(bus);
+		GameEventBus.Subscription subscription = bus.subscribe();
+		Random random = new Random(3);
+		int[] moves = new int[1], overs = new int[1];
+		while (!model.isGameOver()) {
+			for (int id = 1; id <= 3; id ++) {
+				model.changeHeading(id, Direction.values()[random.nextInt(4)]);
+			}
+			moves[0] = 0;
+			model.nextAnimationStep();
+			subscription.poll((event, sequence) -> {
+				assertEquals(model.getTick(), event.getTick());
+				Player player = event.getPlayerId() == 0 ? null : model.getPlayer(event.getPlayerId());
+				switch (event.getType()) {
+				case GameEvent.MOVE -> {
+					moves[0] ++;
+					assertEquals(player.getBody().getHead(), event.getCell());
+				}
+				case GameEvent.GROW -> assertEquals(player.getLength(), event.getValue());
+				case GameEvent.DEATH -> assertTrue(!player.isAlive());
+				case GameEvent.GAME_OVER -> {
+					overs[0] ++;
+					assertEquals(model.getWinningPlayer(), event.getValue());
+				}
+				default -> { }
+				}
+			});
+			if (!model.isGameOver()) {
+				assertEquals(model.getLivingPlayerCount(), moves[0]);
+			}
+		}
+		assertEquals(1, overs[0]);
+		
+		// two readers on their own threads and a ring far smaller than the game
+		GameModel solo = new GameModel(new Grid(12, 10, 1), false, new GameRandom(9), null);
+		GameEventBus small = new GameEventBus(8);
+		solo.setEventBus(small);
+		long[][] seen = new long[2][3];
+		Thread[] readers = new Thread[2];
+		for (int r = 0; r < 2; r ++) {
+			GameEventBus.Subscription reader = small.subscribe();
+			long[] counts = seen[r];
+			counts[2] = -1;
+			readers[r] = new Thread(() -> {
+				while (counts[1] == 0) {
+					reader.await((event, sequence) -> {
+						assertEquals(counts[2] + 1, sequence);
+						counts[2] = sequence;
+						counts[0] += event.getType() == GameEvent.MOVE ? 1 : 0;
+						counts[1] += event.getType() == GameEvent.GAME_OVER ? 1 : 0;
+					}, 1_000_000_000L);
+				}
+			});
+			readers[r].start();
+		}
+		long ticks = 0;
+		HamiltonianCycle.setCacheDirectory(Files.createTempDirectory("cycles"));
+		try {
+			HamiltonianPilot pilot = new HamiltonianPilot();
+			while (!solo.isGameOver()) {
+				solo.changeHeading(1, pilot.chooseHeading(solo, 1));
+				solo.nextAnimationStep();
+				ticks ++;
+			}
+		} finally {
+			HamiltonianCycle.setCacheDirectory(Paths.get(HamiltonianCycle.CACHE_LOCATION));
+			HamiltonianCycle.clearMemoryCache();
+		}
+		for (int r = 0; r < 2; r ++) {
+			readers[r].join(10_000);
+			assertEquals(ticks, seen[r][0]);
+			assertEquals(1, seen[r][1]);
+			assertEquals(small.getCursor(), seen[r][2]);
+		}
+	}
+	
+	@Test
+	public void hamiltonianPilotPlaysLevelsWithObstacles() throws IOException {
+		HamiltonianCycle.setCacheDirectory(Files.createTempDirectory("cycles"));
+		try {
+			for (String level : new String[] {"pillars.level", "cross.level"}) {
+				Topology topology = Topology.readLevel(Paths.get("Assets/Levels", level), 1);
+				int total = 0;
+				for (int seed = 1; seed <= 3; seed ++) {
+					GameModel model = new GameModel(topology, 1, 1, new GameRandom(seed), null);
+					HamiltonianPilot pilot = new HamiltonianPilot();
+					pilot.newGame(model, seed);
+					for (int i = 0; i < 3000 && !model.isGameOver(); i ++) {
+						model.changeHeading(1, pilot.chooseHeading(model, 1));
+						model.nextAnimationStep();
+					}
+					total += model.getPlayer(1).getLength();
+				}
+				assertTrue(total / 3 >= 50, level);
+			}
+		} finally {
+			HamiltonianCycle.setCacheDirectory(Paths.get(HamiltonianCycle.CACHE_LOCATION));
+			HamiltonianCycle.clearMemoryCache();
+		}
+	}
+
+	@Test
+	public void autopilotFindsShortestPathsOnOddTorus() throws IOException {
+		Topology cross = Topology.readLevel(Paths.get("Assets/Levels/cross.level"), 1);
+		for (Topology topology : new Topology[] {cross, Topology.torus(new Grid(7, 5, 1))}) {
+			GameModel model = new GameModel(topology, 1, 1, new GameRandom(1), null);
+			Autopilot autopilot = new Autopilot();
+			int cells = model.getGridWidth() * model.getGridHeight();
+			int[] moves = new int[cells], queue = new int[cells];
+			for (int start = 0; start < cells; start += 11) {
+				if (model.getCellState(start) == CellState.UNBREAKABLE) {
+					continue;
+				}
+				Arrays.fill(moves, -1);
+				moves[start] = 0;
+				int head = 0, tail = 0;
+				queue[tail ++] = start;
+				while (head < tail) {
+					int id = queue[head ++];
+					for (Direction direction : Direction.values()) {
+						int n = topology.neighbor(id, direction);
+						if (n >= 0 && moves[n] < 0 && model.getCellState(n) != CellState.UNBREAKABLE) {
+							moves[n] = moves[id] + 1;
+							queue[tail ++] = n;
+						}
+					}
+				}
+				for (int goal = 0; goal < cells; goal ++) {
+					if (goal != start) {
+						assertEquals(moves[goal], autopilot.findPathLength(model, start, goal),
+								start + " to " + goal);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void appleIndexFindsNearestAcrossTheEdge() {
+		Random random = new Random(9);
+		Topology torus = Topology.torus(new Grid(37, 23, 1));
+		AppleIndex index = new AppleIndex(37, 23, 5);
+		LinkedList<Integer> list = new LinkedList<>();
+		for (int step = 0; step < 5000; step ++) {
+			int id = random.nextInt(37 * 23);
+			if (random.nextInt(3) == 0) {
+				index.remove(id);
+				list.remove((Integer) id);
+			} else if (index.add(id)) {
+				list.add(id);
+			}
+			int from = random.nextInt(37 * 23), best = AppleIndex.NONE, bestDistance = 0;
+			for (int apple : list) {
+				int distance = torus.distance(from, apple);
+				if (best == AppleIndex.NONE || distance < bestDistance
+						|| (distance == bestDistance && apple < best)) {
+					best = apple;
+					bestDistance = distance;
+				}
+			}
+			assertEquals(best, index.nearest(from, true));
+		}
+	}
+
+	@Test
+	public void topologiesJoinCellsTheirWay() throws IOException {
+		Grid grid = new Grid(7, 5, 1);
+		Topology walled = Topology.walled(grid), torus = Topology.torus(grid);
+		for (int id = 0; id < grid.getCellCount(); id ++) {
+			int x = id % 7, y = id / 7;
+			assertEquals(y > 0 ? id - 7 : Topology.WALL, walled.neighbor(id, Direction.NORTH));
+			assertEquals(x < 6 ? id + 1 : Topology.WALL, walled.neighbor(id, Direction.EAST));
+			assertEquals(y < 4 ? id + 7 : Topology.WALL, walled.neighbor(id, Direction.SOUTH));
+			assertEquals(x > 0 ? id - 1 : Topology.WALL, walled.neighbor(id, Direction.WEST));
+			assertEquals((y + 4) % 5 * 7 + x, torus.neighbor(id, Direction.NORTH));
+			assertEquals(y * 7 + (x + 1) % 7, torus.neighbor(id, Direction.EAST));
+		}
+		assertEquals(2, torus.distance(0, 6 + 7));
+		assertEquals(7, walled.distance(0, 6 + 7));
+		
+		// a player on a torus comes back in on the other side
+		GameModel model = new GameModel(torus, 1, 1, new GameRandom(3), null);
+		Player player = model.getPlayer(1);
+		int start = player.getBody().getHead();
+		model.changeHeading(1, Direction.WEST);
+		for (int i = 0; i < 7; i ++) {
+			model.nextAnimationStep();
+		}
+		assertTrue(!model.isGameOver());
+		assertEquals(start, player.getBody().getHead());
+		
+		Topology level = Topology.parseLevel(List.of("; room", "", "......", "..##..",
+				"..##..", "......"), 10);
+		assertEquals(new Grid(6, 4, 10), level.getGrid());
+		assertTrue(!level.isWrapped());
+		assertEquals(4, level.getObstacleCount());
+		assertTrue(level.isObstacle(8) && level.isObstacle(15));
+		assertEquals(Topology.WALL, level.neighbor(7, Direction.EAST));
+		assertEquals(level, Topology.parseLevel(List.of("......", "..##..", "..##..", "......"), 10));
+		try {
+			Topology.parseLevel(List.of("torus", "....", "..x."), 1);
+			assertTrue(false);
+		} catch (IOException e) {
+			// expected
+		}
+		
+		// obstacles are never handed out and always block
+		Topology pillars = Topology.readLevel(Paths.get("Assets/Levels/pillars.level"), 1);
+		for (int seed = 0; seed < 20; seed ++) {
+			model = new GameModel(pillars, 2, 5, new GameRandom(seed), null);
+			Random random = new Random(seed);
+			while (!model.isGameOver()) {
+				for (int id = 1; id <= 2; id ++) {
+					model.changeHeading(id, Direction.values()[random.nextInt(4)]);
+				}
+				model.nextAnimationStep();
+				for (int id = pillars.nextObstacle(0); id >= 0; id = pillars.nextObstacle(id + 1)) {
+					assertTrue(model.getOccupancy().isSet(Occupancy.WALLS, id));
+					assertTrue(!model.getOccupancy().isSet(Occupancy.PLAYERS, id));
+					assertTrue(!model.getOccupancy().isSet(Occupancy.APPLES, id));
+				}
+			}
+			assertEquals(36 * 27 - pillars.getObstacleCount(), model.getUnusedCellCount()
+					+ model.getOccupancy().count(Occupancy.APPLES)
+					+ model.getOccupancy().count(Occupancy.PLAYERS));
+		}
+		try {
+			new GameModel(new Grid(36, 27, 1), 2, 5, new GameRandom(0), null)
+					.saveSnapshot(model.newSnapshot());
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void levelFilesMapAndRoundTrip() throws Exception {
+		Grid grid = new Grid(300, 200, 1);
+		Random random = new Random(18);
+		int[] obstacles = random.ints(5000, 0, grid.getCellCount()).distinct().sorted().toArray();
+		Topology level = new Topology(grid, true, obstacles, new int[] {0, 0, 9, 9, 290, 190, 299, 199});
+		Path directory = Files.createTempDirectory("levels");
+		Path file = directory.resolve("random" + LevelFile.BINARY_EXTENSION);
+		LevelFile.write(level, file);
+		assertEquals(16 + 2 * 16 + (300 * 200 + 63) / 64 * 8, Files.size(file));
+		Topology mapped = LevelFile.map(file, 1);
+		assertEquals(level, mapped);
+		assertEquals(obstacles.length, mapped.getObstacleCount());
+		int index = 0;
+		for (int id = mapped.nextObstacle(0); id >= 0; id = mapped.nextObstacle(id + 1)) {
+			assertEquals(obstacles[index ++], id);
+		}
+		assertEquals(obstacles.length, index);
+		for (int id = 0; id < grid.getCellCount(); id ++) {
+			assertEquals(level.isObstacle(id), mapped.isObstacle(id));
+			for (int direction = 0; direction < 4; direction ++) {
+				assertEquals(level.neighbor(id, direction), mapped.neighbor(id, direction));
+			}
+		}
+		assertEquals(List.of(file), LevelFile.list(directory));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		LevelFile.writeCompact(mapped, new DataOutputStream(bytes));
+		assertEquals(level, LevelFile.readCompact(grid,
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+		bytes.reset();
+		LevelFile.writeCompact(Topology.walled(grid), new DataOutputStream(bytes));
+		assertTrue(Topology.walled(grid) == LevelFile.readCompact(grid,
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))));
+
+		Files.write(file, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+		try {
+			LevelFile.map(file, 1);
+			assertTrue(false);
+		} catch (IOException e) {
+			// expected
+		}
+
+		// every player starts in its own spawn region
+		Topology arena = LevelFile.load(Paths.get("Assets/Levels/arena.lvl"), 1);
+		assertEquals(new Grid(512, 384, 1), arena.getGrid());
+		assertEquals(4, arena.getSpawnRegionCount());
+		int[] regions = arena.getSpawnRegions();
+		for (int seed = 0; seed < 5; seed ++) {
+			GameModel model = new GameModel(arena, 4, 3, new GameRandom(seed), null);
+			for (int id = 1; id <= 4; id ++) {
+				int head = model.getPlayer(id).getBody().getHead(), region = (id - 1) * 4;
+				int column = head % 512, row = head / 512;
+				assertTrue(column >= regions[region] && row >= regions[region + 1]
+						&& column <= regions[region + 2] && row <= regions[region + 3]);
+				assertTrue(!arena.isObstacle(head));
+			}
+		}
+
+		// replays keep the level they were played on
+		Topology pillars = LevelFile.load(Paths.get("Assets/Levels/pillars.level"), 1);
+		GameModel model = new GameModel(pillars, 2, 5, new GameRandom(4), null);
+		ReplayRecorder recorder = new ReplayRecorder(model, 4, 50);
+		for (int tick = 0; tick < 30 && !model.isGameOver(); tick ++) {
+			model.nextAnimationStep();
+		}
+		Replay replay = Replay.fromBytes(recorder.toReplay().toBytes());
+		assertEquals(pillars, replay.getTopology());
+		ReplayPlayer player = new ReplayPlayer(replay);
+		player.seek(replay.getEndTick());
+		assertEquals(fingerprint(model), fingerprint(player.getModel()));
+	}
+
+	@Test
+	public void bigLevelsStayOffTheHeap() throws Exception {
+		Grid grid = new Grid(2048, 2048, 1);
+		int cells = grid.getCellCount();
+		Path file = Files.createTempDirectory("levels").resolve("big" + LevelFile.BINARY_EXTENSION);
+		LevelFile.write(new Topology(grid, true, new int[] {1, 2048, cells - 1}), file);
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long before = threads.getCurrentThreadAllocatedBytes();
+		Topology big = LevelFile.map(file, 1);
+		GameModel model = new GameModel(big, 1, 1, new GameRandom(2), null);
+		long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+
+		// no neighbor table or Cell for every cell, a table alone is 16 bytes a cell
+		assertTrue(bytes < 16L * cells, bytes / cells + " bytes a cell");
+		assertEquals(Topology.WALL, big.neighbor(0, Direction.EAST));
+		assertEquals(2047, big.neighbor(0, Direction.WEST));
+		assertEquals(cells - 2048, big.neighbor(0, Direction.NORTH));
+		assertEquals(Topology.WALL, big.neighbor(cells - 2, Direction.EAST));
+		assertEquals(4097, big.neighbor(2049, Direction.SOUTH));
+		int start = model.getPlayer(1).getBody().getHead();
+		for (int tick = 0; tick < 100 && !model.isGameOver(); tick ++) {
+			model.nextAnimationStep();
+		}
+		assertEquals(model.getPlayer(1).getBody().getHead(), model.getPlayer(1).getCell().getId());
+		assertTrue(model.isGameOver() || model.getPlayer(1).getBody().getHead() != start);
+	}
+
+	@Test
+	public void lockstepEngineMatchesGameModel() {
+		for (Grid grid : new Grid[] {new Grid(9, 7, 1), new Grid(12, 10, 10)}) {
+			int games = 40;
+			LockstepEngine engine = new LockstepEngine(grid, games);
+			GameModel[] models = new GameModel[games];
+			for (int i = 0; i < games; i ++) {
+				engine.reset(i, 100 + i);
+				models[i] = new GameModel(grid, false, new GameRandom(100 + i), null);
+			}
+			Random random = new Random(8);
+			GreedyPolicy policy = new GreedyPolicy();
+			policy.newGame(models[0], 8);
+			for (int step = 0; step < 400 && engine.getRunningCount() > 0; step ++) {
+				for (int i = 0; i < games; i ++) {
+					if (!models[i].isGameOver()) {
+						Direction heading = i % 2 == 0 ? policy.chooseHeading(models[i], 1)
+								: Direction.values()[random.nextInt(4)];
+						heading = heading == null ? Direction.NORTH : heading;
+						models[i].changeHeading(1, heading);
+						engine.setHeading(i, heading.ordinal());
+						models[i].nextAnimationStep();
+					}
+				}
+				engine.tick();
+				for (int i = 0; i < games; i ++) {
+					Player player = models[i].getPlayer(1);
+					assertEquals(models[i].isGameOver(), engine.isOver(i));
+					assertEquals(models[i].getTick(), engine.getTick(i));
+					assertEquals(player.getBody().getHead(), engine.getHead(i));
+					assertEquals(player.getLength(), engine.getLength(i));
+					assertEquals(models[i].getApple().getCell().getId(), engine.getApple(i));
+					assertEquals(models[i].getUnusedCellCount(), engine.getFreeCount(i));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns a number made from the tick, player and apple of a game.
+	 * @param model
+	 * @return long fingerprint.
+	 */
+	private static long fingerprint(GameModel model) {
+		long head = model.getPlayer(1).getCell().getId();
+		long state = head * 31 + model.getPlayer(1).getLength();
+		state = state * 31 + model.getApple().getCell().getId();
+		state = state * 31 + model.getPlayer(1).getHeading().ordinal();
+		return state * 31 + model.getTick();
+	}
+	
 	private static void printList(Iterable<?> list) {
 		for (Object obj : list) {
 			System.out.println(obj);